@@ -0,0 +1,154 @@
+package data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import data.InventoryContract.InventoryEntry;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures how many catalog queries per second {@link InventoryConnectionPool} serves with one
+ * reading thread and with one per core, while a writer keeps updating items. This needs a real
+ * device: the SQLite used by unit tests runs every connection on a single thread.
+ *
+ * The results are logged under the "ReadScaling" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryReadScalingBenchmark {
+
+    private static final String LOG_TAG = "ReadScaling";
+    private static final String DATABASE_NAME = "read_scaling_benchmark.db";
+    private static final int ITEMS = 5000;
+    private static final long RUN_MILLIS = 2000;
+
+    private Context mContext;
+    private InventoryConnectionPool mPool;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mPool = new InventoryConnectionPool(new InventoryDbHelper(mContext, DATABASE_NAME),
+                InventoryConnectionPool.defaultReaderCount());
+
+        SQLiteDatabase writer = mPool.beginWrite();
+        try {
+            Random random = new Random(1);
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < ITEMS; i++) {
+                values.put(InventoryEntry.COLUMN_PRODUCT_NAME, "Item " + i);
+                values.put(InventoryEntry.COLUMN_PRICE, random.nextInt(100000));
+                values.put(InventoryEntry.COLUMN_QUANTITY, random.nextInt(500));
+                values.put(InventoryEntry.COLUMN_SUPPLIER, "Supplier " + (i % 50));
+                values.put(InventoryEntry.COLUMN_SUPPLIER_NUMBER, "555" + i);
+                writer.insert(InventoryEntry.TABLE_NAME, null, values);
+            }
+            writer.setTransactionSuccessful();
+        } finally {
+            writer.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mPool.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void readThroughput_growsWithThreads_whileWriting() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        assumeTrue("Needs more than one core", cores > 1);
+
+        double single = measure(1);
+        double parallel = measure(cores);
+        Log.i(LOG_TAG, "1 thread: " + (long) single + " queries/s, " + cores + " threads: "
+                + (long) parallel + " queries/s, " + mPool.getStats());
+
+        assertTrue("Expected more queries per second with " + cores + " threads than with one, got "
+                + (long) parallel + " vs " + (long) single, parallel > single * 1.2);
+    }
+
+    /**
+     * Run the given number of reading threads next to one writing thread for a while.
+     * Return the number of queries per second the readers completed together.
+     */
+    private double measure(int threads) throws InterruptedException {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong queries = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(threads + 1);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(2);
+                while (running.get()) {
+                    SQLiteDatabase writer = mPool.beginWrite();
+                    try {
+                        writer.execSQL("UPDATE " + InventoryEntry.TABLE_NAME + " SET "
+                                        + InventoryEntry.COLUMN_QUANTITY + " = ? WHERE " + InventoryEntry._ID + " = ?",
+                                new Object[]{random.nextInt(500), 1 + random.nextInt(ITEMS)});
+                        writer.setTransactionSuccessful();
+                    } finally {
+                        writer.endTransaction();
+                    }
+                }
+                done.countDown();
+            }
+        }, "BenchmarkWriter").start();
+
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    while (running.get()) {
+                        SQLiteDatabase reader = mPool.acquireReader();
+                        try {
+                            // A search like the catalog runs it: a filter that scans the table
+                            Cursor cursor = reader.query(InventoryEntry.TABLE_NAME, CatalogSnapshot.COLUMNS,
+                                    InventoryEntry.COLUMN_SUPPLIER + " = ? AND " + InventoryEntry.COLUMN_QUANTITY + " > ?",
+                                    new String[]{"Supplier " + random.nextInt(50), String.valueOf(random.nextInt(250))},
+                                    null, null, InventoryEntry.COLUMN_PRODUCT_NAME);
+                            try {
+                                cursor.getCount();
+                            } finally {
+                                cursor.close();
+                            }
+                        } finally {
+                            mPool.releaseReader(reader);
+                        }
+                        queries.incrementAndGet();
+                    }
+                    done.countDown();
+                }
+            }, "BenchmarkReader" + t).start();
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        Thread.sleep(RUN_MILLIS);
+        running.set(false);
+        done.await();
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        return queries.get() * 1000.0 / elapsed;
+    }
+}
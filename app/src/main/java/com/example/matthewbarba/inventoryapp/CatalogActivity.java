@@ -1,39 +1,129 @@
 package com.example.matthewbarba.inventoryapp;
 
+import android.app.AlertDialog;
 import android.app.LoaderManager;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.CursorLoader;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.Snackbar;
+import android.text.InputType;
+import android.util.Log;
+import android.view.ActionMode;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
+import android.widget.EditText;
+import android.widget.LinearLayout;
 import android.widget.ListView;
 import android.widget.Toast;
 
+import java.util.List;
+
+import data.CatalogColumns;
+import data.CatalogSections;
+import data.CatalogSnapshot;
+import data.InventoryContract;
 import data.InventoryContract.InventoryEntry;
+import data.InventoryObservable;
+import data.Item;
+import data.Money;
+import data.SaleQueue;
+import data.StartupTrace;
+import data.SupplierDetailsLockedException;
 
 public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
+    private static final String LOG_TAG = CatalogActivity.class.getSimpleName();
+
     /**
-     * Identifier for the item data loader
+     * Identifier for the loader of the section counts
      */
-    private static final int ITEM_LOADER = 0;
+    private static final int SECTIONS_LOADER = 2;
 
     /**
      * Adapter for the ListView
      */
-    InventoryCursorAdapter mCursorAdapter;
+    InventoryItemAdapter mItemAdapter;
+
+    /**
+     * List of the items, also holds the items selected for a bulk change
+     */
+    private ListView mItemListView;
+
+    /**
+     * Subscription to the catalog, cancelled when the activity is destroyed
+     */
+    private InventoryObservable.Subscription mItemsSubscription;
+
+    /**
+     * Shows queued sales in the list as soon as they are made
+     */
+    private final SaleQueue.Listener mSaleListener = new SaleQueue.Listener() {
+        @Override
+        public void onQueueChanged() {
+            mItemAdapter.notifyDataSetChanged();
+        }
+    };
+
+    /**
+     * Offers the bulk changes while items are selected. Each change is a single call to the
+     * provider however many items are selected.
+     */
+    private final AbsListView.MultiChoiceModeListener mSelectionListener = new AbsListView.MultiChoiceModeListener() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.menu_catalog_selection, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public void onItemCheckedStateChanged(ActionMode mode, int position, long id, boolean checked) {
+            int selected = mItemListView.getCheckedItemCount();
+            mode.setTitle(getResources().getQuantityString(R.plurals.catalog_selected, selected, selected));
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            long[] ids = mItemListView.getCheckedItemIds();
+            switch (item.getItemId()) {
+                case R.id.action_change_price:
+                    showChangePriceDialog(ids, mode);
+                    return true;
+                case R.id.action_restock:
+                    showRestockDialog(ids, mode);
+                    return true;
+                case R.id.action_delete_selected:
+                    deleteItems(ids);
+                    mode.finish();
+                    return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            // The list clears the selection itself
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace.begin("CatalogActivity.onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_catalog);
 
@@ -49,33 +139,37 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
         // Find the ListView which will be populated with the item data
         ListView itemListView = findViewById(R.id.list);
+        mItemListView = itemListView;
 
         // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
         View emptyView = findViewById(R.id.empty_view);
         itemListView.setEmptyView(emptyView);
 
-        // Setup an Adapter to create a list item for each row of item data in the Cursor.
-        // There is no inventory data yet (until the loader finishes) so pass in null for the Cursor.
-        mCursorAdapter = new InventoryCursorAdapter(this, null);
-        itemListView.setAdapter(mCursorAdapter);
+        // Setup an Adapter to create a list item for each item.
+        // There is no inventory data yet (until the first query finishes).
+        mItemAdapter = new InventoryItemAdapter(this);
+        itemListView.setAdapter(mItemAdapter);
+        // Cancel photo loads of rows that scrolled off screen
+        itemListView.setRecyclerListener(mItemAdapter);
+        // A long press selects items for a bulk change
+        itemListView.setMultiChoiceModeListener(mSelectionListener);
+
+        // Until the query delivers the real items, show the first items saved last time
+        List<Item> snapshot = CatalogSnapshot.read(this);
+        if (snapshot != null) {
+            mItemAdapter.setCatalog(CatalogColumns.fromItems(snapshot));
+            StartupTrace.firstRow("snapshot");
+        }
 
         // Setup the item click listener
         itemListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
 
-                // Create new intent to go to {@link EditorActivity}
-                Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
-
-                // Form the content URI that represents the specific item that was clicked on,
-                // by appending the "id" (passed as input to this method) onto the
-                // {@link InventoryEntry#CONTENT_URI}.
-                // For example, the URI would be "content://com.example.matthewbarba.inventoryapp/inventoryapp/2"
-                // if the item with ID 2 was clicked on.
-                Uri currentItemUri = ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id);
-
-                // Set the URI on the data field of the intent
-                intent.setData(currentItemUri);
+                // Create new intent to go to {@link EditorActivity}, with the values of the item
+                // the catalog already has, so the editor can show them without waiting for a query
+                Intent intent = EditorActivity.newEditIntent(CatalogActivity.this, mItemAdapter.getCatalog(),
+                        position);
 
                 // Launch the {@link EditorActivity} to display the data for the current item.
                 startActivity(intent);
@@ -83,9 +177,48 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
         });
 
-        // Kick off the loader
-        getLoaderManager().initLoader(ITEM_LOADER, null, this);
+        // Watch the catalog. After the first read, a sale or edit only reads the items it
+        // changed, and a new catalog only arrives when an item actually changed. The items
+        // are sorted by name, in the order of the sections.
+        mItemsSubscription = InventoryObservable.catalog(getContentResolver(), InventoryEntry.SORT_BY_NAME)
+                .subscribe(InventoryObservable.mainThread(), new InventoryObservable.Observer<CatalogColumns>() {
+                    @Override
+                    public void onChanged(CatalogColumns catalog) {
+                        showCatalog(catalog);
+                    }
+                });
 
+        SaleQueue.get(this).addListener(mSaleListener);
+
+        // Kick off the section loader
+        getLoaderManager().initLoader(SECTIONS_LOADER, null, this);
+
+        StartupTrace.end();
+    }
+
+    @Override
+    protected void onDestroy() {
+        mItemsSubscription.cancel();
+        SaleQueue.get(this).removeListener(mSaleListener);
+        super.onDestroy();
+    }
+
+    /**
+     * Show the latest catalog and its stock value, replacing the snapshot if it is still shown.
+     */
+    private void showCatalog(CatalogColumns catalog) {
+        // The query failed, keep showing what is there
+        if (catalog == null) {
+            return;
+        }
+        mItemAdapter.setCatalog(catalog);
+        if (catalog.size() != 0) {
+            StartupTrace.firstRow("database");
+        }
+        showStockValue(catalog);
+
+        // Save the first items to show them right away on the next start
+        CatalogSnapshot.write(this, catalog.toItems(0, Math.min(catalog.size(), CatalogSnapshot.FIRST_PAGE_SIZE)));
     }
 
     /**
@@ -96,7 +229,7 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // and Dummy's item attributes are the values.
         ContentValues values = new ContentValues();
         values.put(InventoryEntry.COLUMN_PRODUCT_NAME, "Dummy");
-        values.put(InventoryEntry.COLUMN_PRICE, 234);
+        values.put(InventoryEntry.COLUMN_PRICE, 23400);
         values.put(InventoryEntry.COLUMN_QUANTITY, 10000);
         values.put(InventoryEntry.COLUMN_SUPPLIER, "Orchards...lol");
         values.put(InventoryEntry.COLUMN_SUPPLIER_NUMBER, "5622222222");
@@ -105,16 +238,333 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Use the {@link InventoryEntry#CONTENT_URI} to indicate that we want to insert
         // into the inventory database table.
         // Receive the new content URI that will allow us to access dummy data in the future.
-        Uri newUri = getContentResolver().insert(InventoryEntry.CONTENT_URI, values);
+        try {
+            Uri newUri = getContentResolver().insert(InventoryEntry.CONTENT_URI, values);
+        } catch (SupplierDetailsLockedException e) {
+            Toast.makeText(this, R.string.editor_supplier_details_locked, Toast.LENGTH_SHORT).show();
+        }
     }
 
 
     /**
-     * Helper method to delete all items in the database.
+     * Helper method to delete all items in the database. The items can be brought back from
+     * the snackbar for a few seconds.
      */
     private void deleteAllItems() {
-        int rowsDeleted = getContentResolver().delete(InventoryEntry.CONTENT_URI, null, null);
-        Toast.makeText(this, rowsDeleted + " rows deleted from inventory database", Toast.LENGTH_LONG).show();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final int rowsDeleted = getContentResolver().delete(InventoryEntry.CONTENT_URI, null, null);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isFinishing()) {
+                            showUndoDelete(rowsDeleted);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Delete the items with the given IDs in the background, in one statement.
+     */
+    private void deleteItems(final long[] ids) {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final int rowsDeleted = getContentResolver().delete(InventoryEntry.CONTENT_URI,
+                        InventoryEntry.buildIdSelection(ids), null);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isFinishing()) {
+                            showUndoDelete(rowsDeleted);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Ask by how many percent to change the prices of the given items, then change them.
+     */
+    private void showChangePriceDialog(final long[] ids, final ActionMode mode) {
+        final EditText percent = new EditText(this);
+        percent.setInputType(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_SIGNED
+                | InputType.TYPE_NUMBER_FLAG_DECIMAL);
+        percent.setHint(R.string.bulk_price_hint);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.bulk_price_title)
+                .setView(percent)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Bundle extras = new Bundle();
+                        extras.putLongArray(InventoryContract.EXTRA_ITEM_IDS, ids);
+                        try {
+                            extras.putDouble(InventoryContract.EXTRA_PERCENT,
+                                    Double.parseDouble(percent.getText().toString().trim()));
+                        } catch (NumberFormatException e) {
+                            return;
+                        }
+                        changeItems(InventoryContract.METHOD_ADJUST_PRICES, extras, R.plurals.catalog_items_repriced);
+                        mode.finish();
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Ask how many units to add to each of the given items, then add them.
+     */
+    private void showRestockDialog(final long[] ids, final ActionMode mode) {
+        final EditText units = new EditText(this);
+        units.setInputType(InputType.TYPE_CLASS_NUMBER);
+        units.setHint(R.string.bulk_restock_hint);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.bulk_restock_title)
+                .setView(units)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Bundle extras = new Bundle();
+                        extras.putLongArray(InventoryContract.EXTRA_ITEM_IDS, ids);
+                        try {
+                            extras.putInt(InventoryContract.EXTRA_UNITS,
+                                    Integer.parseInt(units.getText().toString().trim()));
+                        } catch (NumberFormatException e) {
+                            return;
+                        }
+                        changeItems(InventoryContract.METHOD_RESTOCK, extras, R.plurals.catalog_items_restocked);
+                        mode.finish();
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Run a bulk change in the background and tell the user how many items it changed.
+     *
+     * @param message plural of the message with the number of changed items
+     */
+    private void changeItems(final String method, final Bundle extras, final int message) {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                int rows = 0;
+                String error = null;
+                try {
+                    Bundle result = getContentResolver().call(InventoryEntry.CONTENT_URI, method, null, extras);
+                    rows = result == null ? 0 : result.getInt(InventoryContract.EXTRA_ROWS);
+                } catch (RuntimeException e) {
+                    // Refused changes and database failures alike, this thread must not crash
+                    Log.w(LOG_TAG, "Could not " + method + " the items", e);
+                    error = e.getMessage() != null ? e.getMessage() : e.toString();
+                }
+
+                final int changed = rows;
+                final String failure = error;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        if (failure != null) {
+                            Toast.makeText(CatalogActivity.this, getString(R.string.bulk_change_failed, failure),
+                                    Toast.LENGTH_LONG).show();
+                            return;
+                        }
+                        Snackbar.make(findViewById(R.id.list),
+                                getResources().getQuantityString(message, changed, changed),
+                                Snackbar.LENGTH_LONG).show();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Tell the user how many items were deleted and offer to bring them back.
+     */
+    private void showUndoDelete(int rowsDeleted) {
+        if (rowsDeleted == 0) {
+            return;
+        }
+        String message = getResources().getQuantityString(R.plurals.catalog_items_deleted, rowsDeleted, rowsDeleted);
+        Snackbar.make(findViewById(R.id.list), message, (int) InventoryContract.UNDO_WINDOW_MILLIS)
+                .setAction(R.string.catalog_undo, new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                getContentResolver().call(InventoryEntry.CONTENT_URI,
+                                        InventoryContract.METHOD_UNDO_DELETE, null, null);
+                            }
+                        });
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Find out in the background whether a passphrase for the supplier details was set, then
+     * ask for it, or for a new one.
+     */
+    private void showPassphraseDialog() {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bundle state = getContentResolver().call(InventoryEntry.CONTENT_URI,
+                        InventoryContract.METHOD_ENCRYPTION_STATE, null, null);
+                final boolean passphraseSet = state != null
+                        && state.getBoolean(InventoryContract.EXTRA_PASSPHRASE_SET);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        if (passphraseSet) {
+                            showUnlockDialog();
+                        } else {
+                            showSetPassphraseDialog();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Ask for the passphrase of the supplier details, then unlock them in the
+     * background. Deriving the key takes a moment on purpose.
+     */
+    private void showUnlockDialog() {
+        final EditText passphrase = newPassphraseField(R.string.unlock_hint);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.unlock_title)
+                .setView(passphrase)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        unlock(passphrase.getText().toString(), null);
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Ask for a new passphrase twice, then encrypt the supplier details with it in the
+     * background. A typo would lock the details away for good, so they must match.
+     */
+    private void showSetPassphraseDialog() {
+        final EditText passphrase = newPassphraseField(R.string.set_passphrase_hint);
+        final EditText confirmation = newPassphraseField(R.string.set_passphrase_confirm_hint);
+        LinearLayout fields = new LinearLayout(this);
+        fields.setOrientation(LinearLayout.VERTICAL);
+        fields.addView(passphrase);
+        fields.addView(confirmation);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.set_passphrase_title)
+                .setMessage(R.string.set_passphrase_message)
+                .setView(fields)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String first = passphrase.getText().toString();
+                        if (!first.equals(confirmation.getText().toString())) {
+                            Snackbar.make(findViewById(R.id.list), R.string.set_passphrase_mismatch,
+                                    Snackbar.LENGTH_LONG).show();
+                            return;
+                        }
+                        unlock(first, confirmation.getText().toString());
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    private EditText newPassphraseField(int hint) {
+        EditText field = new EditText(this);
+        field.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PASSWORD);
+        field.setHint(hint);
+        return field;
+    }
+
+    /**
+     * Unlock the supplier details in the background. With a confirmation, the passphrase
+     * is set first and the details are encrypted.
+     */
+    private void unlock(final String passphrase, final String confirmation) {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                String result;
+                try {
+                    if (confirmation == null) {
+                        getContentResolver().call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_UNLOCK,
+                                passphrase, null);
+                    } else {
+                        Bundle extras = new Bundle();
+                        extras.putString(InventoryContract.EXTRA_PASSPHRASE_CONFIRMATION, confirmation);
+                        getContentResolver().call(InventoryEntry.CONTENT_URI,
+                                InventoryContract.METHOD_SET_PASSPHRASE, passphrase, extras);
+                    }
+                    result = getString(R.string.unlock_done);
+                } catch (IllegalArgumentException e) {
+                    // Setting one is only refused if another one was set meanwhile
+                    result = confirmation == null ? getString(R.string.unlock_wrong_passphrase)
+                            : getString(R.string.unlock_failed, e.getMessage());
+                } catch (RuntimeException e) {
+                    // E.g. encrypting the stored details failed
+                    Log.w(LOG_TAG, "Could not unlock the supplier details", e);
+                    result = getString(R.string.unlock_failed, e.getMessage());
+                }
+
+                final String message = result;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isFinishing()) {
+                            Snackbar.make(findViewById(R.id.list), message, Snackbar.LENGTH_LONG).show();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Create purchase orders for the items that are expected to run out, in the background.
+     */
+    private void orderLowStock() {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bundle result = getContentResolver().call(InventoryContract.OrderEntry.CONTENT_URI,
+                        InventoryContract.METHOD_CREATE_ORDERS, null, null);
+                final int orders = result == null ? 0 : result.getInt(InventoryContract.EXTRA_ROWS);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        String message = orders == 0 ? getString(R.string.catalog_nothing_to_order)
+                                : getResources().getQuantityString(R.plurals.catalog_orders_created, orders, orders);
+                        Snackbar.make(findViewById(R.id.list), message, Snackbar.LENGTH_LONG).show();
+                    }
+                });
+            }
+        });
     }
 
     @Override
@@ -133,6 +583,24 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             case R.id.action_insert_dummy_data:
                 insertItem();
                 return true;
+            // Respond to a click on the "Order low stock" menu option
+            case R.id.action_order_low_stock:
+                orderLowStock();
+                return true;
+            // Respond to a click on the "Unlock supplier details" menu option
+            case R.id.action_unlock_supplier_details:
+                showPassphraseDialog();
+                return true;
+            // Respond to a click on the "Lock supplier details" menu option
+            case R.id.action_lock_supplier_details:
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        getContentResolver().call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_LOCK,
+                                null, null);
+                    }
+                });
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 deleteAllItems();
@@ -144,35 +612,38 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle args) {
-
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                InventoryEntry._ID,
-                InventoryEntry.COLUMN_PRODUCT_NAME,
-                InventoryEntry.COLUMN_PRICE,
-                InventoryEntry.COLUMN_QUANTITY};
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                InventoryEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+        // One row per first letter, however many items there are
+        return new CursorLoader(this, InventoryEntry.SECTIONS_URI, null, null, null, null);
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-
-        // Update {@link InventoryCursorAdapter} with this new cursor containing updated item data
-        mCursorAdapter.swapCursor(data);
+        mItemAdapter.setSections(CatalogSections.fromCursor(data));
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
+        // Nothing holds on to the section cursor
+    }
 
-        // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+    /**
+     * Show the total units and value of the inventory as the subtitle of the app bar. They
+     * are summed from the catalog that is shown, so they don't need a query of their own.
+     */
+    private void showStockValue(CatalogColumns catalog) {
+        if (getSupportActionBar() == null) {
+            return;
+        }
+
+        long units = catalog.getTotalUnits();
+        String value;
+        try {
+            value = Money.format(catalog.getTotalValue());
+        } catch (ArithmeticException e) {
+            // Far too much stock to show as a single amount
+            value = getString(R.string.catalog_stock_value_overflow);
+        }
+        getSupportActionBar().setSubtitle(getString(R.string.catalog_stock_value, units, value));
     }
 
 }
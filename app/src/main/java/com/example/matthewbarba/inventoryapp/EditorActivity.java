@@ -2,14 +2,13 @@ package com.example.matthewbarba.inventoryapp;
 
 import android.annotation.SuppressLint;
 import android.app.AlertDialog;
-import android.app.LoaderManager.LoaderCallbacks;
+import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
-import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
@@ -20,21 +19,51 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.ImageView;
 import android.widget.Toast;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import data.CatalogColumns;
+import data.InventoryContract;
 import data.InventoryContract.InventoryEntry;
+import data.InventoryObservable;
+import data.Item;
+import data.ItemValidator;
+import data.Money;
+import data.StaleItemException;
+import data.SupplierDetailsLockedException;
 
 
 /**
  * Allows user to create a new inventory item or edit an existing one.
  */
-public class EditorActivity extends AppCompatActivity implements
-        LoaderCallbacks<Cursor> {
+public class EditorActivity extends AppCompatActivity {
+
+    /**
+     * Request code for choosing a photo of the item
+     */
+    private static final int REQUEST_CHOOSE_PHOTO = 1;
+
+    /**
+     * Extras of an intent from {@link #newEditIntent(Context, CatalogColumns, int)}: the values
+     * of the item as the catalog has them
+     */
+    private static final String EXTRA_PRODUCT_NAME = "productName";
+    private static final String EXTRA_PRICE = "price";
+    private static final String EXTRA_QUANTITY = "quantity";
+    private static final String EXTRA_PHOTO = "photo";
+    private static final String EXTRA_VERSION = "version";
 
     /**
-     * Identifier for the pet data loader
+     * Subscription to the existing item, null for a new item
      */
-    private static final int EXISTING_ITEM_LOADER = 0;
+    private InventoryObservable.Subscription mItemSubscription;
 
     /**
      * EditText field to enter the product name
@@ -71,6 +100,40 @@ public class EditorActivity extends AppCompatActivity implements
      */
     private boolean mItemHasChanged = false;
 
+    /**
+     * Editor fields by the column they edit
+     */
+    private final Map<String, EditText> mFields = new LinkedHashMap<>();
+
+    /**
+     * Text of each field as it was last loaded from the database, by column. Fields whose text
+     * differs from this snapshot are dirty, and only dirty fields are written back.
+     * Empty for a new item.
+     */
+    private final Map<String, String> mLoadedText = new HashMap<>();
+
+    /**
+     * Row version of the existing item as it was last loaded from the database. It is only
+     * advanced while no edited field was changed underneath, so saving over such a change
+     * fails with a {@link StaleItemException} first.
+     */
+    private long mLoadedVersion;
+
+    /**
+     * The latest version of the item, its field texts and photo, while an edited field was
+     * changed underneath. Taken as loaded once the user was told about the conflict. Null
+     * while there is no conflict.
+     */
+    private Long mConflictVersion;
+    private final Map<String, String> mConflictText = new HashMap<>();
+    private String mConflictPhoto;
+
+    /**
+     * Whether the supplier of the existing item was loaded. The catalog doesn't have it, so
+     * an editor opened from the catalog shows the rest of the item first.
+     */
+    private boolean mSupplierLoaded;
+
     /**
      * Button to add 1 to the quantity of the product in the inventory
      */
@@ -86,6 +149,26 @@ public class EditorActivity extends AppCompatActivity implements
      */
     private Button mCallSupplier;
 
+    /**
+     * ImageView showing the photo of the item
+     */
+    private ImageView mPhotoImageView;
+
+    /**
+     * Content hash of the photo shown in the editor, null if there is none
+     */
+    private String mPhoto;
+
+    /**
+     * Content hash of the photo as it was last loaded from the database
+     */
+    private String mLoadedPhoto;
+
+    /**
+     * Load of the photo shown in the editor
+     */
+    private ThumbnailLoader.Request mPhotoRequest;
+
 
     /**
      * OnTouchListener that listens for any user touches on a View, implying that they are modifying
@@ -99,6 +182,21 @@ public class EditorActivity extends AppCompatActivity implements
         }
     };
 
+    /**
+     * Return an intent that edits the item in the given row of the catalog. The editor shows
+     * the values of the row right away and only waits for the database for the supplier.
+     */
+    static Intent newEditIntent(Context context, CatalogColumns catalog, int row) {
+        Intent intent = new Intent(context, EditorActivity.class);
+        intent.setData(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, catalog.getId(row)));
+        intent.putExtra(EXTRA_PRODUCT_NAME, catalog.getName(row));
+        intent.putExtra(EXTRA_PRICE, catalog.getPrice(row));
+        intent.putExtra(EXTRA_QUANTITY, catalog.getQuantity(row));
+        intent.putExtra(EXTRA_PHOTO, catalog.getPhoto(row));
+        intent.putExtra(EXTRA_VERSION, catalog.getVersion(row));
+        return intent;
+    }
+
     @SuppressLint("ClickableViewAccessibility")
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -122,10 +220,6 @@ public class EditorActivity extends AppCompatActivity implements
         } else {
             // Otherwise this is an existing pet, so change app bar to say "Edit Pet"
             setTitle(getString(R.string.editor_activity_title_edit_item));
-
-            // Initialize a loader to read the pet data from the database
-            // and display the current values in the editor
-            getLoaderManager().initLoader(EXISTING_ITEM_LOADER, null, this);
         }
 
         mProductNameEditText = findViewById(R.id.edit_product_name);
@@ -136,6 +230,39 @@ public class EditorActivity extends AppCompatActivity implements
         mCallSupplier = findViewById(R.id.edit_call_supplier);
         mAddQuantity = findViewById(R.id.edit_add);
         mMinusQuantity = findViewById(R.id.edit_minus);
+        mPhotoImageView = findViewById(R.id.edit_photo);
+        Button choosePhoto = findViewById(R.id.edit_choose_photo);
+
+        mFields.put(InventoryEntry.COLUMN_PRODUCT_NAME, mProductNameEditText);
+        mFields.put(InventoryEntry.COLUMN_PRICE, mProductPriceEditText);
+        mFields.put(InventoryEntry.COLUMN_QUANTITY, mQuantityEditText);
+        mFields.put(InventoryEntry.COLUMN_SUPPLIER, mSupplierNameEditText);
+        mFields.put(InventoryEntry.COLUMN_SUPPLIER_NUMBER, mSupplierPhoneNumberEditText);
+
+        if (mCurrentItemUri != null) {
+            // Show what the catalog knows about the item in the first frame. The supplier
+            // fields stay disabled until the item is read, so nothing can be typed over them.
+            if (intent.hasExtra(EXTRA_VERSION)) {
+                showItem(new Item(ContentUris.parseId(mCurrentItemUri), intent.getStringExtra(EXTRA_PRODUCT_NAME),
+                        intent.getLongExtra(EXTRA_PRICE, 0), intent.getIntExtra(EXTRA_QUANTITY, 0), null, null,
+                        intent.getStringExtra(EXTRA_PHOTO), intent.getLongExtra(EXTRA_VERSION, 0)), false);
+            }
+            mSupplierNameEditText.setEnabled(false);
+            mSupplierPhoneNumberEditText.setEnabled(false);
+            mCallSupplier.setEnabled(false);
+
+            // Watch the item in the database and display its current values in the editor.
+            // The whole row is read by its primary key, which costs the same as reading only
+            // the supplier and also catches changes made since the catalog was read. The item
+            // is only read again when it changes, and only delivered if it did.
+            mItemSubscription = InventoryObservable.item(getContentResolver(), ContentUris.parseId(mCurrentItemUri))
+                    .subscribe(InventoryObservable.mainThread(), new InventoryObservable.Observer<Item>() {
+                        @Override
+                        public void onChanged(Item item) {
+                            showItem(item, true);
+                        }
+                    });
+        }
 
         // Setup OnTouchListeners on all the input fields, so we can determine if the user
         // has touched or modified them. This will let us know if there are unsaved changes
@@ -148,6 +275,18 @@ public class EditorActivity extends AppCompatActivity implements
         mAddQuantity.setOnTouchListener(mTouchListener);
         mMinusQuantity.setOnTouchListener(mTouchListener);
         mCallSupplier.setOnTouchListener(mTouchListener);
+        choosePhoto.setOnTouchListener(mTouchListener);
+
+        choosePhoto.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("image/*");
+                if (intent.resolveActivity(getPackageManager()) != null) {
+                    startActivityForResult(intent, REQUEST_CHOOSE_PHOTO);
+                }
+            }
+        });
 
         mAddQuantity.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -213,10 +352,81 @@ public class EditorActivity extends AppCompatActivity implements
         });
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode != REQUEST_CHOOSE_PHOTO) {
+            super.onActivityResult(requestCode, resultCode, data);
+            return;
+        }
+        if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+            addPhoto(data.getData());
+        }
+    }
+
+    /**
+     * Copy the chosen image into the photo store in the background, then show it. The item
+     * only refers to the photo once it is saved.
+     */
+    private void addPhoto(final Uri source) {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                String photo = null;
+                try {
+                    Bundle result = getContentResolver().call(InventoryEntry.CONTENT_URI,
+                            InventoryContract.METHOD_ADD_PHOTO, source.toString(), null);
+                    if (result != null) {
+                        photo = result.getString(InventoryContract.EXTRA_PHOTO);
+                    }
+                } catch (IllegalArgumentException e) {
+                    // Unreadable image, reported below
+                }
+
+                final String addedPhoto = photo;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        if (addedPhoto == null) {
+                            Toast.makeText(EditorActivity.this, getString(R.string.editor_add_photo_failed),
+                                    Toast.LENGTH_SHORT).show();
+                            return;
+                        }
+                        mItemHasChanged = true;
+                        showPhoto(addedPhoto);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Show the photo with the given content hash, or no photo if it is null.
+     */
+    private void showPhoto(String photo) {
+        mPhoto = photo;
+        if (mPhotoRequest != null) {
+            mPhotoRequest.cancel();
+        }
+        mPhotoRequest = ThumbnailLoader.get(this).load(photo,
+                getResources().getDimensionPixelSize(R.dimen.editor_photo_size), mPhotoImageView);
+    }
+
     /**
      * Get user input from editor and save item into database.
+     *
+     * @return true if the editor can be closed, false if the user needs to look at it again
      */
-    private void saveItem() {
+    private boolean saveItem() {
+        // The supplier fields are empty until the item was read, saving now would either
+        // fail the validation or clear the supplier
+        if (mCurrentItemUri != null && !mSupplierLoaded) {
+            Toast.makeText(this, getString(R.string.editor_still_loading), Toast.LENGTH_SHORT).show();
+            return false;
+        }
+
         // Read from input fields
         // Use trim to eliminate leading or trailing white space
         String nameString = mProductNameEditText.getText().toString().trim();
@@ -225,59 +435,66 @@ public class EditorActivity extends AppCompatActivity implements
         String supplierString = mSupplierNameEditText.getText().toString().trim();
         String supplierPhoneNumberString = mSupplierPhoneNumberEditText.getText().toString().trim();
 
-        // Check if this is supposed to be a new item
-        // and check if all the fields in the editor are blank
-        if (mCurrentItemUri == null &&
-                TextUtils.isEmpty(nameString) ||
-                TextUtils.isEmpty(quantityString) ||
-                TextUtils.isEmpty(priceString) ||
-                TextUtils.isEmpty(supplierString) ||
-                TextUtils.isEmpty(supplierPhoneNumberString)) {
-
-            // Show Toast to user to fix errors
-            if (nameString.isEmpty())   {
-                Toast.makeText(this, "A product name is required", Toast.LENGTH_LONG).show();
-            } else if (quantityString.isEmpty())    {
-                Toast.makeText(this, "A valid quantity is required (hint: 0 or greater)", Toast.LENGTH_LONG).show();
-            } else if (priceString.isEmpty())   {
-                Toast.makeText(this, "A valid price is required (hint: The price must be greater than or equal to 1)", Toast.LENGTH_LONG).show();
-            } else if (supplierString.isEmpty())    {
-                Toast.makeText(this, "A supplier name is required", Toast.LENGTH_LONG).show();
-            } else if (supplierPhoneNumberString.isEmpty()) {
-                Toast.makeText(this, "A supplier phone number is required", Toast.LENGTH_LONG).show();
-            } else {
-                Toast.makeText(this, "There is an error saving this item. Fill out all fields to save the item properly", Toast.LENGTH_LONG).show();
-            }
-
-            // Since no fields were modified, we can return early without creating a new item.
-            // No need to create ContentValues and no need to do any ContentProvider operations.
-            return;
-        }
-
         // Create a ContentValues object where column names are the keys,
-        // and item attributes from the editor are the values.
+        // and item attributes from the editor are the values. Numbers that don't parse are
+        // passed on as they were typed, for the validator to point out.
         ContentValues values = new ContentValues();
         values.put(InventoryEntry.COLUMN_PRODUCT_NAME, nameString);
         values.put(InventoryEntry.COLUMN_SUPPLIER, supplierString);
         values.put(InventoryEntry.COLUMN_SUPPLIER_NUMBER, supplierPhoneNumberString);
+        values.put(InventoryEntry.COLUMN_QUANTITY, quantityString);
+        try {
+            values.put(InventoryEntry.COLUMN_PRICE, Money.parse(priceString));
+        } catch (NumberFormatException e) {
+            values.put(InventoryEntry.COLUMN_PRICE, priceString);
+        }
 
-        int quantity = 0;
-        if (!TextUtils.isEmpty(quantityString)) {
-            quantity = Integer.parseInt(quantityString);
+        if (mCurrentItemUri != null || mPhoto != null) {
+            values.put(InventoryEntry.COLUMN_PHOTO, mPhoto);
         }
-        values.put(InventoryEntry.COLUMN_QUANTITY, quantity);
 
-        int price = 0;
-        if (!TextUtils.isEmpty(priceString)) {
-            price = Integer.parseInt(priceString);
+        ItemValidator validator = ItemValidator.FOR_INSERT;
+        if (mCurrentItemUri != null) {
+            // Only send the fields that differ from what was loaded, so a concurrent change to
+            // another field (like a sale changing the quantity) isn't overwritten and the
+            // provider only has to write the changed columns
+            Set<String> dirtyColumns = getDirtyColumns();
+            for (String column : new ArrayList<>(values.keySet())) {
+                if (!dirtyColumns.contains(column)) {
+                    values.remove(column);
+                }
+            }
+
+            // Nothing was changed, so there is nothing to save and no need to bother the provider
+            if (values.size() == 0) {
+                return true;
+            }
+
+            // Only the changed fields are checked, so fields that couldn't be read, like the
+            // supplier details while they are locked, don't keep the others from being saved
+            validator = ItemValidator.FOR_UPDATE;
+        }
+        ItemValidator.Result validation = validator.validate(values);
+        if (!validation.isValid()) {
+            Toast.makeText(this, getErrorMessage(validation.getViolations().get(0)), Toast.LENGTH_LONG).show();
+            return false;
+        }
+        if (values.containsKey(InventoryEntry.COLUMN_QUANTITY)) {
+            values.put(InventoryEntry.COLUMN_QUANTITY, Integer.parseInt(quantityString));
         }
-        values.put(InventoryEntry.COLUMN_PRICE, price);
 
         // Determine if this is a new or existing item by checking if mCurrentItemUri is null or not
         if (mCurrentItemUri == null) {
             // This is a NEW item, so insert a new item into the provider,
             // returning the content URI for the new item.
-            Uri newUri = getContentResolver().insert(InventoryEntry.CONTENT_URI, values);
+            Uri newUri;
+            try {
+                newUri = getContentResolver().insert(InventoryEntry.CONTENT_URI, values);
+            } catch (SupplierDetailsLockedException e) {
+                // The supplier details can't be stored until they are unlocked
+                Toast.makeText(this, getString(R.string.editor_supplier_details_locked), Toast.LENGTH_LONG).show();
+                return false;
+            }
 
             // Show a toast message depending on whether or not the insertion was successful.
             if (newUri == null) {
@@ -293,8 +510,29 @@ public class EditorActivity extends AppCompatActivity implements
             // Otherwise this is an EXISTING item, so update the item with content URI: mCurrentItemUri
             // and pass in the new ContentValues. Pass in null for the selection and selection args
             // because mCurrentItemUri will already identify the correct row in the database that
-            // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentItemUri, values, null, null);
+            // we want to modify. The update only applies if nobody else changed the item since
+            // it was loaded. A sale at another location changes the quantity without changing
+            // the version, so a new quantity also has to replace the loaded one.
+            Uri updateUri = InventoryEntry.withExpectedVersion(mCurrentItemUri, mLoadedVersion);
+            if (values.containsKey(InventoryEntry.COLUMN_QUANTITY)) {
+                updateUri = InventoryEntry.withExpectedQuantity(updateUri,
+                        Integer.parseInt(mLoadedText.get(InventoryEntry.COLUMN_QUANTITY)));
+            }
+            int rowsAffected;
+            try {
+                rowsAffected = getContentResolver().update(updateUri, values, null, null);
+            } catch (StaleItemException e) {
+                // Somebody else changed the item. Their change is on its way to showItem(),
+                // or was shown as a conflict already. Let the user look at it, saving again
+                // keeps what they typed.
+                acceptConflict();
+                Toast.makeText(this, getString(R.string.editor_update_item_conflict),
+                        Toast.LENGTH_LONG).show();
+                return false;
+            } catch (SupplierDetailsLockedException e) {
+                Toast.makeText(this, getString(R.string.editor_supplier_details_locked), Toast.LENGTH_LONG).show();
+                return false;
+            }
 
             // Show a toast message depending on whether or not the update was successful.
             if (rowsAffected == 0) {
@@ -307,6 +545,57 @@ public class EditorActivity extends AppCompatActivity implements
                         Toast.LENGTH_SHORT).show();
             }
         }
+        return true;
+    }
+
+    /**
+     * Return the columns whose field text differs from the text that was loaded for the item.
+     * For a new item, every field the user typed something into is dirty.
+     */
+    private Set<String> getDirtyColumns() {
+        Set<String> dirtyColumns = new HashSet<>();
+        for (Map.Entry<String, EditText> field : mFields.entrySet()) {
+            String text = field.getValue().getText().toString().trim();
+            String loadedText = mLoadedText.get(field.getKey());
+            if (loadedText == null ? !text.isEmpty() : !loadedText.equals(text)) {
+                dirtyColumns.add(field.getKey());
+            }
+        }
+        if (!TextUtils.equals(mPhoto, mLoadedPhoto)) {
+            dirtyColumns.add(InventoryEntry.COLUMN_PHOTO);
+        }
+        return dirtyColumns;
+    }
+
+    /**
+     * Return whether leaving the editor now would lose changes. For an existing item this
+     * compares the fields against the loaded item, so undoing an edit by hand doesn't count.
+     */
+    private boolean hasUnsavedChanges() {
+        if (!mItemHasChanged) {
+            return false;
+        }
+        return !getDirtyColumns().isEmpty();
+    }
+
+    /**
+     * Return the message telling the user how to fix a value the validator rejected.
+     */
+    private String getErrorMessage(ItemValidator.Violation violation) {
+        switch (violation.column) {
+            case InventoryEntry.COLUMN_PRODUCT_NAME:
+                return getString(R.string.editor_error_name);
+            case InventoryEntry.COLUMN_QUANTITY:
+                return getString(R.string.editor_error_quantity);
+            case InventoryEntry.COLUMN_PRICE:
+                return getString(R.string.editor_error_price, Money.format(Money.MAX_PRICE));
+            case InventoryEntry.COLUMN_SUPPLIER:
+                return getString(R.string.editor_error_supplier);
+            case InventoryEntry.COLUMN_SUPPLIER_NUMBER:
+                return getString(R.string.editor_error_supplier_number);
+            default:
+                return getString(R.string.editor_insert_item_failed);
+        }
     }
 
     @Override
@@ -338,10 +627,10 @@ public class EditorActivity extends AppCompatActivity implements
         switch (item.getItemId()) {
             // Respond to a click on the "Save" menu option
             case R.id.action_save:
-                // Save item to database
-                saveItem();
-                // Exit activity
-                finish();
+                // Save item to database and exit activity if that worked
+                if (saveItem()) {
+                    finish();
+                }
                 return true;
             // Respond to a click on the "Delete" menu option
             case R.id.action_delete:
@@ -352,7 +641,7 @@ public class EditorActivity extends AppCompatActivity implements
             case android.R.id.home:
                 // If the item hasn't changed, continue with navigating up to parent activity
                 // which is the {@link CatalogActivity}.
-                if (!mItemHasChanged) {
+                if (!hasUnsavedChanges()) {
                     NavUtils.navigateUpFromSameTask(EditorActivity.this);
                     return true;
                 }
@@ -382,7 +671,7 @@ public class EditorActivity extends AppCompatActivity implements
     @Override
     public void onBackPressed() {
         // If the item hasn't changed, continue with handling back button press
-        if (!mItemHasChanged) {
+        if (!hasUnsavedChanges()) {
             super.onBackPressed();
             return;
         }
@@ -403,70 +692,123 @@ public class EditorActivity extends AppCompatActivity implements
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-
-        // Since the editor shows all item attributes, define a projection that contains
-        // all columns from the item table
-        String[] projection = {
-                InventoryEntry._ID,
-                InventoryEntry.COLUMN_PRODUCT_NAME,
-                InventoryEntry.COLUMN_QUANTITY,
-                InventoryEntry.COLUMN_PRICE,
-                InventoryEntry.COLUMN_SUPPLIER,
-                InventoryEntry.COLUMN_SUPPLIER_NUMBER};
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                mCurrentItemUri,         // Query the content URI for the current item
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+    protected void onDestroy() {
+        if (mItemSubscription != null) {
+            mItemSubscription.cancel();
+        }
+        if (mPhotoRequest != null) {
+            mPhotoRequest.cancel();
+        }
+        super.onDestroy();
     }
 
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-
-        // Bail early if the cursor is null or there is less than 1 row in the cursor
-        if (cursor == null || cursor.getCount() < 1) {
+    /**
+     * Show the values of the item as it is in the database now. Called once it was read and
+     * again whenever it changes, and before that with the values from the catalog, which
+     * don't include the supplier.
+     *
+     * Only fields whose value changed are set, and fields the user edited keep their text,
+     * so a sale elsewhere doesn't throw away what is being typed.
+     */
+    private void showItem(Item item, boolean withSupplier) {
+        // Bail early if the item doesn't exist (anymore)
+        if (item == null) {
             return;
         }
 
-        // Proceed with moving to the first row of the cursor and reading data from it
-        // (This should be the only row in the cursor)
-        if (cursor.moveToFirst()) {
-            // Find the columns of item attributes that we're interested in
-            int nameColumnIndex = cursor.getColumnIndex(InventoryEntry.COLUMN_PRODUCT_NAME);
-            int priceColumnIndex = cursor.getColumnIndex(InventoryEntry.COLUMN_PRICE);
-            int quantityColumnIndex = cursor.getColumnIndex(InventoryEntry.COLUMN_QUANTITY);
-            int supplierColumnIndex = cursor.getColumnIndex(InventoryEntry.COLUMN_SUPPLIER);
-            int supplierPhoneNumberColumnIndex = cursor.getColumnIndex(InventoryEntry.COLUMN_SUPPLIER_NUMBER);
+        Map<String, String> values = new HashMap<>();
+        values.put(InventoryEntry.COLUMN_PRODUCT_NAME, item.productName);
+        values.put(InventoryEntry.COLUMN_QUANTITY, Integer.toString(item.quantity));
+        values.put(InventoryEntry.COLUMN_PRICE, Money.format(item.price));
+        // Every item has a supplier, it only reads as null while the supplier details are
+        // locked. Then the fields are emptied instead of loaded, so they neither count as
+        // loaded values nor as edited ones.
+        boolean supplierLocked = withSupplier && item.supplier == null;
+        if (withSupplier && !supplierLocked) {
+            values.put(InventoryEntry.COLUMN_SUPPLIER, item.supplier);
+            values.put(InventoryEntry.COLUMN_SUPPLIER_NUMBER, item.supplierPhoneNumber);
+        }
+        if (supplierLocked) {
+            clearLockedField(InventoryEntry.COLUMN_SUPPLIER);
+            clearLockedField(InventoryEntry.COLUMN_SUPPLIER_NUMBER);
+        }
+
+        // Remember what was loaded to find out what the user changed when saving. A field the
+        // user edited that changed underneath keeps its old loaded text, and the version
+        // isn't advanced, so saving it can't silently overwrite the other change.
+        boolean conflict = false;
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            EditText field = mFields.get(value.getKey());
+            String text = field.getText().toString().trim();
+            String loadedText = mLoadedText.get(value.getKey());
+            boolean edited = loadedText == null ? !text.isEmpty() : !loadedText.equals(text);
+            if (!edited) {
+                if (!TextUtils.equals(text, value.getValue())) {
+                    field.setText(value.getValue());
+                }
+                mLoadedText.put(value.getKey(), value.getValue());
+            } else if (loadedText != null && !loadedText.equals(value.getValue())) {
+                field.setError(getString(R.string.editor_field_changed, value.getValue()));
+                conflict = true;
+            }
+        }
+        boolean photoEdited = !TextUtils.equals(mPhoto, mLoadedPhoto);
+        if (photoEdited && !TextUtils.equals(mLoadedPhoto, item.photo)) {
+            conflict = true;
+        }
 
-            // Extract out the value from the Cursor for the given column index
-            String name = cursor.getString(nameColumnIndex);
-            String supplier = cursor.getString(supplierColumnIndex);
-            String supplierPhoneNumber = cursor.getString(supplierPhoneNumberColumnIndex);
-            int quantity = cursor.getInt(quantityColumnIndex);
-            int price = cursor.getInt(priceColumnIndex);
+        if (conflict || mConflictVersion != null) {
+            mConflictVersion = item.version;
+            mConflictText.putAll(values);
+            mConflictPhoto = item.photo;
+        } else {
+            mLoadedVersion = item.version;
+        }
 
-            // Update the views on the screen with the values from the database
-            mProductNameEditText.setText(name);
-            mSupplierNameEditText.setText(supplier);
-            mSupplierPhoneNumberEditText.setText(supplierPhoneNumber);
-            mProductPriceEditText.setText(Integer.toString(price));
-            mQuantityEditText.setText(Integer.toString(quantity));
+        if (withSupplier) {
+            mSupplierLoaded = true;
+            mSupplierNameEditText.setEnabled(!supplierLocked);
+            mSupplierPhoneNumberEditText.setEnabled(!supplierLocked);
+            mCallSupplier.setEnabled(!supplierLocked);
+            mSupplierNameEditText.setHint(supplierLocked
+                    ? R.string.editor_supplier_details_locked : R.string.hint_supplier_name);
+            mSupplierPhoneNumberEditText.setHint(supplierLocked
+                    ? R.string.editor_supplier_details_locked : R.string.hint_supplier_phone);
+        }
+        if (!photoEdited) {
+            if (!TextUtils.equals(mLoadedPhoto, item.photo)) {
+                showPhoto(item.photo);
+            }
+            mLoadedPhoto = item.photo;
+        }
+    }
 
+    /**
+     * Empty the field of a supplier detail that was locked, unless the user edited it, and
+     * forget its loaded value.
+     */
+    private void clearLockedField(String column) {
+        EditText field = mFields.get(column);
+        String loadedText = mLoadedText.remove(column);
+        if (loadedText != null && loadedText.equals(field.getText().toString().trim())) {
+            field.setText("");
         }
     }
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // If the loader is invalidated, clear out all the data from the input fields.
-        mProductNameEditText.setText("");
-        mQuantityEditText.setText("");
-        mProductPriceEditText.setText("");
-        mSupplierNameEditText.setText("");
-        mSupplierPhoneNumberEditText.setText("");
+    /**
+     * Take the item as changed underneath as loaded, after the user was told. The fields
+     * keep what the user typed, so the next save writes it over the other change.
+     */
+    private void acceptConflict() {
+        if (mConflictVersion == null) {
+            return;
+        }
+        mLoadedVersion = mConflictVersion;
+        mLoadedText.putAll(mConflictText);
+        mLoadedPhoto = mConflictPhoto;
+        mConflictVersion = null;
+        mConflictText.clear();
+        mConflictPhoto = null;
     }
 
     /**
@@ -0,0 +1,246 @@
+package com.example.matthewbarba.inventoryapp;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.SectionIndexer;
+import android.widget.TextView;
+
+import data.CatalogColumns;
+import data.CatalogSections;
+import data.Money;
+import data.SaleQueue;
+
+public class InventoryItemAdapter extends BaseAdapter implements AbsListView.RecyclerListener, SectionIndexer {
+
+    private final Context mContext;
+
+    /**
+     * Loads the photos of the items, shared with the rest of the app
+     */
+    private final ThumbnailLoader mThumbnailLoader;
+
+    /**
+     * Size of the photo in a row, in pixels
+     */
+    private final int mPhotoSize;
+
+    /**
+     * Takes the sales made with the Sale buttons, shared with the rest of the app
+     */
+    private final SaleQueue mSaleQueue;
+
+    /**
+     * Items shown in the list, one row each
+     */
+    private CatalogColumns mCatalog = CatalogColumns.EMPTY;
+
+    /**
+     * Sections of the items for fast scrolling, read separately from the items
+     */
+    private CatalogSections mSections = CatalogSections.EMPTY;
+
+    /**
+     * Constructs a new {@link InventoryItemAdapter} without any items.
+     *
+     * @param context The context
+     */
+    InventoryItemAdapter(Context context) {
+        mContext = context;
+        mThumbnailLoader = ThumbnailLoader.get(context);
+        mPhotoSize = context.getResources().getDimensionPixelSize(R.dimen.list_photo_size);
+        mSaleQueue = SaleQueue.get(context);
+    }
+
+    /**
+     * Show the items of the given catalog. Rows whose item didn't change keep their views as
+     * they are.
+     */
+    void setCatalog(CatalogColumns catalog) {
+        mCatalog = catalog == null ? CatalogColumns.EMPTY : catalog;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Return the catalog shown, its rows are the positions of the list.
+     */
+    CatalogColumns getCatalog() {
+        return mCatalog;
+    }
+
+    /**
+     * Show the given sections in the fast scroller. They should count the items shown, but
+     * may be a change ahead or behind them.
+     */
+    void setSections(CatalogSections sections) {
+        mSections = sections == null ? CatalogSections.EMPTY : sections;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public Object[] getSections() {
+        return mSections.getLetters();
+    }
+
+    @Override
+    public int getPositionForSection(int sectionIndex) {
+        // The items may not have caught up with the sections yet
+        return Math.min(mSections.getPositionForSection(sectionIndex), Math.max(0, getCount() - 1));
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        return mSections.getSectionForPosition(position);
+    }
+
+    @Override
+    public int getCount() {
+        return mCatalog.size();
+    }
+
+    /**
+     * Return the ID of the item at the position. The rows aren't objects, so there is no
+     * item to return for the position.
+     */
+    @Override
+    public Long getItem(int position) {
+        return mCatalog.getId(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mCatalog.getId(position);
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        View view = convertView;
+        ViewHolder holder;
+        if (view == null) {
+            view = LayoutInflater.from(mContext).inflate(R.layout.list_item, parent, false);
+            holder = new ViewHolder(view);
+            view.setTag(holder);
+        } else {
+            holder = (ViewHolder) view.getTag();
+        }
+
+        // After a change to one item, the list asks for every visible row again. Rows that
+        // still show the same version of the same item don't need to be bound again.
+        // Queued sales are shown as sold right away, before the database has them.
+        long id = mCatalog.getId(position);
+        int quantity = Math.max(0, mCatalog.getQuantity(position) - mSaleQueue.getQueuedUnits(id));
+        if (!holder.mBound || id != holder.mId || mCatalog.getVersion(position) != holder.mVersion
+                || quantity != holder.mQuantity) {
+            holder.bind(mCatalog, position, quantity);
+        }
+        return view;
+    }
+
+    /**
+     * Called when a row scrolled off screen. A photo still loading for it isn't needed
+     * anymore, so the load is cancelled to make way for the rows that are on screen.
+     */
+    @Override
+    public void onMovedToScrapHeap(View view) {
+        ViewHolder holder = (ViewHolder) view.getTag();
+        if (holder != null) {
+            holder.unbind();
+        }
+    }
+
+    /**
+     * Views of one list item and the item they currently show
+     */
+    private final class ViewHolder implements View.OnClickListener {
+
+        private final TextView mProductNameTextView;
+        private final TextView mPriceTextView;
+        private final TextView mQuantityTextView;
+        private final ImageView mPhotoImageView;
+
+        /**
+         * Whether the views show an item, which has the ID, version and photo below
+         */
+        private boolean mBound;
+        private long mId;
+        private long mVersion;
+        private String mPhoto;
+
+        /**
+         * Quantity shown, the item's quantity minus its queued sales
+         */
+        private int mQuantity;
+
+        /**
+         * Last load of the photo, null if it came from the memory cache or there is none
+         */
+        private ThumbnailLoader.Request mPhotoRequest;
+
+        ViewHolder(View view) {
+            mProductNameTextView = view.findViewById(R.id.list_product_name);
+            mPriceTextView = view.findViewById(R.id.list_price);
+            mQuantityTextView = view.findViewById(R.id.list_quantity);
+            mPhotoImageView = view.findViewById(R.id.list_photo);
+            Button button = view.findViewById(R.id.list_sale_button);
+            button.setOnClickListener(this);
+        }
+
+        /**
+         * Update the TextViews with the attributes for the item in the given row and the
+         * quantity left
+         */
+        void bind(CatalogColumns catalog, int row, int quantity) {
+            // Only load the photo again if it changed, a sale doesn't touch it
+            String photo = catalog.getPhoto(row);
+            boolean photoChanged = !mBound || !TextUtils.equals(mPhoto, photo);
+            mBound = true;
+            mId = catalog.getId(row);
+            mVersion = catalog.getVersion(row);
+            mPhoto = photo;
+            mQuantity = quantity;
+            mProductNameTextView.setText(catalog.getName(row));
+            mPriceTextView.setText(Money.format(catalog.getPrice(row)));
+            mQuantityTextView.setText(String.valueOf(quantity));
+
+            if (photoChanged) {
+                // The view may have been recycled while the previous item's photo was loading
+                if (mPhotoRequest != null) {
+                    mPhotoRequest.cancel();
+                }
+                mPhotoRequest = mThumbnailLoader.load(photo, mPhotoSize, mPhotoImageView);
+            }
+        }
+
+        /**
+         * Stop loading the photo and forget the item, so the next bind shows everything again
+         */
+        void unbind() {
+            if (mPhotoRequest != null) {
+                mPhotoRequest.cancel();
+                mPhotoRequest = null;
+            }
+            mBound = false;
+        }
+
+        @Override
+        public void onClick(View v) {
+            // Queue the sale instead of waiting for the database, taps at the register come
+            // faster than transactions. The provider later decreases the quantity itself, so
+            // a sale can't overwrite changes made to the item elsewhere.
+            if (mBound && mQuantity > 0) {
+                mSaleQueue.sell(mId, 1);
+            }
+        }
+    }
+}
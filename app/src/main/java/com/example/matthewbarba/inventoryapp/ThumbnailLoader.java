@@ -0,0 +1,359 @@
+package com.example.matthewbarba.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import data.InventoryContract.PhotoEntry;
+
+/**
+ * Loads square thumbnails of item photos into image views.
+ *
+ * Thumbnails are looked up in a memory cache first, then in a disk cache of thumbnails
+ * decoded earlier, and only then decoded from the full photo. Photos are decoded at the
+ * smallest power-of-two reduction that still covers the thumbnail, so a large photo never
+ * needs its full size in memory. Photos never change once stored, so neither cache needs to
+ * be invalidated.
+ *
+ * Loads that aren't needed anymore, because their view was recycled for another item, are
+ * cancelled. The newest loads run first, so after a fling the rows that are on screen are
+ * loaded before the ones that scrolled past.
+ */
+final class ThumbnailLoader {
+
+    private static final String LOG_TAG = ThumbnailLoader.class.getSimpleName();
+
+    private static final String DISK_CACHE_DIRECTORY = "thumbnails";
+
+    /**
+     * Size of the disk cache, in bytes
+     */
+    private static final long DISK_CACHE_SIZE = 20 * 1024 * 1024;
+
+    private static final int DECODE_THREADS = 2;
+
+    private static ThumbnailLoader sInstance;
+
+    private final ContentResolver mResolver;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final DiskCache mDiskCache;
+    private final ThreadPoolExecutor mExecutor;
+
+    private ThumbnailLoader(Context context) {
+        mResolver = context.getContentResolver();
+
+        // An eighth of the memory the app may use, in bytes
+        int memoryCacheSize = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+        mMemoryCache = new LruCache<String, Bitmap>(memoryCacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+        mDiskCache = new DiskCache(new File(context.getCacheDir(), DISK_CACHE_DIRECTORY), DISK_CACHE_SIZE);
+
+        // A deque used as a stack, so the newest request is taken first
+        mExecutor = new ThreadPoolExecutor(DECODE_THREADS, DECODE_THREADS, 1, TimeUnit.SECONDS,
+                new LinkedBlockingDeque<Runnable>() {
+                    @Override
+                    public boolean offer(@NonNull Runnable runnable) {
+                        return offerFirst(runnable);
+                    }
+                },
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable runnable) {
+                        Thread thread = new Thread(runnable, "ThumbnailLoader");
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Return the loader of the app. Its caches are shared by all activities.
+     */
+    static synchronized ThumbnailLoader get(Context context) {
+        if (sInstance == null) {
+            sInstance = new ThumbnailLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Show the thumbnail of a photo in the given view. A thumbnail in the memory cache is
+     * shown right away, otherwise the view is cleared until it is loaded. Must be called on
+     * the main thread.
+     *
+     * @param photo the photo's content hash, or null to only clear the view
+     * @param size  width and height of the thumbnail, in pixels
+     * @return the running load, to be cancelled once the view shows something else, or null
+     * if there is nothing to load
+     */
+    Request load(String photo, int size, ImageView view) {
+        if (photo == null) {
+            view.setImageDrawable(null);
+            return null;
+        }
+
+        String key = photo + "_" + size;
+        Bitmap cached = mMemoryCache.get(key);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return null;
+        }
+
+        view.setImageDrawable(null);
+        Request request = new Request(photo, key, size, view);
+        mExecutor.execute(request);
+        return request;
+    }
+
+    /**
+     * Decode the photo at the smallest power-of-two reduction that is at least the given
+     * size, then crop it to a square of exactly that size.
+     */
+    private Bitmap decode(String photo, int size) throws IOException {
+        ParcelFileDescriptor file = mResolver.openFileDescriptor(PhotoEntry.buildPhotoUri(photo), "r");
+        if (file == null) {
+            throw new FileNotFoundException("No photo " + photo);
+        }
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFileDescriptor(file.getFileDescriptor(), null, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                throw new IOException("Photo " + photo + " isn't an image");
+            }
+
+            int sampleSize = 1;
+            while (options.outWidth / (sampleSize * 2) >= size && options.outHeight / (sampleSize * 2) >= size) {
+                sampleSize *= 2;
+            }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+            Bitmap bitmap = BitmapFactory.decodeFileDescriptor(file.getFileDescriptor(), null, options);
+            if (bitmap == null) {
+                throw new IOException("Could not decode photo " + photo);
+            }
+            return ThumbnailUtils.extractThumbnail(bitmap, size, size, ThumbnailUtils.OPTIONS_RECYCLE_INPUT);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Loading of one thumbnail into one view
+     */
+    final class Request implements Runnable {
+
+        private final String mPhoto;
+        private final String mKey;
+        private final int mSize;
+        private final ImageView mView;
+
+        private volatile boolean mCancelled;
+
+        Request(String photo, String key, int size, ImageView view) {
+            mPhoto = photo;
+            mKey = key;
+            mSize = size;
+            mView = view;
+        }
+
+        /**
+         * Stop the load. The view isn't touched anymore after this returns, as long as it is
+         * called on the main thread.
+         */
+        void cancel() {
+            mCancelled = true;
+            // Drop it from the queue if it didn't start yet
+            mExecutor.remove(this);
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            try {
+                Bitmap bitmap = mDiskCache.get(mKey);
+                if (bitmap == null) {
+                    // Recycled views are cancelled while the request waits, check once more
+                    // before doing the expensive part
+                    if (mCancelled) {
+                        return;
+                    }
+                    bitmap = decode(mPhoto, mSize);
+                    mDiskCache.put(mKey, bitmap);
+                }
+                mMemoryCache.put(mKey, bitmap);
+                deliver(bitmap);
+            } catch (IOException | RuntimeException e) {
+                Log.w(LOG_TAG, "Could not load thumbnail of " + mPhoto, e);
+            }
+        }
+
+        private void deliver(final Bitmap bitmap) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        mView.setImageBitmap(bitmap);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Thumbnails saved as files, the least recently used ones are deleted once the files
+     * take more than the maximum size. Sizes and use order are kept in memory and read from
+     * the directory when the cache is first used.
+     */
+    private static final class DiskCache {
+
+        private final File mDirectory;
+        private final long mMaxSize;
+
+        /**
+         * File sizes by key, in use order, guarded by this
+         */
+        private Map<String, Long> mEntries;
+        private long mSize;
+
+        DiskCache(File directory, long maxSize) {
+            mDirectory = directory;
+            mMaxSize = maxSize;
+        }
+
+        Bitmap get(String key) {
+            File file = new File(mDirectory, key);
+            synchronized (this) {
+                // Marks the key as used
+                if (entries().get(key) == null) {
+                    return null;
+                }
+            }
+            Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+            if (bitmap == null) {
+                // Removed or damaged, decode the photo again
+                remove(key);
+                return null;
+            }
+            // Keeps the use order across restarts
+            file.setLastModified(System.currentTimeMillis());
+            return bitmap;
+        }
+
+        void put(String key, Bitmap bitmap) {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                return;
+            }
+            File file = new File(mDirectory, key);
+            File temp = new File(mDirectory, key + ".tmp");
+            try {
+                FileOutputStream out = new FileOutputStream(temp);
+                try {
+                    // JPEG files are smaller and decode faster, only transparent images need PNG
+                    if (bitmap.hasAlpha()) {
+                        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+                    } else {
+                        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+                    }
+                } finally {
+                    out.close();
+                }
+                if (!temp.renameTo(file)) {
+                    temp.delete();
+                    return;
+                }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Could not save thumbnail " + key, e);
+                temp.delete();
+                return;
+            }
+
+            synchronized (this) {
+                Long previous = entries().put(key, file.length());
+                mSize += file.length() - (previous == null ? 0 : previous);
+                trim();
+            }
+        }
+
+        private synchronized void remove(String key) {
+            Long size = entries().remove(key);
+            if (size != null) {
+                mSize -= size;
+            }
+            new File(mDirectory, key).delete();
+        }
+
+        /**
+         * Delete the least recently used thumbnails until the cache fits its size
+         */
+        private void trim() {
+            Iterator<Map.Entry<String, Long>> eldest = mEntries.entrySet().iterator();
+            while (mSize > mMaxSize && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                new File(mDirectory, entry.getKey()).delete();
+                mSize -= entry.getValue();
+                eldest.remove();
+            }
+        }
+
+        /**
+         * Return the entries, reading them from the directory the first time
+         */
+        private Map<String, Long> entries() {
+            if (mEntries == null) {
+                mEntries = new LinkedHashMap<>(64, 0.75f, true);
+                File[] files = mDirectory.listFiles();
+                if (files != null) {
+                    Arrays.sort(files, new Comparator<File>() {
+                        @Override
+                        public int compare(File a, File b) {
+                            long difference = a.lastModified() - b.lastModified();
+                            return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+                        }
+                    });
+                    for (File file : files) {
+                        if (file.getName().endsWith(".tmp")) {
+                            file.delete();
+                            continue;
+                        }
+                        mEntries.put(file.getName(), file.length());
+                        mSize += file.length();
+                    }
+                }
+            }
+            return mEntries;
+        }
+    }
+}
@@ -0,0 +1,795 @@
+package data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Binder;
+import android.util.Log;
+import android.util.SparseArray;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import data.InventoryContract.AuditEntry;
+import data.InventoryContract.AuditItemEntry;
+
+import static data.InventoryProvider.LOG_TAG;
+
+/**
+ * Records every change made through the provider in the audit table, without making the
+ * change wait for the table.
+ *
+ * A change is recorded in two steps. Inside its transaction, {@link #prepare} appends a line
+ * to a journal file and moves the last journaled sequence number in the database along with
+ * the change. Once the transaction committed, {@link #commit} puts the record into a bounded
+ * buffer, and a background thread moves buffered records into the table in batches, many
+ * per transaction. The journal is what makes a record durable: once the write to it returns,
+ * the bytes belong to the kernel and survive the process being killed. Records that hadn't
+ * reached the table by then are read back from the journal the next time the log is opened,
+ * except the ones after the sequence number in the database, whose change never committed.
+ *
+ * The buffer holds at most {@link #CAPACITY} records. If the writer falls that far behind,
+ * committing waits for it to catch up instead of using more memory.
+ *
+ * Bulk changes record one aggregate record, and the values of every item they changed in
+ * the {@link AuditItemEntry} table, written with the change itself by
+ * {@link #recordItems}.
+ */
+final class AuditLog {
+
+    /**
+     * Most records waiting for the table at any time
+     */
+    static final int CAPACITY = 1024;
+
+    /**
+     * Most records written to the table per transaction
+     */
+    static final int BATCH_SIZE = 128;
+
+    /**
+     * Size after which the journal is set aside and a new one started, so that the records
+     * already in the table don't pile up in it
+     */
+    static final long ROTATE_BYTES = 256 * 1024;
+
+    static final String JOURNAL_NAME = "audit.journal";
+    private static final String ROTATED_SUFFIX = ".1";
+    private static final String REWRITTEN_SUFFIX = ".new";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Arguments: sequence number, time, caller, operation, item ID, old values, new values.
+     * A record read back from the journal may be in the table already, then it's skipped.
+     */
+    private static final String SQL_INSERT = "INSERT OR IGNORE INTO " + AuditEntry.TABLE_NAME + " ("
+            + AuditEntry._ID + ", " + AuditEntry.COLUMN_TIME + ", " + AuditEntry.COLUMN_CALLER + ", "
+            + AuditEntry.COLUMN_OPERATION + ", " + AuditEntry.COLUMN_ITEM_ID + ", "
+            + AuditEntry.COLUMN_OLD_VALUES + ", " + AuditEntry.COLUMN_NEW_VALUES + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SQL_JOURNALED_THROUGH = "SELECT " + AuditEntry.COLUMN_JOURNALED_THROUGH
+            + " FROM " + AuditEntry.STATE_TABLE_NAME;
+
+    /**
+     * Arguments: the last journaled sequence number
+     */
+    private static final String SQL_SET_JOURNALED_THROUGH = "UPDATE " + AuditEntry.STATE_TABLE_NAME
+            + " SET " + AuditEntry.COLUMN_JOURNALED_THROUGH + " = ?";
+
+    /**
+     * One change. Values are kept as the JSON that ends up in the table.
+     */
+    static final class Record {
+        final long sequence;
+        final long time;
+        final int uid;
+        final String operation;
+
+        /**
+         * ID of the changed item, or -1 if the change wasn't made to a single item
+         */
+        final long itemId;
+        final String oldValues;
+        final String newValues;
+
+        Record(long sequence, long time, int uid, String operation, long itemId,
+               String oldValues, String newValues) {
+            this.sequence = sequence;
+            this.time = time;
+            this.uid = uid;
+            this.operation = operation;
+            this.itemId = itemId;
+            this.oldValues = oldValues;
+            this.newValues = newValues;
+        }
+
+        /**
+         * Return the record as one line of the journal, with the line break.
+         */
+        String toJournalLine() {
+            try {
+                return new JSONObject()
+                        .put("seq", sequence)
+                        .put("time", time)
+                        .put("uid", uid)
+                        .put("op", operation)
+                        .put("item", itemId)
+                        .putOpt("old", oldValues)
+                        .putOpt("new", newValues)
+                        .toString() + "\n";
+            } catch (JSONException e) {
+                // Only thrown for names that are null, which these aren't
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Read a record back from a journal line.
+         *
+         * @throws JSONException if the line isn't a whole record, e.g. because the process
+         *                       was killed while writing it
+         */
+        static Record fromJournalLine(String line) throws JSONException {
+            JSONObject json = new JSONObject(line);
+            return new Record(json.getLong("seq"), json.getLong("time"), json.getInt("uid"),
+                    json.getString("op"), json.getLong("item"),
+                    json.isNull("old") ? null : json.getString("old"),
+                    json.isNull("new") ? null : json.getString("new"));
+        }
+    }
+
+    private final InventoryConnectionPool mPool;
+    private final ContentResolver mResolver;
+    private final PackageManager mPackageManager;
+    private final File mJournal;
+    private final File mRotatedJournal;
+
+    /**
+     * Records in the journal that aren't in the table yet, oldest first
+     */
+    private final BlockingQueue<Record> mBuffer = new ArrayBlockingQueue<>(CAPACITY);
+
+    /**
+     * Package names by user ID. Only used by the thread that writes to the table.
+     */
+    private final SparseArray<String> mCallers = new SparseArray<>();
+
+    /**
+     * Guards the journal, the sequence numbers and the records on their way to the table, so
+     * records are numbered and journaled in the order of their transactions. Never held while
+     * waiting for the buffer, the writer may need it to finish a batch.
+     */
+    private final Object mJournalLock = new Object();
+    private FileOutputStream mJournalOut;
+    private long mJournalBytes;
+    private long mNextSequence;
+    private Thread mWriter;
+
+    /**
+     * Records journaled whose transaction wasn't seen to commit yet
+     */
+    private final Set<Record> mPrepared = new LinkedHashSet<>();
+
+    /**
+     * Sequence numbers in the journals that aren't in the table yet, and whose transaction
+     * didn't roll back
+     */
+    private final TreeSet<Long> mOutstanding = new TreeSet<>();
+
+    /**
+     * Last sequence number in the journal that was set aside, or -1 if there is none. Once
+     * the table has every record up to it, the journal isn't needed anymore.
+     */
+    private long mRotatedThrough = -1;
+
+    /**
+     * Set when a batch couldn't be written. The journals are kept from then on, so the
+     * records are written the next time the log is opened.
+     */
+    private volatile boolean mWriteFailed;
+
+    /**
+     * Guards the number of records that are recorded but not in the table yet
+     */
+    private final Object mPendingLock = new Object();
+    private long mPending;
+
+    /**
+     * Create a log keeping its journal in the given directory. Nothing is read or written
+     * until it's opened.
+     */
+    AuditLog(InventoryConnectionPool pool, ContentResolver resolver, PackageManager packageManager,
+             File directory) {
+        mPool = pool;
+        mResolver = resolver;
+        mPackageManager = packageManager;
+        mJournal = new File(directory, JOURNAL_NAME);
+        mRotatedJournal = new File(directory, JOURNAL_NAME + ROTATED_SUFFIX);
+    }
+
+    /**
+     * Write the records left in the journals by an earlier run to the table, then start
+     * the writer. Must be called before the first change is prepared, and not inside a
+     * transaction, since it writes to the table.
+     */
+    void open() {
+        synchronized (mJournalLock) {
+            openLocked();
+        }
+    }
+
+    private void openLocked() {
+        if (mWriter != null) {
+            return;
+        }
+
+        // Records of the earlier run by sequence number. A number taken again after its
+        // transaction rolled back is journaled twice, the later line is the one that counts.
+        TreeMap<Long, Record> records = new TreeMap<>();
+        readJournal(mRotatedJournal, records);
+        readJournal(mJournal, records);
+
+        SQLiteDatabase database = mPool.getWriter();
+        long last = DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX(" + AuditEntry._ID
+                + "), 0) FROM " + AuditEntry.TABLE_NAME, null);
+        Long journaledThrough = readJournaledThrough(database);
+        if (journaledThrough != null) {
+            // Journaled inside transactions that never committed
+            Map<Long, Record> rolledBack = records.tailMap(journaledThrough, false);
+            if (!rolledBack.isEmpty()) {
+                Log.i(LOG_TAG, "Dropping " + rolledBack.size() + " audit records of changes that didn't commit");
+                rolledBack.clear();
+            }
+            last = Math.max(last, journaledThrough);
+        }
+        if (!records.isEmpty()) {
+            Log.i(LOG_TAG, "Recovering " + records.size() + " audit records from the journal");
+            write(new ArrayList<>(records.values()));
+            last = Math.max(last, records.lastKey());
+        }
+        database.execSQL(SQL_SET_JOURNALED_THROUGH, new Object[]{last});
+        // Everything is in the table now. A crash before this point simply recovers the
+        // same records again, and the table ignores the ones it has.
+        mRotatedJournal.delete();
+        mRotatedThrough = -1;
+        mJournal.delete();
+        mNextSequence = last + 1;
+
+        try {
+            mJournalOut = new FileOutputStream(mJournal, true);
+        } catch (FileNotFoundException e) {
+            Log.e(LOG_TAG, "Could not open the audit journal, records are only kept in memory", e);
+        }
+        mJournalBytes = 0;
+
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeBuffered();
+            }
+        }, "AuditWriter");
+        mWriter.setDaemon(true);
+        mWriter.start();
+    }
+
+    /**
+     * Record a change inside its transaction, before it's marked successful. The record is on
+     * disk when this returns, and only counts if the transaction commits. Pass it to
+     * {@link #commit} once it did. The log must be open.
+     *
+     * @param itemId    ID of the changed item, or -1 if the change wasn't made to one item
+     * @param oldValues the changed columns before the change, or null
+     * @param newValues the changed columns after the change, or null
+     */
+    Record prepare(SQLiteDatabase database, String operation, long itemId, ContentValues oldValues,
+                   ContentValues newValues) {
+        return prepare(database, reserve(database), operation, itemId, oldValues, newValues);
+    }
+
+    /**
+     * Record a change under a sequence number taken by {@link #reserve} in the same
+     * transaction.
+     */
+    Record prepare(SQLiteDatabase database, long sequence, String operation, long itemId,
+                   ContentValues oldValues, ContentValues newValues) {
+        // The caller's package name is looked up by the writer, it takes a call to the system
+        Record record = new Record(sequence, System.currentTimeMillis(), Binder.getCallingUid(),
+                operation, itemId, toJson(oldValues), toJson(newValues));
+        synchronized (mJournalLock) {
+            appendToJournal(record);
+            mPrepared.add(record);
+            mOutstanding.add(sequence);
+        }
+        return record;
+    }
+
+    /**
+     * Take the sequence number of a change made in the current transaction, e.g. for the
+     * {@link #recordItems item values} written before its record is complete. The numbers of
+     * a transaction that rolls back are taken again by the next one.
+     */
+    long reserve(SQLiteDatabase database) {
+        synchronized (mJournalLock) {
+            if (mWriter == null) {
+                throw new IllegalStateException("The audit log isn't open");
+            }
+            // Transactions run one at a time, so numbers after the last one journaled by a
+            // committed transaction belong to one that rolled back
+            long journaledThrough = DatabaseUtils.longForQuery(database, SQL_JOURNALED_THROUGH, null);
+            if (mNextSequence > journaledThrough + 1) {
+                Iterator<Record> prepared = mPrepared.iterator();
+                while (prepared.hasNext()) {
+                    Record record = prepared.next();
+                    if (record.sequence > journaledThrough) {
+                        prepared.remove();
+                        mOutstanding.remove(record.sequence);
+                    }
+                }
+                mNextSequence = journaledThrough + 1;
+                deleteRotatedIfWrittenLocked();
+            }
+            long sequence = mNextSequence++;
+            database.execSQL(SQL_SET_JOURNALED_THROUGH, new Object[]{sequence});
+            return sequence;
+        }
+    }
+
+    /**
+     * Write the values of every item a bulk change changed, in its transaction. The select
+     * returns the item ID, then its old and new values as JSON, see {@link #jsonObject}.
+     * Return the number of items recorded.
+     */
+    static int recordItems(SQLiteDatabase database, long sequence, String select, String[] selectionArgs) {
+        SQLiteStatement statement = database.compileStatement("INSERT INTO " + AuditItemEntry.TABLE_NAME
+                + " (" + AuditItemEntry.COLUMN_AUDIT_ID + ", " + AuditItemEntry.COLUMN_ITEM_ID + ", "
+                + AuditItemEntry.COLUMN_OLD_VALUES + ", " + AuditItemEntry.COLUMN_NEW_VALUES
+                + ") SELECT " + sequence + ", * FROM (" + select + ")");
+        try {
+            if (selectionArgs != null) {
+                for (int i = 0; i < selectionArgs.length; i++) {
+                    statement.bindString(i + 1, selectionArgs[i]);
+                }
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Return the SQL for a JSON object of numeric values, in the format {@link #toJson} writes.
+     *
+     * @param namesAndValues each key followed by the SQL of its value
+     */
+    static String jsonObject(String... namesAndValues) {
+        StringBuilder sql = new StringBuilder("'{");
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            sql.append(i == 0 ? "" : ",").append('"').append(namesAndValues[i]).append("\":' || IFNULL(")
+                    .append(namesAndValues[i + 1]).append(", 'null') || '");
+        }
+        return sql.append("}'").toString();
+    }
+
+    /**
+     * Rewrites the recorded values of changes, see {@link #rewrite}.
+     */
+    interface Rewriter {
+
+        /**
+         * Return the values, a JSON object, as they should be kept from now on.
+         */
+        String rewrite(String values);
+    }
+
+    /**
+     * Rewrite the values recorded for the given columns, in the table and in the journals,
+     * e.g. to encrypt them. Must be called inside a transaction, which keeps every other
+     * change from being recorded meanwhile. Records committed before it may still be on
+     * their way to the table, call {@link #awaitWritten} and rewrite again to reach them.
+     * Return the number of rewritten rows in the table.
+     */
+    int rewrite(SQLiteDatabase database, String[] columns, Rewriter rewriter) {
+        int rows = rewriteTable(database, AuditEntry.TABLE_NAME, AuditEntry._ID, AuditEntry.COLUMN_OLD_VALUES,
+                AuditEntry.COLUMN_NEW_VALUES, columns, rewriter);
+        rows += rewriteTable(database, AuditItemEntry.TABLE_NAME, AuditItemEntry._ID,
+                AuditItemEntry.COLUMN_OLD_VALUES, AuditItemEntry.COLUMN_NEW_VALUES, columns, rewriter);
+
+        synchronized (mJournalLock) {
+            rewriteJournal(mRotatedJournal, rewriter);
+            if (mJournalOut != null) {
+                try {
+                    mJournalOut.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Could not close the audit journal", e);
+                }
+                mJournalOut = null;
+            }
+            rewriteJournal(mJournal, rewriter);
+            mJournalBytes = mJournal.length();
+            if (mWriter != null) {
+                try {
+                    mJournalOut = new FileOutputStream(mJournal, true);
+                } catch (FileNotFoundException e) {
+                    Log.e(LOG_TAG, "Could not open the audit journal, records are only kept in memory", e);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static int rewriteTable(SQLiteDatabase database, String table, String idColumn, String oldColumn,
+                                    String newColumn, String[] columns, Rewriter rewriter) {
+        // Only rows that mention one of the columns, most changes are sales
+        StringBuilder selection = new StringBuilder();
+        String[] selectionArgs = new String[columns.length * 2];
+        for (int i = 0; i < columns.length; i++) {
+            selection.append(i == 0 ? "" : " OR ").append(oldColumn).append(" LIKE ? OR ")
+                    .append(newColumn).append(" LIKE ?");
+            selectionArgs[2 * i] = "%\"" + columns[i] + "\"%";
+            selectionArgs[2 * i + 1] = selectionArgs[2 * i];
+        }
+
+        int rows = 0;
+        SQLiteStatement update = database.compileStatement("UPDATE " + table + " SET " + oldColumn + " = ?, "
+                + newColumn + " = ? WHERE " + idColumn + " = ?");
+        Cursor cursor = database.query(table, new String[]{idColumn, oldColumn, newColumn},
+                selection.toString(), selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                String oldValues = cursor.getString(1);
+                String newValues = cursor.getString(2);
+                String rewrittenOld = oldValues == null ? null : rewriter.rewrite(oldValues);
+                String rewrittenNew = newValues == null ? null : rewriter.rewrite(newValues);
+                if (equal(oldValues, rewrittenOld) && equal(newValues, rewrittenNew)) {
+                    continue;
+                }
+                bindStringOrNull(update, 1, rewrittenOld);
+                bindStringOrNull(update, 2, rewrittenNew);
+                update.bindLong(3, cursor.getLong(0));
+                update.executeUpdateDelete();
+                rows++;
+            }
+        } finally {
+            cursor.close();
+            update.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Replace the journal by a copy with the values rewritten. The copy is written next to it
+     * and renamed over it, so a crash leaves one of the two whole. Must be called with the
+     * journal lock held and the journal closed for writing.
+     */
+    private static void rewriteJournal(File journal, Rewriter rewriter) {
+        if (!journal.isFile()) {
+            return;
+        }
+        // A number journaled twice only keeps its later line, like when the journal is read back
+        Map<Long, Record> records = new TreeMap<>();
+        readJournal(journal, records);
+
+        File rewritten = new File(journal.getPath() + REWRITTEN_SUFFIX);
+        try {
+            FileOutputStream out = new FileOutputStream(rewritten);
+            try {
+                for (Record record : records.values()) {
+                    out.write(new Record(record.sequence, record.time, record.uid, record.operation,
+                            record.itemId,
+                            record.oldValues == null ? null : rewriter.rewrite(record.oldValues),
+                            record.newValues == null ? null : rewriter.rewrite(record.newValues))
+                            .toJournalLine().getBytes(UTF_8));
+                }
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!rewritten.renameTo(journal)) {
+                throw new IOException("Could not replace " + journal);
+            }
+        } catch (IOException e) {
+            // Its records may not be in the table yet, so it's kept as it is
+            Log.e(LOG_TAG, "Could not rewrite audit journal " + journal, e);
+            rewritten.delete();
+        }
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    void commit(Record record) {
+        commit(Collections.singletonList(record));
+    }
+
+    /**
+     * Hand records to the writer once their transaction committed. Must not be called inside
+     * a transaction: if the buffer is full this waits for the writer, which needs the write
+     * connection.
+     */
+    void commit(List<Record> records) {
+        List<Record> committed = new ArrayList<>(records.size());
+        synchronized (mJournalLock) {
+            for (Record record : records) {
+                if (mPrepared.remove(record)) {
+                    committed.add(record);
+                }
+            }
+        }
+        synchronized (mPendingLock) {
+            mPending += committed.size();
+        }
+
+        boolean interrupted = false;
+        for (Record record : committed) {
+            while (true) {
+                try {
+                    mBuffer.put(record);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait until every record committed so far is in the table.
+     */
+    void awaitWritten() {
+        synchronized (mPendingLock) {
+            while (mPending > 0) {
+                try {
+                    mPendingLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the writer and close the journal. Buffered records stay in the journal and are
+     * written the next time a log is opened on it.
+     */
+    void close() {
+        synchronized (mJournalLock) {
+            if (mWriter != null) {
+                mWriter.interrupt();
+                mWriter = null;
+            }
+            if (mJournalOut != null) {
+                try {
+                    mJournalOut.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Could not close the audit journal", e);
+                }
+                mJournalOut = null;
+            }
+        }
+    }
+
+    /**
+     * Append a record to the journal in one write, without flushing it to the storage
+     * device. Must be called with the journal lock held.
+     */
+    private void appendToJournal(Record record) {
+        if (mJournalOut == null) {
+            return;
+        }
+        byte[] line = record.toJournalLine().getBytes(UTF_8);
+        try {
+            mJournalOut.write(line);
+            mJournalBytes += line.length;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not journal audit record " + record.sequence, e);
+            return;
+        }
+
+        // Set the journal aside unless the one set aside before is still needed. Its records
+        // may still be on their way to the table, see deleteRotatedIfWrittenLocked().
+        if (mJournalBytes > ROTATE_BYTES && mRotatedThrough == -1) {
+            try {
+                mJournalOut.close();
+                if (mJournal.renameTo(mRotatedJournal)) {
+                    mRotatedThrough = record.sequence;
+                    mJournalBytes = 0;
+                }
+                mJournalOut = new FileOutputStream(mJournal, true);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Could not start a new audit journal", e);
+                mJournalOut = null;
+            }
+        }
+    }
+
+    /**
+     * Move buffered records to the table until the writer is interrupted.
+     */
+    private void writeBuffered() {
+        List<Record> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            try {
+                batch.add(mBuffer.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            mBuffer.drainTo(batch, BATCH_SIZE - 1);
+
+            try {
+                write(batch);
+                synchronized (mJournalLock) {
+                    for (Record record : batch) {
+                        mOutstanding.remove(record.sequence);
+                    }
+                    deleteRotatedIfWrittenLocked();
+                }
+                mResolver.notifyChange(AuditEntry.CONTENT_URI, null);
+            } catch (RuntimeException e) {
+                mWriteFailed = true;
+                Log.e(LOG_TAG, "Could not write " + batch.size() + " audit records, they stay in the journal", e);
+            } finally {
+                synchronized (mPendingLock) {
+                    mPending -= batch.size();
+                    mPendingLock.notifyAll();
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Delete the journal set aside once each of its records is in the table or rolled back.
+     * Records reach the table in the order their transactions commit, which isn't always the
+     * order of their numbers. Must be called with the journal lock held.
+     */
+    private void deleteRotatedIfWrittenLocked() {
+        if (mRotatedThrough != -1 && !mWriteFailed
+                && (mOutstanding.isEmpty() || mOutstanding.first() > mRotatedThrough)) {
+            mRotatedJournal.delete();
+            mRotatedThrough = -1;
+        }
+    }
+
+    /**
+     * Insert the records into the table in one transaction.
+     */
+    private void write(List<Record> records) {
+        SQLiteDatabase database = mPool.beginWrite();
+        try {
+            SQLiteStatement statement = database.compileStatement(SQL_INSERT);
+            try {
+                for (Record record : records) {
+                    statement.bindLong(1, record.sequence);
+                    statement.bindLong(2, record.time);
+                    bindStringOrNull(statement, 3, getCaller(record.uid));
+                    statement.bindString(4, record.operation);
+                    if (record.itemId == -1) {
+                        statement.bindNull(5);
+                    } else {
+                        statement.bindLong(5, record.itemId);
+                    }
+                    bindStringOrNull(statement, 6, record.oldValues);
+                    bindStringOrNull(statement, 7, record.newValues);
+                    statement.executeInsert();
+                }
+            } finally {
+                statement.close();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Return the package name of the app with the given user ID, or the ID itself if it
+     * isn't known.
+     */
+    private String getCaller(int uid) {
+        String caller = mCallers.get(uid);
+        if (caller == null) {
+            caller = mPackageManager.getNameForUid(uid);
+            if (caller == null) {
+                caller = String.valueOf(uid);
+            }
+            mCallers.put(uid, caller);
+        }
+        return caller;
+    }
+
+    /**
+     * Return the last sequence number journaled by a committed transaction, or null if none
+     * was stored yet, e.g. right after the upgrade that added it.
+     */
+    private static Long readJournaledThrough(SQLiteDatabase database) {
+        Cursor cursor = database.rawQuery(SQL_JOURNALED_THROUGH, null);
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Add the records of a journal to the map, by sequence number. A line that isn't a whole
+     * record ends the journal, it was being written when the process died.
+     */
+    private static void readJournal(File journal, Map<Long, Record> records) {
+        if (!journal.isFile()) {
+            return;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Record record = Record.fromJournalLine(line);
+                    records.put(record.sequence, record);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "Audit journal " + journal + " ends with a partial record", e);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not read audit journal " + journal, e);
+        }
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Return the values as a JSON object, or null if there are none.
+     */
+    static String toJson(ContentValues values) {
+        if (values == null) {
+            return null;
+        }
+        JSONObject json = new JSONObject();
+        try {
+            for (String key : values.keySet()) {
+                json.put(key, values.get(key) == null ? JSONObject.NULL : values.get(key));
+            }
+        } catch (JSONException e) {
+            // Only thrown for numbers that aren't finite, which no column holds
+            throw new IllegalArgumentException(e);
+        }
+        return json.toString();
+    }
+}
@@ -0,0 +1,456 @@
+package data;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import data.InventoryContract.InventoryEntry;
+
+/**
+ * The catalog held column by column in primitive arrays: one array of IDs, one of prices,
+ * one of quantities and so on, with a row per item. Compared with a list of {@link Item}s
+ * there is no object per item, so a large catalog takes a fraction of the memory, and totals,
+ * filters and sorts run as plain loops over arrays. Equal names and photos share one string.
+ *
+ * A catalog never changes once created. Changing rows returns a new catalog that shares the
+ * strings of the unchanged rows, so catalogs can be handed between threads.
+ */
+public final class CatalogColumns {
+
+    /**
+     * Columns read for each item
+     */
+    public static final String[] COLUMNS = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_PRODUCT_NAME,
+            InventoryEntry.COLUMN_PRICE,
+            InventoryEntry.COLUMN_QUANTITY,
+            InventoryEntry.COLUMN_PHOTO,
+            InventoryEntry.COLUMN_VERSION};
+
+    private static final int ID = 0;
+    private static final int PRODUCT_NAME = 1;
+    private static final int PRICE = 2;
+    private static final int QUANTITY = 3;
+    private static final int PHOTO = 4;
+    private static final int VERSION = 5;
+
+    /**
+     * A catalog without items
+     */
+    public static final CatalogColumns EMPTY = new CatalogColumns(new long[0], new String[0], new long[0],
+            new int[0], new String[0], new long[0]);
+
+    /**
+     * Decides whether a row belongs in the result of {@link #filter(RowFilter)}
+     */
+    public interface RowFilter {
+        boolean matches(CatalogColumns catalog, int row);
+    }
+
+    /**
+     * Orders two rows for {@link #sort(RowComparator)}
+     */
+    public interface RowComparator {
+        int compare(CatalogColumns catalog, int row1, int row2);
+    }
+
+    /**
+     * Cheapest item first
+     */
+    public static final RowComparator BY_PRICE = new RowComparator() {
+        @Override
+        public int compare(CatalogColumns catalog, int row1, int row2) {
+            return compareLongs(catalog.mPrices[row1], catalog.mPrices[row2]);
+        }
+    };
+
+    /**
+     * Item with the fewest units first
+     */
+    public static final RowComparator BY_QUANTITY = new RowComparator() {
+        @Override
+        public int compare(CatalogColumns catalog, int row1, int row2) {
+            return compareLongs(catalog.mQuantities[row1], catalog.mQuantities[row2]);
+        }
+    };
+
+    private final long[] mIds;
+    private final String[] mNames;
+
+    /**
+     * Prices in minor units, see {@link Money}
+     */
+    private final long[] mPrices;
+    private final int[] mQuantities;
+    private final String[] mPhotos;
+    private final long[] mVersions;
+
+    /**
+     * Rows ordered by ID, to find the row of an ID with a binary search
+     */
+    private final int[] mRowsById;
+
+    private CatalogColumns(long[] ids, String[] names, long[] prices, int[] quantities, String[] photos,
+                           long[] versions) {
+        this(ids, names, prices, quantities, photos, versions, null);
+    }
+
+    /**
+     * @param rowsById the rows ordered by ID, or null to sort them here
+     */
+    private CatalogColumns(long[] ids, String[] names, long[] prices, int[] quantities, String[] photos,
+                           long[] versions, int[] rowsById) {
+        mIds = ids;
+        mNames = names;
+        mPrices = prices;
+        mQuantities = quantities;
+        mPhotos = photos;
+        mVersions = versions;
+        if (rowsById == null) {
+            rowsById = identity(ids.length);
+            sortRows(rowsById, new RowComparator() {
+                @Override
+                public int compare(CatalogColumns catalog, int row1, int row2) {
+                    return compareLongs(mIds[row1], mIds[row2]);
+                }
+            });
+        }
+        mRowsById = rowsById;
+    }
+
+    /**
+     * Read every row of a cursor with the {@link #COLUMNS}, keeping the cursor's order. The
+     * cursor's position is changed, but it isn't closed.
+     */
+    public static CatalogColumns fromCursor(Cursor cursor) {
+        int count = cursor.getCount();
+        long[] ids = new long[count];
+        String[] names = new String[count];
+        long[] prices = new long[count];
+        int[] quantities = new int[count];
+        String[] photos = new String[count];
+        long[] versions = new long[count];
+
+        int[] columns = columnIndexes(cursor);
+        Map<String, String> strings = new HashMap<>();
+        cursor.moveToPosition(-1);
+        for (int row = 0; cursor.moveToNext(); row++) {
+            ids[row] = cursor.getLong(columns[ID]);
+            names[row] = share(strings, cursor.getString(columns[PRODUCT_NAME]));
+            prices[row] = cursor.getLong(columns[PRICE]);
+            quantities[row] = cursor.getInt(columns[QUANTITY]);
+            photos[row] = share(strings, cursor.getString(columns[PHOTO]));
+            versions[row] = cursor.getLong(columns[VERSION]);
+        }
+        return new CatalogColumns(ids, names, prices, quantities, photos, versions);
+    }
+
+    /**
+     * Copy the given items, e.g. the ones saved by {@link CatalogSnapshot}.
+     */
+    public static CatalogColumns fromItems(List<Item> items) {
+        int count = items.size();
+        long[] ids = new long[count];
+        String[] names = new String[count];
+        long[] prices = new long[count];
+        int[] quantities = new int[count];
+        String[] photos = new String[count];
+        long[] versions = new long[count];
+        for (int row = 0; row < count; row++) {
+            Item item = items.get(row);
+            ids[row] = item.id;
+            names[row] = item.productName;
+            prices[row] = item.price;
+            quantities[row] = item.quantity;
+            photos[row] = item.photo;
+            versions[row] = item.version;
+        }
+        return new CatalogColumns(ids, names, prices, quantities, photos, versions);
+    }
+
+    public int size() {
+        return mIds.length;
+    }
+
+    public long getId(int row) {
+        return mIds[row];
+    }
+
+    public String getName(int row) {
+        return mNames[row];
+    }
+
+    /**
+     * Return the price per unit in minor units, see {@link Money}
+     */
+    public long getPrice(int row) {
+        return mPrices[row];
+    }
+
+    public int getQuantity(int row) {
+        return mQuantities[row];
+    }
+
+    public String getPhoto(int row) {
+        return mPhotos[row];
+    }
+
+    public long getVersion(int row) {
+        return mVersions[row];
+    }
+
+    /**
+     * Return the row of the item with the given ID, or -1 if it isn't in the catalog.
+     */
+    public int indexOf(long id) {
+        int low = 0;
+        int high = mRowsById.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleId = mIds[mRowsById[middle]];
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return mRowsById[middle];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the items of the given rows as objects, e.g. to save a few of them.
+     */
+    public List<Item> toItems(int fromRow, int toRow) {
+        List<Item> items = new ArrayList<>(toRow - fromRow);
+        for (int row = fromRow; row < toRow; row++) {
+            items.add(new Item(mIds[row], mNames[row], mPrices[row], mQuantities[row], null, null,
+                    mPhotos[row], mVersions[row]));
+        }
+        return Collections.unmodifiableList(items);
+    }
+
+    /**
+     * Return a catalog with the given row replaced by the cursor's current row of the same
+     * item, which has the {@link #COLUMNS}. The row keeps its place. Columns that didn't
+     * change are shared with this catalog.
+     */
+    public CatalogColumns withRow(int row, Cursor cursor) {
+        int[] columns = columnIndexes(cursor);
+        if (cursor.getLong(columns[ID]) != mIds[row]) {
+            throw new IllegalArgumentException("Row " + row + " holds item " + mIds[row]
+                    + ", not " + cursor.getLong(columns[ID]));
+        }
+
+        long[] prices = mPrices.clone();
+        prices[row] = cursor.getLong(columns[PRICE]);
+        int[] quantities = mQuantities.clone();
+        quantities[row] = cursor.getInt(columns[QUANTITY]);
+        long[] versions = mVersions.clone();
+        versions[row] = cursor.getLong(columns[VERSION]);
+
+        // A sale or price change leaves the strings as they are
+        String[] names = mNames;
+        String name = cursor.getString(columns[PRODUCT_NAME]);
+        if (!TextUtils.equals(name, mNames[row])) {
+            names = mNames.clone();
+            names[row] = name;
+        }
+        String[] photos = mPhotos;
+        String photo = cursor.getString(columns[PHOTO]);
+        if (!TextUtils.equals(photo, mPhotos[row])) {
+            photos = mPhotos.clone();
+            photos[row] = photo;
+        }
+        return new CatalogColumns(mIds, names, prices, quantities, photos, versions, mRowsById);
+    }
+
+    /**
+     * Return a catalog without the given row. The rows after it move up by one.
+     */
+    public CatalogColumns withoutRow(int row) {
+        // The ID order stays the same, only the row numbers after the removed one shift
+        int[] rowsById = new int[mRowsById.length - 1];
+        int next = 0;
+        for (int byId : mRowsById) {
+            if (byId != row) {
+                rowsById[next++] = byId > row ? byId - 1 : byId;
+            }
+        }
+        return new CatalogColumns(remove(mIds, row), remove(mNames, row), remove(mPrices, row),
+                remove(mQuantities, row), remove(mPhotos, row), remove(mVersions, row), rowsById);
+    }
+
+    /**
+     * Return the rows that match the filter, in catalog order.
+     */
+    public int[] filter(RowFilter filter) {
+        int[] rows = new int[mIds.length];
+        int count = 0;
+        for (int row = 0; row < mIds.length; row++) {
+            if (filter.matches(this, row)) {
+                rows[count++] = row;
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    /**
+     * Return all rows in the order of the comparator. Rows that compare as equal keep their
+     * catalog order.
+     */
+    public int[] sort(RowComparator comparator) {
+        int[] rows = identity(mIds.length);
+        sortRows(rows, comparator);
+        return rows;
+    }
+
+    /**
+     * Return the total number of units of all items.
+     */
+    public long getTotalUnits() {
+        long units = 0;
+        for (int quantity : mQuantities) {
+            units += quantity;
+        }
+        return units;
+    }
+
+    /**
+     * Return the total value of all units in minor units. Like the stock value of the
+     * provider, it's summed as whole and minor parts, and overflow is checked.
+     *
+     * @throws ArithmeticException if the total doesn't fit in a long
+     */
+    public long getTotalValue() {
+        long major = 0;
+        long minor = 0;
+        for (int row = 0; row < mPrices.length; row++) {
+            major = Money.add(major, Money.multiply(mPrices[row] / Money.MINOR_PER_MAJOR, mQuantities[row]));
+            minor += (mPrices[row] % Money.MINOR_PER_MAJOR) * mQuantities[row];
+        }
+        return Money.ofParts(major, minor);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CatalogColumns)) {
+            return false;
+        }
+        CatalogColumns other = (CatalogColumns) o;
+        return Arrays.equals(mIds, other.mIds)
+                && Arrays.equals(mVersions, other.mVersions)
+                && Arrays.equals(mQuantities, other.mQuantities)
+                && Arrays.equals(mPrices, other.mPrices)
+                && Arrays.equals(mNames, other.mNames)
+                && Arrays.equals(mPhotos, other.mPhotos);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Arrays.hashCode(mIds);
+        result = 31 * result + Arrays.hashCode(mVersions);
+        result = 31 * result + Arrays.hashCode(mQuantities);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "CatalogColumns{" + mIds.length + " items}";
+    }
+
+    private static int[] columnIndexes(Cursor cursor) {
+        int[] columns = new int[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            columns[i] = cursor.getColumnIndexOrThrow(COLUMNS[i]);
+        }
+        return columns;
+    }
+
+    /**
+     * Return the string already used for an equal value, so equal names are only kept once
+     */
+    private static String share(Map<String, String> strings, String value) {
+        if (value == null) {
+            return null;
+        }
+        String shared = strings.get(value);
+        if (shared == null) {
+            strings.put(value, value);
+            return value;
+        }
+        return shared;
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    private static int[] identity(int length) {
+        int[] rows = new int[length];
+        for (int i = 0; i < length; i++) {
+            rows[i] = i;
+        }
+        return rows;
+    }
+
+    /**
+     * Sort row numbers with a stable merge sort, without boxing them
+     */
+    private void sortRows(int[] rows, RowComparator comparator) {
+        int[] buffer = new int[rows.length];
+        for (int width = 1; width < rows.length; width *= 2) {
+            for (int start = 0; start < rows.length - width; start += 2 * width) {
+                int middle = start + width;
+                int end = Math.min(start + 2 * width, rows.length);
+                // Already in order, nothing to merge. Catalogs are often sorted already.
+                if (comparator.compare(this, rows[middle - 1], rows[middle]) <= 0) {
+                    continue;
+                }
+                System.arraycopy(rows, start, buffer, start, end - start);
+                int left = start;
+                int right = middle;
+                for (int i = start; i < end; i++) {
+                    if (right >= end || (left < middle
+                            && comparator.compare(this, buffer[left], buffer[right]) <= 0)) {
+                        rows[i] = buffer[left++];
+                    } else {
+                        rows[i] = buffer[right++];
+                    }
+                }
+            }
+        }
+    }
+
+    private static long[] remove(long[] values, int index) {
+        long[] result = new long[values.length - 1];
+        System.arraycopy(values, 0, result, 0, index);
+        System.arraycopy(values, index + 1, result, index, result.length - index);
+        return result;
+    }
+
+    private static int[] remove(int[] values, int index) {
+        int[] result = new int[values.length - 1];
+        System.arraycopy(values, 0, result, 0, index);
+        System.arraycopy(values, index + 1, result, index, result.length - index);
+        return result;
+    }
+
+    private static String[] remove(String[] values, int index) {
+        String[] result = new String[values.length - 1];
+        System.arraycopy(values, 0, result, 0, index);
+        System.arraycopy(values, index + 1, result, index, result.length - index);
+        return result;
+    }
+}
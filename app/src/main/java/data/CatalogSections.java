@@ -0,0 +1,85 @@
+package data;
+
+import android.database.Cursor;
+
+import java.util.Arrays;
+
+import data.InventoryContract.SectionEntry;
+
+/**
+ * The sections of the catalog sorted by {@link InventoryContract.InventoryEntry#SORT_BY_NAME}:
+ * one per first letter of the names, with the position of its first item. The positions are
+ * summed up from the item counts per letter, so finding a section takes time by the number of
+ * letters, not by the number of items.
+ */
+public final class CatalogSections {
+
+    /**
+     * No sections, for a catalog whose counts haven't been read yet
+     */
+    public static final CatalogSections EMPTY = new CatalogSections(new String[0], new int[0]);
+
+    private final String[] mLetters;
+
+    /**
+     * Position of the first item of each section
+     */
+    private final int[] mStarts;
+
+    private CatalogSections(String[] letters, int[] starts) {
+        mLetters = letters;
+        mStarts = starts;
+    }
+
+    /**
+     * Read the sections from a cursor of {@link InventoryContract.InventoryEntry#SECTIONS_URI}.
+     * The cursor's position is changed, but it isn't closed.
+     */
+    public static CatalogSections fromCursor(Cursor cursor) {
+        if (cursor == null) {
+            return EMPTY;
+        }
+        int letterColumn = cursor.getColumnIndexOrThrow(SectionEntry.COLUMN_LETTER);
+        int countColumn = cursor.getColumnIndexOrThrow(SectionEntry.COLUMN_COUNT);
+        String[] letters = new String[cursor.getCount()];
+        int[] starts = new int[cursor.getCount()];
+        int position = 0;
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            letters[i] = cursor.getString(letterColumn);
+            starts[i] = position;
+            position += cursor.getInt(countColumn);
+        }
+        return new CatalogSections(letters, starts);
+    }
+
+    /**
+     * Return the letters of the sections, in catalog order
+     */
+    public String[] getLetters() {
+        return mLetters;
+    }
+
+    /**
+     * Return the position of the first item of the given section. Sections past the last one
+     * give the position of the last section.
+     */
+    public int getPositionForSection(int section) {
+        if (mStarts.length == 0 || section < 0) {
+            return 0;
+        }
+        return mStarts[Math.min(section, mStarts.length - 1)];
+    }
+
+    /**
+     * Return the section that the item at the given position belongs to.
+     */
+    public int getSectionForPosition(int position) {
+        if (mStarts.length == 0) {
+            return 0;
+        }
+        int section = Arrays.binarySearch(mStarts, position);
+        // Between two starts, the position belongs to the section of the start before it
+        return section >= 0 ? section : Math.max(0, -section - 2);
+    }
+}
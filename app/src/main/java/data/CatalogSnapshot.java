@@ -0,0 +1,174 @@
+package data;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import data.InventoryContract.InventoryEntry;
+
+/**
+ * A small copy of the first screen of catalog items, saved in a file so that the catalog can
+ * show it right away on the next start, while the real items are still loading.
+ */
+public final class CatalogSnapshot {
+
+    private static final String LOG_TAG = CatalogSnapshot.class.getSimpleName();
+
+    /**
+     * Columns the catalog shows for each item, in the order they are stored in the snapshot
+     */
+    public static final String[] COLUMNS = {
+            InventoryEntry._ID,
+            InventoryEntry.COLUMN_PRODUCT_NAME,
+            InventoryEntry.COLUMN_PRICE,
+            InventoryEntry.COLUMN_QUANTITY,
+            InventoryEntry.COLUMN_PHOTO};
+
+    /**
+     * Number of items saved, enough to fill the first screen of the catalog
+     */
+    public static final int FIRST_PAGE_SIZE = 20;
+
+    private static final String FILE_NAME = "catalog_snapshot";
+
+    /**
+     * Format of the file, increased whenever {@link #COLUMNS} or the encoding change
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * Writes snapshot files in order, off the main thread
+     */
+    private static final Executor sWriter = Executors.newSingleThreadExecutor();
+
+    /**
+     * Contents of the last snapshot handed to {@link #sWriter}, to skip identical writes
+     */
+    private static byte[] sLastWritten;
+
+    private CatalogSnapshot() {
+    }
+
+    /**
+     * Read the saved snapshot. This only reads a small file, so it is fine to call while the
+     * catalog is being created.
+     *
+     * @return the first catalog items with their {@link #COLUMNS} filled in, or null if there
+     * is no usable snapshot
+     */
+    public static List<Item> read(Context context) {
+        AtomicFile file = getFile(context);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(file.openRead());
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            int count = in.readInt();
+            List<Item> items = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                String productName = in.readUTF();
+                long price = in.readLong();
+                int quantity = in.readInt();
+                String photo = in.readBoolean() ? in.readUTF() : null;
+                items.add(new Item(id, productName, price, quantity, null, null, photo, 0));
+            }
+            return Collections.unmodifiableList(items);
+        } catch (FileNotFoundException e) {
+            // No snapshot saved yet
+            return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Ignoring unreadable catalog snapshot", e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Save the first of the given catalog items. The items are encoded right away, the file
+     * itself is written on a background thread. Nothing is written if the first items didn't
+     * change since the last save.
+     */
+    public static void write(Context context, List<Item> items) {
+        int count = Math.min(items.size(), FIRST_PAGE_SIZE);
+
+        final byte[] bytes;
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * (count + 1));
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                Item item = items.get(i);
+                out.writeLong(item.id);
+                out.writeUTF(item.productName);
+                out.writeLong(item.price);
+                out.writeInt(item.quantity);
+                out.writeBoolean(item.photo != null);
+                if (item.photo != null) {
+                    out.writeUTF(item.photo);
+                }
+            }
+            out.flush();
+            bytes = buffer.toByteArray();
+        } catch (IOException e) {
+            // Can't happen when writing to memory
+            throw new IllegalStateException(e);
+        }
+
+        synchronized (CatalogSnapshot.class) {
+            if (Arrays.equals(bytes, sLastWritten)) {
+                return;
+            }
+            sLastWritten = bytes;
+        }
+
+        final AtomicFile file = getFile(context);
+        sWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                FileOutputStream stream = null;
+                try {
+                    stream = file.startWrite();
+                    stream.write(bytes);
+                    file.finishWrite(stream);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Could not save catalog snapshot", e);
+                    if (stream != null) {
+                        file.failWrite(stream);
+                    }
+                }
+            }
+        });
+    }
+
+    private static AtomicFile getFile(Context context) {
+        return new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+                // Nothing left to do with the file
+            }
+        }
+    }
+}
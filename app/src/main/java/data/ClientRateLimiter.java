@@ -0,0 +1,62 @@
+package data;
+
+import android.util.SparseArray;
+
+/**
+ * Limits how many requests each app can make, so one app reading in a tight loop can't keep
+ * the database busy for everybody else.
+ *
+ * Every app has a bucket of tokens that refills at a steady rate up to the size of a burst.
+ * A request takes a token, and is refused if the bucket is empty. An app that stays under
+ * the rate is never refused, one that goes over it is slowed down to the rate.
+ */
+final class ClientRateLimiter {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /**
+     * Time in which the bucket gains one token
+     */
+    private final long mNanosPerToken;
+
+    private final int mBurst;
+
+    /**
+     * Bucket of each app by its user ID, guarded by this
+     */
+    private final SparseArray<Bucket> mBuckets = new SparseArray<>();
+
+    private static final class Bucket {
+        double tokens;
+        long refilledAt;
+    }
+
+    ClientRateLimiter(int requestsPerSecond, int burst) {
+        mNanosPerToken = NANOS_PER_SECOND / requestsPerSecond;
+        mBurst = burst;
+    }
+
+    /**
+     * Take a token for a request of the given app.
+     *
+     * @param nowNanos the current time of a monotonic clock, such as {@link System#nanoTime()}
+     * @return 0 if the request may go ahead, otherwise the milliseconds until it may
+     */
+    synchronized long acquire(int uid, long nowNanos) {
+        Bucket bucket = mBuckets.get(uid);
+        if (bucket == null) {
+            bucket = new Bucket();
+            bucket.tokens = mBurst;
+            bucket.refilledAt = nowNanos;
+            mBuckets.put(uid, bucket);
+        }
+
+        bucket.tokens = Math.min(mBurst, bucket.tokens + (double) (nowNanos - bucket.refilledAt) / mNanosPerToken);
+        bucket.refilledAt = nowNanos;
+        if (bucket.tokens >= 1) {
+            bucket.tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - bucket.tokens) * mNanosPerToken / 1000000);
+    }
+}
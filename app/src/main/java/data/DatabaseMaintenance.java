@@ -0,0 +1,181 @@
+package data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.File;
+
+import data.InventoryContract.MaintenanceEntry;
+
+import static data.InventoryProvider.LOG_TAG;
+
+/**
+ * Upkeep of the database after months of sales, imports and deletes: deleted items are
+ * purged, old history points are rolled up into hours and days, the statistics of the query
+ * planner are brought up to date, free pages are given back, the write-ahead log is folded
+ * into the database and emptied, and the database is checked for corruption. Each run is
+ * recorded with its duration and the space it reclaimed.
+ *
+ * None of the steps holds the write lock for long, except the one-time conversion of old
+ * databases to incremental vacuum, so a run can happen while the app is used. It is meant
+ * to run while the device is idle, see {@link MaintenanceJobService}.
+ */
+final class DatabaseMaintenance {
+
+    /**
+     * Most problems the integrity check reports. The first few are enough to know that the
+     * database is damaged.
+     */
+    private static final int MAX_INTEGRITY_ERRORS = 10;
+
+    /**
+     * Removes all but the latest runs from the log
+     */
+    private static final String SQL_TRIM_LOG = "DELETE FROM " + MaintenanceEntry.TABLE_NAME
+            + " WHERE " + MaintenanceEntry._ID + " <= (SELECT MAX(" + MaintenanceEntry._ID + ") FROM "
+            + MaintenanceEntry.TABLE_NAME + ") - " + MaintenanceEntry.KEEP_RUNS;
+
+    private DatabaseMaintenance() {
+    }
+
+    /**
+     * What one run did
+     */
+    static final class Report {
+        final long durationMillis;
+        final long sizeBefore;
+        final long sizeAfter;
+        final int purgedItems;
+        final String integrity;
+
+        Report(long durationMillis, long sizeBefore, long sizeAfter, int purgedItems, String integrity) {
+            this.durationMillis = durationMillis;
+            this.sizeBefore = sizeBefore;
+            this.sizeAfter = sizeAfter;
+            this.purgedItems = purgedItems;
+            this.integrity = integrity;
+        }
+
+        /**
+         * Return the result of {@link InventoryContract#METHOD_RUN_MAINTENANCE}
+         */
+        Bundle toBundle() {
+            Bundle bundle = new Bundle();
+            bundle.putLong(InventoryContract.EXTRA_DURATION_MILLIS, durationMillis);
+            bundle.putLong(InventoryContract.EXTRA_BYTES_RECLAIMED, sizeBefore - sizeAfter);
+            bundle.putString(InventoryContract.EXTRA_INTEGRITY, integrity);
+            bundle.putInt(InventoryContract.EXTRA_ROWS, purgedItems);
+            return bundle;
+        }
+
+        @Override
+        public String toString() {
+            return "Maintenance took " + durationMillis + " ms, size " + sizeBefore + " -> " + sizeAfter
+                    + " bytes, purged " + purgedItems + " items, integrity " + integrity;
+        }
+    }
+
+    /**
+     * Run every step and record the run. Items deleted before the given time are purged.
+     * Must not be called inside a transaction.
+     */
+    static Report run(InventoryConnectionPool pool, long deletedBefore) {
+        long startedAt = System.currentTimeMillis();
+        long start = System.nanoTime();
+        SQLiteDatabase database = pool.getWriter();
+        long sizeBefore = size(database);
+
+        int purged = TombstonePurger.purge(pool, deletedBefore);
+        ItemHistory.rollUp(pool, startedAt);
+
+        // Counts of rows and distinct values drift as the inventory grows, the planner picks
+        // its indexes by them
+        database.execSQL("ANALYZE");
+
+        // The purge only vacuums after it removed something, pages freed by other deletes
+        // are given back here
+        TombstonePurger.vacuum(database);
+        checkpoint(database);
+        String integrity = checkIntegrity(database);
+
+        long sizeAfter = size(database);
+        Report report = new Report((System.nanoTime() - start) / 1000000, sizeBefore, sizeAfter, purged,
+                integrity);
+        record(pool, startedAt, report);
+        Log.i(LOG_TAG, report.toString());
+        return report;
+    }
+
+    /**
+     * Copy the write-ahead log into the database and truncate it. The log only grows, so
+     * after a burst of writes it keeps its largest size until it is truncated.
+     */
+    static void checkpoint(SQLiteDatabase database) {
+        // Older SQLite versions don't know TRUNCATE and run a passive checkpoint instead,
+        // which still copies the log but leaves the file as large as it is
+        Cursor cursor = database.rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null);
+        try {
+            // The first column tells whether a reader or writer kept the checkpoint from
+            // finishing, the next run will finish it
+            if (cursor.moveToFirst() && cursor.getInt(0) != 0) {
+                Log.w(LOG_TAG, "Checkpoint could not finish, the database is in use");
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return "ok" if the database is sound, otherwise the first problems found.
+     */
+    private static String checkIntegrity(SQLiteDatabase database) {
+        Cursor cursor = database.rawQuery("PRAGMA integrity_check(" + MAX_INTEGRITY_ERRORS + ")", null);
+        try {
+            StringBuilder problems = new StringBuilder();
+            while (cursor.moveToNext()) {
+                if (problems.length() != 0) {
+                    problems.append('\n');
+                }
+                problems.append(cursor.getString(0));
+            }
+            String integrity = problems.toString();
+            if (!"ok".equals(integrity)) {
+                // Nothing is repaired or deleted here, the data may still be mostly readable
+                Log.e(LOG_TAG, "Database integrity check failed: " + integrity);
+            }
+            return integrity;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void record(InventoryConnectionPool pool, long startedAt, Report report) {
+        ContentValues values = new ContentValues();
+        values.put(MaintenanceEntry.COLUMN_STARTED_AT, startedAt);
+        values.put(MaintenanceEntry.COLUMN_DURATION_MILLIS, report.durationMillis);
+        values.put(MaintenanceEntry.COLUMN_SIZE_BEFORE, report.sizeBefore);
+        values.put(MaintenanceEntry.COLUMN_SIZE_AFTER, report.sizeAfter);
+        values.put(MaintenanceEntry.COLUMN_PURGED_ITEMS, report.purgedItems);
+        values.put(MaintenanceEntry.COLUMN_INTEGRITY, report.integrity);
+
+        SQLiteDatabase database = pool.beginWrite();
+        try {
+            database.insertOrThrow(MaintenanceEntry.TABLE_NAME, null, values);
+            database.execSQL(SQL_TRIM_LOG);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Return the size of the database file and its write-ahead log, in bytes
+     */
+    private static long size(SQLiteDatabase database) {
+        String path = database.getPath();
+        return new File(path).length() + new File(path + "-wal").length();
+    }
+}
@@ -0,0 +1,301 @@
+package data;
+
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import data.InventoryContract.ForecastEntry;
+
+/**
+ * Keeps an exponentially weighted sales rate for every item and the demand it predicts,
+ * which the provider turns into suggested reorder quantities.
+ *
+ * The rate decays continuously: a sale counts fully right after it happened and half as
+ * much one half-life later. Because of that, the rate at any time only depends on the rate
+ * at the previous sale and the time since, so a sale updates it with one lookup and one
+ * write, without reading any earlier sales. For an item that sells steadily, the rate
+ * approaches the units sold per day.
+ */
+final class DemandForecast {
+
+    /**
+     * Name of the preferences holding the parameters
+     */
+    static final String PREFERENCES = "demand_forecast";
+
+    static final double DEFAULT_HALF_LIFE_DAYS = 14;
+    static final double DEFAULT_COVER_DAYS = 14;
+
+    /**
+     * Smallest number of items worth handing to another thread when recomputing
+     */
+    static final int MIN_BATCH_SIZE = 512;
+
+    private static final String KEY_HALF_LIFE_DAYS = "halfLifeDays";
+    private static final String KEY_COVER_DAYS = "coverDays";
+
+    private static final double MILLIS_PER_DAY = 24 * 60 * 60 * 1000.0;
+
+    private static final String SQL_SELECT_RATE = "SELECT " + ForecastEntry.COLUMN_RATE + ", "
+            + ForecastEntry.COLUMN_UPDATED_AT + " FROM " + ForecastEntry.TABLE_NAME
+            + " WHERE " + ForecastEntry.COLUMN_ITEM_ID + " = ?";
+
+    /**
+     * Arguments: item ID, rate, update time, demand
+     */
+    private static final String SQL_SAVE_RATE = "INSERT OR REPLACE INTO " + ForecastEntry.TABLE_NAME
+            + " (" + ForecastEntry.COLUMN_ITEM_ID + ", " + ForecastEntry.COLUMN_RATE + ", "
+            + ForecastEntry.COLUMN_UPDATED_AT + ", " + ForecastEntry.COLUMN_DEMAND + ") VALUES (?, ?, ?, ?)";
+
+    /**
+     * Saves a recomputed rate, unless a sale changed it since it was read.
+     * Arguments: rate, update time, demand, item ID, update time that was read.
+     */
+    private static final String SQL_UPDATE_RATE = "UPDATE " + ForecastEntry.TABLE_NAME + " SET "
+            + ForecastEntry.COLUMN_RATE + " = ?, " + ForecastEntry.COLUMN_UPDATED_AT + " = ?, "
+            + ForecastEntry.COLUMN_DEMAND + " = ? WHERE " + ForecastEntry.COLUMN_ITEM_ID + " = ? AND "
+            + ForecastEntry.COLUMN_UPDATED_AT + " = ?";
+
+    /**
+     * Parameters of the forecast. Instances never change.
+     */
+    static final class Parameters {
+        final double halfLifeDays;
+        final double coverDays;
+
+        Parameters(double halfLifeDays, double coverDays) {
+            if (!(halfLifeDays > 0) || Double.isInfinite(halfLifeDays)) {
+                throw new IllegalArgumentException("The half-life must be a positive number of days");
+            }
+            if (!(coverDays >= 0) || Double.isInfinite(coverDays)) {
+                throw new IllegalArgumentException("The cover days can't be negative");
+            }
+            this.halfLifeDays = halfLifeDays;
+            this.coverDays = coverDays;
+        }
+
+        /**
+         * Return the mean life of a sale's weight, in days. A rate decays by a factor of e
+         * in this time.
+         */
+        double meanLifeDays() {
+            return halfLifeDays / Math.log(2);
+        }
+    }
+
+    private final SharedPreferences mPreferences;
+    private final ThreadPoolExecutor mExecutor;
+    private volatile Parameters mParameters;
+
+    DemandForecast(SharedPreferences preferences) {
+        mPreferences = preferences;
+        mParameters = new Parameters(
+                Double.longBitsToDouble(preferences.getLong(KEY_HALF_LIFE_DAYS,
+                        Double.doubleToLongBits(DEFAULT_HALF_LIFE_DAYS))),
+                Double.longBitsToDouble(preferences.getLong(KEY_COVER_DAYS,
+                        Double.doubleToLongBits(DEFAULT_COVER_DAYS))));
+
+        // One thread per core, they only exist while a recomputation runs
+        int threads = Runtime.getRuntime().availableProcessors();
+        mExecutor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "DemandForecast");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    Parameters getParameters() {
+        return mParameters;
+    }
+
+    /**
+     * Change and save the parameters. Null values keep the current value. Existing rates
+     * are kept as they are and decay at the new half-life from now on.
+     *
+     * @return the new parameters
+     * @throws IllegalArgumentException if a value is out of range
+     */
+    synchronized Parameters setParameters(Double halfLifeDays, Double coverDays) {
+        Parameters current = mParameters;
+        Parameters parameters = new Parameters(
+                halfLifeDays != null ? halfLifeDays : current.halfLifeDays,
+                coverDays != null ? coverDays : current.coverDays);
+        mPreferences.edit()
+                .putLong(KEY_HALF_LIFE_DAYS, Double.doubleToLongBits(parameters.halfLifeDays))
+                .putLong(KEY_COVER_DAYS, Double.doubleToLongBits(parameters.coverDays))
+                .apply();
+        mParameters = parameters;
+        return parameters;
+    }
+
+    /**
+     * Return a rate as it has decayed from the given update time until now.
+     */
+    static double decay(double rate, long updatedAt, long now, double meanLifeDays) {
+        double elapsedDays = Math.max(0, now - updatedAt) / MILLIS_PER_DAY;
+        return rate * Math.exp(-elapsedDays / meanLifeDays);
+    }
+
+    /**
+     * Return the units expected to sell within the cover days at the given rate
+     */
+    static int demand(double rate, double coverDays) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.round(rate * coverDays));
+    }
+
+    /**
+     * Add a sale to the rate of an item. Must be called inside the transaction that
+     * records the sale.
+     */
+    void recordSale(SQLiteDatabase database, long itemId, int units, long now) {
+        Parameters parameters = mParameters;
+        double meanLife = parameters.meanLifeDays();
+
+        double rate = 0;
+        Cursor cursor = database.rawQuery(SQL_SELECT_RATE, new String[]{String.valueOf(itemId)});
+        try {
+            if (cursor.moveToFirst()) {
+                rate = decay(cursor.getDouble(0), cursor.getLong(1), now, meanLife);
+            }
+        } finally {
+            cursor.close();
+        }
+        // Each unit adds its full weight, spread over the mean life
+        rate += units / meanLife;
+
+        SQLiteStatement statement = database.compileStatement(SQL_SAVE_RATE);
+        try {
+            statement.bindLong(1, itemId);
+            statement.bindDouble(2, rate);
+            statement.bindLong(3, now);
+            statement.bindLong(4, demand(rate, parameters.coverDays));
+            statement.executeInsert();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Bring the rates and demand of all items up to the given time with the current
+     * parameters. The items are split into batches computed on all cores, then written in
+     * one transaction. Rates changed by a sale meanwhile are left alone, they are current.
+     * Must not be called inside a transaction.
+     *
+     * @return the number of items updated
+     */
+    int recompute(InventoryConnectionPool pool, final long now) {
+        final Parameters parameters = mParameters;
+
+        // Read the current state
+        final long[] ids;
+        final double[] rates;
+        final long[] updatedAts;
+        SQLiteDatabase reader = pool.acquireReader();
+        try {
+            Cursor cursor = reader.query(ForecastEntry.TABLE_NAME, new String[]{ForecastEntry.COLUMN_ITEM_ID,
+                    ForecastEntry.COLUMN_RATE, ForecastEntry.COLUMN_UPDATED_AT}, null, null, null, null, null);
+            try {
+                int count = cursor.getCount();
+                ids = new long[count];
+                rates = new double[count];
+                updatedAts = new long[count];
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    ids[i] = cursor.getLong(0);
+                    rates[i] = cursor.getDouble(1);
+                    updatedAts[i] = cursor.getLong(2);
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            pool.releaseReader(reader);
+        }
+        if (ids.length == 0) {
+            return 0;
+        }
+
+        // Compute the new state in batches, each thread writes its own range of the arrays
+        final double[] newRates = new double[ids.length];
+        final int[] demands = new int[ids.length];
+        int batchSize = Math.max(MIN_BATCH_SIZE,
+                (ids.length + mExecutor.getMaximumPoolSize() - 1) / mExecutor.getMaximumPoolSize());
+        List<Future<?>> batches = new ArrayList<>();
+        for (int start = batchSize; start < ids.length; start += batchSize) {
+            final int from = start;
+            final int to = Math.min(ids.length, start + batchSize);
+            batches.add(mExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    computeBatch(parameters, now, rates, updatedAts, newRates, demands, from, to);
+                }
+            }));
+        }
+        // The first batch runs on this thread
+        computeBatch(parameters, now, rates, updatedAts, newRates, demands, 0, Math.min(ids.length, batchSize));
+        awaitAll(batches);
+
+        // Save it
+        int updated = 0;
+        SQLiteDatabase database = pool.beginWrite();
+        try {
+            SQLiteStatement statement = database.compileStatement(SQL_UPDATE_RATE);
+            try {
+                for (int i = 0; i < ids.length; i++) {
+                    statement.bindDouble(1, newRates[i]);
+                    statement.bindLong(2, now);
+                    statement.bindLong(3, demands[i]);
+                    statement.bindLong(4, ids[i]);
+                    statement.bindLong(5, updatedAts[i]);
+                    updated += statement.executeUpdateDelete();
+                }
+            } finally {
+                statement.close();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return updated;
+    }
+
+    private static void computeBatch(Parameters parameters, long now, double[] rates, long[] updatedAts,
+                                     double[] newRates, int[] demands, int from, int to) {
+        double meanLife = parameters.meanLifeDays();
+        for (int i = from; i < to; i++) {
+            newRates[i] = decay(rates[i], updatedAts[i], now, meanLife);
+            demands[i] = demand(newRates[i], parameters.coverDays);
+        }
+    }
+
+    /**
+     * Wait for all batches. Waiting also makes their results visible to this thread.
+     */
+    private static void awaitAll(List<Future<?>> batches) {
+        try {
+            for (Future<?> batch : batches) {
+                batch.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while recomputing the forecast", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not recompute the forecast", e.getCause());
+        }
+    }
+}
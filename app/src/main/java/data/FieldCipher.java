@@ -0,0 +1,159 @@
+package data;
+
+import android.util.Base64;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypts single values with a key derived from a passphrase. Nothing is kept in hardware,
+ * the key only exists in memory while this object does.
+ *
+ * The encryption is deterministic: the IV is the HMAC of the value, and checked again after
+ * decrypting. Equal values give equal ciphertexts, so the database can still compare and
+ * group encrypted columns, and a value that was changed or encrypted with another key is
+ * detected. Only the equality of values is revealed.
+ */
+final class FieldCipher {
+
+    /**
+     * PBKDF2 rounds for new keys. Stored with the salt, so it can be raised later without
+     * locking anyone out.
+     */
+    static final int ITERATIONS = 20000;
+
+    private static final int SALT_BYTES = 16;
+    private static final int KEY_BYTES = 32;
+    private static final int IV_BYTES = 16;
+
+    /**
+     * Marks encrypted values, values without it are read as they are
+     */
+    private static final String PREFIX = "enc1:";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final SecretKeySpec mEncryptionKey;
+    private final SecretKeySpec mMacKey;
+
+    private FieldCipher(byte[] keys) {
+        mEncryptionKey = new SecretKeySpec(keys, 0, KEY_BYTES, "AES");
+        mMacKey = new SecretKeySpec(keys, KEY_BYTES, KEY_BYTES, "HmacSHA256");
+        Arrays.fill(keys, (byte) 0);
+    }
+
+    /**
+     * Return a new random salt for {@link #derive(String, byte[], int)}.
+     */
+    static byte[] newSalt() {
+        byte[] salt = new byte[SALT_BYTES];
+        new SecureRandom().nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * Derive the keys from the passphrase with PBKDF2. This takes a noticeable time on
+     * purpose, call it off the main thread.
+     */
+    static FieldCipher derive(String passphrase, byte[] salt, int iterations) {
+        // Before KitKat, PBKDF2 only used the low byte of each character. Hex digits of the
+        // UTF-8 bytes give the same key on every version.
+        byte[] bytes = passphrase.getBytes(UTF_8);
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+            hex[2 * i + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+        }
+        PBEKeySpec spec = new PBEKeySpec(hex, salt, iterations, 2 * KEY_BYTES * 8);
+        try {
+            return new FieldCipher(SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1")
+                    .generateSecret(spec).getEncoded());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2 is not available", e);
+        } finally {
+            spec.clearPassword();
+            Arrays.fill(hex, '0');
+            Arrays.fill(bytes, (byte) 0);
+        }
+    }
+
+    /**
+     * Return whether the value was encrypted by a FieldCipher.
+     */
+    static boolean isEncrypted(String value) {
+        return value != null && value.startsWith(PREFIX);
+    }
+
+    /**
+     * Encrypt the value. Null stays null.
+     */
+    String encrypt(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            byte[] plaintext = value.getBytes(UTF_8);
+            byte[] iv = Arrays.copyOf(mac(plaintext), IV_BYTES);
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.ENCRYPT_MODE, mEncryptionKey, new IvParameterSpec(iv));
+            byte[] ciphertext = cipher.doFinal(plaintext);
+
+            byte[] result = new byte[IV_BYTES + ciphertext.length];
+            System.arraycopy(iv, 0, result, 0, IV_BYTES);
+            System.arraycopy(ciphertext, 0, result, IV_BYTES, ciphertext.length);
+            return PREFIX + Base64.encodeToString(result, Base64.NO_WRAP);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not encrypt", e);
+        }
+    }
+
+    /**
+     * Decrypt a value from {@link #encrypt(String)}. Values that aren't encrypted are returned
+     * as they are.
+     *
+     * @throws IllegalArgumentException if the value was encrypted with another key or changed
+     */
+    String decrypt(String value) {
+        if (!isEncrypted(value)) {
+            return value;
+        }
+        byte[] data = Base64.decode(value.substring(PREFIX.length()), Base64.NO_WRAP);
+        if (data.length <= IV_BYTES) {
+            throw new IllegalArgumentException("Encrypted value is too short");
+        }
+        byte[] iv = Arrays.copyOf(data, IV_BYTES);
+        byte[] plaintext;
+        try {
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.DECRYPT_MODE, mEncryptionKey, new IvParameterSpec(iv));
+            plaintext = cipher.doFinal(data, IV_BYTES, data.length - IV_BYTES);
+        } catch (GeneralSecurityException e) {
+            // A wrong key usually shows up as bad padding
+            throw new IllegalArgumentException("Value was encrypted with another key", e);
+        }
+        if (!MessageDigest.isEqual(iv, Arrays.copyOf(mac(plaintext), IV_BYTES))) {
+            throw new IllegalArgumentException("Value was encrypted with another key");
+        }
+        return new String(plaintext, UTF_8);
+    }
+
+    private byte[] mac(byte[] plaintext) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(mMacKey);
+            return mac.doFinal(plaintext);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 is not available", e);
+        }
+    }
+}
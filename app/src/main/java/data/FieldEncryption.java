@@ -0,0 +1,367 @@
+package data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import data.InventoryContract.EncryptionEntry;
+import data.InventoryContract.InventoryEntry;
+import data.InventoryContract.OrderEntry;
+
+import static data.InventoryProvider.LOG_TAG;
+
+/**
+ * Keeps the supplier details, the names and phone numbers of the suppliers of the items and
+ * purchase orders, encrypted in the database, see {@link InventoryContract#METHOD_UNLOCK}.
+ * Values are encrypted on their way in and decrypted on their way out, so the rest of the
+ * provider doesn't notice. Values are encrypted deterministically, so items can still be
+ * grouped and selected by supplier.
+ *
+ * Setting the passphrase encrypts the stored details and the ones recorded in the audit
+ * trail, then vacuums the database and empties its write-ahead log, so the plain text doesn't stay
+ * behind in free pages. Deleted values are overwritten as well, see
+ * {@link InventoryDbHelper#onConfigure}.
+ *
+ * Prices and quantities stay as they are. They are summed, compared and changed by SQL all
+ * over the provider, in the stock value, the history triggers, the stocktake and the bulk
+ * changes, none of which could work on encrypted values.
+ */
+final class FieldEncryption {
+
+    /**
+     * The encrypted columns, they have the same names in the items and the purchase orders
+     */
+    static final String[] COLUMNS = {InventoryEntry.COLUMN_SUPPLIER, InventoryEntry.COLUMN_SUPPLIER_NUMBER};
+
+    /**
+     * Text encrypted as the verifier of the key
+     */
+    private static final String VERIFIER_TEXT = "inventory";
+
+    private final InventoryConnectionPool mPool;
+    private final AuditLog mAudit;
+
+    /**
+     * Whether a passphrase was set, null until it was read. Guarded by this, and only
+     * changed while holding the write transaction.
+     */
+    private Boolean mEnabled;
+
+    /**
+     * Key of the session, null while locked
+     */
+    private volatile FieldCipher mCipher;
+
+    FieldEncryption(InventoryConnectionPool pool, AuditLog audit) {
+        mPool = pool;
+        mAudit = audit;
+    }
+
+    /**
+     * Return whether the supplier details are stored encrypted.
+     */
+    synchronized boolean isEnabled() {
+        if (mEnabled == null) {
+            SQLiteDatabase database = mPool.acquireReader();
+            try {
+                mEnabled = DatabaseUtils.queryNumEntries(database, EncryptionEntry.TABLE_NAME) != 0;
+            } finally {
+                mPool.releaseReader(database);
+            }
+        }
+        return mEnabled;
+    }
+
+    /**
+     * Derive the key from the passphrase and keep it for the session.
+     *
+     * @throws IllegalArgumentException if the passphrase is wrong, or none was set yet
+     */
+    void unlock(String passphrase) {
+        if (passphrase == null || passphrase.isEmpty()) {
+            throw new IllegalArgumentException("The passphrase is missing");
+        }
+
+        byte[] salt = null;
+        int iterations = 0;
+        String verifier = null;
+        SQLiteDatabase reader = mPool.acquireReader();
+        try {
+            Cursor cursor = reader.query(EncryptionEntry.TABLE_NAME, null, null, null, null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    salt = cursor.getBlob(cursor.getColumnIndexOrThrow(EncryptionEntry.COLUMN_SALT));
+                    iterations = cursor.getInt(cursor.getColumnIndexOrThrow(EncryptionEntry.COLUMN_ITERATIONS));
+                    verifier = cursor.getString(cursor.getColumnIndexOrThrow(EncryptionEntry.COLUMN_VERIFIER));
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            mPool.releaseReader(reader);
+        }
+        if (salt == null) {
+            throw new IllegalArgumentException("No passphrase was set yet");
+        }
+
+        FieldCipher cipher = FieldCipher.derive(passphrase, salt, iterations);
+        if (!cipher.encrypt(VERIFIER_TEXT).equals(verifier)) {
+            throw new IllegalArgumentException("Wrong passphrase");
+        }
+        mCipher = cipher;
+    }
+
+    /**
+     * Set the passphrase, encrypt every stored supplier detail and keep the key for the
+     * session. The details can't be read without the passphrase from then on, so it must be
+     * typed twice. Must not be called inside a transaction.
+     *
+     * @param confirmation the passphrase typed a second time
+     * @return the number of rows encrypted
+     * @throws IllegalArgumentException if the passphrases differ, or a passphrase was set already
+     */
+    int setPassphrase(String passphrase, String confirmation) {
+        if (passphrase == null || passphrase.isEmpty()) {
+            throw new IllegalArgumentException("The passphrase is missing");
+        }
+        if (!passphrase.equals(confirmation)) {
+            throw new IllegalArgumentException("The passphrases differ");
+        }
+        if (isEnabled()) {
+            throw new IllegalArgumentException("A passphrase was set already, unlock with it");
+        }
+
+        // Deriving the key is slow on purpose, do it before taking the write lock
+        byte[] salt = FieldCipher.newSalt();
+        return enable(FieldCipher.derive(passphrase, salt, FieldCipher.ITERATIONS), salt);
+    }
+
+    /**
+     * Store the salt and verifier of the new key and encrypt the supplier details, in one
+     * transaction. Then encrypt the ones that were still on their way to the audit trail and
+     * get rid of the plain text left in the database file.
+     */
+    private int enable(final FieldCipher cipher, byte[] salt) {
+        // The audit trail is rewritten below, the records of the last run must be in it
+        mAudit.open();
+        AuditLog.Rewriter rewriter = new AuditLog.Rewriter() {
+            @Override
+            public String rewrite(String values) {
+                return encryptJson(cipher, values);
+            }
+        };
+
+        int rows = 0;
+        boolean enabled = false;
+        SQLiteDatabase database = mPool.beginWrite();
+        try {
+            synchronized (this) {
+                // Another passphrase may have been set while the key was derived
+                if (DatabaseUtils.queryNumEntries(database, EncryptionEntry.TABLE_NAME) != 0) {
+                    throw new IllegalArgumentException("A passphrase was set meanwhile, unlock with it");
+                }
+                ContentValues values = new ContentValues(3);
+                values.put(EncryptionEntry.COLUMN_SALT, salt);
+                values.put(EncryptionEntry.COLUMN_ITERATIONS, FieldCipher.ITERATIONS);
+                values.put(EncryptionEntry.COLUMN_VERIFIER, cipher.encrypt(VERIFIER_TEXT));
+                database.insertOrThrow(EncryptionEntry.TABLE_NAME, null, values);
+
+                rows += encryptTable(database, cipher, InventoryEntry.TABLE_NAME, InventoryEntry._ID);
+                rows += encryptTable(database, cipher, OrderEntry.TABLE_NAME, OrderEntry._ID);
+                mAudit.rewrite(database, COLUMNS, rewriter);
+
+                // Writers wait for this transaction, so none of them can see the flag and
+                // still write a supplier detail in plain text
+                mEnabled = true;
+                mCipher = cipher;
+                enabled = true;
+                database.setTransactionSuccessful();
+            }
+        } finally {
+            database.endTransaction();
+            if (!enabled) {
+                synchronized (this) {
+                    mEnabled = null;
+                    mCipher = null;
+                }
+            }
+        }
+
+        // Changes committed before the key was set were recorded in plain text, and may have
+        // reached the audit table only after it was rewritten
+        mAudit.awaitWritten();
+        database = mPool.beginWrite();
+        try {
+            mAudit.rewrite(database, COLUMNS, rewriter);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // The plain text is still in the pages the values were moved out of and in the
+        // write-ahead log. Vacuuming copies only the live rows into a new file, the
+        // checkpoint then empties the log.
+        database = mPool.getWriter();
+        try {
+            database.execSQL("VACUUM");
+        } catch (SQLiteException e) {
+            Log.w(LOG_TAG, "Could not vacuum after encrypting the supplier details", e);
+        }
+        DatabaseMaintenance.checkpoint(database);
+        return rows;
+    }
+
+    private static int encryptTable(SQLiteDatabase database, FieldCipher cipher, String table, String idColumn) {
+        int rows = 0;
+        StringBuilder sql = new StringBuilder("UPDATE " + table + " SET ");
+        String[] projection = new String[COLUMNS.length + 1];
+        projection[0] = idColumn;
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sql.append(i == 0 ? "" : ", ").append(COLUMNS[i]).append(" = ?");
+            projection[i + 1] = COLUMNS[i];
+        }
+        SQLiteStatement update = database.compileStatement(sql.append(" WHERE ").append(idColumn)
+                .append(" = ?").toString());
+        Cursor cursor = database.query(table, projection, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                boolean changed = false;
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    String value = cursor.getString(i + 1);
+                    if (value == null) {
+                        update.bindNull(i + 1);
+                    } else if (FieldCipher.isEncrypted(value)) {
+                        update.bindString(i + 1, value);
+                    } else {
+                        update.bindString(i + 1, cipher.encrypt(value));
+                        changed = true;
+                    }
+                }
+                if (!changed) {
+                    continue;
+                }
+                update.bindLong(COLUMNS.length + 1, cursor.getLong(0));
+                update.executeUpdateDelete();
+                rows++;
+            }
+        } finally {
+            cursor.close();
+            update.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Return the values recorded by the audit trail with the supplier details encrypted.
+     */
+    private static String encryptJson(FieldCipher cipher, String values) {
+        try {
+            JSONObject json = new JSONObject(values);
+            boolean changed = false;
+            for (String column : COLUMNS) {
+                String value = json.optString(column, null);
+                if (!json.isNull(column) && !FieldCipher.isEncrypted(value)) {
+                    json.put(column, cipher.encrypt(value));
+                    changed = true;
+                }
+            }
+            return changed ? json.toString() : values;
+        } catch (JSONException e) {
+            // The audit trail only holds objects
+            throw new IllegalArgumentException("Not a JSON object: " + values, e);
+        }
+    }
+
+    /**
+     * Forget the key until the next unlock.
+     */
+    void lock() {
+        mCipher = null;
+    }
+
+    /**
+     * Return the values with the supplier details encrypted, if there are any and a
+     * passphrase was set. The values passed in are left as they are. Call this inside the
+     * write transaction, so a passphrase can't be set between encrypting and writing.
+     *
+     * @throws SupplierDetailsLockedException if there is a detail to encrypt but the key is locked
+     */
+    ContentValues encrypt(ContentValues values) {
+        ContentValues encrypted = values;
+        for (String column : COLUMNS) {
+            String value = values.getAsString(column);
+            if (value != null && isEnabled()) {
+                if (encrypted == values) {
+                    encrypted = new ContentValues(values);
+                }
+                encrypted.put(column, encrypt(value));
+            }
+        }
+        return encrypted;
+    }
+
+    /**
+     * Return a supplier detail as it is stored, e.g. to select the items of a supplier.
+     *
+     * @throws SupplierDetailsLockedException if the details are encrypted but the key is locked
+     */
+    String encrypt(String value) {
+        if (value == null || !isEnabled()) {
+            return value;
+        }
+        FieldCipher cipher = mCipher;
+        if (cipher == null) {
+            throw new SupplierDetailsLockedException();
+        }
+        return cipher.encrypt(value);
+    }
+
+    /**
+     * Return a cursor that reads the supplier details of the given one decrypted, or as null
+     * while the key is locked.
+     */
+    Cursor decrypt(Cursor cursor) {
+        if (cursor == null || !isEnabled()) {
+            return cursor;
+        }
+        final boolean[] encrypted = new boolean[cursor.getColumnCount()];
+        boolean any = false;
+        for (String column : COLUMNS) {
+            int index = cursor.getColumnIndex(column);
+            if (index != -1) {
+                encrypted[index] = true;
+                any = true;
+            }
+        }
+        if (!any) {
+            return cursor;
+        }
+        final FieldCipher cipher = mCipher;
+        return new CursorWrapper(cursor) {
+            @Override
+            public String getString(int columnIndex) {
+                String value = super.getString(columnIndex);
+                if (!encrypted[columnIndex] || !FieldCipher.isEncrypted(value)) {
+                    return value;
+                }
+                return cipher == null ? null : cipher.decrypt(value);
+            }
+
+            @Override
+            public boolean isNull(int columnIndex) {
+                if (encrypted[columnIndex] && cipher == null && !super.isNull(columnIndex)) {
+                    return FieldCipher.isEncrypted(super.getString(columnIndex));
+                }
+                return super.isNull(columnIndex);
+            }
+        };
+    }
+}
@@ -0,0 +1,302 @@
+package data;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import data.InventoryContract.ApiItemEntry;
+import data.InventoryContract.InventoryEntry;
+
+/**
+ * The read-only API of the inventory for other apps, on the
+ * {@link InventoryContract#API_AUTHORITY}. See {@link ApiItemEntry} for what it offers.
+ *
+ * Every request is checked here and then handed to {@link InventoryProvider}, which isn't
+ * exported, so the API reads exactly what the app itself reads. Other apps can only read a
+ * few columns of live items, can't pass their own SQL, and get a page of a bounded size at a
+ * time. Each app is rate limited on its own, see {@link ClientRateLimiter}.
+ */
+public class InventoryApiProvider extends ContentProvider {
+
+    /**
+     * URI matcher code for the content URI of the items and of a single item
+     */
+    private static final int ITEM = 100;
+    private static final int ITEM_ID = 101;
+
+    private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+
+    static {
+        sUriMatcher.addURI(InventoryContract.API_AUTHORITY, InventoryContract.PATH_ITEMS, ITEM);
+        sUriMatcher.addURI(InventoryContract.API_AUTHORITY, InventoryContract.PATH_ITEMS + "/#", ITEM_ID);
+    }
+
+    private static final Set<String> sColumns = new HashSet<>(Arrays.asList(ApiItemEntry.COLUMNS));
+
+    private final ClientRateLimiter mRateLimiter =
+            new ClientRateLimiter(ApiItemEntry.REQUESTS_PER_SECOND, ApiItemEntry.BURST_REQUESTS);
+
+    /**
+     * Passes changes of the items on to the observers of the API's URIs
+     */
+    private final ContentObserver mItemObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            List<String> segments = uri == null ? null : uri.getPathSegments();
+            if (segments != null && segments.size() == 2 && TextUtils.isDigitsOnly(segments.get(1))) {
+                getContext().getContentResolver().notifyChange(ContentUris.withAppendedId(
+                        ApiItemEntry.CONTENT_URI, Long.parseLong(segments.get(1))), null);
+            } else if (segments == null || segments.size() == 1) {
+                getContext().getContentResolver().notifyChange(ApiItemEntry.CONTENT_URI, null);
+            }
+            // Sections, stock value and the like aren't part of the API
+        }
+    };
+
+    @Override
+    public boolean onCreate() {
+        getContext().getContentResolver().registerContentObserver(InventoryEntry.CONTENT_URI, true, mItemObserver);
+        return true;
+    }
+
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        checkRate();
+        int match = sUriMatcher.match(uri);
+        if (match == UriMatcher.NO_MATCH) {
+            throw new IllegalArgumentException("Cannot query unknown URI " + uri);
+        }
+        // A selection could read other columns through the conditions, or scan the table
+        if (selection != null) {
+            throw new IllegalArgumentException("Selections aren't supported, page with "
+                    + InventoryContract.PARAM_AFTER_ID);
+        }
+        if (sortOrder != null && !InventoryEntry._ID.equals(sortOrder)) {
+            throw new IllegalArgumentException("Items can only be sorted by " + InventoryEntry._ID);
+        }
+        projection = checkProjection(projection);
+
+        Uri itemsUri;
+        String[] args = null;
+        if (match == ITEM_ID) {
+            itemsUri = ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, ContentUris.parseId(uri));
+        } else {
+            itemsUri = InventoryEntry.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(InventoryContract.PARAM_LIMIT, String.valueOf(parseLimit(uri)))
+                    .build();
+            // Pages follow the primary key, so every page is a range read of the table
+            selection = InventoryEntry._ID + " > ?";
+            args = new String[]{String.valueOf(parseAfterId(uri))};
+        }
+
+        Cursor cursor;
+        long identity = Binder.clearCallingIdentity();
+        try {
+            cursor = getContext().getContentResolver().query(itemsUri, projection, selection, args,
+                    InventoryEntry._ID);
+        } finally {
+            Binder.restoreCallingIdentity(identity);
+        }
+        if (cursor != null) {
+            cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        }
+        return cursor;
+    }
+
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        // Unlike queries, calls aren't checked against the permissions of the manifest
+        getContext().enforceCallingOrSelfPermission(InventoryContract.PERMISSION_READ_INVENTORY,
+                "Reading the inventory needs " + InventoryContract.PERMISSION_READ_INVENTORY);
+        checkRate();
+        if (InventoryContract.METHOD_GET_ITEMS.equals(method)) {
+            return getItems(extras == null ? null : extras.getLongArray(InventoryContract.EXTRA_ITEM_IDS));
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Look up the items with the given IDs in one query, see
+     * {@link InventoryContract#METHOD_GET_ITEMS}.
+     */
+    private Bundle getItems(long[] ids) {
+        if (ids == null) {
+            throw new IllegalArgumentException("The item IDs are missing");
+        }
+        if (ids.length > ApiItemEntry.MAX_LIMIT) {
+            throw new IllegalArgumentException("At most " + ApiItemEntry.MAX_LIMIT + " items per call, not "
+                    + ids.length);
+        }
+
+        StringBuilder selection = new StringBuilder(InventoryEntry._ID).append(" IN (");
+        String[] args = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+            args[i] = String.valueOf(ids[i]);
+        }
+        selection.append(')');
+
+        Cursor cursor;
+        long identity = Binder.clearCallingIdentity();
+        try {
+            cursor = getContext().getContentResolver().query(InventoryEntry.CONTENT_URI, ApiItemEntry.COLUMNS,
+                    ids.length == 0 ? "0" : selection.toString(), ids.length == 0 ? null : args, null);
+        } finally {
+            Binder.restoreCallingIdentity(identity);
+        }
+        if (cursor == null) {
+            return null;
+        }
+
+        try {
+            // Rows come in the order of the table, hand them out in the order asked for
+            Map<Long, Integer> positions = new HashMap<>();
+            while (cursor.moveToNext()) {
+                positions.put(cursor.getLong(0), cursor.getPosition());
+            }
+            int found = 0;
+            for (long id : ids) {
+                if (positions.containsKey(id)) {
+                    found++;
+                }
+            }
+
+            long[] foundIds = new long[found];
+            String[] names = new String[found];
+            long[] prices = new long[found];
+            int[] quantities = new int[found];
+            long[] versions = new long[found];
+            int next = 0;
+            for (long id : ids) {
+                Integer position = positions.get(id);
+                if (position == null) {
+                    continue;
+                }
+                cursor.moveToPosition(position);
+                foundIds[next] = cursor.getLong(0);
+                names[next] = cursor.getString(1);
+                prices[next] = cursor.getLong(2);
+                quantities[next] = cursor.getInt(3);
+                versions[next] = cursor.getLong(4);
+                next++;
+            }
+
+            Bundle result = new Bundle();
+            result.putLongArray(InventoryEntry._ID, foundIds);
+            result.putStringArray(InventoryEntry.COLUMN_PRODUCT_NAME, names);
+            result.putLongArray(InventoryEntry.COLUMN_PRICE, prices);
+            result.putIntArray(InventoryEntry.COLUMN_QUANTITY, quantities);
+            result.putLongArray(InventoryEntry.COLUMN_VERSION, versions);
+            return result;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case ITEM:
+                return ApiItemEntry.CONTENT_LIST_TYPE;
+            case ITEM_ID:
+                return ApiItemEntry.CONTENT_ITEM_TYPE;
+            default:
+                throw new IllegalStateException("Unknown URI " + uri);
+        }
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        throw new UnsupportedOperationException("The inventory API is read-only");
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("The inventory API is read-only");
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection,
+                      @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("The inventory API is read-only");
+    }
+
+    /**
+     * Refuse the request if the calling app has made too many lately. The exception is one
+     * of those that reach the calling app.
+     */
+    private void checkRate() {
+        long waitMillis = mRateLimiter.acquire(Binder.getCallingUid(), System.nanoTime());
+        if (waitMillis != 0) {
+            throw new IllegalStateException("Too many requests, try again in " + waitMillis + " ms");
+        }
+    }
+
+    /**
+     * Return the columns to read, all of the API's if there is no projection. Columns outside
+     * of the API are refused.
+     */
+    private static String[] checkProjection(String[] projection) {
+        if (projection == null) {
+            return ApiItemEntry.COLUMNS;
+        }
+        for (String column : projection) {
+            if (!sColumns.contains(column)) {
+                throw new IllegalArgumentException("Column " + column + " can't be read");
+            }
+        }
+        return projection;
+    }
+
+    /**
+     * Return the page size of the URI, the default if it has none, and at most the maximum.
+     */
+    private static int parseLimit(Uri uri) {
+        String limit = uri.getQueryParameter(InventoryContract.PARAM_LIMIT);
+        if (limit == null) {
+            return ApiItemEntry.DEFAULT_LIMIT;
+        }
+        if (limit.isEmpty() || !TextUtils.isDigitsOnly(limit)) {
+            throw new IllegalArgumentException("Limit must be a number: " + limit);
+        }
+        // Even more digits than an int can hold only ask for the largest page
+        return limit.length() > 9 ? ApiItemEntry.MAX_LIMIT : Math.min(Integer.parseInt(limit), ApiItemEntry.MAX_LIMIT);
+    }
+
+    private static long parseAfterId(Uri uri) {
+        String afterId = uri.getQueryParameter(InventoryContract.PARAM_AFTER_ID);
+        if (afterId == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(afterId);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Item ID must be a number: " + afterId);
+        }
+    }
+}
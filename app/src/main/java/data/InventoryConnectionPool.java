@@ -0,0 +1,288 @@
+package data;
+
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.CursorWrapper;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One write connection and several read-only connections to the inventory database.
+ *
+ * A single {@link SQLiteDatabase} runs one statement at a time, so when the catalog loader,
+ * a background job and a search all query through it they wait for each other. The database
+ * uses write-ahead logging (see {@link InventoryDbHelper#onConfigure(SQLiteDatabase)}), which
+ * lets any number of readers run next to the one writer, each on its own connection.
+ *
+ * Reads lease one of the read connections with {@link #acquireReader()} and give it back with
+ * {@link #releaseReader(SQLiteDatabase)}, or hand it to the cursor they return with
+ * {@link #releaseReaderOnClose(SQLiteDatabase, Cursor)}. Read connections are opened on first
+ * use, up to the pool size. When all of them are leased the caller waits, and that wait is counted in the
+ * {@link Stats}, as is the time writers wait to start a transaction.
+ */
+final class InventoryConnectionPool {
+
+    /**
+     * Read connections that aren't leased right now
+     */
+    private final BlockingQueue<SQLiteDatabase> mIdleReaders;
+
+    /**
+     * Every read connection opened so far, to close them
+     */
+    private final List<SQLiteDatabase> mReaders;
+
+    private final InventoryDbHelper mDbHelper;
+    private final int mReaderCount;
+
+    /**
+     * Creates the cursors of the read connections, null for the default cursors
+     */
+    private final SQLiteDatabase.CursorFactory mReaderCursorFactory;
+
+    private final AtomicLong mReads = new AtomicLong();
+    private final AtomicLong mContendedReads = new AtomicLong();
+    private final AtomicLong mReadWaitNanos = new AtomicLong();
+    private final AtomicLong mWrites = new AtomicLong();
+    private final AtomicLong mWriteWaitNanos = new AtomicLong();
+
+    /**
+     * Create a pool with the given number of read connections. Nothing is opened yet.
+     */
+    InventoryConnectionPool(InventoryDbHelper dbHelper, int readerCount) {
+        this(dbHelper, readerCount, null);
+    }
+
+    /**
+     * Create a pool whose read connections create their cursors with the given factory, e.g.
+     * to see which SQL the queries run. Nothing is opened yet.
+     */
+    InventoryConnectionPool(InventoryDbHelper dbHelper, int readerCount,
+                            SQLiteDatabase.CursorFactory readerCursorFactory) {
+        if (readerCount < 1) {
+            throw new IllegalArgumentException("A pool needs at least one reader");
+        }
+        mDbHelper = dbHelper;
+        mReaderCount = readerCount;
+        mReaderCursorFactory = readerCursorFactory;
+        mIdleReaders = new ArrayBlockingQueue<>(readerCount);
+        mReaders = new ArrayList<>(readerCount);
+    }
+
+    /**
+     * Return the number of read connections to use on this device: one per core, but at least
+     * two so that a long query never blocks every other read.
+     */
+    static int defaultReaderCount() {
+        return Math.max(2, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Return the write connection. Opening it creates or migrates the database if needed.
+     * Use {@link #beginWrite()} to write inside a transaction.
+     */
+    SQLiteDatabase getWriter() {
+        return mDbHelper.getWritableDatabase();
+    }
+
+    /**
+     * Begin a transaction on the write connection and return it. The caller must end the
+     * transaction. Time spent waiting for another writer to finish is counted as contention.
+     */
+    SQLiteDatabase beginWrite() {
+        SQLiteDatabase database = getWriter();
+        long start = System.nanoTime();
+        database.beginTransaction();
+        mWriteWaitNanos.addAndGet(System.nanoTime() - start);
+        mWrites.incrementAndGet();
+        return database;
+    }
+
+    /**
+     * Lease a read connection, waiting for one to be released if all of them are in use.
+     * Every leased connection must be given back with {@link #releaseReader(SQLiteDatabase)}.
+     */
+    SQLiteDatabase acquireReader() {
+        mReads.incrementAndGet();
+        SQLiteDatabase reader = mIdleReaders.poll();
+        if (reader != null) {
+            return reader;
+        }
+
+        reader = openReaderIfAllowed();
+        if (reader != null) {
+            return reader;
+        }
+
+        // Every reader is leased, wait for one to come back
+        mContendedReads.incrementAndGet();
+        long start = System.nanoTime();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    reader = mIdleReaders.take();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            mReadWaitNanos.addAndGet(System.nanoTime() - start);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return reader;
+    }
+
+    /**
+     * Give back a read connection leased with {@link #acquireReader()}.
+     */
+    void releaseReader(SQLiteDatabase reader) {
+        mIdleReaders.offer(reader);
+    }
+
+    /**
+     * Give back the read connection the given cursor was queried on once the connection isn't
+     * needed anymore, and return the cursor to hand out. The query must have run already,
+     * e.g. by counting the rows.
+     *
+     * A cursor holds one window of rows at a time and reads the next one from its connection
+     * when it is moved past the end. If the first window holds every row, the connection is
+     * given back right away. Otherwise the returned cursor keeps the lease until it is
+     * closed, so the connection isn't leased to someone else while it is still read from.
+     */
+    Cursor releaseReaderOnClose(final SQLiteDatabase reader, Cursor cursor) {
+        if (cursor instanceof AbstractWindowedCursor) {
+            CursorWindow window = ((AbstractWindowedCursor) cursor).getWindow();
+            if (window != null && window.getStartPosition() == 0 && window.getNumRows() >= cursor.getCount()) {
+                releaseReader(reader);
+                return cursor;
+            }
+        }
+        final AtomicBoolean released = new AtomicBoolean();
+        return new CursorWrapper(cursor) {
+            @Override
+            public void close() {
+                try {
+                    super.close();
+                } finally {
+                    if (released.compareAndSet(false, true)) {
+                        releaseReader(reader);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Open another read connection, unless the pool already has all of them.
+     * Return the new connection, or null if the pool is full.
+     */
+    private SQLiteDatabase openReaderIfAllowed() {
+        synchronized (mReaders) {
+            if (mReaders.size() >= mReaderCount) {
+                return null;
+            }
+            // Open the writer first, so that the schema is up to date and the database is in
+            // write-ahead logging mode before anybody reads it
+            String path = getWriter().getPath();
+            SQLiteDatabase reader = SQLiteDatabase.openDatabase(path, mReaderCursorFactory,
+                    SQLiteDatabase.OPEN_READONLY);
+            mReaders.add(reader);
+            return reader;
+        }
+    }
+
+    /**
+     * Return the contention counters collected so far.
+     */
+    Stats getStats() {
+        int openReaders;
+        synchronized (mReaders) {
+            openReaders = mReaders.size();
+        }
+        return new Stats(openReaders, mReaderCount, mReads.get(), mContendedReads.get(),
+                mReadWaitNanos.get() / 1000000, mWrites.get(), mWriteWaitNanos.get() / 1000000);
+    }
+
+    /**
+     * Close every connection. The pool can't be used anymore afterwards.
+     */
+    void close() {
+        synchronized (mReaders) {
+            for (SQLiteDatabase reader : mReaders) {
+                reader.close();
+            }
+            mReaders.clear();
+            mIdleReaders.clear();
+        }
+        mDbHelper.close();
+    }
+
+    /**
+     * Snapshot of how often callers had to wait for a connection.
+     */
+    static final class Stats {
+
+        /**
+         * Number of read connections opened so far and the most that will be opened
+         */
+        final int openReaders;
+        final int maxReaders;
+
+        /**
+         * Number of reads, how many of them had to wait for a free read connection, and how
+         * long they waited in total
+         */
+        final long reads;
+        final long contendedReads;
+        final long readWaitMillis;
+
+        /**
+         * Number of write transactions and how long they waited to begin in total
+         */
+        final long writes;
+        final long writeWaitMillis;
+
+        Stats(int openReaders, int maxReaders, long reads, long contendedReads, long readWaitMillis,
+              long writes, long writeWaitMillis) {
+            this.openReaders = openReaders;
+            this.maxReaders = maxReaders;
+            this.reads = reads;
+            this.contendedReads = contendedReads;
+            this.readWaitMillis = readWaitMillis;
+            this.writes = writes;
+            this.writeWaitMillis = writeWaitMillis;
+        }
+
+        /**
+         * Return the counters under the {@link InventoryContract} STATS_ keys.
+         */
+        Bundle toBundle() {
+            Bundle bundle = new Bundle();
+            bundle.putLong(InventoryContract.STATS_READS, reads);
+            bundle.putLong(InventoryContract.STATS_CONTENDED_READS, contendedReads);
+            bundle.putLong(InventoryContract.STATS_READ_WAIT_MILLIS, readWaitMillis);
+            bundle.putLong(InventoryContract.STATS_WRITES, writes);
+            bundle.putLong(InventoryContract.STATS_WRITE_WAIT_MILLIS, writeWaitMillis);
+            return bundle;
+        }
+
+        @Override
+        public String toString() {
+            return "readers " + openReaders + "/" + maxReaders
+                    + ", reads " + reads + " (" + contendedReads + " waited " + readWaitMillis + " ms)"
+                    + ", writes " + writes + " (waited " + writeWaitMillis + " ms)";
+        }
+    }
+}
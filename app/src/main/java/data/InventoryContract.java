@@ -1,6 +1,7 @@
 package data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -33,6 +34,362 @@ public final class InventoryContract {
      */
     public static final String PATH_ITEMS = "items";
 
+    /**
+     * Path (appended to base content URI) for looking at stock locations (stockrooms)
+     */
+    public static final String PATH_LOCATIONS = "locations";
+
+    /**
+     * Path (appended to {@link #PATH_ITEMS}) for the aggregated stock value of the inventory.
+     */
+    public static final String PATH_STOCK_VALUE = "stock_value";
+
+    /**
+     * Path (appended to the URI of a single item) for recording a sale of that item.
+     */
+    public static final String PATH_SALE = "sale";
+
+    /**
+     * Path (appended to {@link #PATH_ITEMS}) for the suggested reorder quantities.
+     */
+    public static final String PATH_REORDER = "reorder";
+
+    /**
+     * Path (appended to {@link #PATH_ITEMS}) for the number of items per first letter.
+     */
+    public static final String PATH_SECTIONS = "sections";
+
+    /**
+     * Path (appended to the URI of a single item) for the history of its price and quantity.
+     */
+    public static final String PATH_HISTORY = "history";
+
+    /**
+     * Path (appended to base content URI) for looking at purchase orders
+     */
+    public static final String PATH_ORDERS = "orders";
+
+    /**
+     * Path (appended to the URI of a single purchase order) for its lines
+     */
+    public static final String PATH_LINES = "lines";
+
+    /**
+     * Path (appended to the URI of a single purchase order) for receiving its delivery
+     */
+    public static final String PATH_RECEIVE = "receive";
+
+    /**
+     * Path (appended to base content URI) for reading the audit trail of item and stock changes
+     */
+    public static final String PATH_AUDIT = "audit";
+
+    /**
+     * Path (appended to the audit URI) for reading the items changed by bulk changes
+     */
+    public static final String PATH_AUDIT_ITEMS = "items";
+
+    /**
+     * Path (appended to base content URI) for reading item photos by their content hash.
+     */
+    public static final String PATH_PHOTOS = "photos";
+
+    /**
+     * Path (appended to base content URI) for the counts of the stocktake in progress
+     */
+    public static final String PATH_STOCKTAKE = "stocktake";
+
+    /**
+     * Query parameter for updates of a single item. When present, the update is only applied
+     * if the item still has the given {@link InventoryEntry#COLUMN_VERSION}, otherwise the
+     * provider throws a {@link StaleItemException}.
+     */
+    public static final String PARAM_EXPECTED_VERSION = "expectedVersion";
+
+    /**
+     * Query parameter for updates of a single item that set its
+     * {@link InventoryEntry#COLUMN_QUANTITY}. When present, the update is only applied if the
+     * item still has the given total, otherwise the provider throws a
+     * {@link StaleItemException}. Stock changes at other locations than the main stockroom
+     * change the total without advancing the item's version, so this catches them.
+     */
+    public static final String PARAM_EXPECTED_QUANTITY = "expectedQuantity";
+
+    /**
+     * Query parameter for queries of {@link InventoryEntry#CONTENT_URI} and
+     * {@link ApiItemEntry#CONTENT_URI}: the most items to return.
+     */
+    public static final String PARAM_LIMIT = "limit";
+
+    /**
+     * Query parameter for queries of {@link ApiItemEntry#CONTENT_URI}: only return items
+     * with a larger ID, to read the next page after the item with this ID.
+     */
+    public static final String PARAM_AFTER_ID = "afterId";
+
+    /**
+     * Authority of the read-only API for other apps, such as the register and the label
+     * printer. Callers need the {@link #PERMISSION_READ_INVENTORY} permission, which is only
+     * granted to apps signed with the same key.
+     */
+    public static final String API_AUTHORITY = CONTENT_AUTHORITY + ".api";
+
+    public static final String PERMISSION_READ_INVENTORY = CONTENT_AUTHORITY + ".permission.READ_INVENTORY";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} on the
+     * {@link #API_AUTHORITY} that looks up many items at once. The extras hold the IDs under
+     * {@link #EXTRA_ITEM_IDS}, at most {@link ApiItemEntry#MAX_LIMIT} of them. The result holds
+     * one array per column of {@link ApiItemEntry#COLUMNS}, under the column name, with an
+     * entry per item found in the order of the IDs. Deleted and unknown items are left out.
+     */
+    public static final String METHOD_GET_ITEMS = "getItems";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that
+     * returns how often queries and writes had to wait for a database connection. The result
+     * holds the counters under the STATS_ keys below, all as longs.
+     */
+    public static final String METHOD_CONNECTION_STATS = "connectionStats";
+
+    public static final String STATS_READS = "reads";
+    public static final String STATS_CONTENDED_READS = "contendedReads";
+    public static final String STATS_READ_WAIT_MILLIS = "readWaitMillis";
+    public static final String STATS_WRITES = "writes";
+    public static final String STATS_WRITE_WAIT_MILLIS = "writeWaitMillis";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that
+     * brings back the items deleted last, if that was less than {@link #UNDO_WINDOW_MILLIS}
+     * ago. The result holds the number of restored items under {@link #EXTRA_ROWS}.
+     */
+    public static final String METHOD_UNDO_DELETE = "undoDelete";
+
+    /**
+     * Number of rows affected by a {@link ContentResolver#call(Uri, String, String, android.os.Bundle)}
+     */
+    public static final String EXTRA_ROWS = "rows";
+
+    /**
+     * How long deleted items can be brought back with {@link #METHOD_UNDO_DELETE}. After that
+     * they are removed for good in the background.
+     */
+    public static final long UNDO_WINDOW_MILLIS = 10000;
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that
+     * orders the suggested quantities of all items that are running low (see
+     * {@link InventoryEntry#REORDER_URI}), with one purchase order per supplier. Units that
+     * are already on an open order are left out. The result holds the number of new orders
+     * under {@link #EXTRA_ROWS}.
+     */
+    public static final String METHOD_CREATE_ORDERS = "createOrders";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that
+     * copies the image at the URI given as argument into the photo store. The result holds
+     * the photo's content hash under {@link #EXTRA_PHOTO}, to be saved as the item's
+     * {@link InventoryEntry#COLUMN_PHOTO}.
+     */
+    public static final String METHOD_ADD_PHOTO = "addPhoto";
+
+    /**
+     * Content hash of a photo added with {@link #METHOD_ADD_PHOTO}
+     */
+    public static final String EXTRA_PHOTO = "photo";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that
+     * changes how reorder quantities are suggested and recomputes the suggestions of all
+     * items. The extras hold {@link #EXTRA_HALF_LIFE_DAYS} and {@link #EXTRA_COVER_DAYS}, both
+     * as doubles, either may be left out to keep its current value. The result holds the
+     * number of recomputed items under {@link #EXTRA_ROWS}. Call it off the main thread.
+     */
+    public static final String METHOD_SET_FORECAST_PARAMETERS = "setForecastParameters";
+
+    /**
+     * Number of days after which a sale counts half as much for the sales rate. Shorter
+     * half-lives follow changes in demand faster, longer ones even out unusual days.
+     */
+    public static final String EXTRA_HALF_LIFE_DAYS = "halfLifeDays";
+
+    /**
+     * Number of days of sales an order should cover, including the time until it arrives
+     */
+    public static final String EXTRA_COVER_DAYS = "coverDays";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that
+     * records a batch of queued sales at the main stockroom in one transaction. The extras hold
+     * {@link #EXTRA_SEQUENCES}, {@link #EXTRA_ITEM_IDS} and {@link #EXTRA_COUNTS}, one entry
+     * per sale, in increasing sequence order. The provider remembers the last sequence number
+     * it applied in the same transaction and skips sales at or below it, so a batch that is
+     * sent again after the process died isn't sold twice. Like a single sale, a sale of more
+     * units than are in stock isn't recorded, but counts as applied.
+     *
+     * The result holds the last applied sequence number under {@link #EXTRA_SEQUENCE} and the
+     * number of recorded sales under {@link #EXTRA_ROWS}. Without extras, only the sequence
+     * number is returned, read without a write transaction.
+     */
+    public static final String METHOD_APPLY_SALES = "applySales";
+
+    /**
+     * Sequence numbers of queued sales, as a long array
+     */
+    public static final String EXTRA_SEQUENCES = "sequences";
+
+    /**
+     * Item IDs of queued sales, as a long array
+     */
+    public static final String EXTRA_ITEM_IDS = "itemIds";
+
+    /**
+     * Units sold by queued sales, as an int array
+     */
+    public static final String EXTRA_COUNTS = "counts";
+
+    /**
+     * Last sequence number of a queued sale the provider applied, as a long
+     */
+    public static final String EXTRA_SEQUENCE = "sequence";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that
+     * runs the upkeep of the database: it purges deleted items whose undo window is over,
+     * updates the statistics of the query planner, gives free pages back to the file system,
+     * checkpoints the write-ahead log and checks the database for corruption. This takes a
+     * while on a large database, call it from a background job while the device is idle.
+     * The run is recorded in the {@link MaintenanceEntry} table, the result holds
+     * {@link #EXTRA_DURATION_MILLIS}, {@link #EXTRA_BYTES_RECLAIMED}, {@link #EXTRA_INTEGRITY}
+     * and the number of purged items under {@link #EXTRA_ROWS}.
+     */
+    public static final String METHOD_RUN_MAINTENANCE = "runMaintenance";
+
+    /**
+     * How long a maintenance run took, as a long
+     */
+    public static final String EXTRA_DURATION_MILLIS = "durationMillis";
+
+    /**
+     * By how many bytes a maintenance run shrank the database files, as a long
+     */
+    public static final String EXTRA_BYTES_RECLAIMED = "bytesReclaimed";
+
+    /**
+     * Result of the integrity check of a maintenance run: "ok", or the first problems found
+     */
+    public static final String EXTRA_INTEGRITY = "integrity";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that
+     * changes the price of many items at once by {@link #EXTRA_PERCENT}, in one statement and
+     * one transaction. The items are given by {@link #EXTRA_ITEM_IDS} or {@link #EXTRA_SUPPLIER}.
+     * New prices are rounded to the minor unit, and nothing is changed if one of them would
+     * be above {@link Money#MAX_PRICE}. The result holds the number of changed items under
+     * {@link #EXTRA_ROWS}.
+     */
+    public static final String METHOD_ADJUST_PRICES = "adjustPrices";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that
+     * adds {@link #EXTRA_UNITS} to the quantity of many items at once, in the main stockroom,
+     * in one statement and one transaction. The items are given like for
+     * {@link #METHOD_ADJUST_PRICES}. The result holds the number of restocked items under
+     * {@link #EXTRA_ROWS}.
+     */
+    public static final String METHOD_RESTOCK = "restock";
+
+    /**
+     * Change of the price in percent, as a double above -100
+     */
+    public static final String EXTRA_PERCENT = "percent";
+
+    /**
+     * Units added to every item by {@link #METHOD_RESTOCK}, as a positive int
+     */
+    public static final String EXTRA_UNITS = "units";
+
+    /**
+     * Supplier whose items a bulk change applies to, as a string
+     */
+    public static final String EXTRA_SUPPLIER = "supplier";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that
+     * unlocks the supplier details, the supplier names and phone numbers of the items and
+     * purchase orders, with the passphrase given as the argument, for as long as the app runs
+     * or until {@link #METHOD_LOCK}. The details are stored encrypted with a key derived from
+     * the passphrase set by {@link #METHOD_SET_PASSPHRASE}; while they are locked, queries
+     * return null for them, and writing one or selecting the items of a supplier fails with a
+     * {@link SupplierDetailsLockedException}. Prices and quantities are not encrypted.
+     *
+     * A wrong passphrase, or one given before any was set, is refused with an
+     * {@link IllegalArgumentException}. Deriving the key takes a while, call it off the main
+     * thread.
+     */
+    public static final String METHOD_UNLOCK = "unlock";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that
+     * sets the passphrase of the supplier details, given as the argument, and unlocks them,
+     * see {@link #METHOD_UNLOCK}. The passphrase must be repeated under
+     * {@link #EXTRA_PASSPHRASE_CONFIRMATION}: nothing can read the details without it
+     * afterwards. It is refused with an {@link IllegalArgumentException} if the two differ or
+     * a passphrase was set already.
+     *
+     * The details stored so far are encrypted, including the ones recorded in the audit
+     * trail, then the database is vacuumed so the plain text doesn't stay behind in free
+     * pages. The result holds the number of encrypted rows under {@link #EXTRA_ROWS}. This
+     * takes a while, call it off the main thread.
+     */
+    public static final String METHOD_SET_PASSPHRASE = "setPassphrase";
+
+    /**
+     * The passphrase of {@link #METHOD_SET_PASSPHRASE} typed a second time, as a string
+     */
+    public static final String EXTRA_PASSPHRASE_CONFIRMATION = "passphraseConfirmation";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that
+     * tells whether a passphrase was set for the supplier details, under
+     * {@link #EXTRA_PASSPHRASE_SET}, so the caller knows whether to ask for it once or to
+     * have a new one typed twice. It may read the database, call it off the main thread.
+     */
+    public static final String METHOD_ENCRYPTION_STATE = "encryptionState";
+
+    /**
+     * Whether a passphrase was set, as a boolean, see {@link #METHOD_ENCRYPTION_STATE}
+     */
+    public static final String EXTRA_PASSPHRASE_SET = "passphraseSet";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that
+     * forgets the key of the supplier details, see {@link #METHOD_UNLOCK}.
+     */
+    public static final String METHOD_LOCK = "lock";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} that
+     * ends the stocktake: every counted stock that differs from the stored one is set to the
+     * count, and the item totals follow, in one transaction. The stored and counted units of
+     * each of those stocks are kept in the {@link AuditItemEntry} table, and the counts are
+     * discarded afterwards. The result holds the number of changed items under {@link #EXTRA_ROWS},
+     * and the net variance under {@link #EXTRA_VARIANCE_UNITS} and
+     * {@link #EXTRA_VARIANCE_VALUE}. See {@link StocktakeEntry}.
+     */
+    public static final String METHOD_RECONCILE_STOCKTAKE = "reconcileStocktake";
+
+    /**
+     * Units counted minus units stored over all items, as a long. Negative when stock went
+     * missing.
+     */
+    public static final String EXTRA_VARIANCE_UNITS = "varianceUnits";
+
+    /**
+     * Value of {@link #EXTRA_VARIANCE_UNITS} at the current prices, in minor units, as a long
+     */
+    public static final String EXTRA_VARIANCE_VALUE = "varianceValue";
+
     /**
      * Inner class that defines constant values for the items database table.
      * Each entry in the table represents a single item.
@@ -57,14 +414,802 @@ public final class InventoryContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ITEMS;
 
+        /**
+         * The MIME type of the {@link #STOCK_VALUE_URI}.
+         */
+        public static final String CONTENT_STOCK_VALUE_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STOCK_VALUE;
+
         public static final String TABLE_NAME = "inventory";
 
         public static final String _ID = BaseColumns._ID;
         public static final String COLUMN_PRODUCT_NAME = "product";
         public static final String COLUMN_SUPPLIER = "supplierName";
         public static final String COLUMN_SUPPLIER_NUMBER = "supplierPhoneNumber";
+        /**
+         * Price per unit, stored as a long count of minor units (cents). Use {@link Money}
+         * to parse and format it.
+         */
         public static final String COLUMN_PRICE = "price";
+
+        /**
+         * Total quantity over all locations. Setting it through an item URI changes the quantity
+         * at the {@link LocationEntry#DEFAULT_LOCATION_ID main stockroom}.
+         */
         public static final String COLUMN_QUANTITY = "quantity";
 
+        /**
+         * Version of the row, increased by the provider on every update. It can't be written
+         * by callers, only read and passed back with {@link #withExpectedVersion(Uri, long)}.
+         */
+        public static final String COLUMN_VERSION = "version";
+
+        /**
+         * Time the item was deleted, in milliseconds since the epoch, or null for a live item.
+         * Deleted items are hidden by the provider and purged after
+         * {@link InventoryContract#UNDO_WINDOW_MILLIS}. Only the provider writes it.
+         */
+        public static final String COLUMN_DELETED_AT = "deletedAt";
+
+        /**
+         * Content hash of the item's photo, or null if it has none. The image itself is kept
+         * in a file outside the database and read from {@link PhotoEntry#buildPhotoUri(String)},
+         * so that cursors over many items stay small. Items with the same image share one file.
+         */
+        public static final String COLUMN_PHOTO = "photo";
+
+        /**
+         * The content URI for the aggregated stock value of all items. The returned cursor has
+         * a single row with the {@link #COLUMN_TOTAL_UNITS}, {@link #COLUMN_VALUE_MAJOR} and
+         * {@link #COLUMN_VALUE_MINOR} columns.
+         */
+        public static final Uri STOCK_VALUE_URI = Uri.withAppendedPath(CONTENT_URI, PATH_STOCK_VALUE);
+
+        /**
+         * Total number of units in stock (sum of all quantities)
+         */
+        public static final String COLUMN_TOTAL_UNITS = "totalUnits";
+
+        /**
+         * Stock value is summed as two separate columns (whole dollars times quantity and
+         * remaining cents times quantity) so that the sums can't overflow in SQL. Combine
+         * them with {@link Money#ofParts(long, long)}. The dollars are a floating point total:
+         * exact up to 2^53 dollars, approximate beyond, where they are best read as a double.
+         */
+        public static final String COLUMN_VALUE_MAJOR = "valueMajor";
+        public static final String COLUMN_VALUE_MINOR = "valueMinor";
+
+        /**
+         * The content URI for the suggested reorder quantities. The returned cursor has a row
+         * for each item that is expected to run out within the cover days, with the item's
+         * {@link #_ID}, {@link #COLUMN_PRODUCT_NAME}, {@link #COLUMN_SUPPLIER},
+         * {@link #COLUMN_SUPPLIER_NUMBER}, {@link #COLUMN_QUANTITY}, {@link #COLUMN_SALES_RATE}
+         * and {@link #COLUMN_SUGGESTED_QUANTITY}, largest suggestion first.
+         */
+        public static final Uri REORDER_URI = Uri.withAppendedPath(CONTENT_URI, PATH_REORDER);
+
+        /**
+         * The MIME type of the {@link #REORDER_URI}.
+         */
+        public static final String CONTENT_REORDER_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_REORDER;
+
+        /**
+         * Sort order of the catalog: by name, ignoring case. The items come grouped by the
+         * sections of {@link #SECTIONS_URI} in the same order.
+         */
+        public static final String SORT_BY_NAME = COLUMN_PRODUCT_NAME + " COLLATE NOCASE";
+
+        /**
+         * The content URI for the number of items per first letter of their name. The returned
+         * cursor has a row for each {@link SectionEntry#COLUMN_LETTER} that names start with,
+         * with its {@link SectionEntry#COLUMN_COUNT}, in the order of {@link #SORT_BY_NAME}.
+         * The counts are kept up to date as items change, so reading them doesn't depend on
+         * the number of items.
+         */
+        public static final Uri SECTIONS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SECTIONS);
+
+        /**
+         * The MIME type of the {@link #SECTIONS_URI}.
+         */
+        public static final String CONTENT_SECTIONS_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SECTIONS;
+
+        /**
+         * Units sold per day, weighted towards recent sales, as of the last sale or
+         * recomputation
+         */
+        public static final String COLUMN_SALES_RATE = "salesRate";
+
+        /**
+         * Number of units to order so that the stock covers the expected sales
+         */
+        public static final String COLUMN_SUGGESTED_QUANTITY = "suggestedQuantity";
+
+        /**
+         * Optional value for updates of a {@link #buildSaleUri(long)} URI: the number of units
+         * sold. Defaults to 1.
+         */
+        public static final String SALE_COUNT = "count";
+
+        /**
+         * Return the URI for recording a sale of the item with the given ID. Updating this URI
+         * decreases the quantity of the item at the main stockroom, without reading it first.
+         */
+        public static Uri buildSaleUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_SALE)
+                    .build();
+        }
+
+        /**
+         * Return the URI for the history of the price and quantity of the item with the given
+         * ID, from and to the given times in milliseconds since the epoch. See
+         * {@link HistoryEntry} for the columns.
+         */
+        public static Uri buildHistoryUri(long id, long from, long to) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_HISTORY)
+                    .appendQueryParameter(HistoryEntry.PARAM_FROM, String.valueOf(from))
+                    .appendQueryParameter(HistoryEntry.PARAM_TO, String.valueOf(to))
+                    .build();
+        }
+
+        /**
+         * Return a URI for updating the given item only if it is still at the given version.
+         *
+         * @param itemUri the content URI of a single item
+         * @param version the {@link #COLUMN_VERSION} the caller last read for the item
+         */
+        public static Uri withExpectedVersion(Uri itemUri, long version) {
+            return itemUri.buildUpon()
+                    .appendQueryParameter(PARAM_EXPECTED_VERSION, String.valueOf(version))
+                    .build();
+        }
+
+        /**
+         * Return a URI for setting the quantity of the given item only if its total is still
+         * the given one.
+         *
+         * @param itemUri  the content URI of a single item
+         * @param quantity the {@link #COLUMN_QUANTITY} the caller last read for the item
+         */
+        public static Uri withExpectedQuantity(Uri itemUri, int quantity) {
+            return itemUri.buildUpon()
+                    .appendQueryParameter(PARAM_EXPECTED_QUANTITY, String.valueOf(quantity))
+                    .build();
+        }
+
+        /**
+         * Return a selection of the items with the given IDs, to delete or update them all in
+         * one statement. The IDs are part of the SQL, so there is no limit on the number of
+         * arguments to run into.
+         */
+        public static String buildIdSelection(long[] ids) {
+            StringBuilder selection = new StringBuilder(ids.length * 6 + 12).append(_ID).append(" IN (");
+            for (int i = 0; i < ids.length; i++) {
+                if (i != 0) {
+                    selection.append(',');
+                }
+                selection.append(ids[i]);
+            }
+            return selection.append(')').toString();
+        }
+
+    }
+
+    /**
+     * Inner class that defines constant values for the locations database table.
+     * Each entry in the table represents a stockroom that holds its own quantity of each item.
+     */
+    public static final class LocationEntry implements BaseColumns {
+
+        /**
+         * The content URI to access the location data in the provider
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_LOCATIONS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of locations.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single location.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS;
+
+        public static final String TABLE_NAME = "locations";
+
+        public static final String _ID = BaseColumns._ID;
+        public static final String COLUMN_LOCATION_NAME = "name";
+
+        /**
+         * ID of the main stockroom. It always exists. Quantities set and sales made through the
+         * item URIs apply to this location.
+         */
+        public static final long DEFAULT_LOCATION_ID = 1;
+
+        /**
+         * Return the URI of the items held at the given location. Querying it returns the items
+         * with the {@link InventoryEntry#COLUMN_QUANTITY} held at this location only.
+         */
+        public static Uri buildItemsUri(long locationId) {
+            return ContentUris.withAppendedId(CONTENT_URI, locationId).buildUpon()
+                    .appendPath(PATH_ITEMS)
+                    .build();
+        }
+
+        /**
+         * Return the URI of one item at the given location. Updating its
+         * {@link InventoryEntry#COLUMN_QUANTITY} sets the quantity held at this location.
+         */
+        public static Uri buildItemUri(long locationId, long itemId) {
+            return ContentUris.withAppendedId(buildItemsUri(locationId), itemId);
+        }
+
+        /**
+         * Return the URI for recording a sale of an item at the given location. It works like
+         * {@link InventoryEntry#buildSaleUri(long)}, but only takes stock from this location.
+         */
+        public static Uri buildSaleUri(long locationId, long itemId) {
+            return buildItemUri(locationId, itemId).buildUpon()
+                    .appendPath(PATH_SALE)
+                    .build();
+        }
+    }
+
+    /**
+     * Item photos, stored as files named by the SHA-256 hash of their contents. A photo never
+     * changes once stored, so its URI can be cached for as long as needed.
+     */
+    public static final class PhotoEntry {
+
+        /**
+         * The content URI of the stored photos. Single photos are opened with
+         * {@link ContentResolver#openInputStream(Uri)}.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PHOTOS);
+
+        /**
+         * Return the URI of the photo with the given content hash.
+         *
+         * @param photo an {@link InventoryEntry#COLUMN_PHOTO} value
+         */
+        public static Uri buildPhotoUri(String photo) {
+            return Uri.withAppendedPath(CONTENT_URI, photo);
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the purchase orders database table.
+     * Each entry is an order of several items from one supplier, see {@link OrderLineEntry}.
+     */
+    public static final class OrderEntry implements BaseColumns {
+
+        /**
+         * The content URI to access the purchase orders in the provider. Besides the columns
+         * of the table, queries return {@link #COLUMN_LINE_COUNT} and {@link #COLUMN_TOTAL_UNITS}.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_ORDERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of orders.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ORDERS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single order.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ORDERS;
+
+        /**
+         * The MIME type of the {@link #buildLinesUri(long)} URI.
+         */
+        public static final String CONTENT_LINES_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LINES;
+
+        public static final String TABLE_NAME = "purchase_orders";
+
+        public static final String _ID = BaseColumns._ID;
+        public static final String COLUMN_SUPPLIER = "supplierName";
+        public static final String COLUMN_SUPPLIER_NUMBER = "supplierPhoneNumber";
+
+        /**
+         * Either {@link #STATUS_OPEN} or {@link #STATUS_RECEIVED}
+         */
+        public static final String COLUMN_STATUS = "status";
+
+        /**
+         * Times the order was created and received, in milliseconds since the epoch.
+         * The receive time is null while the order is open.
+         */
+        public static final String COLUMN_CREATED_AT = "createdAt";
+        public static final String COLUMN_RECEIVED_AT = "receivedAt";
+
+        /**
+         * Number of lines and of units on the order, computed by queries
+         */
+        public static final String COLUMN_LINE_COUNT = "lineCount";
+        public static final String COLUMN_TOTAL_UNITS = "totalUnits";
+
+        public static final int STATUS_OPEN = 0;
+        public static final int STATUS_RECEIVED = 1;
+
+        /**
+         * Return the URI of the lines of the given order. Querying it returns the
+         * {@link OrderLineEntry} columns with the {@link InventoryEntry#COLUMN_PRODUCT_NAME}
+         * of each item.
+         */
+        public static Uri buildLinesUri(long orderId) {
+            return ContentUris.withAppendedId(CONTENT_URI, orderId).buildUpon()
+                    .appendPath(PATH_LINES)
+                    .build();
+        }
+
+        /**
+         * Return the URI for receiving the delivery of the given order. Updating it (with no
+         * values) adds the quantities of all lines to the main stockroom in one transaction
+         * and marks the order as received. The update returns 1, or 0 if the order was
+         * received already.
+         */
+        public static Uri buildReceiveUri(long orderId) {
+            return ContentUris.withAppendedId(CONTENT_URI, orderId).buildUpon()
+                    .appendPath(PATH_RECEIVE)
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the order lines database table.
+     * Each entry is the quantity of one item on one purchase order.
+     */
+    public static final class OrderLineEntry {
+
+        public static final String TABLE_NAME = "order_lines";
+
+        public static final String COLUMN_ORDER_ID = "orderId";
+        public static final String COLUMN_ITEM_ID = "itemId";
+        public static final String COLUMN_QUANTITY = "quantity";
+    }
+
+    /**
+     * Inner class that defines constant values for the audit database table.
+     * Each entry records one change of an item or its stock: what changed, from which values
+     * to which, when, and which app made it. Entries are only ever added.
+     */
+    public static final class AuditEntry implements BaseColumns {
+
+        /**
+         * The content URI to read the audit trail. It can't be written, every change made
+         * through this provider is recorded automatically. A query sees every change that was
+         * made before it started.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_AUDIT);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of audit entries.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_AUDIT;
+
+        public static final String TABLE_NAME = "audit_log";
+
+        /**
+         * Sequence number of the change. Changes are numbered in the order they were made.
+         */
+        public static final String _ID = BaseColumns._ID;
+
+        /**
+         * Time of the change, in milliseconds since the epoch
+         */
+        public static final String COLUMN_TIME = "time";
+
+        /**
+         * Package name of the app that made the change
+         */
+        public static final String COLUMN_CALLER = "caller";
+
+        /**
+         * One of the OPERATION_ constants
+         */
+        public static final String COLUMN_OPERATION = "operation";
+
+        /**
+         * ID of the changed item, or null if the change wasn't made to a single item
+         */
+        public static final String COLUMN_ITEM_ID = "itemId";
+
+        /**
+         * The changed columns before and after the change, as JSON objects. Old values are
+         * null for changes that don't replace a value, such as a sale. Supplier details are
+         * kept as they are stored, encrypted once {@link #METHOD_UNLOCK} set a passphrase.
+         */
+        public static final String COLUMN_OLD_VALUES = "oldValues";
+        public static final String COLUMN_NEW_VALUES = "newValues";
+
+        public static final String OPERATION_INSERT = "insert";
+        public static final String OPERATION_UPDATE = "update";
+        public static final String OPERATION_DELETE = "delete";
+        public static final String OPERATION_UNDO_DELETE = "undoDelete";
+        public static final String OPERATION_SALE = "sale";
+        public static final String OPERATION_SET_STOCK = "setStock";
+        public static final String OPERATION_RECEIVE = "receive";
+        public static final String OPERATION_ADJUST_PRICES = "adjustPrices";
+        public static final String OPERATION_RESTOCK = "restock";
+        public static final String OPERATION_STOCKTAKE = "stocktake";
+
+        /**
+         * Table with a single row: the last sequence number journaled by a write that
+         * committed. Later ones left in the journal belong to writes that rolled back.
+         */
+        public static final String STATE_TABLE_NAME = "audit_state";
+
+        public static final String COLUMN_JOURNALED_THROUGH = "journaledThrough";
+    }
+
+    /**
+     * Inner class that defines the items changed by bulk changes, such as
+     * {@link InventoryContract#METHOD_ADJUST_PRICES}. The audit entry of a bulk change only
+     * holds its parameters and the number of changed items, the values of each item are
+     * here. They are written in the same transaction as the change.
+     */
+    public static final class AuditItemEntry implements BaseColumns {
+
+        /**
+         * The content URI to read the changed items. It can't be written.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(AuditEntry.CONTENT_URI, PATH_AUDIT_ITEMS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of changed items.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_AUDIT + "/" + PATH_AUDIT_ITEMS;
+
+        public static final String TABLE_NAME = "audit_items";
+
+        /**
+         * The {@link AuditEntry#_ID} of the bulk change
+         */
+        public static final String COLUMN_AUDIT_ID = "auditId";
+
+        public static final String COLUMN_ITEM_ID = "itemId";
+
+        /**
+         * The changed columns of the item before and after the change, as JSON objects.
+         * Changes of the stock at one location also hold the location ID.
+         */
+        public static final String COLUMN_OLD_VALUES = AuditEntry.COLUMN_OLD_VALUES;
+        public static final String COLUMN_NEW_VALUES = AuditEntry.COLUMN_NEW_VALUES;
+    }
+
+    /**
+     * Inner class that defines constant values for the forecast database table.
+     * Each entry holds the sales rate of one item, which is updated on every sale without
+     * looking at earlier sales. Items that were never sold have no entry.
+     */
+    public static final class ForecastEntry {
+
+        public static final String TABLE_NAME = "forecast";
+
+        public static final String COLUMN_ITEM_ID = "itemId";
+
+        /**
+         * Exponentially weighted units sold per day, as of {@link #COLUMN_UPDATED_AT}
+         */
+        public static final String COLUMN_RATE = "rate";
+
+        /**
+         * Time the rate was last updated, in milliseconds since the epoch
+         */
+        public static final String COLUMN_UPDATED_AT = "updatedAt";
+
+        /**
+         * Units expected to sell within the cover days, rounded up
+         */
+        public static final String COLUMN_DEMAND = "demand";
+    }
+
+    /**
+     * Inner class that defines constant values for the sections database table.
+     * Each entry counts the items that weren't deleted whose name starts with one letter.
+     * Triggers on the items table keep the counts up to date.
+     */
+    public static final class SectionEntry {
+
+        public static final String TABLE_NAME = "item_sections";
+
+        /**
+         * First character of the names, in upper case for the letters A to Z
+         */
+        public static final String COLUMN_LETTER = "letter";
+
+        /**
+         * Number of items whose name starts with the letter
+         */
+        public static final String COLUMN_COUNT = "count";
+    }
+
+    /**
+     * Inner class that defines constant values for the sale queue database table.
+     * It has a single row with the last sequence number applied by
+     * {@link #METHOD_APPLY_SALES}.
+     */
+    public static final class SaleQueueEntry {
+
+        public static final String TABLE_NAME = "sale_queue";
+
+        public static final String COLUMN_APPLIED_SEQUENCE = "appliedSequence";
+    }
+
+    /**
+     * Inner class that defines the items of the read-only API on the {@link #API_AUTHORITY}.
+     * Only the {@link #COLUMNS} can be read, selections aren't supported, and the items come
+     * in ID order in pages of at most {@link #MAX_LIMIT}. Read the next page with
+     * {@link #PARAM_AFTER_ID}.
+     *
+     * Each app can make {@link #REQUESTS_PER_SECOND} queries and calls per second, with short
+     * bursts of up to {@link #BURST_REQUESTS}. Beyond that they fail with an
+     * {@link IllegalStateException} until the app slows down.
+     */
+    public static final class ApiItemEntry {
+
+        public static final Uri CONTENT_URI = Uri.parse("content://" + API_AUTHORITY + "/" + PATH_ITEMS);
+
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + API_AUTHORITY + "/" + PATH_ITEMS;
+
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + API_AUTHORITY + "/" + PATH_ITEMS;
+
+        /**
+         * Columns other apps can read. Queries without a projection return all of them.
+         */
+        public static final String[] COLUMNS = {
+                InventoryEntry._ID,
+                InventoryEntry.COLUMN_PRODUCT_NAME,
+                InventoryEntry.COLUMN_PRICE,
+                InventoryEntry.COLUMN_QUANTITY,
+                InventoryEntry.COLUMN_VERSION};
+
+        /**
+         * Items per page of a query without {@link #PARAM_LIMIT}
+         */
+        public static final int DEFAULT_LIMIT = 100;
+
+        /**
+         * Most items per page, and most IDs per {@link #METHOD_GET_ITEMS} call
+         */
+        public static final int MAX_LIMIT = 500;
+
+        public static final int REQUESTS_PER_SECOND = 20;
+        public static final int BURST_REQUESTS = 40;
+    }
+
+    /**
+     * Inner class that defines constant values for the history of item prices and quantities.
+     * Every change is recorded as a point. Points are kept as they are for a couple of days,
+     * then summed up into hourly buckets, which are summed up into daily buckets after a
+     * couple of months. A bucket keeps the number of points and the lowest, highest and total
+     * price and quantity, so the history stays small however often prices change.
+     *
+     * A query of {@link InventoryEntry#buildHistoryUri(long, long, long)} returns one row per
+     * bucket in time order, at the finest resolution that covers the range in at most a few
+     * hundred buckets. Points are returned as buckets of their own with a count of 1.
+     */
+    public static final class HistoryEntry {
+
+        /**
+         * The MIME type of a history URI
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        /**
+         * Query parameters of a history URI: start and end of the range in milliseconds since
+         * the epoch. The start is included, the end isn't. They default to the last 30 days.
+         */
+        public static final String PARAM_FROM = "from";
+        public static final String PARAM_TO = "to";
+
+        /**
+         * Bucket sizes in milliseconds. Single points have a size of 1.
+         */
+        public static final long RESOLUTION_POINTS = 1;
+        public static final long RESOLUTION_HOUR = 60 * 60 * 1000;
+        public static final long RESOLUTION_DAY = 24 * RESOLUTION_HOUR;
+
+        /**
+         * Table of the single points, each one change of an item
+         */
+        public static final String TABLE_NAME = "item_history";
+
+        public static final String COLUMN_ITEM_ID = "itemId";
+        public static final String COLUMN_PRICE = "price";
+        public static final String COLUMN_QUANTITY = "quantity";
+
+        /**
+         * Time of the change, or start of the bucket, in milliseconds since the epoch
+         */
+        public static final String COLUMN_TIME = "time";
+
+        /**
+         * Table of the hourly and daily buckets
+         */
+        public static final String ROLLUP_TABLE_NAME = "item_history_rollup";
+
+        /**
+         * Size of the bucket, one of the RESOLUTION_ constants
+         */
+        public static final String COLUMN_RESOLUTION = "resolution";
+
+        /**
+         * Number of points in the bucket
+         */
+        public static final String COLUMN_COUNT = "count";
+
+        public static final String COLUMN_MIN_PRICE = "minPrice";
+        public static final String COLUMN_MAX_PRICE = "maxPrice";
+        public static final String COLUMN_MIN_QUANTITY = "minQuantity";
+        public static final String COLUMN_MAX_QUANTITY = "maxQuantity";
+
+        /**
+         * Totals of the bucket, stored instead of the averages so buckets can be summed up
+         */
+        public static final String COLUMN_SUM_PRICE = "sumPrice";
+        public static final String COLUMN_SUM_QUANTITY = "sumQuantity";
+
+        /**
+         * Averages of the bucket, only in query results. The average price is in whole minor
+         * units, rounded down.
+         */
+        public static final String COLUMN_AVG_PRICE = "avgPrice";
+        public static final String COLUMN_AVG_QUANTITY = "avgQuantity";
+
+        /**
+         * Table with a single row: the times up to which points were summed up into hourly
+         * buckets, and hourly buckets into daily ones
+         */
+        public static final String STATE_TABLE_NAME = "item_history_state";
+
+        public static final String COLUMN_HOURLY_UNTIL = "hourlyUntil";
+        public static final String COLUMN_DAILY_UNTIL = "dailyUntil";
+    }
+
+    /**
+     * Inner class that defines constant values for the maintenance database table.
+     * Each entry records one run of {@link #METHOD_RUN_MAINTENANCE}, so the size of the
+     * database and the time the upkeep takes can be followed over time. Only the latest
+     * {@link #KEEP_RUNS} runs are kept.
+     */
+    public static final class MaintenanceEntry implements BaseColumns {
+
+        public static final String TABLE_NAME = "maintenance_log";
+
+        public static final int KEEP_RUNS = 100;
+
+        /**
+         * Start of the run, in milliseconds since the epoch
+         */
+        public static final String COLUMN_STARTED_AT = "startedAt";
+
+        public static final String COLUMN_DURATION_MILLIS = "durationMillis";
+
+        /**
+         * Size of the database and its write-ahead log before and after the run, in bytes
+         */
+        public static final String COLUMN_SIZE_BEFORE = "sizeBefore";
+        public static final String COLUMN_SIZE_AFTER = "sizeAfter";
+
+        /**
+         * Number of deleted items removed for good
+         */
+        public static final String COLUMN_PURGED_ITEMS = "purgedItems";
+
+        /**
+         * "ok", or the first problems the integrity check found
+         */
+        public static final String COLUMN_INTEGRITY = "integrity";
+    }
+
+    /**
+     * Inner class that defines constant values for the encryption database table. It has a
+     * single row once a passphrase was set with {@link #METHOD_UNLOCK}, and none before.
+     * The key itself is never stored.
+     */
+    public static final class EncryptionEntry {
+
+        public static final String TABLE_NAME = "encryption";
+
+        /**
+         * Random salt and number of rounds the key is derived from the passphrase with
+         */
+        public static final String COLUMN_SALT = "salt";
+        public static final String COLUMN_ITERATIONS = "iterations";
+
+        /**
+         * A known text encrypted with the key, to tell a wrong passphrase from the right one
+         */
+        public static final String COLUMN_VERIFIER = "verifier";
+    }
+
+    /**
+     * Inner class that defines constant values for the stock database table.
+     * Each entry holds the quantity of one item at one location. The quantity of the item
+     * itself ({@link InventoryEntry#COLUMN_QUANTITY}) is the total over all locations.
+     */
+    public static final class StockEntry {
+
+        public static final String TABLE_NAME = "stock";
+
+        public static final String COLUMN_ITEM_ID = "itemId";
+        public static final String COLUMN_LOCATION_ID = "locationId";
+        public static final String COLUMN_QUANTITY = "quantity";
+    }
+
+    /**
+     * Inner class that defines constant values for the stocktake. Counts are inserted into
+     * {@link #CONTENT_URI} as they are made, best in batches with
+     * {@link ContentResolver#bulkInsert(Uri, android.content.ContentValues[])}, and stay there
+     * until {@link InventoryContract#METHOD_RECONCILE_STOCKTAKE} applies them or a delete of
+     * {@link #CONTENT_URI} discards them. Counting the same item at the same location again,
+     * say on another shelf, adds to its count.
+     *
+     * A query of {@link #CONTENT_URI} returns the variance report: one row per counted stock
+     * of a live item, with the stored and counted quantity and the difference, biggest
+     * differences in value first. The stored quantity is read at the time of the query, so
+     * sales made after a shelf was counted show up as variance. Count while the store is
+     * closed.
+     */
+    public static final class StocktakeEntry {
+
+        /**
+         * The content URI of the counts of the stocktake in progress
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_STOCKTAKE);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}, a list of counts.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STOCKTAKE;
+
+        public static final String TABLE_NAME = "stocktake";
+
+        public static final String COLUMN_ITEM_ID = "itemId";
+
+        /**
+         * Location of the counted stock. Optional when inserting, counts are for the
+         * {@link LocationEntry#DEFAULT_LOCATION_ID main stockroom} without one.
+         */
+        public static final String COLUMN_LOCATION_ID = "locationId";
+
+        /**
+         * Counted units, at least 0
+         */
+        public static final String COLUMN_COUNTED = "counted";
+
+        /**
+         * Units stored before the reconciliation. Only set while reconciling.
+         */
+        public static final String COLUMN_EXPECTED = "expected";
+
+        /**
+         * Columns of the variance report only: the name of the item, the counted minus the
+         * stored units, and their value at the item's price in minor units
+         */
+        public static final String COLUMN_PRODUCT_NAME = InventoryEntry.COLUMN_PRODUCT_NAME;
+        public static final String COLUMN_VARIANCE = "variance";
+        public static final String COLUMN_VARIANCE_VALUE = "varianceValue";
+
+        /**
+         * Sort order of the variance report when none is given
+         */
+        public static final String SORT_BY_VARIANCE_VALUE = "ABS(" + COLUMN_VARIANCE_VALUE + ") DESC";
     }
 }
@@ -1,21 +1,85 @@
 package data;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
+import data.InventoryContract.AuditEntry;
+import data.InventoryContract.AuditItemEntry;
+import data.InventoryContract.EncryptionEntry;
+import data.InventoryContract.ForecastEntry;
+import data.InventoryContract.HistoryEntry;
 import data.InventoryContract.InventoryEntry;
+import data.InventoryContract.LocationEntry;
+import data.InventoryContract.MaintenanceEntry;
+import data.InventoryContract.OrderEntry;
+import data.InventoryContract.OrderLineEntry;
+import data.InventoryContract.SaleQueueEntry;
+import data.InventoryContract.SectionEntry;
+import data.InventoryContract.StockEntry;
+import data.InventoryContract.StocktakeEntry;
 
 import static data.InventoryProvider.LOG_TAG;
 
 public class InventoryDbHelper extends SQLiteOpenHelper {
 
-    private static final int DATABASE_VERSION = 1;
-    private static final String DATABASE_NAME = "inventory.db";
+    /**
+     * Database version history:
+     * 1 - initial inventory table
+     * 2 - prices stored as minor units (cents) instead of whole dollars
+     * 3 - row version column for optimistic concurrency
+     * 4 - locations and per location stock
+     * 5 - deleted items are kept as tombstones until they are purged
+     * 6 - content hash of the item photo
+     * 7 - sales rate of each item for the reorder suggestions
+     * 8 - purchase orders
+     * 9 - audit trail
+     * 10 - item counts per first letter and an index for sorting by name
+     * 11 - last applied sale of the sale queue
+     * 12 - log of the maintenance runs
+     * 13 - history of item prices and quantities
+     * 14 - salt and verifier of the key for the supplier phone numbers
+     * 15 - counts of the stocktake in progress
+     * 16 - journaled-through state of the audit log and per-item records of bulk changes
+     */
+    private static final int DATABASE_VERSION = 16;
+    static final String DATABASE_NAME = "inventory.db";
+
+    /**
+     * The current time in milliseconds since the epoch, in SQL, for triggers. Julian days
+     * are counted from a day 2440587.5 days before the epoch.
+     */
+    private static final String SQL_NOW_MILLIS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
 
     InventoryDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * Create a helper for a database with a different file name, e.g. for a benchmark that
+     * shouldn't touch the app's own data.
+     */
+    InventoryDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+    }
+
+    /**
+     * Use write-ahead logging, so that the read connections of {@link InventoryConnectionPool}
+     * can read while the writer is writing. The journal mode is stored in the database file,
+     * so connections opened later on the same file use it too.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Let the purge of deleted items give pages back in small steps. This only takes
+        // effect for a new database, older ones are converted by TombstonePurger.
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        // Overwrite deleted and replaced values instead of leaving them in free space, e.g.
+        // the plain supplier details replaced by FieldEncryption. Android's SQLite does this
+        // already, but not every build. The pragma returns the new setting as a row.
+        DatabaseUtils.longForQuery(db, "PRAGMA secure_delete = ON", null);
+        db.setWriteAheadLoggingEnabled(true);
     }
 
     /**
@@ -32,9 +96,319 @@ public class InventoryDbHelper extends SQLiteOpenHelper {
                 + InventoryEntry.COLUMN_SUPPLIER + " TEXT NOT NULL, "
                 + InventoryEntry.COLUMN_SUPPLIER_NUMBER + " TEXT NOT NULL); ";
         db.execSQL(SQL_CREATE_INVENTORY_TABLE);
+
+        // Bring the version 1 schema up to date by running every migration in order
+        onUpgrade(db, 1, DATABASE_VERSION);
     }
 
+    /**
+     * This is called when the database needs to be upgraded. Each step migrates the schema
+     * from one version to the next, so databases of any older version end up the same as
+     * a newly created one.
+     */
+    @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        Log.i(LOG_TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
+        StartupTrace.mark("Migrating database");
+
+        if (oldVersion < 2) {
+            // Prices used to be whole dollars, convert them to cents
+            db.execSQL("UPDATE " + InventoryEntry.TABLE_NAME + " SET "
+                    + InventoryEntry.COLUMN_PRICE + " = " + InventoryEntry.COLUMN_PRICE
+                    + " * " + Money.MINOR_PER_MAJOR);
+        }
+
+        if (oldVersion < 3) {
+            db.execSQL("ALTER TABLE " + InventoryEntry.TABLE_NAME + " ADD COLUMN "
+                    + InventoryEntry.COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 0");
+        }
+
+        if (oldVersion < 4) {
+            db.execSQL("CREATE TABLE " + LocationEntry.TABLE_NAME + " ("
+                    + LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + LocationEntry.COLUMN_LOCATION_NAME + " TEXT NOT NULL UNIQUE)");
+            db.execSQL("INSERT INTO " + LocationEntry.TABLE_NAME + " ("
+                    + LocationEntry._ID + ", " + LocationEntry.COLUMN_LOCATION_NAME + ") VALUES ("
+                    + LocationEntry.DEFAULT_LOCATION_ID + ", 'Main stockroom')");
+
+            // One row per item and location. The primary key doubles as the index for looking
+            // up all locations of an item, the second index serves queries for one location.
+            db.execSQL("CREATE TABLE " + StockEntry.TABLE_NAME + " ("
+                    + StockEntry.COLUMN_ITEM_ID + " INTEGER NOT NULL, "
+                    + StockEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL, "
+                    + StockEntry.COLUMN_QUANTITY + " INTEGER NOT NULL DEFAULT 0 CHECK ("
+                    + StockEntry.COLUMN_QUANTITY + " >= 0), "
+                    + "PRIMARY KEY (" + StockEntry.COLUMN_ITEM_ID + ", " + StockEntry.COLUMN_LOCATION_ID + "))");
+            db.execSQL("CREATE INDEX stock_location ON " + StockEntry.TABLE_NAME + " ("
+                    + StockEntry.COLUMN_LOCATION_ID + ")");
+
+            // Updates used to let negative quantities through, stock can't be negative anymore
+            db.execSQL("UPDATE " + InventoryEntry.TABLE_NAME + " SET " + InventoryEntry.COLUMN_QUANTITY
+                    + " = 0 WHERE " + InventoryEntry.COLUMN_QUANTITY + " < 0");
+
+            // All existing stock is in the main stockroom
+            db.execSQL("INSERT INTO " + StockEntry.TABLE_NAME + " ("
+                    + StockEntry.COLUMN_ITEM_ID + ", " + StockEntry.COLUMN_LOCATION_ID + ", "
+                    + StockEntry.COLUMN_QUANTITY + ") SELECT " + InventoryEntry._ID + ", "
+                    + LocationEntry.DEFAULT_LOCATION_ID + ", " + InventoryEntry.COLUMN_QUANTITY
+                    + " FROM " + InventoryEntry.TABLE_NAME);
+
+            // Deleting an item deletes its stock everywhere
+            db.execSQL("CREATE TRIGGER inventory_delete_stock AFTER DELETE ON "
+                    + InventoryEntry.TABLE_NAME + " BEGIN DELETE FROM " + StockEntry.TABLE_NAME
+                    + " WHERE " + StockEntry.COLUMN_ITEM_ID + " = OLD." + InventoryEntry._ID + "; END");
+        }
+
+        if (oldVersion < 5) {
+            db.execSQL("ALTER TABLE " + InventoryEntry.TABLE_NAME + " ADD COLUMN "
+                    + InventoryEntry.COLUMN_DELETED_AT + " INTEGER");
+
+            // Only deleted items need to be found by this index, the purge and undo look them
+            // up. A partial index leaves the live items out of it, but needs SQLite 3.8.0
+            // (Android 5.0). Older versions get a full index.
+            String index = "CREATE INDEX inventory_deleted ON " + InventoryEntry.TABLE_NAME
+                    + " (" + InventoryEntry.COLUMN_DELETED_AT + ")";
+            if (supportsPartialIndexes(db)) {
+                index += " WHERE " + InventoryEntry.COLUMN_DELETED_AT + " IS NOT NULL";
+            }
+            db.execSQL(index);
+        }
+
+        if (oldVersion < 6) {
+            // Only the hash of the photo, the image itself is a file next to the database
+            db.execSQL("ALTER TABLE " + InventoryEntry.TABLE_NAME + " ADD COLUMN "
+                    + InventoryEntry.COLUMN_PHOTO + " TEXT");
+        }
+
+        if (oldVersion < 7) {
+            db.execSQL("CREATE TABLE " + ForecastEntry.TABLE_NAME + " ("
+                    + ForecastEntry.COLUMN_ITEM_ID + " INTEGER PRIMARY KEY, "
+                    + ForecastEntry.COLUMN_RATE + " REAL NOT NULL, "
+                    + ForecastEntry.COLUMN_UPDATED_AT + " INTEGER NOT NULL, "
+                    + ForecastEntry.COLUMN_DEMAND + " INTEGER NOT NULL)");
+
+            // Purging an item forgets its sales rate
+            db.execSQL("CREATE TRIGGER inventory_delete_forecast AFTER DELETE ON "
+                    + InventoryEntry.TABLE_NAME + " BEGIN DELETE FROM " + ForecastEntry.TABLE_NAME
+                    + " WHERE " + ForecastEntry.COLUMN_ITEM_ID + " = OLD." + InventoryEntry._ID + "; END");
+        }
+
+        if (oldVersion < 8) {
+            db.execSQL("CREATE TABLE " + OrderEntry.TABLE_NAME + " ("
+                    + OrderEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + OrderEntry.COLUMN_SUPPLIER + " TEXT NOT NULL, "
+                    + OrderEntry.COLUMN_SUPPLIER_NUMBER + " TEXT NOT NULL, "
+                    + OrderEntry.COLUMN_STATUS + " INTEGER NOT NULL DEFAULT " + OrderEntry.STATUS_OPEN + ", "
+                    + OrderEntry.COLUMN_CREATED_AT + " INTEGER NOT NULL, "
+                    + OrderEntry.COLUMN_RECEIVED_AT + " INTEGER)");
+
+            // The primary key serves reading and receiving the lines of one order. Lines
+            // keep referring to purged items, receiving them simply skips those.
+            db.execSQL("CREATE TABLE " + OrderLineEntry.TABLE_NAME + " ("
+                    + OrderLineEntry.COLUMN_ORDER_ID + " INTEGER NOT NULL, "
+                    + OrderLineEntry.COLUMN_ITEM_ID + " INTEGER NOT NULL, "
+                    + OrderLineEntry.COLUMN_QUANTITY + " INTEGER NOT NULL CHECK ("
+                    + OrderLineEntry.COLUMN_QUANTITY + " > 0), "
+                    + "PRIMARY KEY (" + OrderLineEntry.COLUMN_ORDER_ID + ", " + OrderLineEntry.COLUMN_ITEM_ID + "))");
+        }
+
+        if (oldVersion < 9) {
+            // The ID is the sequence number given by AuditLog, not generated by SQLite, so a
+            // record that is written twice after a crash is only stored once
+            db.execSQL("CREATE TABLE " + AuditEntry.TABLE_NAME + " ("
+                    + AuditEntry._ID + " INTEGER PRIMARY KEY, "
+                    + AuditEntry.COLUMN_TIME + " INTEGER NOT NULL, "
+                    + AuditEntry.COLUMN_CALLER + " TEXT, "
+                    + AuditEntry.COLUMN_OPERATION + " TEXT NOT NULL, "
+                    + AuditEntry.COLUMN_ITEM_ID + " INTEGER, "
+                    + AuditEntry.COLUMN_OLD_VALUES + " TEXT, "
+                    + AuditEntry.COLUMN_NEW_VALUES + " TEXT)");
+            db.execSQL("CREATE INDEX audit_item ON " + AuditEntry.TABLE_NAME + " ("
+                    + AuditEntry.COLUMN_ITEM_ID + ")");
+        }
+
+        if (oldVersion < 10) {
+            // Sorting by name reads this index instead of sorting all items on every query
+            String index = "CREATE INDEX inventory_name ON " + InventoryEntry.TABLE_NAME
+                    + " (" + InventoryEntry.SORT_BY_NAME + ")";
+            if (supportsPartialIndexes(db)) {
+                index += " WHERE " + InventoryEntry.COLUMN_DELETED_AT + " IS NULL";
+            }
+            db.execSQL(index);
+
+            // The letters compare like the names, so reading them in key order lists the
+            // sections in catalog order
+            db.execSQL("CREATE TABLE " + SectionEntry.TABLE_NAME + " ("
+                    + SectionEntry.COLUMN_LETTER + " TEXT PRIMARY KEY COLLATE NOCASE, "
+                    + SectionEntry.COLUMN_COUNT + " INTEGER NOT NULL)");
+            db.execSQL("INSERT INTO " + SectionEntry.TABLE_NAME + " SELECT " + sectionLetter("")
+                    + ", COUNT(*) FROM " + InventoryEntry.TABLE_NAME + " WHERE "
+                    + InventoryEntry.COLUMN_DELETED_AT + " IS NULL GROUP BY 1");
+
+            // Every change that adds an item to the catalog or takes one out of it adjusts the
+            // count of its letter. Deleting an item only sets deletedAt, purging it afterwards
+            // doesn't count again.
+            db.execSQL("CREATE TRIGGER inventory_insert_section AFTER INSERT ON " + InventoryEntry.TABLE_NAME
+                    + " WHEN NEW." + InventoryEntry.COLUMN_DELETED_AT + " IS NULL BEGIN "
+                    + countSection("NEW.", true) + " END");
+            db.execSQL("CREATE TRIGGER inventory_remove_section AFTER UPDATE OF "
+                    + InventoryEntry.COLUMN_PRODUCT_NAME + ", " + InventoryEntry.COLUMN_DELETED_AT
+                    + " ON " + InventoryEntry.TABLE_NAME + " WHEN OLD." + InventoryEntry.COLUMN_DELETED_AT
+                    + " IS NULL BEGIN " + countSection("OLD.", false) + " END");
+            db.execSQL("CREATE TRIGGER inventory_add_section AFTER UPDATE OF "
+                    + InventoryEntry.COLUMN_PRODUCT_NAME + ", " + InventoryEntry.COLUMN_DELETED_AT
+                    + " ON " + InventoryEntry.TABLE_NAME + " WHEN NEW." + InventoryEntry.COLUMN_DELETED_AT
+                    + " IS NULL BEGIN " + countSection("NEW.", true) + " END");
+            db.execSQL("CREATE TRIGGER inventory_delete_section AFTER DELETE ON " + InventoryEntry.TABLE_NAME
+                    + " WHEN OLD." + InventoryEntry.COLUMN_DELETED_AT + " IS NULL BEGIN "
+                    + countSection("OLD.", false) + " END");
+        }
+
+        if (oldVersion < 11) {
+            // A single row, updated in the transaction that applies the queued sales
+            db.execSQL("CREATE TABLE " + SaleQueueEntry.TABLE_NAME + " ("
+                    + SaleQueueEntry.COLUMN_APPLIED_SEQUENCE + " INTEGER NOT NULL)");
+            db.execSQL("INSERT INTO " + SaleQueueEntry.TABLE_NAME + " VALUES (0)");
+        }
+
+        if (oldVersion < 12) {
+            db.execSQL("CREATE TABLE " + MaintenanceEntry.TABLE_NAME + " ("
+                    + MaintenanceEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + MaintenanceEntry.COLUMN_STARTED_AT + " INTEGER NOT NULL, "
+                    + MaintenanceEntry.COLUMN_DURATION_MILLIS + " INTEGER NOT NULL, "
+                    + MaintenanceEntry.COLUMN_SIZE_BEFORE + " INTEGER NOT NULL, "
+                    + MaintenanceEntry.COLUMN_SIZE_AFTER + " INTEGER NOT NULL, "
+                    + MaintenanceEntry.COLUMN_PURGED_ITEMS + " INTEGER NOT NULL, "
+                    + MaintenanceEntry.COLUMN_INTEGRITY + " TEXT NOT NULL)");
+        }
+
+        if (oldVersion < 13) {
+            db.execSQL("CREATE TABLE " + HistoryEntry.TABLE_NAME + " ("
+                    + HistoryEntry.COLUMN_ITEM_ID + " INTEGER NOT NULL, "
+                    + HistoryEntry.COLUMN_TIME + " INTEGER NOT NULL, "
+                    + HistoryEntry.COLUMN_PRICE + " INTEGER NOT NULL, "
+                    + HistoryEntry.COLUMN_QUANTITY + " INTEGER NOT NULL)");
+            // Serves the range reads of one item, and the roll-up by time
+            db.execSQL("CREATE INDEX item_history_item_time ON " + HistoryEntry.TABLE_NAME + " ("
+                    + HistoryEntry.COLUMN_ITEM_ID + ", " + HistoryEntry.COLUMN_TIME + ")");
+            db.execSQL("CREATE TABLE " + HistoryEntry.ROLLUP_TABLE_NAME + " ("
+                    + HistoryEntry.COLUMN_ITEM_ID + " INTEGER NOT NULL, "
+                    + HistoryEntry.COLUMN_RESOLUTION + " INTEGER NOT NULL, "
+                    + HistoryEntry.COLUMN_TIME + " INTEGER NOT NULL, "
+                    + HistoryEntry.COLUMN_COUNT + " INTEGER NOT NULL, "
+                    + HistoryEntry.COLUMN_MIN_PRICE + " INTEGER NOT NULL, "
+                    + HistoryEntry.COLUMN_MAX_PRICE + " INTEGER NOT NULL, "
+                    + HistoryEntry.COLUMN_SUM_PRICE + " INTEGER NOT NULL, "
+                    + HistoryEntry.COLUMN_MIN_QUANTITY + " INTEGER NOT NULL, "
+                    + HistoryEntry.COLUMN_MAX_QUANTITY + " INTEGER NOT NULL, "
+                    + HistoryEntry.COLUMN_SUM_QUANTITY + " INTEGER NOT NULL, "
+                    + "PRIMARY KEY (" + HistoryEntry.COLUMN_ITEM_ID + ", " + HistoryEntry.COLUMN_RESOLUTION
+                    + ", " + HistoryEntry.COLUMN_TIME + "))");
+            db.execSQL("CREATE TABLE " + HistoryEntry.STATE_TABLE_NAME + " ("
+                    + HistoryEntry.COLUMN_HOURLY_UNTIL + " INTEGER NOT NULL, "
+                    + HistoryEntry.COLUMN_DAILY_UNTIL + " INTEGER NOT NULL)");
+            db.execSQL("INSERT INTO " + HistoryEntry.STATE_TABLE_NAME + " VALUES (0, 0)");
+
+            // Every write of a price or quantity is recorded, whichever provider method made it
+            db.execSQL("CREATE TRIGGER inventory_insert_history AFTER INSERT ON " + InventoryEntry.TABLE_NAME
+                    + " BEGIN " + recordHistory() + " END");
+            db.execSQL("CREATE TRIGGER inventory_update_history AFTER UPDATE OF "
+                    + InventoryEntry.COLUMN_PRICE + ", " + InventoryEntry.COLUMN_QUANTITY
+                    + " ON " + InventoryEntry.TABLE_NAME + " WHEN OLD." + InventoryEntry.COLUMN_PRICE
+                    + " IS NOT NEW." + InventoryEntry.COLUMN_PRICE + " OR OLD." + InventoryEntry.COLUMN_QUANTITY
+                    + " IS NOT NEW." + InventoryEntry.COLUMN_QUANTITY + " BEGIN " + recordHistory() + " END");
+            // Purged items take their history with them
+            db.execSQL("CREATE TRIGGER inventory_delete_history AFTER DELETE ON " + InventoryEntry.TABLE_NAME
+                    + " BEGIN DELETE FROM " + HistoryEntry.TABLE_NAME + " WHERE " + HistoryEntry.COLUMN_ITEM_ID
+                    + " = OLD." + InventoryEntry._ID + "; DELETE FROM " + HistoryEntry.ROLLUP_TABLE_NAME
+                    + " WHERE " + HistoryEntry.COLUMN_ITEM_ID + " = OLD." + InventoryEntry._ID + "; END");
+
+            // Existing items start their history with their current values
+            db.execSQL("INSERT INTO " + HistoryEntry.TABLE_NAME + " SELECT " + InventoryEntry._ID + ", "
+                    + SQL_NOW_MILLIS + ", " + InventoryEntry.COLUMN_PRICE + ", " + InventoryEntry.COLUMN_QUANTITY
+                    + " FROM " + InventoryEntry.TABLE_NAME);
+        }
+
+        if (oldVersion < 14) {
+            // Stays empty until a passphrase is set, the numbers are encrypted then
+            db.execSQL("CREATE TABLE " + EncryptionEntry.TABLE_NAME + " ("
+                    + EncryptionEntry.COLUMN_SALT + " BLOB NOT NULL, "
+                    + EncryptionEntry.COLUMN_ITERATIONS + " INTEGER NOT NULL, "
+                    + EncryptionEntry.COLUMN_VERIFIER + " TEXT NOT NULL)");
+        }
+
+        if (oldVersion < 15) {
+            // Counts add up per stock, the same as in the stock table, and have to fit in it
+            db.execSQL("CREATE TABLE " + StocktakeEntry.TABLE_NAME + " ("
+                    + StocktakeEntry.COLUMN_ITEM_ID + " INTEGER NOT NULL, "
+                    + StocktakeEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL, "
+                    + StocktakeEntry.COLUMN_COUNTED + " INTEGER NOT NULL CHECK ("
+                    + StocktakeEntry.COLUMN_COUNTED + " BETWEEN 0 AND " + Integer.MAX_VALUE + "), "
+                    + StocktakeEntry.COLUMN_EXPECTED + " INTEGER, "
+                    + "PRIMARY KEY (" + StocktakeEntry.COLUMN_ITEM_ID + ", " + StocktakeEntry.COLUMN_LOCATION_ID + "))");
+        }
+
+        if (oldVersion < 16) {
+            // Null until the audit log is opened: the records journaled before this version
+            // were journaled after their writes committed, so all of them count
+            db.execSQL("CREATE TABLE " + AuditEntry.STATE_TABLE_NAME + " ("
+                    + AuditEntry.COLUMN_JOURNALED_THROUGH + " INTEGER)");
+            db.execSQL("INSERT INTO " + AuditEntry.STATE_TABLE_NAME + " VALUES (NULL)");
+            db.execSQL("CREATE TABLE " + AuditItemEntry.TABLE_NAME + " ("
+                    + AuditItemEntry._ID + " INTEGER PRIMARY KEY, "
+                    + AuditItemEntry.COLUMN_AUDIT_ID + " INTEGER NOT NULL, "
+                    + AuditItemEntry.COLUMN_ITEM_ID + " INTEGER NOT NULL, "
+                    + AuditItemEntry.COLUMN_OLD_VALUES + " TEXT, "
+                    + AuditItemEntry.COLUMN_NEW_VALUES + " TEXT)");
+            db.execSQL("CREATE INDEX audit_items_audit ON " + AuditItemEntry.TABLE_NAME + " ("
+                    + AuditItemEntry.COLUMN_AUDIT_ID + ")");
+            db.execSQL("CREATE INDEX audit_items_item ON " + AuditItemEntry.TABLE_NAME + " ("
+                    + AuditItemEntry.COLUMN_ITEM_ID + ")");
+        }
     }
 
+    /**
+     * Return the trigger statement that records the new price and quantity of an item.
+     */
+    private static String recordHistory() {
+        return "INSERT INTO " + HistoryEntry.TABLE_NAME + " VALUES (NEW." + InventoryEntry._ID + ", "
+                + SQL_NOW_MILLIS + ", NEW." + InventoryEntry.COLUMN_PRICE + ", NEW."
+                + InventoryEntry.COLUMN_QUANTITY + ");";
+    }
+
+    /**
+     * Return the SQL for the section letter of an item name: its first character, in upper
+     * case for the letters A to Z.
+     *
+     * @param row prefix of the name column, e.g. "NEW." in a trigger
+     */
+    private static String sectionLetter(String row) {
+        return "UPPER(SUBSTR(" + row + InventoryEntry.COLUMN_PRODUCT_NAME + ", 1, 1))";
+    }
+
+    /**
+     * Return the trigger statements that count the row's item in or out of the section of
+     * its letter. A section is created for the first item and removed with the last one.
+     */
+    private static String countSection(String row, boolean countIn) {
+        String letter = sectionLetter(row);
+        String update = "UPDATE " + SectionEntry.TABLE_NAME + " SET " + SectionEntry.COLUMN_COUNT + " = "
+                + SectionEntry.COLUMN_COUNT + (countIn ? " + 1" : " - 1") + " WHERE "
+                + SectionEntry.COLUMN_LETTER + " = " + letter + ";";
+        if (countIn) {
+            return "INSERT OR IGNORE INTO " + SectionEntry.TABLE_NAME + " VALUES (" + letter + ", 0); " + update;
+        }
+        return update + " DELETE FROM " + SectionEntry.TABLE_NAME + " WHERE " + SectionEntry.COLUMN_LETTER
+                + " = " + letter + " AND " + SectionEntry.COLUMN_COUNT + " <= 0;";
+    }
+
+    /**
+     * Return whether the SQLite version of the device supports indexes with a WHERE clause.
+     */
+    private static boolean supportsPartialIndexes(SQLiteDatabase db) {
+        String[] version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null).split("\\.");
+        int major = Integer.parseInt(version[0]);
+        int minor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+        return major > 3 || (major == 3 && minor >= 8);
+    }
 }
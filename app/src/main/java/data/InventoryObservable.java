@@ -0,0 +1,396 @@
+package data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import data.InventoryContract.InventoryEntry;
+
+import static data.InventoryProvider.LOG_TAG;
+
+/**
+ * A query against {@link InventoryProvider} whose result can be observed as it changes.
+ *
+ * Unlike a {@link android.content.CursorLoader}, which hands over a new cursor after every
+ * change anywhere below its URI, an observable:
+ * <ul>
+ * <li>only watches the URIs the result depends on, e.g. a single item isn't queried again
+ * when another item changes,</li>
+ * <li>runs at most one query at a time per subscription and folds changes that arrive while
+ * it runs into one more query,</li>
+ * <li>reads the cursor into immutable values ({@link Item}) and closes it right away, and</li>
+ * <li>only delivers a result if it differs from the last delivered one, so observers don't
+ * rebind their views for a change that didn't affect them.</li>
+ * </ul>
+ * Queries run on a background thread, results are delivered on the executor passed to
+ * {@link #subscribe(Executor, Observer)}, usually {@link #mainThread()}.
+ *
+ * @param <T> type of the query result
+ */
+public final class InventoryObservable<T> {
+
+    /**
+     * Receives the results of an observable query.
+     */
+    public interface Observer<T> {
+        /**
+         * Called with the first result and then with every result that differs from the
+         * previous one.
+         */
+        void onChanged(T value);
+    }
+
+    /**
+     * Handle of a subscription, cancel it once the results aren't needed anymore.
+     */
+    public interface Subscription {
+        /**
+         * Stop watching for changes. No more results are delivered after this returns, as long
+         * as it is called on the delivery executor's thread.
+         */
+        void cancel();
+    }
+
+    /**
+     * Runs the query and reads the cursor into a value. Called on a background thread.
+     */
+    interface Query<T> {
+        /**
+         * @param previous the last result, or null if there is none
+         * @param changes  the URIs notified since the last result, or null if anything may
+         *                 have changed. A query can update the previous result from these
+         *                 instead of reading everything again.
+         */
+        T run(ContentResolver resolver, T previous, Set<Uri> changes);
+    }
+
+    /**
+     * Most changed items the catalog reads one by one. With more, reading the whole catalog
+     * is cheaper.
+     */
+    static final int MAX_PATCHED_ITEMS = 32;
+
+    private static final Executor sMainThread = new Executor() {
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable command) {
+            mHandler.post(command);
+        }
+    };
+
+    private final ContentResolver mResolver;
+    private final Uri mUri;
+    private final boolean mNotifyForDescendants;
+    private final Query<T> mQuery;
+
+    /**
+     * Executor the queries run on
+     */
+    private final Executor mQueryExecutor;
+
+    InventoryObservable(ContentResolver resolver, Uri uri, boolean notifyForDescendants,
+                        Query<T> query, Executor queryExecutor) {
+        mResolver = resolver;
+        mUri = uri;
+        mNotifyForDescendants = notifyForDescendants;
+        mQuery = query;
+        mQueryExecutor = queryExecutor;
+    }
+
+    /**
+     * Return an executor that runs tasks on the main thread.
+     */
+    public static Executor mainThread() {
+        return sMainThread;
+    }
+
+    /**
+     * Observe all items with the given columns, in the given order. Changes to any item,
+     * including inserts and deletes, cause a new query.
+     */
+    public static InventoryObservable<List<Item>> items(ContentResolver resolver,
+                                                        String[] projection, String sortOrder) {
+        return items(resolver, projection, sortOrder, AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    static InventoryObservable<List<Item>> items(ContentResolver resolver, final String[] projection,
+                                                 final String sortOrder, Executor queryExecutor) {
+        return new InventoryObservable<>(resolver, InventoryEntry.CONTENT_URI, true,
+                new Query<List<Item>>() {
+                    @Override
+                    public List<Item> run(ContentResolver resolver, List<Item> previous, Set<Uri> changes) {
+                        Cursor cursor = resolver.query(InventoryEntry.CONTENT_URI, projection,
+                                null, null, sortOrder);
+                        if (cursor == null) {
+                            return null;
+                        }
+                        try {
+                            return Item.listFromCursor(cursor);
+                        } finally {
+                            cursor.close();
+                        }
+                    }
+                }, queryExecutor);
+    }
+
+    /**
+     * Observe the item with the given ID, with all of its columns. Only changes to this item
+     * (or to all items at once) cause a new query. The value is null if the item doesn't
+     * exist (anymore).
+     */
+    public static InventoryObservable<Item> item(ContentResolver resolver, long id) {
+        return item(resolver, id, AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    static InventoryObservable<Item> item(ContentResolver resolver, long id, Executor queryExecutor) {
+        final Uri uri = ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id);
+        return new InventoryObservable<>(resolver, uri, false,
+                new Query<Item>() {
+                    @Override
+                    public Item run(ContentResolver resolver, Item previous, Set<Uri> changes) {
+                        Cursor cursor = resolver.query(uri, null, null, null, null);
+                        if (cursor == null) {
+                            return null;
+                        }
+                        try {
+                            return cursor.moveToFirst() ? Item.fromCursor(cursor) : null;
+                        } finally {
+                            cursor.close();
+                        }
+                    }
+                }, queryExecutor);
+    }
+
+    /**
+     * Observe the catalog as {@link CatalogColumns}, with its rows in the given order. The
+     * catalog is read once, after that a change to single items only reads those items and
+     * updates their rows. New items and renamed ones may change the order, so they still
+     * read the whole catalog, as do changes to all items at once.
+     */
+    public static InventoryObservable<CatalogColumns> catalog(ContentResolver resolver, String sortOrder) {
+        return catalog(resolver, sortOrder, AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    static InventoryObservable<CatalogColumns> catalog(ContentResolver resolver, final String sortOrder,
+                                                       Executor queryExecutor) {
+        return new InventoryObservable<>(resolver, InventoryEntry.CONTENT_URI, true,
+                new Query<CatalogColumns>() {
+                    @Override
+                    public CatalogColumns run(ContentResolver resolver, CatalogColumns previous,
+                                              Set<Uri> changes) {
+                        if (previous != null && changes != null && changes.size() <= MAX_PATCHED_ITEMS) {
+                            CatalogColumns patched = patchCatalog(resolver, previous, changes);
+                            if (patched != null) {
+                                return patched;
+                            }
+                        }
+                        Cursor cursor = resolver.query(InventoryEntry.CONTENT_URI, CatalogColumns.COLUMNS,
+                                null, null, sortOrder);
+                        if (cursor == null) {
+                            return null;
+                        }
+                        try {
+                            return CatalogColumns.fromCursor(cursor);
+                        } finally {
+                            cursor.close();
+                        }
+                    }
+                }, queryExecutor);
+    }
+
+    /**
+     * Read the changed items and update their rows in the catalog. Return null if the whole
+     * catalog has to be read again: a change wasn't to a single item, or one may have moved.
+     */
+    private static CatalogColumns patchCatalog(ContentResolver resolver, CatalogColumns catalog,
+                                               Set<Uri> changes) {
+        for (Uri uri : changes) {
+            List<String> segments = uri.getPathSegments();
+            if (segments.size() == 1) {
+                // All items
+                return null;
+            }
+            if (segments.size() != 2 || !TextUtils.isDigitsOnly(segments.get(1))) {
+                // Stock value, sections and the like, not item columns
+                continue;
+            }
+
+            int row = catalog.indexOf(Long.parseLong(segments.get(1)));
+            Cursor cursor = resolver.query(uri, CatalogColumns.COLUMNS, null, null, null);
+            if (cursor == null) {
+                return null;
+            }
+            try {
+                if (!cursor.moveToFirst()) {
+                    // Deleted
+                    if (row != -1) {
+                        catalog = catalog.withoutRow(row);
+                    }
+                } else if (row == -1 || !TextUtils.equals(catalog.getName(row),
+                        cursor.getString(cursor.getColumnIndexOrThrow(InventoryEntry.COLUMN_PRODUCT_NAME)))) {
+                    // New or renamed, its place in the order is up to the database
+                    return null;
+                } else {
+                    catalog = catalog.withRow(row, cursor);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * Start observing: run the query now, and again whenever the data it depends on changes.
+     * Results are passed to the observer on the given executor.
+     */
+    public Subscription subscribe(Executor deliverOn, Observer<T> observer) {
+        ActiveSubscription subscription = new ActiveSubscription(deliverOn, observer);
+        mResolver.registerContentObserver(mUri, mNotifyForDescendants, subscription.mContentObserver);
+        subscription.requery(null);
+        return subscription;
+    }
+
+    private final class ActiveSubscription implements Subscription {
+
+        private final Executor mDeliverOn;
+        private final Observer<T> mObserver;
+
+        /**
+         * Gets told about changes on whatever thread made them, and only schedules a query
+         */
+        private final ContentObserver mContentObserver = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                requery(null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                requery(uri);
+            }
+        };
+
+        /**
+         * Runs the query until no change arrived while it was running
+         */
+        private final Runnable mQueryTask = new Runnable() {
+            @Override
+            public void run() {
+                while (!mCancelled) {
+                    Set<Uri> changes;
+                    synchronized (ActiveSubscription.this) {
+                        changes = mEverythingChanged ? null : new HashSet<>(mChanges);
+                        mEverythingChanged = false;
+                        mChanges.clear();
+                    }
+                    try {
+                        deliverIfChanged(mQuery.run(mResolver, mHasValue ? mLastValue : null, changes));
+                    } catch (RuntimeException e) {
+                        // Keep watching, the next change may well succeed. Which changes were
+                        // handled is unknown, so the next query starts over.
+                        Log.e(LOG_TAG, "Observed query of " + mUri + " failed", e);
+                        synchronized (ActiveSubscription.this) {
+                            mEverythingChanged = true;
+                        }
+                    }
+                    synchronized (ActiveSubscription.this) {
+                        if (!mChangedWhileRunning) {
+                            mRunning = false;
+                            return;
+                        }
+                        mChangedWhileRunning = false;
+                    }
+                }
+            }
+        };
+
+        private volatile boolean mCancelled;
+
+        /**
+         * Whether a query is scheduled or running, guarded by this
+         */
+        private boolean mRunning;
+
+        /**
+         * Whether the data changed since the running query started, guarded by this
+         */
+        private boolean mChangedWhileRunning;
+
+        /**
+         * URIs notified since the last query started, guarded by this. If a change didn't
+         * name its URI, everything is assumed to have changed.
+         */
+        private final Set<Uri> mChanges = new HashSet<>();
+        private boolean mEverythingChanged = true;
+
+        /**
+         * Last value handed to the delivery executor. Only used by the query task, which
+         * never runs twice at the same time.
+         */
+        private T mLastValue;
+        private boolean mHasValue;
+
+        ActiveSubscription(Executor deliverOn, Observer<T> observer) {
+            mDeliverOn = deliverOn;
+            mObserver = observer;
+        }
+
+        /**
+         * Query again because the data at the given URI changed, or any data if it's null.
+         */
+        void requery(Uri changed) {
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+                if (changed == null) {
+                    mEverythingChanged = true;
+                } else if (!mEverythingChanged) {
+                    mChanges.add(changed);
+                }
+                if (mRunning) {
+                    mChangedWhileRunning = true;
+                    return;
+                }
+                mRunning = true;
+            }
+            mQueryExecutor.execute(mQueryTask);
+        }
+
+        private void deliverIfChanged(final T value) {
+            if (mHasValue && (value == null ? mLastValue == null : value.equals(mLastValue))) {
+                return;
+            }
+            mLastValue = value;
+            mHasValue = true;
+            mDeliverOn.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        mObserver.onChanged(value);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+            mResolver.unregisterContentObserver(mContentObserver);
+        }
+    }
+}
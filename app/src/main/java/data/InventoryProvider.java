@@ -3,14 +3,36 @@ package data;
 import android.content.ContentProvider;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 public class InventoryProvider extends ContentProvider {
 
     /**
@@ -28,6 +50,96 @@ public class InventoryProvider extends ContentProvider {
      */
     private static final int ITEM_ID = 101;
 
+    /**
+     * URI matcher code for the content URI for the aggregated stock value
+     */
+    private static final int STOCK_VALUE = 102;
+
+    /**
+     * URI matcher code for the content URI for a sale of a single item
+     */
+    private static final int ITEM_SALE = 103;
+
+    /**
+     * URI matcher code for the content URI for the suggested reorder quantities
+     */
+    private static final int REORDER = 104;
+
+    /**
+     * URI matcher code for the content URI for the number of items per first letter
+     */
+    private static final int ITEM_SECTIONS = 105;
+
+    /**
+     * URI matcher code for the content URI for the price and stock history of a single item
+     */
+    private static final int ITEM_HISTORY = 106;
+
+    /**
+     * URI matcher code for the content URI for the locations table
+     */
+    private static final int LOCATION = 200;
+
+    /**
+     * URI matcher code for the content URI for a single location
+     */
+    private static final int LOCATION_ID = 201;
+
+    /**
+     * URI matcher code for the content URI for the items held at one location
+     */
+    private static final int LOCATION_ITEM = 202;
+
+    /**
+     * URI matcher code for the content URI for a single item at one location
+     */
+    private static final int LOCATION_ITEM_ID = 203;
+
+    /**
+     * URI matcher code for the content URI for a sale of a single item at one location
+     */
+    private static final int LOCATION_ITEM_SALE = 204;
+
+    /**
+     * URI matcher code for the content URI for a single photo
+     */
+    private static final int PHOTO = 300;
+
+    /**
+     * URI matcher code for the content URI for the purchase orders
+     */
+    private static final int ORDER = 400;
+
+    /**
+     * URI matcher code for the content URI for a single purchase order
+     */
+    private static final int ORDER_ID = 401;
+
+    /**
+     * URI matcher code for the content URI for the lines of a purchase order
+     */
+    private static final int ORDER_LINES = 402;
+
+    /**
+     * URI matcher code for the content URI for receiving a purchase order
+     */
+    private static final int ORDER_RECEIVE = 403;
+
+    /**
+     * URI matcher code for the content URI for the audit trail
+     */
+    private static final int AUDIT = 500;
+
+    /**
+     * URI matcher code for the content URI for the items changed by bulk changes
+     */
+    private static final int AUDIT_ITEMS = 501;
+
+    /**
+     * URI matcher code for the content URI for the counts of the stocktake
+     */
+    private static final int STOCKTAKE = 600;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -54,66 +166,735 @@ public class InventoryProvider extends ContentProvider {
         // For example, "content://com.example.matthewbarba.inventoryapp/item/3" matches, but
         // "content://com.example.matthewbarba.inventoryapp/item" (without a number at the end) doesn't match.
         sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_ITEMS + "/#", ITEM_ID);
+
+        // The content URI of the form "content://com.example.matthewbarba.inventoryapp/items/stock_value"
+        // will map to the integer code {@link #STOCK_VALUE}. This URI returns one row with the
+        // total units and value of the whole inventory.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_ITEMS + "/" + InventoryContract.PATH_STOCK_VALUE, STOCK_VALUE);
+
+        // The content URI of the form "content://com.example.matthewbarba.inventoryapp/items/#/sale"
+        // will map to the integer code {@link #ITEM_SALE}. Updating this URI sells units of ONE item.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_ITEMS + "/#/" + InventoryContract.PATH_SALE, ITEM_SALE);
+
+        // The content URI of the form "content://com.example.matthewbarba.inventoryapp/items/reorder"
+        // will map to the integer code {@link #REORDER}. This URI returns the items that are
+        // expected to run out, with the number of units to order.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_ITEMS + "/" + InventoryContract.PATH_REORDER, REORDER);
+
+        // The content URI of the form "content://com.example.matthewbarba.inventoryapp/items/sections"
+        // will map to the integer code {@link #ITEM_SECTIONS}. This URI returns the number of
+        // items per first letter, for the section index of the catalog.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_ITEMS + "/" + InventoryContract.PATH_SECTIONS, ITEM_SECTIONS);
+
+        // The content URI of the form "content://com.example.matthewbarba.inventoryapp/items/#/history"
+        // will map to the integer code {@link #ITEM_HISTORY}. This URI returns the price and
+        // quantity of the item over time.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_ITEMS + "/#/" + InventoryContract.PATH_HISTORY, ITEM_HISTORY);
+
+        // The content URIs of the form "content://com.example.matthewbarba.inventoryapp/locations"
+        // and ".../locations/#" give access to the stock locations themselves.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_LOCATIONS, LOCATION);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_LOCATIONS + "/#", LOCATION_ID);
+
+        // The content URIs of the form ".../locations/#/items", ".../locations/#/items/#" and
+        // ".../locations/#/items/#/sale" work like the item URIs, but are scoped to the stock
+        // held at one location.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_LOCATIONS + "/#/" + InventoryContract.PATH_ITEMS, LOCATION_ITEM);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_LOCATIONS + "/#/" + InventoryContract.PATH_ITEMS + "/#", LOCATION_ITEM_ID);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_LOCATIONS + "/#/" + InventoryContract.PATH_ITEMS + "/#/"
+                        + InventoryContract.PATH_SALE, LOCATION_ITEM_SALE);
+
+        // The content URI of the form ".../photos/<hash>" is opened as a file to read one photo
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_PHOTOS + "/*", PHOTO);
+
+        // The content URIs of the form ".../orders", ".../orders/#" and ".../orders/#/lines"
+        // give access to the purchase orders, updating ".../orders/#/receive" receives one.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_ORDERS, ORDER);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_ORDERS + "/#", ORDER_ID);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_ORDERS + "/#/" + InventoryContract.PATH_LINES, ORDER_LINES);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_ORDERS + "/#/" + InventoryContract.PATH_RECEIVE, ORDER_RECEIVE);
+
+        // The content URI of the form ".../audit" gives read access to the audit trail
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_AUDIT, AUDIT);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_AUDIT + "/" + InventoryContract.PATH_AUDIT_ITEMS, AUDIT_ITEMS);
+
+        // The content URI of the form ".../stocktake" takes the counts of a stocktake and
+        // returns its variance report
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_STOCKTAKE, STOCKTAKE);
+    }
+
+    /**
+     * Tables joined for the items at one location: every item with a stock row there
+     */
+    private static final String LOCATION_ITEM_TABLES = InventoryContract.InventoryEntry.TABLE_NAME
+            + " JOIN " + InventoryContract.StockEntry.TABLE_NAME + " ON "
+            + InventoryContract.StockEntry.TABLE_NAME + "." + InventoryContract.StockEntry.COLUMN_ITEM_ID + " = "
+            + InventoryContract.InventoryEntry.TABLE_NAME + "." + InventoryContract.InventoryEntry._ID;
+
+    /**
+     * Maps the item columns to the joined tables, so that the items at one location have the
+     * same columns as the items themselves, with the quantity held at that location.
+     */
+    private static final Map<String, String> sLocationItemProjection = new HashMap<>();
+
+    static {
+        String[] itemColumns = {
+                InventoryContract.InventoryEntry._ID,
+                InventoryContract.InventoryEntry.COLUMN_PRODUCT_NAME,
+                InventoryContract.InventoryEntry.COLUMN_PRICE,
+                InventoryContract.InventoryEntry.COLUMN_SUPPLIER,
+                InventoryContract.InventoryEntry.COLUMN_SUPPLIER_NUMBER,
+                InventoryContract.InventoryEntry.COLUMN_PHOTO,
+                InventoryContract.InventoryEntry.COLUMN_VERSION};
+        for (String column : itemColumns) {
+            sLocationItemProjection.put(column,
+                    InventoryContract.InventoryEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+        sLocationItemProjection.put(InventoryContract.InventoryEntry.COLUMN_QUANTITY,
+                InventoryContract.StockEntry.TABLE_NAME + "." + InventoryContract.StockEntry.COLUMN_QUANTITY
+                        + " AS " + InventoryContract.InventoryEntry.COLUMN_QUANTITY);
+    }
+
+    /**
+     * Maps the order columns to the orders table, with the number of lines and units of each
+     * order counted from its lines
+     */
+    private static final Map<String, String> sOrderProjection = new HashMap<>();
+
+    static {
+        String[] orderColumns = {
+                InventoryContract.OrderEntry._ID,
+                InventoryContract.OrderEntry.COLUMN_SUPPLIER,
+                InventoryContract.OrderEntry.COLUMN_SUPPLIER_NUMBER,
+                InventoryContract.OrderEntry.COLUMN_STATUS,
+                InventoryContract.OrderEntry.COLUMN_CREATED_AT,
+                InventoryContract.OrderEntry.COLUMN_RECEIVED_AT};
+        for (String column : orderColumns) {
+            sOrderProjection.put(column, column);
+        }
+        String lines = " FROM " + InventoryContract.OrderLineEntry.TABLE_NAME + " WHERE "
+                + InventoryContract.OrderLineEntry.COLUMN_ORDER_ID + " = "
+                + InventoryContract.OrderEntry.TABLE_NAME + "." + InventoryContract.OrderEntry._ID + ")";
+        sOrderProjection.put(InventoryContract.OrderEntry.COLUMN_LINE_COUNT,
+                "(SELECT COUNT(*)" + lines + " AS " + InventoryContract.OrderEntry.COLUMN_LINE_COUNT);
+        sOrderProjection.put(InventoryContract.OrderEntry.COLUMN_TOTAL_UNITS,
+                "(SELECT IFNULL(SUM(" + InventoryContract.OrderLineEntry.COLUMN_QUANTITY + "), 0)" + lines
+                        + " AS " + InventoryContract.OrderEntry.COLUMN_TOTAL_UNITS);
+    }
+
+    /**
+     * Tables joined for the lines of an order: every line with its item, if it still exists
+     */
+    private static final String ORDER_LINE_TABLES = InventoryContract.OrderLineEntry.TABLE_NAME
+            + " LEFT JOIN " + InventoryContract.InventoryEntry.TABLE_NAME + " ON "
+            + InventoryContract.InventoryEntry.TABLE_NAME + "." + InventoryContract.InventoryEntry._ID + " = "
+            + InventoryContract.OrderLineEntry.TABLE_NAME + "." + InventoryContract.OrderLineEntry.COLUMN_ITEM_ID;
+
+    /**
+     * Maps the line columns to the joined tables. The item ID doubles as the row ID, an item
+     * is on an order at most once.
+     */
+    private static final Map<String, String> sOrderLineProjection = new HashMap<>();
+
+    static {
+        String line = InventoryContract.OrderLineEntry.TABLE_NAME + ".";
+        sOrderLineProjection.put(InventoryContract.InventoryEntry._ID,
+                line + InventoryContract.OrderLineEntry.COLUMN_ITEM_ID + " AS " + InventoryContract.InventoryEntry._ID);
+        sOrderLineProjection.put(InventoryContract.OrderLineEntry.COLUMN_ORDER_ID,
+                line + InventoryContract.OrderLineEntry.COLUMN_ORDER_ID);
+        sOrderLineProjection.put(InventoryContract.OrderLineEntry.COLUMN_ITEM_ID,
+                line + InventoryContract.OrderLineEntry.COLUMN_ITEM_ID);
+        sOrderLineProjection.put(InventoryContract.OrderLineEntry.COLUMN_QUANTITY,
+                line + InventoryContract.OrderLineEntry.COLUMN_QUANTITY + " AS "
+                        + InventoryContract.OrderLineEntry.COLUMN_QUANTITY);
+        sOrderLineProjection.put(InventoryContract.InventoryEntry.COLUMN_PRODUCT_NAME,
+                InventoryContract.InventoryEntry.TABLE_NAME + "." + InventoryContract.InventoryEntry.COLUMN_PRODUCT_NAME);
     }
 
     /**
-     * Database helper object
+     * Sums the stock value in two parts: whole dollars times quantity and the remaining cents
+     * times quantity. Prices are capped at {@link Money#MAX_PRICE}, so no single product can
+     * overflow. The dollars still can: a few hundred items at the maximum price and quantity
+     * are past the SQL integer limit, where SUM() fails. They are added up with TOTAL()
+     * instead, which is exact below 2^53 and approximate above. The cents of one item are at
+     * most 99 times the largest quantity, so their SUM() needs tens of millions of such items
+     * to overflow.
+     */
+    private static final String SQL_STOCK_VALUE = "SELECT "
+            + "IFNULL(SUM(" + InventoryContract.InventoryEntry.COLUMN_QUANTITY + "), 0) AS "
+            + InventoryContract.InventoryEntry.COLUMN_TOTAL_UNITS + ", "
+            + "TOTAL((" + InventoryContract.InventoryEntry.COLUMN_PRICE + " / " + Money.MINOR_PER_MAJOR + ") * "
+            + InventoryContract.InventoryEntry.COLUMN_QUANTITY + ") AS "
+            + InventoryContract.InventoryEntry.COLUMN_VALUE_MAJOR + ", "
+            + "IFNULL(SUM((" + InventoryContract.InventoryEntry.COLUMN_PRICE + " % " + Money.MINOR_PER_MAJOR + ") * "
+            + InventoryContract.InventoryEntry.COLUMN_QUANTITY + "), 0) AS "
+            + InventoryContract.InventoryEntry.COLUMN_VALUE_MINOR
+            + " FROM " + InventoryContract.InventoryEntry.TABLE_NAME
+            + " WHERE " + InventoryContract.InventoryEntry.COLUMN_DELETED_AT + " IS NULL";
+
+    /**
+     * Lists the items whose expected demand exceeds their stock, with the difference as the
+     * suggested quantity to order. The demand is stored with the sales rate, the stock is
+     * read as it is now, so a change of quantity shows up right away.
+     */
+    private static final String SQL_REORDER = "SELECT "
+            + "i." + InventoryContract.InventoryEntry._ID + ", "
+            + "i." + InventoryContract.InventoryEntry.COLUMN_PRODUCT_NAME + ", "
+            + "i." + InventoryContract.InventoryEntry.COLUMN_SUPPLIER + ", "
+            + "i." + InventoryContract.InventoryEntry.COLUMN_SUPPLIER_NUMBER + ", "
+            + "i." + InventoryContract.InventoryEntry.COLUMN_QUANTITY + ", "
+            + "f." + InventoryContract.ForecastEntry.COLUMN_RATE + " AS "
+            + InventoryContract.InventoryEntry.COLUMN_SALES_RATE + ", "
+            + "f." + InventoryContract.ForecastEntry.COLUMN_DEMAND + " - i." + InventoryContract.InventoryEntry.COLUMN_QUANTITY
+            + " AS " + InventoryContract.InventoryEntry.COLUMN_SUGGESTED_QUANTITY
+            + " FROM " + InventoryContract.ForecastEntry.TABLE_NAME + " f JOIN "
+            + InventoryContract.InventoryEntry.TABLE_NAME + " i ON i." + InventoryContract.InventoryEntry._ID
+            + " = f." + InventoryContract.ForecastEntry.COLUMN_ITEM_ID
+            + " WHERE i." + InventoryContract.InventoryEntry.COLUMN_DELETED_AT + " IS NULL"
+            + " AND f." + InventoryContract.ForecastEntry.COLUMN_DEMAND + " > i." + InventoryContract.InventoryEntry.COLUMN_QUANTITY
+            + " ORDER BY " + InventoryContract.InventoryEntry.COLUMN_SUGGESTED_QUANTITY + " DESC";
+
+    /**
+     * Lists the sections of the catalog in order. The counts are kept by triggers, so this
+     * reads one short row per letter however many items there are.
+     */
+    private static final String SQL_SECTIONS = "SELECT "
+            + InventoryContract.SectionEntry.COLUMN_LETTER + ", " + InventoryContract.SectionEntry.COLUMN_COUNT
+            + " FROM " + InventoryContract.SectionEntry.TABLE_NAME
+            + " ORDER BY " + InventoryContract.SectionEntry.COLUMN_LETTER;
+
+    /**
+     * Reads the last sequence number applied by {@link InventoryContract#METHOD_APPLY_SALES}
+     */
+    private static final String SQL_APPLIED_SEQUENCE = "SELECT "
+            + InventoryContract.SaleQueueEntry.COLUMN_APPLIED_SEQUENCE + " FROM "
+            + InventoryContract.SaleQueueEntry.TABLE_NAME;
+
+    /**
+     * Selection of the items that weren't deleted. Deleted items stay in the table until they
+     * are purged, but are hidden from every query and update.
+     */
+    private static final String LIVE_ITEMS = InventoryContract.InventoryEntry.COLUMN_DELETED_AT + " IS NULL";
+
+    /**
+     * Marks the selected items as deleted. The selection is appended at the end.
+     * Arguments: deletion time, then the selection arguments.
+     */
+    private static final String SQL_SOFT_DELETE = "UPDATE " + InventoryContract.InventoryEntry.TABLE_NAME
+            + " SET " + InventoryContract.InventoryEntry.COLUMN_DELETED_AT + " = ?, "
+            + InventoryContract.InventoryEntry.COLUMN_VERSION + " = "
+            + InventoryContract.InventoryEntry.COLUMN_VERSION + " + 1 WHERE ";
+
+    /**
+     * Brings back the items deleted at the given time. Arguments: deletion time.
+     */
+    private static final String SQL_UNDO_DELETE = "UPDATE " + InventoryContract.InventoryEntry.TABLE_NAME
+            + " SET " + InventoryContract.InventoryEntry.COLUMN_DELETED_AT + " = NULL, "
+            + InventoryContract.InventoryEntry.COLUMN_VERSION + " = "
+            + InventoryContract.InventoryEntry.COLUMN_VERSION + " + 1"
+            + " WHERE " + InventoryContract.InventoryEntry.COLUMN_DELETED_AT + " = ?";
+
+    /**
+     * Changes the price of the selected items by a factor, rounded to the minor unit. Rows
+     * whose price stays the same keep their version. The selection is appended at the end.
+     * Arguments: factor, factor, then the selection arguments.
+     */
+    private static final String SQL_ADJUST_PRICES = "UPDATE " + InventoryContract.InventoryEntry.TABLE_NAME
+            + " SET " + InventoryContract.InventoryEntry.COLUMN_PRICE + " = CAST(ROUND("
+            + InventoryContract.InventoryEntry.COLUMN_PRICE + " * ?) AS INTEGER), "
+            + InventoryContract.InventoryEntry.COLUMN_VERSION + " = "
+            + InventoryContract.InventoryEntry.COLUMN_VERSION + " + 1 WHERE CAST(ROUND("
+            + InventoryContract.InventoryEntry.COLUMN_PRICE + " * ?) AS INTEGER) <> "
+            + InventoryContract.InventoryEntry.COLUMN_PRICE + " AND ";
+
+    /**
+     * Adds units to the quantity of the selected items. The selection is appended at the end.
+     * Arguments: units, then the selection arguments.
+     */
+    private static final String SQL_RESTOCK = "UPDATE " + InventoryContract.InventoryEntry.TABLE_NAME
+            + " SET " + InventoryContract.InventoryEntry.COLUMN_QUANTITY + " = "
+            + InventoryContract.InventoryEntry.COLUMN_QUANTITY + " + ?, "
+            + InventoryContract.InventoryEntry.COLUMN_VERSION + " = "
+            + InventoryContract.InventoryEntry.COLUMN_VERSION + " + 1 WHERE ";
+
+    /**
+     * Selects the old and new price of the items {@link #SQL_ADJUST_PRICES} changes, for the
+     * audit trail. The selection is appended at the end.
+     * Arguments: factor, factor, then the selection arguments.
+     */
+    private static final String SQL_AUDIT_ADJUST_PRICES = "SELECT " + InventoryContract.InventoryEntry._ID + ", "
+            + AuditLog.jsonObject(InventoryContract.InventoryEntry.COLUMN_PRICE,
+                    InventoryContract.InventoryEntry.COLUMN_PRICE) + ", "
+            + AuditLog.jsonObject(InventoryContract.InventoryEntry.COLUMN_PRICE,
+                    "CAST(ROUND(" + InventoryContract.InventoryEntry.COLUMN_PRICE + " * ?) AS INTEGER)")
+            + " FROM " + InventoryContract.InventoryEntry.TABLE_NAME + " WHERE CAST(ROUND("
+            + InventoryContract.InventoryEntry.COLUMN_PRICE + " * ?) AS INTEGER) <> "
+            + InventoryContract.InventoryEntry.COLUMN_PRICE + " AND ";
+
+    /**
+     * Selects the old and new quantity of the items {@link #SQL_RESTOCK} changes, for the
+     * audit trail. The selection is appended at the end.
+     * Arguments: units, then the selection arguments.
+     */
+    private static final String SQL_AUDIT_RESTOCK = "SELECT " + InventoryContract.InventoryEntry._ID + ", "
+            + AuditLog.jsonObject(InventoryContract.InventoryEntry.COLUMN_QUANTITY,
+                    InventoryContract.InventoryEntry.COLUMN_QUANTITY) + ", "
+            + AuditLog.jsonObject(InventoryContract.InventoryEntry.COLUMN_QUANTITY,
+                    InventoryContract.InventoryEntry.COLUMN_QUANTITY + " + ?")
+            + " FROM " + InventoryContract.InventoryEntry.TABLE_NAME + " WHERE ";
+
+    /**
+     * Connections to the database: one writer and a read connection per core
+     */
+    private InventoryConnectionPool mPool;
+
+    /**
+     * Files of the item photos
      */
-    private InventoryDbHelper mDbHelper;
+    private PhotoStore mPhotoStore;
+
+    /**
+     * Sales rates of the items, for the reorder suggestions
+     */
+    private DemandForecast mForecast;
+
+    /**
+     * Records every change of an item or its stock. Changes are journaled inside their
+     * transaction and handed to the audit writer after it committed, since that can wait for
+     * the writer, which needs to write too.
+     */
+    private AuditLog mAudit;
+
+    /**
+     * Encrypts the supplier details once a passphrase was set
+     */
+    private FieldEncryption mEncryption;
+
+    /**
+     * Runs the purge of deleted items and other upkeep in the background
+     */
+    private final ScheduledExecutorService mMaintenanceExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "InventoryMaintenance");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
 
     @Override
     public boolean onCreate() {
-        mDbHelper = new InventoryDbHelper(getContext());
+        StartupTrace.mark("Provider created");
+
+        // Creating the pool is cheap, it doesn't open the database yet
+        mPool = createPool(getContext());
+        mPhotoStore = new PhotoStore(new File(getContext().getFilesDir(), InventoryContract.PATH_PHOTOS));
+        mForecast = new DemandForecast(getContext().getSharedPreferences(DemandForecast.PREFERENCES,
+                Context.MODE_PRIVATE));
+        mAudit = new AuditLog(mPool, getContext().getContentResolver(), getContext().getPackageManager(),
+                getContext().getFilesDir());
+        mEncryption = new FieldEncryption(mPool, mAudit);
+
+        // Opening the database, running migrations and reading the first catalog page all
+        // touch the disk. Start them in the background right away, while the rest of the app
+        // is still starting, so the catalog's first query finds them done.
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                warmUp();
+            }
+        }, "InventoryWarmUp").start();
         return true;
     }
 
+    /**
+     * Create the connections to the database. Tests override this to watch the queries.
+     */
+    InventoryConnectionPool createPool(Context context) {
+        return new InventoryConnectionPool(new InventoryDbHelper(context),
+                InventoryConnectionPool.defaultReaderCount());
+    }
+
+    /**
+     * Open the database and read the first page of the catalog, so that the database file,
+     * the schema and the first rows are in memory by the time the catalog asks for them.
+     * {@link InventoryDbHelper} serializes opening, so a query arriving while this runs simply
+     * waits for the open to finish instead of doing it a second time.
+     */
+    private void warmUp() {
+        try {
+            StartupTrace.begin("Open database");
+            try {
+                mPool.getWriter();
+            } finally {
+                StartupTrace.end();
+            }
+            StartupTrace.mark("Database open");
+
+            // Writes records left in the journal by the last run to the table
+            mAudit.open();
+
+            StartupTrace.begin("Warm first catalog page");
+            // This also opens the first read connection, which the catalog query will use
+            SQLiteDatabase database = mPool.acquireReader();
+            try {
+                Cursor cursor = database.query(InventoryContract.InventoryEntry.TABLE_NAME,
+                        CatalogSnapshot.COLUMNS, LIVE_ITEMS, null, null, null, null,
+                        String.valueOf(CatalogSnapshot.FIRST_PAGE_SIZE));
+                try {
+                    // Counting fills the cursor window, which pulls the pages into the cache
+                    cursor.getCount();
+                } finally {
+                    cursor.close();
+                }
+            } finally {
+                mPool.releaseReader(database);
+                StartupTrace.end();
+            }
+            StartupTrace.mark("First catalog page warm");
+
+            // Remove items that were deleted during an earlier run
+            schedulePurge(0);
+
+            // Rates decay while the app isn't running, bring the suggestions up to date
+            mMaintenanceExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        recomputeForecast();
+                    } catch (RuntimeException e) {
+                        Log.e(LOG_TAG, "Could not recompute the forecast", e);
+                    }
+                    // Devices that never run the maintenance job still keep the history small
+                    try {
+                        ItemHistory.rollUp(mPool, System.currentTimeMillis());
+                    } catch (RuntimeException e) {
+                        Log.e(LOG_TAG, "Could not roll up the item history", e);
+                    }
+                }
+            });
+
+            // Upkeep of the database while the device isn't used
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                MaintenanceJobService.schedule(getContext());
+            }
+        } catch (RuntimeException e) {
+            // The real queries will run into the same problem and report it
+            Log.e(LOG_TAG, "Could not warm up the database", e);
+        }
+    }
+
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
-        // Get readable database
-        SQLiteDatabase database = mDbHelper.getReadableDatabase();
-
         // This cursor will hold the result of the query
         Cursor cursor;
 
         // Figure out if the URI matcher can match the URI to a specific code
         int match = sUriMatcher.match(uri);
-        switch (match) {
-            case ITEM:
-                // For the ITEM code, query the items table directly with the given
-                // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the items table.
-                cursor = database.query(InventoryContract.InventoryEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
-                break;
-            case ITEM_ID:
-                // For the ITEM_ID code, extract out the ID from the URI.
-                // For an example URI such as "content://com.example.matthewbarba.inventoryapp/item/3",
-                // the selection will be "_id=?" and the selection argument will be a
-                // String array containing the actual ID of 3 in this case.
-                //
-                // For every "?" in the selection, we need to have an element in the selection
-                // arguments that will fill in the "?". Since we have 1 question mark in the
-                // selection, we have 1 String in the selection arguments' String array.
-                selection = InventoryContract.InventoryEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
 
-                // This will perform a query on the inventory table where the _id equals 3 to return a
-                // Cursor containing that row of the table.
-                cursor = database.query(InventoryContract.InventoryEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
-                break;
-            default:
-                throw new IllegalArgumentException("Cannot query unknown URI " + uri);
+        // Lease a read connection of our own, so this query doesn't wait for other queries
+        // or for a write that is in progress
+        SQLiteDatabase database = mPool.acquireReader();
+        try {
+            switch (match) {
+                case ITEM:
+                    // For the ITEM code, query the items table directly with the given
+                    // projection, selection, selection arguments, and sort order. The cursor
+                    // could contain multiple rows of the items table.
+                    selection = DatabaseUtils.concatenateWhere(LIVE_ITEMS, selection);
+                    cursor = database.query(InventoryContract.InventoryEntry.TABLE_NAME, projection, selection, selectionArgs,
+                            null, null, sortOrder, parseLimit(uri));
+                    break;
+                case ITEM_ID:
+                    // For the ITEM_ID code, extract out the ID from the URI.
+                    // For an example URI such as "content://com.example.matthewbarba.inventoryapp/item/3",
+                    // the selection will be "_id=?" and the selection argument will be a
+                    // String array containing the actual ID of 3 in this case.
+                    //
+                    // For every "?" in the selection, we need to have an element in the selection
+                    // arguments that will fill in the "?". Since we have 1 question mark in the
+                    // selection, we have 1 String in the selection arguments' String array.
+                    selection = LIVE_ITEMS + " AND " + InventoryContract.InventoryEntry._ID + "=?";
+                    selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+
+                    // This will perform a query on the inventory table where the _id equals 3 to return a
+                    // Cursor containing that row of the table.
+                    cursor = database.query(InventoryContract.InventoryEntry.TABLE_NAME, projection, selection, selectionArgs,
+                            null, null, sortOrder);
+                    break;
+                case LOCATION:
+                    cursor = database.query(InventoryContract.LocationEntry.TABLE_NAME, projection, selection,
+                            selectionArgs, null, null, sortOrder);
+                    break;
+                case LOCATION_ID:
+                    selection = InventoryContract.LocationEntry._ID + "=?";
+                    selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                    cursor = database.query(InventoryContract.LocationEntry.TABLE_NAME, projection, selection,
+                            selectionArgs, null, null, sortOrder);
+                    break;
+                case LOCATION_ITEM:
+                case LOCATION_ITEM_ID:
+                    cursor = queryLocationItems(database, uri, match == LOCATION_ITEM_ID, projection,
+                            selection, selectionArgs, sortOrder);
+                    break;
+                case ORDER:
+                case ORDER_ID:
+                    cursor = queryOrders(database, uri, match == ORDER_ID, projection, selection,
+                            selectionArgs, sortOrder);
+                    uri = InventoryContract.OrderEntry.CONTENT_URI;
+                    break;
+                case ORDER_LINES:
+                    cursor = queryOrderLines(database, uri, projection, selection, selectionArgs, sortOrder);
+                    uri = InventoryContract.OrderEntry.CONTENT_URI;
+                    break;
+                case AUDIT:
+                    // Let the query see every change made before it
+                    mAudit.awaitWritten();
+                    cursor = database.query(InventoryContract.AuditEntry.TABLE_NAME, projection, selection,
+                            selectionArgs, null, null, sortOrder);
+                    break;
+                case AUDIT_ITEMS:
+                    // Written with the changes themselves, nothing to wait for
+                    cursor = database.query(InventoryContract.AuditItemEntry.TABLE_NAME, projection, selection,
+                            selectionArgs, null, null, sortOrder);
+                    break;
+                case REORDER:
+                    // The suggestions are fixed, so the projection, selection and sort order
+                    // are ignored.
+                    cursor = database.rawQuery(SQL_REORDER, null);
+                    // The suggestions change whenever any item changes
+                    uri = InventoryContract.InventoryEntry.CONTENT_URI;
+                    break;
+                case ITEM_SECTIONS:
+                    // The sections always cover the whole catalog, so the projection,
+                    // selection and sort order are ignored.
+                    cursor = database.rawQuery(SQL_SECTIONS, null);
+                    // The sections change whenever any item is added, renamed or deleted
+                    uri = InventoryContract.InventoryEntry.CONTENT_URI;
+                    break;
+                case ITEM_HISTORY: {
+                    // The buckets are fixed, so the projection, selection and sort order are
+                    // ignored. Observers of the item hear about new points too.
+                    long now = System.currentTimeMillis();
+                    long to = parseTime(uri, InventoryContract.HistoryEntry.PARAM_TO, now);
+                    long from = parseTime(uri, InventoryContract.HistoryEntry.PARAM_FROM,
+                            to - ItemHistory.DEFAULT_RANGE_MILLIS);
+                    if (from > to) {
+                        throw new IllegalArgumentException("History range ends before it starts: " + uri);
+                    }
+                    cursor = ItemHistory.query(database, Long.parseLong(uri.getPathSegments().get(1)),
+                            from, to, ItemHistory.chooseResolution(from, to, now));
+                    break;
+                }
+                case STOCKTAKE:
+                    cursor = Stocktake.queryVariances(database, projection, selection, selectionArgs, sortOrder);
+                    break;
+                case STOCK_VALUE:
+                    // The stock value always covers the whole inventory, so the projection,
+                    // selection and sort order are ignored.
+                    cursor = database.rawQuery(SQL_STOCK_VALUE, null);
+                    // The value changes whenever any item changes
+                    uri = InventoryContract.InventoryEntry.CONTENT_URI;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Cannot query unknown URI " + uri);
+            }
+
+            // Run the query now, while the connection is leased. The cursor only reads rows
+            // when it is first used.
+            cursor.getCount();
+        } catch (RuntimeException e) {
+            mPool.releaseReader(database);
+            throw e;
         }
+        // Results larger than one window keep the connection until they are closed
+        cursor = mPool.releaseReaderOnClose(database, cursor);
 
         // Set notification URI on the Cursor,
         // so we know what content URI the Cursor was created for.
         // If the data at this URI changes, then we know we need to update the Cursor.
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
 
-        // Return the cursor
-        return cursor;
+        // Return the cursor, with the supplier details readable if they are unlocked
+        return mEncryption.decrypt(cursor);
+    }
+
+    /**
+     * Query the items held at the location in the given URI, with the quantity held there.
+     * If {@code single} is true, the URI ends with an item ID and only that item is returned.
+     */
+    private static Cursor queryLocationItems(SQLiteDatabase database, Uri uri, boolean single,
+                                             String[] projection, String selection,
+                                             String[] selectionArgs, String sortOrder) {
+        // locations/#/items or locations/#/items/#
+        List<String> segments = uri.getPathSegments();
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(LOCATION_ITEM_TABLES);
+        builder.setProjectionMap(sLocationItemProjection);
+        builder.appendWhere(InventoryContract.StockEntry.TABLE_NAME + "."
+                + InventoryContract.StockEntry.COLUMN_LOCATION_ID + " = "
+                + Long.parseLong(segments.get(1)) + " AND " + InventoryContract.InventoryEntry.TABLE_NAME
+                + "." + LIVE_ITEMS);
+        if (single) {
+            builder.appendWhere(" AND " + InventoryContract.StockEntry.TABLE_NAME + "."
+                    + InventoryContract.StockEntry.COLUMN_ITEM_ID + " = "
+                    + Long.parseLong(segments.get(3)));
+        }
+        return builder.query(database, projection, selection, selectionArgs, null, null, sortOrder);
+    }
+
+    /**
+     * Return the {@link InventoryContract#PARAM_LIMIT} of the URI, or null if it has none.
+     */
+    private static String parseLimit(Uri uri) {
+        String limit = uri.getQueryParameter(InventoryContract.PARAM_LIMIT);
+        if (limit != null && (limit.isEmpty() || !TextUtils.isDigitsOnly(limit))) {
+            throw new IllegalArgumentException("Limit must be a number: " + limit);
+        }
+        return limit;
+    }
+
+    /**
+     * Return the time in milliseconds in the given parameter of the URI, or the default if it
+     * has none.
+     */
+    private static long parseTime(Uri uri, String parameter, long defaultTime) {
+        String time = uri.getQueryParameter(parameter);
+        if (time == null) {
+            return defaultTime;
+        }
+        try {
+            return Long.parseLong(time);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Time must be a number: " + time);
+        }
+    }
+
+    /**
+     * Query the purchase orders with their line counts. If {@code single} is true, the URI
+     * ends with an order ID and only that order is returned.
+     */
+    private static Cursor queryOrders(SQLiteDatabase database, Uri uri, boolean single,
+                                      String[] projection, String selection,
+                                      String[] selectionArgs, String sortOrder) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(InventoryContract.OrderEntry.TABLE_NAME);
+        builder.setProjectionMap(sOrderProjection);
+        if (single) {
+            builder.appendWhere(InventoryContract.OrderEntry._ID + " = " + ContentUris.parseId(uri));
+        }
+        return builder.query(database, projection, selection, selectionArgs, null, null,
+                sortOrder != null ? sortOrder : InventoryContract.OrderEntry.COLUMN_CREATED_AT + " DESC");
+    }
+
+    /**
+     * Query the lines of the order in the given URI, with the name of each item.
+     */
+    private static Cursor queryOrderLines(SQLiteDatabase database, Uri uri, String[] projection,
+                                          String selection, String[] selectionArgs, String sortOrder) {
+        // orders/#/lines
+        long orderId = Long.parseLong(uri.getPathSegments().get(1));
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(ORDER_LINE_TABLES);
+        builder.setProjectionMap(sOrderLineProjection);
+        builder.appendWhere(InventoryContract.OrderLineEntry.TABLE_NAME + "."
+                + InventoryContract.OrderLineEntry.COLUMN_ORDER_ID + " = " + orderId);
+        return builder.query(database, projection, selection, selectionArgs, null, null, sortOrder);
+    }
+
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if (InventoryContract.METHOD_CONNECTION_STATS.equals(method)) {
+            InventoryConnectionPool.Stats stats = mPool.getStats();
+            return stats.toBundle();
+        }
+        if (InventoryContract.METHOD_UNDO_DELETE.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(InventoryContract.EXTRA_ROWS, undoDelete());
+            return result;
+        }
+        if (InventoryContract.METHOD_SET_FORECAST_PARAMETERS.equals(method)) {
+            Double halfLifeDays = null;
+            Double coverDays = null;
+            if (extras != null) {
+                if (extras.containsKey(InventoryContract.EXTRA_HALF_LIFE_DAYS)) {
+                    halfLifeDays = extras.getDouble(InventoryContract.EXTRA_HALF_LIFE_DAYS);
+                }
+                if (extras.containsKey(InventoryContract.EXTRA_COVER_DAYS)) {
+                    coverDays = extras.getDouble(InventoryContract.EXTRA_COVER_DAYS);
+                }
+            }
+            mForecast.setParameters(halfLifeDays, coverDays);
+            Bundle result = new Bundle();
+            result.putInt(InventoryContract.EXTRA_ROWS, recomputeForecast());
+            return result;
+        }
+        if (InventoryContract.METHOD_CREATE_ORDERS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(InventoryContract.EXTRA_ROWS, createOrders());
+            return result;
+        }
+        if (InventoryContract.METHOD_APPLY_SALES.equals(method)) {
+            return applySales(extras);
+        }
+        if (InventoryContract.METHOD_RUN_MAINTENANCE.equals(method)) {
+            return runMaintenance().toBundle();
+        }
+        if (InventoryContract.METHOD_ADJUST_PRICES.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(InventoryContract.EXTRA_ROWS, adjustPrices(extras));
+            return result;
+        }
+        if (InventoryContract.METHOD_RESTOCK.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(InventoryContract.EXTRA_ROWS, restock(extras));
+            return result;
+        }
+        if (InventoryContract.METHOD_UNLOCK.equals(method)) {
+            mEncryption.unlock(arg);
+            notifySupplierDetailsChanged();
+            return null;
+        }
+        if (InventoryContract.METHOD_SET_PASSPHRASE.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(InventoryContract.EXTRA_ROWS, mEncryption.setPassphrase(arg,
+                    extras == null ? null : extras.getString(InventoryContract.EXTRA_PASSPHRASE_CONFIRMATION)));
+            notifySupplierDetailsChanged();
+            return result;
+        }
+        if (InventoryContract.METHOD_ENCRYPTION_STATE.equals(method)) {
+            Bundle result = new Bundle();
+            result.putBoolean(InventoryContract.EXTRA_PASSPHRASE_SET, mEncryption.isEnabled());
+            return result;
+        }
+        if (InventoryContract.METHOD_LOCK.equals(method)) {
+            mEncryption.lock();
+            notifySupplierDetailsChanged();
+            return null;
+        }
+        if (InventoryContract.METHOD_RECONCILE_STOCKTAKE.equals(method)) {
+            return reconcileStocktake();
+        }
+        if (InventoryContract.METHOD_ADD_PHOTO.equals(method)) {
+            Bundle result = new Bundle();
+            result.putString(InventoryContract.EXTRA_PHOTO, addPhoto(arg));
+            return result;
+        }
+        return super.call(method, arg, extras);
     }
 
     @Nullable
@@ -124,18 +905,112 @@ public class InventoryProvider extends ContentProvider {
             case ITEM:
                 return InventoryContract.InventoryEntry.CONTENT_LIST_TYPE;
             case ITEM_ID:
+            case ITEM_SALE:
+                return InventoryContract.InventoryEntry.CONTENT_ITEM_TYPE;
+            case STOCK_VALUE:
+                return InventoryContract.InventoryEntry.CONTENT_STOCK_VALUE_TYPE;
+            case REORDER:
+                return InventoryContract.InventoryEntry.CONTENT_REORDER_TYPE;
+            case ITEM_SECTIONS:
+                return InventoryContract.InventoryEntry.CONTENT_SECTIONS_TYPE;
+            case ITEM_HISTORY:
+                return InventoryContract.HistoryEntry.CONTENT_LIST_TYPE;
+            case LOCATION:
+                return InventoryContract.LocationEntry.CONTENT_LIST_TYPE;
+            case LOCATION_ID:
+                return InventoryContract.LocationEntry.CONTENT_ITEM_TYPE;
+            case LOCATION_ITEM:
+                return InventoryContract.InventoryEntry.CONTENT_LIST_TYPE;
+            case LOCATION_ITEM_ID:
+            case LOCATION_ITEM_SALE:
                 return InventoryContract.InventoryEntry.CONTENT_ITEM_TYPE;
+            case ORDER:
+                return InventoryContract.OrderEntry.CONTENT_LIST_TYPE;
+            case ORDER_ID:
+            case ORDER_RECEIVE:
+                return InventoryContract.OrderEntry.CONTENT_ITEM_TYPE;
+            case ORDER_LINES:
+                return InventoryContract.OrderEntry.CONTENT_LINES_TYPE;
+            case AUDIT:
+                return InventoryContract.AuditEntry.CONTENT_LIST_TYPE;
+            case AUDIT_ITEMS:
+                return InventoryContract.AuditItemEntry.CONTENT_LIST_TYPE;
+            case STOCKTAKE:
+                return InventoryContract.StocktakeEntry.CONTENT_LIST_TYPE;
+            case PHOTO:
+                return getPhotoType(uri.getLastPathSegment());
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
 
+    /**
+     * Return the MIME type of the stored photo with the given hash, read from the image header.
+     */
+    private String getPhotoType(String photo) {
+        if (!mPhotoStore.contains(photo)) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(mPhotoStore.getFile(photo).getPath(), options);
+        return options.outMimeType != null ? options.outMimeType : "application/octet-stream";
+    }
+
+    /**
+     * Open a stored photo for reading. Photos are handed out as file descriptors, so their
+     * bytes never pass through a cursor or the database.
+     */
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != PHOTO) {
+            throw new FileNotFoundException("No file for " + uri);
+        }
+        // A stored photo never changes, it is replaced by adding another one
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Photos can only be opened for reading: " + uri);
+        }
+        String photo = uri.getLastPathSegment();
+        if (!mPhotoStore.contains(photo)) {
+            throw new FileNotFoundException("No photo " + photo);
+        }
+        return ParcelFileDescriptor.open(mPhotoStore.getFile(photo), ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /**
+     * Copy the image at the given URI into the photo store. Return its hash.
+     */
+    private String addPhoto(String source) {
+        if (source == null) {
+            throw new IllegalArgumentException("The URI of the photo to add is required");
+        }
+        try {
+            InputStream in = getContext().getContentResolver().openInputStream(Uri.parse(source));
+            if (in == null) {
+                throw new IllegalArgumentException("Could not open photo " + source);
+            }
+            try {
+                return mPhotoStore.add(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not add photo " + source, e);
+        }
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case ITEM:
                 return insertItem(uri, contentValues);
+            case LOCATION:
+                return insertLocation(uri, contentValues);
+            case STOCKTAKE:
+                addCounts(new ContentValues[]{contentValues});
+                return uri;
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
@@ -146,46 +1021,29 @@ public class InventoryProvider extends ContentProvider {
      * for that specific row in the database.
      */
     private Uri insertItem(Uri uri, ContentValues values) {
-        // Check that the product name is not null
-        String name = values.getAsString(InventoryContract.InventoryEntry.COLUMN_PRODUCT_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException("Item requires a name");
-        }
-
-        // Check that the supplier name is not null
-        String supplier = values.getAsString(InventoryContract.InventoryEntry.COLUMN_SUPPLIER);
-        if (supplier == null) {
-            throw new IllegalArgumentException("The supplier requires a name");
-        }
-
-        // Check that the supplier phone number is not null
-        String supplierPhoneNumber = values.getAsString(InventoryContract.InventoryEntry.COLUMN_SUPPLIER_NUMBER);
-        if (supplierPhoneNumber == null) {
-            throw new IllegalArgumentException("Supplier Phone # is required");
-        }
-
-        // Check that the price is greater or equal to $0
-        Integer price = values.getAsInteger(InventoryContract.InventoryEntry.COLUMN_PRICE);
-        if (price == null || price < 0) {
-            throw new IllegalArgumentException("A valid price is required");
-        }
+        checkNewItem(values);
 
-        // If the quantity is entered, check that it's greater than or equal to 0.
-        Integer quantity = values.getAsInteger(InventoryContract.InventoryEntry.COLUMN_QUANTITY);
-        if (quantity != null && quantity < 0) {
-            throw new IllegalArgumentException("A valid quantity is required");
+        // Insert the new item with the given values, and its stock at the main stockroom
+        long id;
+        AuditLog.Record record = null;
+        SQLiteDatabase database = beginAuditedWrite();
+        try {
+            values = mEncryption.encrypt(values);
+            id = insertItemWithStock(database, values);
+            if (id != -1) {
+                record = mAudit.prepare(database, InventoryContract.AuditEntry.OPERATION_INSERT, id, null, values);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
         }
-
-        // Get writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-
-        // Insert the new item with the given values
-        long id = database.insert(InventoryContract.InventoryEntry.TABLE_NAME, null, values);
         // If the ID is -1, then the insertion failed. Log an error and return null.
         if (id == -1) {
             return null;
         }
 
+        mAudit.commit(record);
+
         // Notify all listeners that the data has changed for the item content URI
         getContext().getContentResolver().notifyChange(uri, null);
 
@@ -193,40 +1051,585 @@ public class InventoryProvider extends ContentProvider {
         return ContentUris.withAppendedId(uri, id);
     }
 
+    /**
+     * Insert many items in a single transaction and notify listeners once, which is much
+     * faster than inserting them one by one. Every item is checked before anything is inserted.
+     * Return the number of items inserted.
+     */
     @Override
-    public int delete(Uri uri, String selection, String[] selectionArgs) {
-        // Get writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        if (sUriMatcher.match(uri) == STOCKTAKE) {
+            return addCounts(values);
+        }
+        if (sUriMatcher.match(uri) != ITEM) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
 
-        // Track the number of rows that were deleted
-        int rowsDeleted;
+        // Check the whole batch in one pass before anything is inserted
+        ItemValidator.FOR_INSERT.validate(values).throwIfInvalid();
+        for (ContentValues itemValues : values) {
+            checkPhoto(itemValues);
+        }
+
+        List<AuditLog.Record> records = new ArrayList<>(values.length);
+        SQLiteDatabase database = beginAuditedWrite();
+        try {
+            for (ContentValues itemValues : values) {
+                ContentValues inserted = mEncryption.encrypt(itemValues);
+                long id = insertItemWithStock(database, inserted);
+                if (id != -1) {
+                    records.add(mAudit.prepare(database, InventoryContract.AuditEntry.OPERATION_INSERT,
+                            id, null, inserted));
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        mAudit.commit(records);
+        int rowsInserted = records.size();
+
+        if (rowsInserted != 0) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Begin a write transaction whose changes are recorded in the audit trail. The audit log
+     * is opened first, since that writes the records of the last run and can't be done
+     * inside the transaction.
+     */
+    private SQLiteDatabase beginAuditedWrite() {
+        mAudit.open();
+        return mPool.beginWrite();
+    }
+
+    /**
+     * Insert one item and a stock row holding its whole quantity at the main stockroom.
+     * Must be called inside a transaction. Return the new item's ID, or -1 if it failed.
+     */
+    private static long insertItemWithStock(SQLiteDatabase database, ContentValues values) {
+        long id = database.insert(InventoryContract.InventoryEntry.TABLE_NAME, null, values);
+        if (id != -1) {
+            Integer quantity = values.getAsInteger(InventoryContract.InventoryEntry.COLUMN_QUANTITY);
+            StockRollup.insertForNewItem(database, id, quantity == null ? 0 : quantity);
+        }
+        return id;
+    }
+
+    /**
+     * Insert a new stock location. Return the content URI of the new location.
+     */
+    private Uri insertLocation(Uri uri, ContentValues values) {
+        String name = values.getAsString(InventoryContract.LocationEntry.COLUMN_LOCATION_NAME);
+        if (name == null) {
+            throw new IllegalArgumentException("Location requires a name");
+        }
+
+        SQLiteDatabase database = mPool.getWriter();
+        long id = database.insert(InventoryContract.LocationEntry.TABLE_NAME, null, values);
+        if (id == -1) {
+            return null;
+        }
+
+        getContext().getContentResolver().notifyChange(uri, null);
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Check that the given values describe a valid new item.
+     *
+     * @throws IllegalArgumentException if a value is missing or invalid
+     */
+    private void checkNewItem(ContentValues values) {
+        ItemValidator.FOR_INSERT.validate(values).throwIfInvalid();
+        checkPhoto(values);
+    }
 
+    /**
+     * If the values contain a photo, check that it was added to the photo store. A null photo
+     * removes the item's photo and is always fine.
+     *
+     * @throws IllegalArgumentException if the photo isn't stored
+     */
+    private void checkPhoto(ContentValues values) {
+        String photo = values.getAsString(InventoryContract.InventoryEntry.COLUMN_PHOTO);
+        if (photo != null && !mPhotoStore.contains(photo)) {
+            throw new IllegalArgumentException("Unknown photo " + photo + ", add it with "
+                    + InventoryContract.METHOD_ADD_PHOTO + " first");
+        }
+    }
+
+    /**
+     * Delete items by marking them as deleted. They disappear from all queries right away,
+     * can be brought back with {@link InventoryContract#METHOD_UNDO_DELETE} for a while, and
+     * are removed for good in the background afterwards. Marking rows is much quicker than
+     * deleting them, so deleting all items doesn't keep the database locked.
+     */
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
+            case STOCKTAKE:
+                // Discarding the stocktake takes all of its counts, whatever the selection
+                return discardCounts();
             case ITEM:
                 // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(InventoryContract.InventoryEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             case ITEM_ID:
                 // Delete a single row given by the ID in the URI
                 selection = InventoryContract.InventoryEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(InventoryContract.InventoryEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
 
+        // Track the number of rows that were deleted
+        int rowsDeleted;
+        AuditLog.Record record = null;
+        long now = System.currentTimeMillis();
+        SQLiteDatabase database = beginAuditedWrite();
+        try {
+            SQLiteStatement statement = database.compileStatement(SQL_SOFT_DELETE
+                    + DatabaseUtils.concatenateWhere(LIVE_ITEMS, selection));
+            try {
+                statement.bindLong(1, now);
+                if (selectionArgs != null) {
+                    for (int i = 0; i < selectionArgs.length; i++) {
+                        statement.bindString(i + 2, selectionArgs[i]);
+                    }
+                }
+                rowsDeleted = statement.executeUpdateDelete();
+            } finally {
+                statement.close();
+            }
+            if (rowsDeleted != 0) {
+                ContentValues deleted = new ContentValues(2);
+                deleted.put(InventoryContract.InventoryEntry.COLUMN_DELETED_AT, now);
+                deleted.put(InventoryContract.EXTRA_ROWS, rowsDeleted);
+                record = mAudit.prepare(database, InventoryContract.AuditEntry.OPERATION_DELETE,
+                        match == ITEM_ID ? ContentUris.parseId(uri) : -1, null, deleted);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
         if (rowsDeleted != 0) {
+            mAudit.commit(record);
+
             getContext().getContentResolver().notifyChange(uri, null);
+            // The stock of deleted items is gone from every location
+            getContext().getContentResolver().notifyChange(InventoryContract.LocationEntry.CONTENT_URI, null);
+
+            // Remove them for good once they can't be brought back anymore
+            schedulePurge(InventoryContract.UNDO_WINDOW_MILLIS);
         }
 
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    /**
+     * Change the price of the items given in the extras by a percentage, see
+     * {@link InventoryContract#METHOD_ADJUST_PRICES}. Return the number of changed items.
+     */
+    private int adjustPrices(Bundle extras) {
+        if (extras == null || !extras.containsKey(InventoryContract.EXTRA_PERCENT)) {
+            throw new IllegalArgumentException("The percentage is missing");
+        }
+        double percent = extras.getDouble(InventoryContract.EXTRA_PERCENT);
+        if (Double.isNaN(percent) || Double.isInfinite(percent) || percent <= -100) {
+            throw new IllegalArgumentException("Prices can't change by " + percent + "%");
+        }
+        double factor = 1 + percent / 100;
+        String selection = DatabaseUtils.concatenateWhere(LIVE_ITEMS, bulkSelection(extras));
+
+        int rowsUpdated;
+        AuditLog.Record record = null;
+        SQLiteDatabase database = beginAuditedWrite();
+        try {
+            // The supplier is compared as it is stored
+            String[] selectionArgs = bulkSelectionArgs(extras);
+
+            // Check every new price before writing any, so a bad percentage changes nothing
+            long tooExpensive = DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM "
+                    + InventoryContract.InventoryEntry.TABLE_NAME + " WHERE ROUND("
+                    + InventoryContract.InventoryEntry.COLUMN_PRICE + " * ?) > " + Money.MAX_PRICE
+                    + " AND " + selection,
+                    DatabaseUtils.appendSelectionArgs(new String[]{String.valueOf(factor)}, selectionArgs));
+            if (tooExpensive != 0) {
+                throw new IllegalArgumentException(tooExpensive + " items would cost more than "
+                        + Money.format(Money.MAX_PRICE));
+            }
+
+            // The old and new price of every item, before they're replaced
+            long sequence = mAudit.reserve(database);
+            AuditLog.recordItems(database, sequence, SQL_AUDIT_ADJUST_PRICES + selection,
+                    DatabaseUtils.appendSelectionArgs(new String[]{String.valueOf(factor),
+                            String.valueOf(factor)}, selectionArgs));
+
+            SQLiteStatement statement = database.compileStatement(SQL_ADJUST_PRICES + selection);
+            try {
+                statement.bindDouble(1, factor);
+                statement.bindDouble(2, factor);
+                bindSelectionArgs(statement, 3, selectionArgs);
+                rowsUpdated = statement.executeUpdateDelete();
+            } finally {
+                statement.close();
+            }
+            if (rowsUpdated != 0) {
+                ContentValues change = new ContentValues(2);
+                change.put(InventoryContract.EXTRA_PERCENT, percent);
+                change.put(InventoryContract.EXTRA_ROWS, rowsUpdated);
+                record = mAudit.prepare(database, sequence, InventoryContract.AuditEntry.OPERATION_ADJUST_PRICES,
+                        -1, null, change);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (rowsUpdated != 0) {
+            mAudit.commit(record);
+            // One notification for all of them, the catalog reads itself again once
+            getContext().getContentResolver().notifyChange(InventoryContract.InventoryEntry.CONTENT_URI, null);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Add units to the quantity of the items given in the extras, see
+     * {@link InventoryContract#METHOD_RESTOCK}. Return the number of restocked items.
+     */
+    private int restock(Bundle extras) {
+        int units = extras == null ? 0 : extras.getInt(InventoryContract.EXTRA_UNITS);
+        if (units < 1) {
+            throw new IllegalArgumentException("Restocking requires a positive number of units");
+        }
+        String selection = DatabaseUtils.concatenateWhere(LIVE_ITEMS, bulkSelection(extras));
+
+        int rowsUpdated;
+        AuditLog.Record record = null;
+        SQLiteDatabase database = beginAuditedWrite();
+        try {
+            // The supplier is compared as it is stored
+            String[] selectionArgs = bulkSelectionArgs(extras);
+            long tooMany = DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM "
+                    + InventoryContract.InventoryEntry.TABLE_NAME + " WHERE "
+                    + InventoryContract.InventoryEntry.COLUMN_QUANTITY + " > " + (Integer.MAX_VALUE - units)
+                    + " AND " + selection, selectionArgs);
+            if (tooMany != 0) {
+                throw new IllegalArgumentException(tooMany + " items can't hold " + units + " more units");
+            }
+
+            // The old and new quantity of every item, before they're replaced
+            long sequence = mAudit.reserve(database);
+            AuditLog.recordItems(database, sequence, SQL_AUDIT_RESTOCK + selection,
+                    DatabaseUtils.appendSelectionArgs(new String[]{String.valueOf(units)}, selectionArgs));
+
+            SQLiteStatement statement = database.compileStatement(SQL_RESTOCK + selection);
+            try {
+                statement.bindLong(1, units);
+                bindSelectionArgs(statement, 2, selectionArgs);
+                rowsUpdated = statement.executeUpdateDelete();
+            } finally {
+                statement.close();
+            }
+            // The new units arrive at the main stockroom
+            if (rowsUpdated != 0) {
+                StockRollup.syncDefaultLocation(database, selection, selectionArgs);
+
+                ContentValues change = new ContentValues(2);
+                change.put(InventoryContract.EXTRA_UNITS, units);
+                change.put(InventoryContract.EXTRA_ROWS, rowsUpdated);
+                record = mAudit.prepare(database, sequence, InventoryContract.AuditEntry.OPERATION_RESTOCK,
+                        -1, null, change);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (rowsUpdated != 0) {
+            mAudit.commit(record);
+            getContext().getContentResolver().notifyChange(InventoryContract.InventoryEntry.CONTENT_URI, null);
+            getContext().getContentResolver().notifyChange(InventoryContract.LocationEntry.CONTENT_URI, null);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Stage counts of the stocktake in one transaction. Return the number of counts added.
+     */
+    private int addCounts(ContentValues[] counts) {
+        int rowsInserted;
+        SQLiteDatabase database = mPool.beginWrite();
+        try {
+            rowsInserted = Stocktake.addCounts(database, counts);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        getContext().getContentResolver().notifyChange(InventoryContract.StocktakeEntry.CONTENT_URI, null);
+        return rowsInserted;
+    }
+
+    private int discardCounts() {
+        int rowsDeleted;
+        SQLiteDatabase database = mPool.beginWrite();
+        try {
+            rowsDeleted = Stocktake.clear(database);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        getContext().getContentResolver().notifyChange(InventoryContract.StocktakeEntry.CONTENT_URI, null);
+        return rowsDeleted;
+    }
+
+    /**
+     * Apply the counts of the stocktake to the stock in one transaction, see
+     * {@link InventoryContract#METHOD_RECONCILE_STOCKTAKE}.
+     */
+    private Bundle reconcileStocktake() {
+        ContentValues totals;
+        AuditLog.Record record = null;
+        SQLiteDatabase database = beginAuditedWrite();
+        try {
+            long sequence = mAudit.reserve(database);
+            totals = Stocktake.reconcile(database, sequence);
+            if (totals.getAsInteger(InventoryContract.EXTRA_ROWS) != 0) {
+                record = mAudit.prepare(database, sequence, InventoryContract.AuditEntry.OPERATION_STOCKTAKE,
+                        -1, null, totals);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        int rowsUpdated = totals.getAsInteger(InventoryContract.EXTRA_ROWS);
+        if (rowsUpdated != 0) {
+            mAudit.commit(record);
+            getContext().getContentResolver().notifyChange(InventoryContract.InventoryEntry.CONTENT_URI, null);
+            getContext().getContentResolver().notifyChange(InventoryContract.LocationEntry.CONTENT_URI, null);
+        }
+        getContext().getContentResolver().notifyChange(InventoryContract.StocktakeEntry.CONTENT_URI, null);
+
+        Bundle result = new Bundle();
+        result.putInt(InventoryContract.EXTRA_ROWS, rowsUpdated);
+        result.putLong(InventoryContract.EXTRA_VARIANCE_UNITS,
+                totals.getAsLong(InventoryContract.EXTRA_VARIANCE_UNITS));
+        result.putLong(InventoryContract.EXTRA_VARIANCE_VALUE,
+                totals.getAsLong(InventoryContract.EXTRA_VARIANCE_VALUE));
+        return result;
+    }
+
+    /**
+     * Return the selection of the items a bulk change applies to: the items with the given
+     * IDs, or the items of the given supplier.
+     */
+    private static String bulkSelection(Bundle extras) {
+        long[] ids = extras.getLongArray(InventoryContract.EXTRA_ITEM_IDS);
+        if (ids != null) {
+            return ids.length == 0 ? "0" : InventoryContract.InventoryEntry.buildIdSelection(ids);
+        }
+        if (extras.getString(InventoryContract.EXTRA_SUPPLIER) != null) {
+            return InventoryContract.InventoryEntry.COLUMN_SUPPLIER + " = ?";
+        }
+        throw new IllegalArgumentException("Either the item IDs or the supplier are required");
+    }
+
+    private String[] bulkSelectionArgs(Bundle extras) {
+        if (extras.getLongArray(InventoryContract.EXTRA_ITEM_IDS) != null) {
+            return null;
+        }
+        return new String[]{mEncryption.encrypt(extras.getString(InventoryContract.EXTRA_SUPPLIER))};
+    }
+
+    private static void bindSelectionArgs(SQLiteStatement statement, int first, String[] selectionArgs) {
+        if (selectionArgs != null) {
+            for (int i = 0; i < selectionArgs.length; i++) {
+                statement.bindString(first + i, selectionArgs[i]);
+            }
+        }
+    }
+
+    /**
+     * Tell the observers of items, purchase orders and the audit trail that the supplier
+     * details can be read now, can't anymore, or were encrypted.
+     */
+    private void notifySupplierDetailsChanged() {
+        getContext().getContentResolver().notifyChange(InventoryContract.InventoryEntry.CONTENT_URI, null);
+        getContext().getContentResolver().notifyChange(InventoryContract.OrderEntry.CONTENT_URI, null);
+        getContext().getContentResolver().notifyChange(InventoryContract.AuditEntry.CONTENT_URI, null);
+    }
+
+    /**
+     * Bring back the items deleted last, unless that was too long ago.
+     * Return the number of items brought back.
+     */
+    private int undoDelete() {
+        long now = System.currentTimeMillis();
+        long deletedAt = 0;
+        int rowsRestored = 0;
+        AuditLog.Record record = null;
+        SQLiteDatabase database = beginAuditedWrite();
+        try {
+            // The purge only removes items deleted before the undo window, and it runs in a
+            // write transaction too, so the items found here are still there
+            Cursor cursor = database.rawQuery("SELECT MAX(" + InventoryContract.InventoryEntry.COLUMN_DELETED_AT
+                    + ") FROM " + InventoryContract.InventoryEntry.TABLE_NAME, null);
+            try {
+                if (cursor.moveToFirst() && !cursor.isNull(0)
+                        && cursor.getLong(0) >= now - InventoryContract.UNDO_WINDOW_MILLIS) {
+                    deletedAt = cursor.getLong(0);
+                    SQLiteStatement statement = database.compileStatement(SQL_UNDO_DELETE);
+                    try {
+                        statement.bindLong(1, deletedAt);
+                        rowsRestored = statement.executeUpdateDelete();
+                    } finally {
+                        statement.close();
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            if (rowsRestored != 0) {
+                ContentValues before = new ContentValues(1);
+                before.put(InventoryContract.InventoryEntry.COLUMN_DELETED_AT, deletedAt);
+                ContentValues after = new ContentValues(2);
+                after.putNull(InventoryContract.InventoryEntry.COLUMN_DELETED_AT);
+                after.put(InventoryContract.EXTRA_ROWS, rowsRestored);
+                record = mAudit.prepare(database, InventoryContract.AuditEntry.OPERATION_UNDO_DELETE,
+                        -1, before, after);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (rowsRestored != 0) {
+            mAudit.commit(record);
+
+            getContext().getContentResolver().notifyChange(InventoryContract.InventoryEntry.CONTENT_URI, null);
+            getContext().getContentResolver().notifyChange(InventoryContract.LocationEntry.CONTENT_URI, null);
+        }
+        return rowsRestored;
+    }
+
+    /**
+     * Create purchase orders for the items that are running low. Return the number of orders.
+     */
+    private int createOrders() {
+        int orders;
+        SQLiteDatabase database = mPool.beginWrite();
+        try {
+            orders = PurchaseOrders.createForLowStock(database, System.currentTimeMillis());
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (orders != 0) {
+            getContext().getContentResolver().notifyChange(InventoryContract.OrderEntry.CONTENT_URI, null);
+        }
+        return orders;
+    }
+
+    /**
+     * Receive the delivery of a purchase order. All of its lines are added to the stock in
+     * one transaction, and listeners are told once, however many lines there are.
+     * Return 1 if the order was received, 0 if it was received before.
+     */
+    private int receiveOrder(long orderId) {
+        boolean received;
+        AuditLog.Record record = null;
+        SQLiteDatabase database = beginAuditedWrite();
+        try {
+            received = PurchaseOrders.receive(database, orderId, System.currentTimeMillis());
+            if (received) {
+                ContentValues order = new ContentValues(1);
+                order.put(InventoryContract.OrderLineEntry.COLUMN_ORDER_ID, orderId);
+                record = mAudit.prepare(database, InventoryContract.AuditEntry.OPERATION_RECEIVE, -1, null, order);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (received) {
+            mAudit.commit(record);
+
+            // Notifying the item URI reaches the observers of every single item too
+            getContext().getContentResolver().notifyChange(InventoryContract.InventoryEntry.CONTENT_URI, null);
+            getContext().getContentResolver().notifyChange(InventoryContract.LocationEntry.CONTENT_URI, null);
+            getContext().getContentResolver().notifyChange(InventoryContract.OrderEntry.CONTENT_URI, null);
+        }
+        return received ? 1 : 0;
+    }
+
+    /**
+     * Bring the sales rates of all items up to now with the current forecast parameters.
+     * Return the number of items whose suggestion was recomputed.
+     */
+    private int recomputeForecast() {
+        int recomputed = mForecast.recompute(mPool, System.currentTimeMillis());
+        if (recomputed != 0) {
+            getContext().getContentResolver().notifyChange(InventoryContract.InventoryEntry.REORDER_URI, null);
+        }
+        return recomputed;
+    }
+
+    /**
+     * Purge the items whose undo window is over, after the given delay.
+     */
+    private void schedulePurge(long delayMillis) {
+        mMaintenanceExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    TombstonePurger.purge(mPool,
+                            System.currentTimeMillis() - InventoryContract.UNDO_WINDOW_MILLIS);
+                    deleteUnreferencedPhotos();
+                } catch (RuntimeException e) {
+                    // The next delete or start tries again
+                    Log.e(LOG_TAG, "Could not purge deleted items", e);
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Delete the photos that no item uses anymore, e.g. those of purged items.
+     */
+    private void deleteUnreferencedPhotos() {
+        SQLiteDatabase database = mPool.acquireReader();
+        try {
+            mPhotoStore.deleteUnreferenced(database);
+        } finally {
+            mPool.releaseReader(database);
+        }
+    }
+
+    /**
+     * Run the upkeep of the database on the calling thread, see
+     * {@link InventoryContract#METHOD_RUN_MAINTENANCE}.
+     */
+    private DatabaseMaintenance.Report runMaintenance() {
+        DatabaseMaintenance.Report report = DatabaseMaintenance.run(mPool,
+                System.currentTimeMillis() - InventoryContract.UNDO_WINDOW_MILLIS);
+        // Photos of purged items may not be used by any item anymore
+        if (report.purgedItems != 0) {
+            deleteUnreferencedPhotos();
+        }
+        return report;
+    }
+
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
 
@@ -241,6 +1644,27 @@ public class InventoryProvider extends ContentProvider {
                 selection = InventoryContract.InventoryEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
                 return updateItem(uri, contentValues, selection, selectionArgs);
+            case ITEM_SALE: {
+                // items/#/sale
+                List<String> segments = uri.getPathSegments();
+                return sellItem(contentValues, Long.parseLong(segments.get(1)),
+                        InventoryContract.LocationEntry.DEFAULT_LOCATION_ID);
+            }
+            case LOCATION_ITEM_ID: {
+                // locations/#/items/#
+                List<String> segments = uri.getPathSegments();
+                return updateLocationStock(contentValues, Long.parseLong(segments.get(3)),
+                        Long.parseLong(segments.get(1)));
+            }
+            case LOCATION_ITEM_SALE: {
+                // locations/#/items/#/sale
+                List<String> segments = uri.getPathSegments();
+                return sellItem(contentValues, Long.parseLong(segments.get(3)),
+                        Long.parseLong(segments.get(1)));
+            }
+            case ORDER_RECEIVE:
+                // orders/#/receive
+                return receiveOrder(Long.parseLong(uri.getPathSegments().get(1)));
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
@@ -252,73 +1676,388 @@ public class InventoryProvider extends ContentProvider {
      * Return the number of rows that were successfully updated.
      */
     private int updateItem(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        // If the {@link ItemEntry#COLUMN_PRODUCT_NAME} key is present,
-        // check that the name value is not null.
-        if (values.containsKey(InventoryContract.InventoryEntry.COLUMN_PRODUCT_NAME)) {
-            String name = values.getAsString(InventoryContract.InventoryEntry.COLUMN_PRODUCT_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException("Product requires a name");
+        // Only the columns that change are checked. The version and deletion time are
+        // maintained by the provider and can't be written.
+        ItemValidator.FOR_UPDATE.validate(values).throwIfInvalid();
+        checkPhoto(values);
+
+        // If there are no values to update, then don't try to update the database
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        // Deleted items can't be updated
+        selection = DatabaseUtils.concatenateWhere(LIVE_ITEMS, selection);
+
+        // If the caller passed the version it last read, only update rows still at that version
+        String expectedVersion = uri.getQueryParameter(InventoryContract.PARAM_EXPECTED_VERSION);
+
+        // Likewise for a new total and the total the caller last read. Stock changes at other
+        // locations change the total without advancing the version.
+        String expectedQuantity = values.containsKey(InventoryContract.InventoryEntry.COLUMN_QUANTITY)
+                ? uri.getQueryParameter(InventoryContract.PARAM_EXPECTED_QUANTITY) : null;
+        String guardedSelection = expectedQuantity == null ? selection
+                : DatabaseUtils.concatenateWhere(selection, InventoryContract.InventoryEntry.COLUMN_QUANTITY
+                + " = " + Integer.parseInt(expectedQuantity));
+
+        // Otherwise, start a write transaction to update the data
+        int rowsUpdated;
+        List<AuditLog.Record> records = new ArrayList<>();
+        SQLiteDatabase database = beginAuditedWrite();
+        try {
+            values = mEncryption.encrypt(values);
+
+            // Read the values about to be replaced, for the audit trail
+            List<ContentValues> oldRows = readOldValues(database, values, guardedSelection, selectionArgs,
+                    expectedVersion);
+
+            // Perform the update on the database and get the number of rows affected
+            rowsUpdated = executeVersionedUpdate(database, values, guardedSelection, selectionArgs,
+                    expectedVersion);
+
+            // A new total moves the difference to the main stockroom
+            if (rowsUpdated != 0 && values.containsKey(InventoryContract.InventoryEntry.COLUMN_QUANTITY)) {
+                StockRollup.syncDefaultLocation(database, selection, selectionArgs);
+            }
+
+            // Nothing was updated. Either the row already has these values, or it isn't at the
+            // expected version or total anymore because somebody else changed it since the
+            // caller read it.
+            if (rowsUpdated == 0 && (expectedVersion != null || expectedQuantity != null)) {
+                Cursor current = database.query(InventoryContract.InventoryEntry.TABLE_NAME,
+                        new String[]{InventoryContract.InventoryEntry.COLUMN_VERSION,
+                                InventoryContract.InventoryEntry.COLUMN_QUANTITY},
+                        selection, selectionArgs, null, null, null, "1");
+                try {
+                    if (current.moveToFirst()) {
+                        if (expectedVersion != null && current.getLong(0) != Long.parseLong(expectedVersion)) {
+                            throw new StaleItemException(Long.parseLong(expectedVersion), current.getLong(0));
+                        }
+                        if (expectedQuantity != null && current.getInt(1) != Integer.parseInt(expectedQuantity)) {
+                            throw new StaleItemException(Integer.parseInt(expectedQuantity), current.getInt(1),
+                                    current.getLong(0));
+                        }
+                    }
+                } finally {
+                    current.close();
+                }
+            }
+            if (rowsUpdated != 0) {
+                recordUpdates(database, oldRows, values, records);
             }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
         }
 
-        // If the {@link ITEMEntry#COLUMN_QUANTITY} key is present,
-        // check that the quantity value is valid.
-        if (values.containsKey(InventoryContract.InventoryEntry.COLUMN_QUANTITY)) {
-            Integer quantity = values.getAsInteger(InventoryContract.InventoryEntry.COLUMN_QUANTITY);
-            // Check that the quantity is greater than 0
-            if (quantity == null && quantity < 0) {
-                throw new IllegalArgumentException("Item requires valid quantity");
+        // If 1 or more rows were updated, then notify all listeners that the data at the
+        // given URI has changed
+        if (rowsUpdated != 0) {
+            mAudit.commit(records);
+            getContext().getContentResolver().notifyChange(uri.buildUpon().clearQuery().build(), null);
+            // The main stockroom's quantities changed along with the totals
+            if (values.containsKey(InventoryContract.InventoryEntry.COLUMN_QUANTITY)) {
+                getContext().getContentResolver().notifyChange(InventoryContract.LocationEntry.CONTENT_URI, null);
             }
         }
 
-        // If the {@link ItemEntry#COLUMN_PRICE} key is present,
-        // check that the price value is valid.
-        if (values.containsKey(InventoryContract.InventoryEntry.COLUMN_PRICE)) {
-            // Check that the price is greater than or equal to 0
-            Integer weight = values.getAsInteger(InventoryContract.InventoryEntry.COLUMN_PRICE);
-            if (weight != null && weight < 0) {
-                throw new IllegalArgumentException("Item requires valid price");
+        // Return the number of rows updated
+        return rowsUpdated;
+    }
+
+    /**
+     * Read the current values of the columns about to be updated, with the ID, of every row
+     * the update will touch. Must be called inside the update's transaction.
+     */
+    private static List<ContentValues> readOldValues(SQLiteDatabase database, ContentValues values,
+                                                     String selection, String[] selectionArgs,
+                                                     String expectedVersion) {
+        String[] columns = new String[values.size() + 1];
+        columns[0] = InventoryContract.InventoryEntry._ID;
+        int index = 1;
+        for (String column : values.keySet()) {
+            columns[index++] = column;
+        }
+        if (expectedVersion != null) {
+            selection = DatabaseUtils.concatenateWhere(selection,
+                    InventoryContract.InventoryEntry.COLUMN_VERSION + " = " + Long.parseLong(expectedVersion));
+        }
+
+        List<ContentValues> rows = new ArrayList<>();
+        Cursor cursor = database.query(InventoryContract.InventoryEntry.TABLE_NAME, columns, selection,
+                selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                ContentValues row = new ContentValues();
+                DatabaseUtils.cursorRowToContentValues(cursor, row);
+                rows.add(row);
             }
+        } finally {
+            cursor.close();
         }
+        return rows;
+    }
 
-        // If the {@link ItemEntry#COLUMN_SUPPLIER} key is present,
-        // check that the supplier name value is not null.
-        if (values.containsKey(InventoryContract.InventoryEntry.COLUMN_SUPPLIER)) {
-            String name = values.getAsString(InventoryContract.InventoryEntry.COLUMN_SUPPLIER);
-            if (name == null) {
-                throw new IllegalArgumentException("Supplier requires a valid name");
+    /**
+     * Record an update of each of the given rows, with only the columns that changed, and add
+     * the records to the list. Rows that already had all of the new values weren't updated
+     * and aren't recorded. Must be called inside the update's transaction.
+     */
+    private void recordUpdates(SQLiteDatabase database, List<ContentValues> oldRows, ContentValues values,
+                               List<AuditLog.Record> records) {
+        for (ContentValues oldRow : oldRows) {
+            ContentValues before = new ContentValues();
+            ContentValues after = new ContentValues();
+            for (String column : values.keySet()) {
+                if (!TextUtils.equals(oldRow.getAsString(column), values.getAsString(column))) {
+                    before.put(column, oldRow.getAsString(column));
+                    after.put(column, values.getAsString(column));
+                }
+            }
+            if (after.size() != 0) {
+                records.add(mAudit.prepare(database, InventoryContract.AuditEntry.OPERATION_UPDATE,
+                        oldRow.getAsLong(InventoryContract.InventoryEntry._ID), before, after));
             }
         }
+    }
+
+    /**
+     * Run an UPDATE that sets the given values, bumps the row version and, if an expected version
+     * is given, only touches rows that are still at that version. Doing the version check in the
+     * same statement avoids a separate read before every write.
+     * Only the given columns are written, and rows that already have all of the given values are
+     * skipped, so saving an unchanged item doesn't write anything or bump its version.
+     * Return the number of rows that were updated.
+     */
+    private static int executeVersionedUpdate(SQLiteDatabase database, ContentValues values,
+                                              String selection, String[] selectionArgs,
+                                              String expectedVersion) {
+        StringBuilder sql = new StringBuilder(120);
+        sql.append("UPDATE ").append(InventoryContract.InventoryEntry.TABLE_NAME).append(" SET ");
+        for (String column : values.keySet()) {
+            sql.append(column).append("=?, ");
+        }
+        sql.append(InventoryContract.InventoryEntry.COLUMN_VERSION).append(" = ")
+                .append(InventoryContract.InventoryEntry.COLUMN_VERSION).append(" + 1");
 
-        // If the {@link ItemEntry#COLUMN_SUPPLIER_NUMBER} key is present,
-        // check that the phone number value is not null.
-        if (values.containsKey(InventoryContract.InventoryEntry.COLUMN_SUPPLIER_NUMBER)) {
-            String name = values.getAsString(InventoryContract.InventoryEntry.COLUMN_SUPPLIER_NUMBER);
-            if (name == null) {
-                throw new IllegalArgumentException("Supplier requires a valid phone number");
+        // Skip rows where none of the values would change
+        sql.append(" WHERE (");
+        boolean first = true;
+        for (String column : values.keySet()) {
+            if (!first) {
+                sql.append(" OR ");
             }
+            sql.append(column).append(" IS NOT ?");
+            first = false;
         }
+        sql.append(')');
 
+        if (selection != null && !selection.isEmpty()) {
+            sql.append(" AND (").append(selection).append(')');
+        }
+        if (expectedVersion != null) {
+            sql.append(" AND ").append(InventoryContract.InventoryEntry.COLUMN_VERSION).append(" = ?");
+        }
 
-        // If there are no values to update, then don't try to update the database
-        if (values.size() == 0) {
-            return 0;
+        SQLiteStatement statement = database.compileStatement(sql.toString());
+        try {
+            // Each value is bound twice: once to set it and once to compare it
+            int index = 1;
+            for (String column : values.keySet()) {
+                DatabaseUtils.bindObjectToProgram(statement, index++, values.get(column));
+            }
+            for (String column : values.keySet()) {
+                DatabaseUtils.bindObjectToProgram(statement, index++, values.get(column));
+            }
+            if (selectionArgs != null) {
+                for (String arg : selectionArgs) {
+                    statement.bindString(index++, arg);
+                }
+            }
+            if (expectedVersion != null) {
+                statement.bindLong(index, Long.parseLong(expectedVersion));
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
         }
+    }
 
-        // Otherwise, get writable database to update the data
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+    /**
+     * Record a sale of a single item at one location by decreasing its stock there and its
+     * total, each in one statement, so that concurrent sales can't overwrite each other and the
+     * other columns aren't rewritten. Sales at different locations change different stock rows.
+     * Return the number of rows updated: 1 if the sale was recorded, 0 if the item isn't stocked
+     * at the location or doesn't have enough units there.
+     */
+    private int sellItem(ContentValues values, long itemId, long locationId) {
+        int count = 1;
+        if (values != null && values.containsKey(InventoryContract.InventoryEntry.SALE_COUNT)) {
+            Integer requested = values.getAsInteger(InventoryContract.InventoryEntry.SALE_COUNT);
+            if (requested == null || requested < 1) {
+                throw new IllegalArgumentException("A sale requires a positive count");
+            }
+            count = requested;
+        }
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(InventoryContract.InventoryEntry.TABLE_NAME, values, selection, selectionArgs);
+        boolean sold;
+        AuditLog.Record record = null;
+        SQLiteDatabase database = beginAuditedWrite();
+        try {
+            sold = StockRollup.adjust(database, itemId, locationId, -count);
+            if (sold) {
+                mForecast.recordSale(database, itemId, count, System.currentTimeMillis());
+                record = mAudit.prepare(database, InventoryContract.AuditEntry.OPERATION_SALE, itemId, null,
+                        newSale(locationId, count));
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
 
-        // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
-        if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        if (sold) {
+            mAudit.commit(record);
+
+            notifyStockChange(itemId, locationId);
         }
+        return sold ? 1 : 0;
+    }
 
-        // Return the number of rows updated
-        return rowsUpdated;
+    /**
+     * Record a batch of queued sales at the main stockroom in one transaction, skipping the
+     * ones applied before, and move the last applied sequence number up in the same
+     * transaction. See {@link InventoryContract#METHOD_APPLY_SALES}.
+     */
+    private Bundle applySales(Bundle extras) {
+        long[] sequences = extras == null ? null : extras.getLongArray(InventoryContract.EXTRA_SEQUENCES);
+        long[] itemIds = extras == null ? null : extras.getLongArray(InventoryContract.EXTRA_ITEM_IDS);
+        int[] counts = extras == null ? null : extras.getIntArray(InventoryContract.EXTRA_COUNTS);
+        if (sequences == null) {
+            // Only asked for the sequence number, which doesn't need the writer
+            Bundle result = new Bundle();
+            result.putLong(InventoryContract.EXTRA_SEQUENCE, queryAppliedSequence());
+            result.putInt(InventoryContract.EXTRA_ROWS, 0);
+            return result;
+        } else if (itemIds == null || counts == null || itemIds.length != sequences.length
+                || counts.length != sequences.length) {
+            throw new IllegalArgumentException("Every queued sale needs a sequence number, item ID and count");
+        }
+
+        long applied;
+        List<AuditLog.Record> records = new ArrayList<>(sequences.length);
+        SQLiteDatabase database = beginAuditedWrite();
+        try {
+            applied = DatabaseUtils.longForQuery(database, SQL_APPLIED_SEQUENCE, null);
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < sequences.length; i++) {
+                if (sequences[i] <= applied) {
+                    // Sent again after the process died before the queue heard back
+                    continue;
+                }
+                if (counts[i] < 1) {
+                    throw new IllegalArgumentException("A sale requires a positive count");
+                }
+                if (StockRollup.adjust(database, itemIds[i],
+                        InventoryContract.LocationEntry.DEFAULT_LOCATION_ID, -counts[i])) {
+                    mForecast.recordSale(database, itemIds[i], counts[i], now);
+                    records.add(mAudit.prepare(database, InventoryContract.AuditEntry.OPERATION_SALE,
+                            itemIds[i], null, newSale(InventoryContract.LocationEntry.DEFAULT_LOCATION_ID,
+                                    counts[i])));
+                }
+                applied = sequences[i];
+            }
+            ContentValues sequence = new ContentValues(1);
+            sequence.put(InventoryContract.SaleQueueEntry.COLUMN_APPLIED_SEQUENCE, applied);
+            database.update(InventoryContract.SaleQueueEntry.TABLE_NAME, sequence, null, null);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        int soldCount = records.size();
+        if (soldCount != 0) {
+            mAudit.commit(records);
+            // One change for the whole batch, so the catalog queries once instead of per sale
+            getContext().getContentResolver().notifyChange(InventoryContract.InventoryEntry.CONTENT_URI, null);
+            getContext().getContentResolver().notifyChange(InventoryContract.LocationEntry.CONTENT_URI, null);
+        }
+
+        Bundle result = new Bundle();
+        result.putLong(InventoryContract.EXTRA_SEQUENCE, applied);
+        result.putInt(InventoryContract.EXTRA_ROWS, soldCount);
+        return result;
+    }
+
+    /**
+     * Return the last sequence number applied by {@link #applySales(Bundle)}, read on a pooled
+     * reader.
+     */
+    private long queryAppliedSequence() {
+        SQLiteDatabase database = mPool.acquireReader();
+        try {
+            return DatabaseUtils.longForQuery(database, SQL_APPLIED_SEQUENCE, null);
+        } finally {
+            mPool.releaseReader(database);
+        }
+    }
+
+    /**
+     * Set the quantity of one item held at one location, which also changes the item's total.
+     * Return the number of rows updated: 1 if the item and location exist, 0 otherwise.
+     */
+    private int updateLocationStock(ContentValues values, long itemId, long locationId) {
+        if (values == null || values.size() != 1
+                || !values.containsKey(InventoryContract.InventoryEntry.COLUMN_QUANTITY)) {
+            throw new IllegalArgumentException("Only the quantity can be updated at a location");
+        }
+        Integer quantity = values.getAsInteger(InventoryContract.InventoryEntry.COLUMN_QUANTITY);
+        if (quantity == null || quantity < 0) {
+            throw new IllegalArgumentException("Item requires valid quantity");
+        }
+
+        boolean updated;
+        AuditLog.Record record = null;
+        SQLiteDatabase database = beginAuditedWrite();
+        try {
+            updated = StockRollup.set(database, itemId, locationId, quantity);
+            if (updated) {
+                ContentValues stock = new ContentValues(2);
+                stock.put(InventoryContract.StockEntry.COLUMN_LOCATION_ID, locationId);
+                stock.put(InventoryContract.StockEntry.COLUMN_QUANTITY, quantity);
+                record = mAudit.prepare(database, InventoryContract.AuditEntry.OPERATION_SET_STOCK,
+                        itemId, null, stock);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (updated) {
+            mAudit.commit(record);
+
+            notifyStockChange(itemId, locationId);
+        }
+        return updated ? 1 : 0;
+    }
+
+    /**
+     * Return the new values of a sale, for the audit trail.
+     */
+    private static ContentValues newSale(long locationId, int count) {
+        ContentValues sale = new ContentValues(2);
+        sale.put(InventoryContract.StockEntry.COLUMN_LOCATION_ID, locationId);
+        sale.put(InventoryContract.InventoryEntry.SALE_COUNT, count);
+        return sale;
+    }
+
+    /**
+     * Notify listeners of the item itself and of the items at the location whose stock changed.
+     */
+    private void notifyStockChange(long itemId, long locationId) {
+        getContext().getContentResolver().notifyChange(
+                ContentUris.withAppendedId(InventoryContract.InventoryEntry.CONTENT_URI, itemId), null);
+        getContext().getContentResolver().notifyChange(
+                InventoryContract.LocationEntry.buildItemUri(locationId, itemId), null);
     }
 
 }
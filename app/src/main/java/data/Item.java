@@ -0,0 +1,142 @@
+package data;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import data.InventoryContract.InventoryEntry;
+
+/**
+ * One inventory item as read from the provider. Items never change once created, so they can
+ * be handed between threads and compared with {@link #equals(Object)} to find out whether
+ * anything about an item changed.
+ *
+ * Columns that weren't part of the query are left at null or 0.
+ */
+public final class Item {
+
+    public final long id;
+    public final String productName;
+
+    /**
+     * Price per unit in minor units, see {@link Money}
+     */
+    public final long price;
+    public final int quantity;
+    public final String supplier;
+    public final String supplierPhoneNumber;
+
+    /**
+     * Content hash of the item's photo, null if it has none, see {@link InventoryEntry#COLUMN_PHOTO}
+     */
+    public final String photo;
+    public final long version;
+
+    public Item(long id, String productName, long price, int quantity, String supplier,
+                String supplierPhoneNumber, String photo, long version) {
+        this.id = id;
+        this.productName = productName;
+        this.price = price;
+        this.quantity = quantity;
+        this.supplier = supplier;
+        this.supplierPhoneNumber = supplierPhoneNumber;
+        this.photo = photo;
+        this.version = version;
+    }
+
+    /**
+     * Read the item at the cursor's current position.
+     */
+    public static Item fromCursor(Cursor cursor) {
+        return new Columns(cursor).read(cursor);
+    }
+
+    /**
+     * Read every item of the cursor into an unmodifiable list. The cursor's position is
+     * changed, but it isn't closed.
+     */
+    public static List<Item> listFromCursor(Cursor cursor) {
+        Columns columns = new Columns(cursor);
+        List<Item> items = new ArrayList<>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            items.add(columns.read(cursor));
+        }
+        return Collections.unmodifiableList(items);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Item)) {
+            return false;
+        }
+        Item other = (Item) o;
+        return id == other.id
+                && price == other.price
+                && quantity == other.quantity
+                && version == other.version
+                && TextUtils.equals(productName, other.productName)
+                && TextUtils.equals(supplier, other.supplier)
+                && TextUtils.equals(supplierPhoneNumber, other.supplierPhoneNumber)
+                && TextUtils.equals(photo, other.photo);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + (int) (version ^ (version >>> 32));
+        result = 31 * result + (int) (price ^ (price >>> 32));
+        result = 31 * result + quantity;
+        result = 31 * result + (productName != null ? productName.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Item{" + id + ", " + productName + ", v" + version + "}";
+    }
+
+    /**
+     * Indexes of the item columns in a cursor, -1 for the ones it doesn't have. Looking them
+     * up once per cursor instead of once per row keeps reading long lists cheap.
+     */
+    private static final class Columns {
+        final int id;
+        final int productName;
+        final int price;
+        final int quantity;
+        final int supplier;
+        final int supplierPhoneNumber;
+        final int photo;
+        final int version;
+
+        Columns(Cursor cursor) {
+            id = cursor.getColumnIndex(InventoryEntry._ID);
+            productName = cursor.getColumnIndex(InventoryEntry.COLUMN_PRODUCT_NAME);
+            price = cursor.getColumnIndex(InventoryEntry.COLUMN_PRICE);
+            quantity = cursor.getColumnIndex(InventoryEntry.COLUMN_QUANTITY);
+            supplier = cursor.getColumnIndex(InventoryEntry.COLUMN_SUPPLIER);
+            supplierPhoneNumber = cursor.getColumnIndex(InventoryEntry.COLUMN_SUPPLIER_NUMBER);
+            photo = cursor.getColumnIndex(InventoryEntry.COLUMN_PHOTO);
+            version = cursor.getColumnIndex(InventoryEntry.COLUMN_VERSION);
+        }
+
+        Item read(Cursor cursor) {
+            return new Item(
+                    id == -1 ? 0 : cursor.getLong(id),
+                    productName == -1 ? null : cursor.getString(productName),
+                    price == -1 ? 0 : cursor.getLong(price),
+                    quantity == -1 ? 0 : cursor.getInt(quantity),
+                    supplier == -1 ? null : cursor.getString(supplier),
+                    supplierPhoneNumber == -1 ? null : cursor.getString(supplierPhoneNumber),
+                    photo == -1 ? null : cursor.getString(photo),
+                    version == -1 ? 0 : cursor.getLong(version));
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import data.InventoryContract.HistoryEntry;
+
+/**
+ * Reads and compacts the history of item prices and quantities, see {@link HistoryEntry}.
+ * The points are written by triggers, see {@link InventoryDbHelper}.
+ *
+ * As the history ages, {@link #rollUp(InventoryConnectionPool, long)} sums points up into
+ * hourly buckets and hourly buckets into daily ones. A range is read at one resolution from
+ * whatever is stored for it: the buckets of that resolution, plus finer buckets and points
+ * that haven't been summed up yet, summed up on the fly.
+ */
+final class ItemHistory {
+
+    /**
+     * How long points are kept before they are summed up into hourly buckets
+     */
+    static final long POINTS_RETENTION_MILLIS = 2 * HistoryEntry.RESOLUTION_DAY;
+
+    /**
+     * How long hourly buckets are kept before they are summed up into daily buckets. Daily
+     * buckets are kept for as long as the item.
+     */
+    static final long HOURLY_RETENTION_MILLIS = 60 * HistoryEntry.RESOLUTION_DAY;
+
+    /**
+     * Most buckets a range is read in, unless only daily buckets are left for it
+     */
+    static final long MAX_BUCKETS = 31 * 24;
+
+    /**
+     * Range read by default, back from the end of the range
+     */
+    static final long DEFAULT_RANGE_MILLIS = 30 * HistoryEntry.RESOLUTION_DAY;
+
+    /**
+     * Sums up points into hourly buckets. Arguments: the range of the points.
+     */
+    private static final String SQL_ROLL_UP_POINTS = "INSERT INTO " + HistoryEntry.ROLLUP_TABLE_NAME
+            + " SELECT " + HistoryEntry.COLUMN_ITEM_ID + ", " + HistoryEntry.RESOLUTION_HOUR + ", "
+            + HistoryEntry.COLUMN_TIME + " - " + HistoryEntry.COLUMN_TIME + " % " + HistoryEntry.RESOLUTION_HOUR
+            + ", COUNT(*), MIN(" + HistoryEntry.COLUMN_PRICE + "), MAX(" + HistoryEntry.COLUMN_PRICE + "), SUM("
+            + HistoryEntry.COLUMN_PRICE + "), MIN(" + HistoryEntry.COLUMN_QUANTITY + "), MAX("
+            + HistoryEntry.COLUMN_QUANTITY + "), SUM(" + HistoryEntry.COLUMN_QUANTITY + ")"
+            + " FROM " + HistoryEntry.TABLE_NAME + " WHERE " + HistoryEntry.COLUMN_TIME + " >= ? AND "
+            + HistoryEntry.COLUMN_TIME + " < ? GROUP BY 1, 3";
+
+    /**
+     * Sums up hourly buckets into daily buckets. Arguments: the range of the hourly buckets.
+     */
+    private static final String SQL_ROLL_UP_HOURS = "INSERT INTO " + HistoryEntry.ROLLUP_TABLE_NAME
+            + " SELECT " + HistoryEntry.COLUMN_ITEM_ID + ", " + HistoryEntry.RESOLUTION_DAY + ", "
+            + HistoryEntry.COLUMN_TIME + " - " + HistoryEntry.COLUMN_TIME + " % " + HistoryEntry.RESOLUTION_DAY
+            + ", SUM(" + HistoryEntry.COLUMN_COUNT + "), MIN(" + HistoryEntry.COLUMN_MIN_PRICE + "), MAX("
+            + HistoryEntry.COLUMN_MAX_PRICE + "), SUM(" + HistoryEntry.COLUMN_SUM_PRICE + "), MIN("
+            + HistoryEntry.COLUMN_MIN_QUANTITY + "), MAX(" + HistoryEntry.COLUMN_MAX_QUANTITY + "), SUM("
+            + HistoryEntry.COLUMN_SUM_QUANTITY + ")"
+            + " FROM " + HistoryEntry.ROLLUP_TABLE_NAME + " WHERE " + HistoryEntry.COLUMN_RESOLUTION + " = "
+            + HistoryEntry.RESOLUTION_HOUR + " AND " + HistoryEntry.COLUMN_TIME + " >= ? AND "
+            + HistoryEntry.COLUMN_TIME + " < ? GROUP BY 1, 3";
+
+    private static final String SQL_DELETE_POINTS = "DELETE FROM " + HistoryEntry.TABLE_NAME
+            + " WHERE " + HistoryEntry.COLUMN_TIME + " < ?";
+
+    private static final String SQL_DELETE_HOURS = "DELETE FROM " + HistoryEntry.ROLLUP_TABLE_NAME
+            + " WHERE " + HistoryEntry.COLUMN_RESOLUTION + " = " + HistoryEntry.RESOLUTION_HOUR
+            + " AND " + HistoryEntry.COLUMN_TIME + " < ?";
+
+    private ItemHistory() {
+    }
+
+    /**
+     * Return the resolution to read a range at: points for a recent day or less, hours for
+     * recent ranges of up to {@link #MAX_BUCKETS} hours, and days for everything else. A
+     * resolution is only used where its data is still kept.
+     */
+    static long chooseResolution(long from, long to, long now) {
+        long length = to - from;
+        if (from >= now - POINTS_RETENTION_MILLIS && length <= HistoryEntry.RESOLUTION_DAY) {
+            return HistoryEntry.RESOLUTION_POINTS;
+        }
+        if (from >= now - HOURLY_RETENTION_MILLIS && length <= MAX_BUCKETS * HistoryEntry.RESOLUTION_HOUR) {
+            return HistoryEntry.RESOLUTION_HOUR;
+        }
+        return HistoryEntry.RESOLUTION_DAY;
+    }
+
+    /**
+     * Query the buckets of the item in the given range, at the given resolution. The first
+     * bucket is the whole one the start of the range falls in.
+     */
+    static Cursor query(SQLiteDatabase database, long itemId, long from, long to, long resolution) {
+        String start = String.valueOf(from - from % resolution);
+        String end = String.valueOf(to);
+        String item = String.valueOf(itemId);
+        return database.rawQuery(bucketsSql(resolution), new String[]{item, start, end, item, start, end});
+    }
+
+    /**
+     * Return the SQL for the buckets of one item in a range at the given resolution. They
+     * are summed up from the stored buckets of that resolution or finer, and from the points.
+     * Arguments: item ID, start and end of the range, twice.
+     */
+    private static String bucketsSql(long resolution) {
+        String partialBuckets = "SELECT " + HistoryEntry.COLUMN_TIME + ", " + HistoryEntry.COLUMN_COUNT + ", "
+                + HistoryEntry.COLUMN_MIN_PRICE + ", " + HistoryEntry.COLUMN_MAX_PRICE + ", "
+                + HistoryEntry.COLUMN_SUM_PRICE + ", " + HistoryEntry.COLUMN_MIN_QUANTITY + ", "
+                + HistoryEntry.COLUMN_MAX_QUANTITY + ", " + HistoryEntry.COLUMN_SUM_QUANTITY
+                + " FROM " + HistoryEntry.ROLLUP_TABLE_NAME + " WHERE " + HistoryEntry.COLUMN_ITEM_ID + " = ? AND "
+                + HistoryEntry.COLUMN_RESOLUTION + " <= " + resolution + " AND " + HistoryEntry.COLUMN_TIME
+                + " >= ? AND " + HistoryEntry.COLUMN_TIME + " < ?"
+                + " UNION ALL SELECT " + HistoryEntry.COLUMN_TIME + ", 1, " + HistoryEntry.COLUMN_PRICE + ", "
+                + HistoryEntry.COLUMN_PRICE + ", " + HistoryEntry.COLUMN_PRICE + ", " + HistoryEntry.COLUMN_QUANTITY
+                + ", " + HistoryEntry.COLUMN_QUANTITY + ", " + HistoryEntry.COLUMN_QUANTITY
+                + " FROM " + HistoryEntry.TABLE_NAME + " WHERE " + HistoryEntry.COLUMN_ITEM_ID + " = ? AND "
+                + HistoryEntry.COLUMN_TIME + " >= ? AND " + HistoryEntry.COLUMN_TIME + " < ?";
+        return "SELECT " + HistoryEntry.COLUMN_TIME + " - " + HistoryEntry.COLUMN_TIME + " % " + resolution
+                + " AS " + HistoryEntry.COLUMN_TIME
+                + ", " + resolution + " AS " + HistoryEntry.COLUMN_RESOLUTION
+                + ", SUM(" + HistoryEntry.COLUMN_COUNT + ") AS " + HistoryEntry.COLUMN_COUNT
+                + ", MIN(" + HistoryEntry.COLUMN_MIN_PRICE + ") AS " + HistoryEntry.COLUMN_MIN_PRICE
+                + ", MAX(" + HistoryEntry.COLUMN_MAX_PRICE + ") AS " + HistoryEntry.COLUMN_MAX_PRICE
+                + ", SUM(" + HistoryEntry.COLUMN_SUM_PRICE + ") / SUM(" + HistoryEntry.COLUMN_COUNT + ") AS "
+                + HistoryEntry.COLUMN_AVG_PRICE
+                + ", MIN(" + HistoryEntry.COLUMN_MIN_QUANTITY + ") AS " + HistoryEntry.COLUMN_MIN_QUANTITY
+                + ", MAX(" + HistoryEntry.COLUMN_MAX_QUANTITY + ") AS " + HistoryEntry.COLUMN_MAX_QUANTITY
+                + ", CAST(SUM(" + HistoryEntry.COLUMN_SUM_QUANTITY + ") AS REAL) / SUM(" + HistoryEntry.COLUMN_COUNT
+                + ") AS " + HistoryEntry.COLUMN_AVG_QUANTITY
+                + " FROM (" + partialBuckets + ") GROUP BY 1 ORDER BY 1";
+    }
+
+    /**
+     * Sum up the points older than {@link #POINTS_RETENTION_MILLIS} into hourly buckets, and
+     * hourly buckets older than {@link #HOURLY_RETENTION_MILLIS} into daily ones. Only whole
+     * buckets are summed up, so every bucket is written once.
+     *
+     * Points that show up before the time already summed up, because the clock was set back,
+     * are dropped instead of being added to a bucket that was already written.
+     *
+     * @return the number of hourly and daily buckets written
+     */
+    static int rollUp(InventoryConnectionPool pool, long now) {
+        long hourlyUntil = now - POINTS_RETENTION_MILLIS;
+        hourlyUntil -= hourlyUntil % HistoryEntry.RESOLUTION_HOUR;
+        long dailyUntil = now - HOURLY_RETENTION_MILLIS;
+        dailyUntil -= dailyUntil % HistoryEntry.RESOLUTION_DAY;
+
+        int buckets = 0;
+        SQLiteDatabase database = pool.beginWrite();
+        try {
+            long hourlyFrom = DatabaseUtils.longForQuery(database, "SELECT " + HistoryEntry.COLUMN_HOURLY_UNTIL
+                    + " FROM " + HistoryEntry.STATE_TABLE_NAME, null);
+            if (hourlyUntil > hourlyFrom) {
+                buckets += rollUpStep(database, SQL_ROLL_UP_POINTS, SQL_DELETE_POINTS, hourlyFrom, hourlyUntil);
+                database.execSQL("UPDATE " + HistoryEntry.STATE_TABLE_NAME + " SET "
+                        + HistoryEntry.COLUMN_HOURLY_UNTIL + " = " + hourlyUntil);
+            }
+
+            long dailyFrom = DatabaseUtils.longForQuery(database, "SELECT " + HistoryEntry.COLUMN_DAILY_UNTIL
+                    + " FROM " + HistoryEntry.STATE_TABLE_NAME, null);
+            if (dailyUntil > dailyFrom) {
+                buckets += rollUpStep(database, SQL_ROLL_UP_HOURS, SQL_DELETE_HOURS, dailyFrom, dailyUntil);
+                database.execSQL("UPDATE " + HistoryEntry.STATE_TABLE_NAME + " SET "
+                        + HistoryEntry.COLUMN_DAILY_UNTIL + " = " + dailyUntil);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return buckets;
+    }
+
+    /**
+     * Sum up the rows in the range into coarser buckets, then delete the rows up to the end
+     * of the range, including any that were left before it.
+     */
+    private static int rollUpStep(SQLiteDatabase database, String rollUpSql, String deleteSql, long from,
+                                  long until) {
+        int buckets;
+        SQLiteStatement rollUp = database.compileStatement(rollUpSql);
+        try {
+            rollUp.bindLong(1, from);
+            rollUp.bindLong(2, until);
+            buckets = rollUp.executeUpdateDelete();
+        } finally {
+            rollUp.close();
+        }
+        SQLiteStatement delete = database.compileStatement(deleteSql);
+        try {
+            delete.bindLong(1, until);
+            delete.executeUpdateDelete();
+        } finally {
+            delete.close();
+        }
+        return buckets;
+    }
+}
@@ -0,0 +1,316 @@
+package data;
+
+import android.content.ContentValues;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import data.InventoryContract.InventoryEntry;
+
+/**
+ * Checks item values against the rules of the {@link InventoryEntry} columns. The editor, the
+ * provider and bulk inserts all use the same rules, so a value the editor accepts is never
+ * rejected by the provider and the other way around.
+ *
+ * The rules are declared once as a list and compiled into flat arrays per use, one for new
+ * items, where the required columns must be present, and one for updates, where only the
+ * present columns are checked. Checking a batch runs through the rows and the arrays once,
+ * without throwing or allocating anything for valid rows, and collects every problem it finds.
+ */
+public final class ItemValidator {
+
+    /**
+     * A required column is missing
+     */
+    public static final int MISSING = 1;
+
+    /**
+     * The value is null, but the column can't be
+     */
+    public static final int NULL = 2;
+
+    /**
+     * The text is empty or only white space
+     */
+    public static final int EMPTY = 3;
+
+    /**
+     * The value isn't a whole number
+     */
+    public static final int NOT_A_NUMBER = 4;
+
+    /**
+     * The number is below the minimum or above the maximum of the column
+     */
+    public static final int OUT_OF_RANGE = 5;
+
+    /**
+     * The column is maintained by the provider and can't be written
+     */
+    public static final int READ_ONLY = 6;
+
+    /**
+     * Most violations kept in a result. Further ones are only counted, so a batch that is
+     * wrong throughout doesn't use memory for every row.
+     */
+    static final int MAX_REPORTED_VIOLATIONS = 100;
+
+    private static final int KIND_TEXT = 0;
+    private static final int KIND_INTEGER = 1;
+    private static final int KIND_READ_ONLY = 2;
+
+    /**
+     * The rule of one column
+     */
+    private static final class Rule {
+        final String column;
+        final int kind;
+        final boolean requiredForInsert;
+        final long min;
+        final long max;
+
+        private Rule(String column, int kind, boolean requiredForInsert, long min, long max) {
+            this.column = column;
+            this.kind = kind;
+            this.requiredForInsert = requiredForInsert;
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * Text that can't be null or blank
+         */
+        static Rule text(String column, boolean requiredForInsert) {
+            return new Rule(column, KIND_TEXT, requiredForInsert, 0, 0);
+        }
+
+        /**
+         * A whole number between min and max, both included
+         */
+        static Rule integer(String column, boolean requiredForInsert, long min, long max) {
+            return new Rule(column, KIND_INTEGER, requiredForInsert, min, max);
+        }
+
+        static Rule readOnly(String column) {
+            return new Rule(column, KIND_READ_ONLY, false, 0, 0);
+        }
+    }
+
+    /**
+     * The rules of the item columns. The photo isn't here, whether it exists is up to the
+     * photo store.
+     */
+    private static final Rule[] RULES = {
+            Rule.text(InventoryEntry.COLUMN_PRODUCT_NAME, true),
+            Rule.integer(InventoryEntry.COLUMN_QUANTITY, false, 0, Integer.MAX_VALUE),
+            Rule.integer(InventoryEntry.COLUMN_PRICE, true, 0, Money.MAX_PRICE),
+            Rule.text(InventoryEntry.COLUMN_SUPPLIER, true),
+            Rule.text(InventoryEntry.COLUMN_SUPPLIER_NUMBER, true),
+            Rule.readOnly(InventoryEntry.COLUMN_VERSION),
+            Rule.readOnly(InventoryEntry.COLUMN_DELETED_AT),
+    };
+
+    /**
+     * Validator for the values of new items
+     */
+    public static final ItemValidator FOR_INSERT = new ItemValidator(RULES, true);
+
+    /**
+     * Validator for the values of an update, which only has the columns that change
+     */
+    public static final ItemValidator FOR_UPDATE = new ItemValidator(RULES, false);
+
+    private final String[] mColumns;
+    private final int[] mKinds;
+    private final boolean[] mRequired;
+    private final long[] mMin;
+    private final long[] mMax;
+
+    private ItemValidator(Rule[] rules, boolean insert) {
+        mColumns = new String[rules.length];
+        mKinds = new int[rules.length];
+        mRequired = new boolean[rules.length];
+        mMin = new long[rules.length];
+        mMax = new long[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            mColumns[i] = rules[i].column;
+            mKinds[i] = rules[i].kind;
+            mRequired[i] = insert && rules[i].requiredForInsert;
+            mMin[i] = rules[i].min;
+            mMax[i] = rules[i].max;
+        }
+    }
+
+    /**
+     * Check the values of one item.
+     */
+    public Result validate(ContentValues values) {
+        return validate(new ContentValues[]{values});
+    }
+
+    /**
+     * Check the values of many items in one pass. Violations name the index of their row.
+     */
+    public Result validate(ContentValues[] rows) {
+        Result result = new Result();
+        for (int row = 0; row < rows.length; row++) {
+            ContentValues values = rows[row];
+            for (int i = 0; i < mColumns.length; i++) {
+                int problem = check(values, i);
+                if (problem != 0) {
+                    result.add(row, mColumns[i], problem);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the problem with the value of the rule at the given index, or 0 if it's fine.
+     */
+    private int check(ContentValues values, int rule) {
+        String column = mColumns[rule];
+        if (!values.containsKey(column)) {
+            return mRequired[rule] ? MISSING : 0;
+        }
+        if (mKinds[rule] == KIND_READ_ONLY) {
+            return READ_ONLY;
+        }
+
+        Object value = values.get(column);
+        if (value == null) {
+            return NULL;
+        }
+        if (mKinds[rule] == KIND_TEXT) {
+            return isBlank(value.toString()) ? EMPTY : 0;
+        }
+
+        long number;
+        if (value instanceof Long || value instanceof Integer || value instanceof Short
+                || value instanceof Byte) {
+            number = ((Number) value).longValue();
+        } else if (value instanceof String) {
+            try {
+                number = Long.parseLong((String) value);
+            } catch (NumberFormatException e) {
+                return NOT_A_NUMBER;
+            }
+        } else {
+            return NOT_A_NUMBER;
+        }
+        return number < mMin[rule] || number > mMax[rule] ? OUT_OF_RANGE : 0;
+    }
+
+    private static boolean isBlank(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * One problem with one value
+     */
+    public static final class Violation {
+
+        /**
+         * Index of the row in the checked batch
+         */
+        public final int row;
+        public final String column;
+
+        /**
+         * One of the problem constants of {@link ItemValidator}, such as {@link #MISSING}
+         */
+        public final int problem;
+
+        Violation(int row, String column, int problem) {
+            this.row = row;
+            this.column = column;
+            this.problem = problem;
+        }
+
+        /**
+         * Return a description for developers. Users should see a message picked by column
+         * and problem instead.
+         */
+        public String getMessage() {
+            switch (problem) {
+                case MISSING:
+                    return column + " is required";
+                case NULL:
+                    return column + " can't be null";
+                case EMPTY:
+                    return column + " can't be empty";
+                case NOT_A_NUMBER:
+                    return column + " must be a whole number";
+                case OUT_OF_RANGE:
+                    return column + " is out of range";
+                case READ_ONLY:
+                    return column + " is maintained by the provider and can't be written";
+                default:
+                    return column + " is invalid";
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "row " + row + ": " + getMessage();
+        }
+    }
+
+    /**
+     * The violations found in a batch
+     */
+    public static final class Result {
+
+        private List<Violation> mViolations;
+        private int mViolationCount;
+
+        private void add(int row, String column, int problem) {
+            if (mViolations == null) {
+                mViolations = new ArrayList<>();
+            }
+            if (mViolations.size() < MAX_REPORTED_VIOLATIONS) {
+                mViolations.add(new Violation(row, column, problem));
+            }
+            mViolationCount++;
+        }
+
+        public boolean isValid() {
+            return mViolationCount == 0;
+        }
+
+        /**
+         * Return the number of violations, including the ones that weren't kept
+         */
+        public int getViolationCount() {
+            return mViolationCount;
+        }
+
+        /**
+         * Return the first violations found, in row and column order
+         */
+        public List<Violation> getViolations() {
+            return mViolations == null ? Collections.<Violation>emptyList()
+                    : Collections.unmodifiableList(mViolations);
+        }
+
+        /**
+         * @throws IllegalArgumentException describing the first violation, if there is any
+         */
+        public void throwIfInvalid() {
+            if (mViolationCount == 0) {
+                return;
+            }
+            String message = mViolations.get(0).getMessage();
+            if (mViolationCount > 1) {
+                message += " (and " + (mViolationCount - 1) + " more problems)";
+            }
+            throw new IllegalArgumentException(message);
+        }
+    }
+}
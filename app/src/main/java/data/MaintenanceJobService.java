@@ -0,0 +1,84 @@
+package data;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+import static data.InventoryProvider.LOG_TAG;
+
+/**
+ * Runs {@link InventoryContract#METHOD_RUN_MAINTENANCE} about once a day, while the device is
+ * idle and charging, so the upkeep never competes with the user for the disk or the battery.
+ *
+ * Job scheduling needs Lollipop. Older devices still purge deleted items on every start, but
+ * don't get the rest of the upkeep.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public final class MaintenanceJobService extends JobService {
+
+    /**
+     * ID of the job, unique within the app
+     */
+    private static final int JOB_ID = 1;
+
+    private static final long INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Schedule the maintenance unless it is scheduled already. Only call this on Lollipop
+     * and later, older versions can't load this class.
+     */
+    static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null) {
+            return;
+        }
+        // Scheduling again would restart the interval, and an app used daily would never
+        // get its maintenance
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID, new ComponentName(context, MaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(INTERVAL_MILLIS)
+                .setPersisted(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        // Jobs are started on the main thread, the maintenance takes a while
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getContentResolver().call(InventoryContract.InventoryEntry.CONTENT_URI,
+                            InventoryContract.METHOD_RUN_MAINTENANCE, null, null);
+                } catch (RuntimeException e) {
+                    // The next period tries again
+                    Log.e(LOG_TAG, "Database maintenance failed", e);
+                }
+                jobFinished(params, false);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The device isn't idle or charging anymore. A step that is running can't be stopped
+        // halfway, but it doesn't hold the write lock for long. Try again later.
+        return true;
+    }
+}
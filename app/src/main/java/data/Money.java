@@ -0,0 +1,142 @@
+package data;
+
+/**
+ * Helpers for working with money amounts stored as a primitive {@code long} count of minor
+ * units (cents). Amounts are never boxed or converted to {@link java.math.BigDecimal}, so
+ * they are cheap to use while binding list rows and while computing totals.
+ *
+ * All arithmetic is checked: instead of silently wrapping around, an
+ * {@link ArithmeticException} is thrown when a result does not fit in a {@code long}.
+ */
+public final class Money {
+
+    /**
+     * Number of minor units (cents) in one major unit (dollar)
+     */
+    public static final int MINOR_PER_MAJOR = 100;
+
+    /**
+     * Largest price per unit that can be stored, in minor units ($10,000,000.00).
+     * Keeping prices below this bound guarantees that price * quantity for a single row
+     * fits in a {@code long} for any {@code int} quantity.
+     */
+    public static final long MAX_PRICE = 1000000000L;
+
+    private Money() {
+    }
+
+    /**
+     * Parse a user entered amount such as "12", "12.5" or "12.50" into minor units.
+     *
+     * @throws NumberFormatException if the text is not a valid non-negative amount with at
+     *                               most two decimal places.
+     */
+    public static long parse(String text) {
+        if (text == null) {
+            throw new NumberFormatException("null amount");
+        }
+        String trimmed = text.trim();
+        int length = trimmed.length();
+        if (length == 0) {
+            throw new NumberFormatException("empty amount");
+        }
+
+        long major = 0;
+        long minor = 0;
+        int fractionDigits = -1;
+        boolean hasDigits = false;
+        for (int i = 0; i < length; i++) {
+            char c = trimmed.charAt(i);
+            if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (c >= '0' && c <= '9') {
+                hasDigits = true;
+                if (fractionDigits < 0) {
+                    major = add(multiply(major, 10), c - '0');
+                } else if (fractionDigits < 2) {
+                    minor = minor * 10 + (c - '0');
+                    fractionDigits++;
+                } else {
+                    throw new NumberFormatException("Too many decimal places: " + text);
+                }
+            } else {
+                throw new NumberFormatException("Invalid amount: " + text);
+            }
+        }
+
+        if (!hasDigits) {
+            throw new NumberFormatException("Invalid amount: " + text);
+        }
+
+        // "1.5" means 1 dollar and 50 cents, not 5 cents
+        if (fractionDigits == 1) {
+            minor *= 10;
+        }
+        return ofParts(major, minor);
+    }
+
+    /**
+     * Format an amount in minor units as a plain decimal string, e.g. 1234 becomes "12.34".
+     */
+    public static String format(long amount) {
+        StringBuilder builder = new StringBuilder(20);
+        if (amount < 0) {
+            builder.append('-');
+        }
+        // Work with a negative value so that Long.MIN_VALUE can be formatted too
+        long negative = amount < 0 ? amount : -amount;
+        long major = -(negative / MINOR_PER_MAJOR);
+        int minor = (int) -(negative % MINOR_PER_MAJOR);
+        builder.append(major).append('.');
+        if (minor < 10) {
+            builder.append('0');
+        }
+        return builder.append(minor).toString();
+    }
+
+    /**
+     * Combine a major and a minor amount, e.g. (12, 34) becomes 1234. The minor amount may be
+     * larger than {@link #MINOR_PER_MAJOR}, which is handy when combining separately summed
+     * columns.
+     */
+    public static long ofParts(long major, long minor) {
+        return add(multiply(major, MINOR_PER_MAJOR), minor);
+    }
+
+    /**
+     * Add two amounts, throwing an {@link ArithmeticException} on overflow.
+     */
+    public static long add(long a, long b) {
+        long result = a + b;
+        // Overflow happened if both operands have the same sign and the result's sign differs
+        if (((a ^ result) & (b ^ result)) < 0) {
+            throw new ArithmeticException("Money overflow: " + a + " + " + b);
+        }
+        return result;
+    }
+
+    /**
+     * Multiply an amount by a factor (usually a quantity), throwing an
+     * {@link ArithmeticException} on overflow.
+     */
+    public static long multiply(long amount, long factor) {
+        long result = amount * factor;
+        long absAmount = Math.abs(amount);
+        long absFactor = Math.abs(factor);
+        // Only check with a division when either operand is large enough to possibly overflow
+        if (((absAmount | absFactor) >>> 31) != 0) {
+            if ((factor != 0 && result / factor != amount)
+                    || (amount == Long.MIN_VALUE && factor == -1)) {
+                throw new ArithmeticException("Money overflow: " + amount + " * " + factor);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return whether the given amount is a valid price per unit.
+     */
+    public static boolean isValidPrice(long amount) {
+        return amount >= 0 && amount <= MAX_PRICE;
+    }
+}
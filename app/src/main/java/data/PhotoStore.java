@@ -0,0 +1,199 @@
+package data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+
+import data.InventoryContract.InventoryEntry;
+
+import static data.InventoryProvider.LOG_TAG;
+
+/**
+ * Keeps item photos as files outside the database, named by the SHA-256 hash of their
+ * contents. Adding the same image twice stores it once, and a stored file never changes, so
+ * whatever was cached for a hash stays valid.
+ *
+ * Files are spread over subdirectories by the first two characters of their hash, so no
+ * directory gets too large to list quickly.
+ */
+final class PhotoStore {
+
+    /**
+     * Length of a hash, in hex characters
+     */
+    static final int HASH_LENGTH = 64;
+
+    /**
+     * How long an added photo is kept without any item referring to it. An item is saved
+     * after its photo is added, so a new photo must not be removed before that happens.
+     */
+    static final long UNREFERENCED_GRACE_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private static final String TEMP_PREFIX = "add-";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File mDirectory;
+
+    PhotoStore(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Return whether the given value has the form of a photo hash. Hashes end up in file
+     * paths, so anything else is rejected before it gets near the file system.
+     */
+    static boolean isValidHash(String photo) {
+        if (photo == null || photo.length() != HASH_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            char c = photo.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the file of the photo with the given hash. It may not exist.
+     */
+    File getFile(String photo) {
+        if (!isValidHash(photo)) {
+            throw new IllegalArgumentException("Invalid photo " + photo);
+        }
+        return new File(new File(mDirectory, photo.substring(0, 2)), photo);
+    }
+
+    /**
+     * Return whether a photo with the given hash is stored.
+     */
+    boolean contains(String photo) {
+        return isValidHash(photo) && getFile(photo).isFile();
+    }
+
+    /**
+     * Copy the image from the given stream into the store, unless the same image is stored
+     * already. The stream is read once, hashing it while it is copied, and isn't closed.
+     *
+     * @return the hash of the image
+     */
+    String add(InputStream in) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Could not create " + mDirectory);
+        }
+
+        MessageDigest digest = newDigest();
+        File temp = File.createTempFile(TEMP_PREFIX, null, mDirectory);
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                byte[] buffer = new byte[16 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+                // The file is only renamed to its hash once it is complete on disk
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+
+            String photo = toHex(digest.digest());
+            File file = getFile(photo);
+            if (file.isFile()) {
+                // Stored already. Keep it from being collected before the new item is saved.
+                file.setLastModified(System.currentTimeMillis());
+                return photo;
+            }
+            File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Could not create " + parent);
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not store photo " + photo);
+            }
+            return photo;
+        } finally {
+            // Gone already if it was renamed
+            temp.delete();
+        }
+    }
+
+    /**
+     * Delete the photos no item refers to anymore, including deleted items that weren't
+     * purged yet. Photos that were added recently are kept, they may be about to be saved.
+     *
+     * @return the number of photos deleted
+     */
+    int deleteUnreferenced(SQLiteDatabase database) {
+        File[] directories = mDirectory.listFiles();
+        if (directories == null) {
+            return 0;
+        }
+
+        Set<String> referenced = new HashSet<>();
+        Cursor cursor = database.rawQuery("SELECT DISTINCT " + InventoryEntry.COLUMN_PHOTO
+                + " FROM " + InventoryEntry.TABLE_NAME
+                + " WHERE " + InventoryEntry.COLUMN_PHOTO + " IS NOT NULL", null);
+        try {
+            while (cursor.moveToNext()) {
+                referenced.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        long keepAfter = System.currentTimeMillis() - UNREFERENCED_GRACE_MILLIS;
+        int deleted = 0;
+        for (File directory : directories) {
+            File[] files = directory.listFiles();
+            if (files == null) {
+                // A temporary file left behind by an add that didn't finish
+                if (directory.getName().startsWith(TEMP_PREFIX) && directory.lastModified() < keepAfter) {
+                    directory.delete();
+                }
+                continue;
+            }
+            for (File file : files) {
+                if (!referenced.contains(file.getName()) && file.lastModified() < keepAfter
+                        && file.delete()) {
+                    deleted++;
+                }
+            }
+        }
+        if (deleted != 0) {
+            Log.i(LOG_TAG, "Deleted " + deleted + " unused photos");
+        }
+        return deleted;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android version has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
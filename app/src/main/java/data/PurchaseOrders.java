@@ -0,0 +1,225 @@
+package data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import data.InventoryContract.ForecastEntry;
+import data.InventoryContract.InventoryEntry;
+import data.InventoryContract.LocationEntry;
+import data.InventoryContract.OrderEntry;
+import data.InventoryContract.OrderLineEntry;
+import data.InventoryContract.StockEntry;
+
+/**
+ * Creates purchase orders for the items that are running low and receives their deliveries.
+ * Every method writes many rows with a few statements and must be called inside a
+ * transaction, so a whole order is written or received at once.
+ */
+final class PurchaseOrders {
+
+    /**
+     * Units of each item that are on open orders
+     */
+    private static final String SQL_UNITS_ON_ORDER = "SELECT l." + OrderLineEntry.COLUMN_ITEM_ID
+            + ", SUM(l." + OrderLineEntry.COLUMN_QUANTITY + ") AS units FROM " + OrderLineEntry.TABLE_NAME
+            + " l JOIN " + OrderEntry.TABLE_NAME + " o ON o." + OrderEntry._ID + " = l." + OrderLineEntry.COLUMN_ORDER_ID
+            + " WHERE o." + OrderEntry.COLUMN_STATUS + " = " + OrderEntry.STATUS_OPEN
+            + " GROUP BY l." + OrderLineEntry.COLUMN_ITEM_ID;
+
+    /**
+     * Units to order: the demand that neither the stock nor open orders cover
+     */
+    private static final String MISSING_UNITS = "f." + ForecastEntry.COLUMN_DEMAND + " - i."
+            + InventoryEntry.COLUMN_QUANTITY + " - IFNULL(o.units, 0)";
+
+    /**
+     * The items to order with their suppliers and the units missing, grouped by supplier
+     */
+    private static final String SQL_ITEMS_TO_ORDER = "SELECT i." + InventoryEntry._ID + ", i."
+            + InventoryEntry.COLUMN_SUPPLIER + ", i." + InventoryEntry.COLUMN_SUPPLIER_NUMBER + ", "
+            + MISSING_UNITS + " FROM " + ForecastEntry.TABLE_NAME + " f JOIN " + InventoryEntry.TABLE_NAME
+            + " i ON i." + InventoryEntry._ID + " = f." + ForecastEntry.COLUMN_ITEM_ID
+            + " LEFT JOIN (" + SQL_UNITS_ON_ORDER + ") o ON o." + OrderLineEntry.COLUMN_ITEM_ID
+            + " = i." + InventoryEntry._ID
+            + " WHERE i." + InventoryEntry.COLUMN_DELETED_AT + " IS NULL AND " + MISSING_UNITS + " > 0"
+            + " ORDER BY i." + InventoryEntry.COLUMN_SUPPLIER + ", i." + InventoryEntry.COLUMN_SUPPLIER_NUMBER;
+
+    /**
+     * Arguments: supplier name, supplier phone number, creation time
+     */
+    private static final String SQL_INSERT_ORDER = "INSERT INTO " + OrderEntry.TABLE_NAME + " ("
+            + OrderEntry.COLUMN_SUPPLIER + ", " + OrderEntry.COLUMN_SUPPLIER_NUMBER + ", "
+            + OrderEntry.COLUMN_CREATED_AT + ") VALUES (?, ?, ?)";
+
+    /**
+     * Arguments: order ID, item ID, quantity
+     */
+    private static final String SQL_INSERT_LINE = "INSERT INTO " + OrderLineEntry.TABLE_NAME + " ("
+            + OrderLineEntry.COLUMN_ORDER_ID + ", " + OrderLineEntry.COLUMN_ITEM_ID + ", "
+            + OrderLineEntry.COLUMN_QUANTITY + ") VALUES (?, ?, ?)";
+
+    /**
+     * Arguments: receive time, order ID
+     */
+    private static final String SQL_MARK_RECEIVED = "UPDATE " + OrderEntry.TABLE_NAME + " SET "
+            + OrderEntry.COLUMN_STATUS + " = " + OrderEntry.STATUS_RECEIVED + ", "
+            + OrderEntry.COLUMN_RECEIVED_AT + " = ? WHERE " + OrderEntry._ID + " = ? AND "
+            + OrderEntry.COLUMN_STATUS + " = " + OrderEntry.STATUS_OPEN;
+
+    /**
+     * Items on the order that weren't deleted. Argument: order ID.
+     */
+    private static final String LIVE_LINE_ITEMS = "SELECT l." + OrderLineEntry.COLUMN_ITEM_ID + " FROM "
+            + OrderLineEntry.TABLE_NAME + " l JOIN " + InventoryEntry.TABLE_NAME + " i ON i."
+            + InventoryEntry._ID + " = l." + OrderLineEntry.COLUMN_ITEM_ID + " WHERE l."
+            + OrderLineEntry.COLUMN_ORDER_ID + " = ? AND i." + InventoryEntry.COLUMN_DELETED_AT + " IS NULL";
+
+    /**
+     * Quantity of the line of the row's item. Argument: order ID.
+     */
+    private static String lineQuantity(String itemIdColumn) {
+        return "(SELECT " + OrderLineEntry.COLUMN_QUANTITY + " FROM " + OrderLineEntry.TABLE_NAME
+                + " WHERE " + OrderLineEntry.COLUMN_ORDER_ID + " = ? AND "
+                + OrderLineEntry.COLUMN_ITEM_ID + " = " + itemIdColumn + ")";
+    }
+
+    /**
+     * Makes sure every item on the order has a row at the main stockroom. Argument: order ID.
+     */
+    private static final String SQL_ENSURE_STOCK = "INSERT OR IGNORE INTO " + StockEntry.TABLE_NAME + " ("
+            + StockEntry.COLUMN_ITEM_ID + ", " + StockEntry.COLUMN_LOCATION_ID + ", "
+            + StockEntry.COLUMN_QUANTITY + ") SELECT " + OrderLineEntry.COLUMN_ITEM_ID + ", "
+            + LocationEntry.DEFAULT_LOCATION_ID + ", 0 FROM (" + LIVE_LINE_ITEMS + ")";
+
+    /**
+     * Adds the lines to the main stockroom. Arguments: order ID, order ID.
+     */
+    private static final String SQL_RECEIVE_STOCK = "UPDATE " + StockEntry.TABLE_NAME + " SET "
+            + StockEntry.COLUMN_QUANTITY + " = " + StockEntry.COLUMN_QUANTITY + " + "
+            + lineQuantity(StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_ITEM_ID)
+            + " WHERE " + StockEntry.COLUMN_LOCATION_ID + " = " + LocationEntry.DEFAULT_LOCATION_ID
+            + " AND " + StockEntry.COLUMN_ITEM_ID + " IN (" + LIVE_LINE_ITEMS + ")";
+
+    /**
+     * Adds the lines to the item totals. Arguments: order ID, order ID.
+     */
+    private static final String SQL_RECEIVE_TOTALS = "UPDATE " + InventoryEntry.TABLE_NAME + " SET "
+            + InventoryEntry.COLUMN_QUANTITY + " = " + InventoryEntry.COLUMN_QUANTITY + " + "
+            + lineQuantity(InventoryEntry.TABLE_NAME + "." + InventoryEntry._ID) + ", "
+            + InventoryEntry.COLUMN_VERSION + " = " + InventoryEntry.COLUMN_VERSION + " + 1"
+            + " WHERE " + InventoryEntry._ID + " IN (" + LIVE_LINE_ITEMS + ")";
+
+    /**
+     * An item to order from its supplier
+     */
+    private static final class Line {
+        final long itemId;
+        final String supplier;
+        final String supplierNumber;
+        final long quantity;
+
+        Line(long itemId, String supplier, String supplierNumber, long quantity) {
+            this.itemId = itemId;
+            this.supplier = supplier;
+            this.supplierNumber = supplierNumber;
+            this.quantity = quantity;
+        }
+    }
+
+    private PurchaseOrders() {
+    }
+
+    /**
+     * Order the units missing to cover the expected demand of every item, with one order per
+     * supplier. Units that are on an open order already aren't ordered again.
+     *
+     * @return the number of orders created
+     */
+    static int createForLowStock(SQLiteDatabase database, long now) {
+        // Read all lines first, the cursor reads the open orders that are about to grow
+        List<Line> lines = new ArrayList<>();
+        Cursor items = database.rawQuery(SQL_ITEMS_TO_ORDER, null);
+        try {
+            while (items.moveToNext()) {
+                lines.add(new Line(items.getLong(0), items.getString(1), items.getString(2), items.getLong(3)));
+            }
+        } finally {
+            items.close();
+        }
+
+        int orders = 0;
+        SQLiteStatement insertOrder = database.compileStatement(SQL_INSERT_ORDER);
+        SQLiteStatement insertLine = database.compileStatement(SQL_INSERT_LINE);
+        try {
+            long orderId = -1;
+            Line previous = null;
+            for (Line line : lines) {
+                // The lines come sorted by supplier, a new supplier starts a new order
+                if (previous == null || !TextUtils.equals(previous.supplier, line.supplier)
+                        || !TextUtils.equals(previous.supplierNumber, line.supplierNumber)) {
+                    insertOrder.bindString(1, line.supplier);
+                    insertOrder.bindString(2, line.supplierNumber);
+                    insertOrder.bindLong(3, now);
+                    orderId = insertOrder.executeInsert();
+                    orders++;
+                }
+                insertLine.bindLong(1, orderId);
+                insertLine.bindLong(2, line.itemId);
+                insertLine.bindLong(3, line.quantity);
+                insertLine.executeInsert();
+                previous = line;
+            }
+        } finally {
+            insertOrder.close();
+            insertLine.close();
+        }
+        return orders;
+    }
+
+    /**
+     * Add the quantities of all lines of an open order to the main stockroom and to the item
+     * totals, and mark the order as received. Lines of deleted items are skipped.
+     *
+     * @return true if the order was received, false if it doesn't exist or was received already
+     */
+    static boolean receive(SQLiteDatabase database, long orderId, long now) {
+        SQLiteStatement mark = database.compileStatement(SQL_MARK_RECEIVED);
+        try {
+            mark.bindLong(1, now);
+            mark.bindLong(2, orderId);
+            if (mark.executeUpdateDelete() == 0) {
+                return false;
+            }
+        } finally {
+            mark.close();
+        }
+
+        executeForOrder(database, SQL_ENSURE_STOCK, orderId);
+        executeForOrder(database, SQL_RECEIVE_STOCK, orderId);
+        executeForOrder(database, SQL_RECEIVE_TOTALS, orderId);
+        return true;
+    }
+
+    /**
+     * Run a statement whose arguments are all the given order ID.
+     */
+    private static void executeForOrder(SQLiteDatabase database, String sql, long orderId) {
+        SQLiteStatement statement = database.compileStatement(sql);
+        try {
+            int arguments = 0;
+            for (int i = 0; i < sql.length(); i++) {
+                if (sql.charAt(i) == '?') {
+                    statement.bindLong(++arguments, orderId);
+                }
+            }
+            statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,506 @@
+package data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import data.InventoryContract.InventoryEntry;
+
+import static data.InventoryProvider.LOG_TAG;
+
+/**
+ * Queues sales made at the register, so that a tap on Sale returns right away instead of
+ * waiting for the database. The catalog shows the quantities minus the queued units until
+ * the sales are in the database.
+ *
+ * A sale gets the next sequence number and is appended to a journal file before
+ * {@link #sell(long, int)} returns, so it survives the process being killed. A background
+ * thread sends the queued sales to the provider in batches with
+ * {@link InventoryContract#METHOD_APPLY_SALES}, one transaction per batch. The provider
+ * keeps the last sequence number it applied in that transaction and skips anything at or
+ * below it, so sales read back from the journal after a crash are applied exactly once, even
+ * if the provider had applied them already.
+ *
+ * The journal has one line per sale: "sequence itemId count". After every batch it's
+ * rewritten with a first line "applied sequence" and the sales still queued, which keeps
+ * the numbering going when the queue is empty.
+ *
+ * The provider is only called on the drain thread. Opening the database can take a while
+ * on a cold start, and the queue is first used on the main thread.
+ */
+public final class SaleQueue {
+
+    static final String JOURNAL_NAME = "sale_queue.journal";
+
+    /**
+     * Most sales sent to the provider at once
+     */
+    static final int BATCH_SIZE = 256;
+
+    private static final String APPLIED = "applied";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static SaleQueue sInstance;
+
+    /**
+     * Notified on the main thread when the queued units change
+     */
+    public interface Listener {
+        void onQueueChanged();
+    }
+
+    /**
+     * One queued sale
+     */
+    private static final class Sale {
+        final long sequence;
+        final long itemId;
+        final int count;
+
+        Sale(long sequence, long itemId, int count) {
+            this.sequence = sequence;
+            this.itemId = itemId;
+            this.count = count;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final File mJournal;
+    private final File mNewJournal;
+    private final Executor mDrainExecutor;
+    private final Executor mDeliverOn;
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Guards everything below, so sales are numbered, journaled and queued in the same order
+     */
+    private final Object mLock = new Object();
+    private boolean mOpened;
+    private FileOutputStream mJournalOut;
+    private long mNextSequence;
+
+    /**
+     * First sequence number handed out before the provider told which it applied last, or
+     * {@link Long#MAX_VALUE} once it did. Sales from this number on may have to be numbered
+     * again, see {@link #seedLocked(long)}.
+     */
+    private long mUnseededFrom = Long.MAX_VALUE;
+
+    /**
+     * Sales not applied by the provider yet, oldest first
+     */
+    private final List<Sale> mQueue = new ArrayList<>();
+
+    /**
+     * Queued units per item ID
+     */
+    private final Map<Long, Integer> mQueuedUnits = new HashMap<>();
+    private boolean mDrainScheduled;
+
+    /**
+     * Return the queue of the app. The sales left by an earlier run are sent right away, on
+     * the drain thread.
+     */
+    public static synchronized SaleQueue get(Context context) {
+        if (sInstance == null) {
+            // The queue outlives activities, so it holds on to the application only
+            context = context.getApplicationContext();
+            sInstance = new SaleQueue(context.getContentResolver(), context.getFilesDir(),
+                    Executors.newSingleThreadExecutor(), InventoryObservable.mainThread());
+            sInstance.drainLater();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Create a queue keeping its journal in the given directory. Nothing is read until it's
+     * used.
+     *
+     * @param drainExecutor runs the sending of batches, one at a time
+     * @param deliverOn     runs the listeners
+     */
+    SaleQueue(ContentResolver resolver, File directory, Executor drainExecutor, Executor deliverOn) {
+        mResolver = resolver;
+        mJournal = new File(directory, JOURNAL_NAME);
+        mNewJournal = new File(directory, JOURNAL_NAME + ".new");
+        mDrainExecutor = drainExecutor;
+        mDeliverOn = deliverOn;
+    }
+
+    /**
+     * Queue a sale of units of an item at the main stockroom. The sale is on disk when this
+     * returns, and in the database a little later. Like a sale made directly, it's dropped
+     * if the item doesn't have enough units left by then.
+     */
+    public void sell(long itemId, int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("A sale requires a positive count");
+        }
+        synchronized (mLock) {
+            openLocked();
+            Sale sale = new Sale(mNextSequence++, itemId, count);
+            appendToJournal(sale);
+            mQueue.add(sale);
+            addQueuedUnits(itemId, count);
+            drainLaterLocked();
+        }
+        notifyListeners();
+    }
+
+    /**
+     * Return the units of the item that are sold but not in the database yet. Subtract them
+     * from the quantity read from the provider to show what is left.
+     */
+    public int getQueuedUnits(long itemId) {
+        synchronized (mLock) {
+            openLocked();
+            Integer units = mQueuedUnits.get(itemId);
+            return units == null ? 0 : units;
+        }
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Read the journal and send the queued sales to the provider soon, e.g. the ones left by
+     * an earlier run. Both happen on the drain thread.
+     */
+    void drainLater() {
+        synchronized (mLock) {
+            drainLaterLocked();
+        }
+    }
+
+    private void drainLaterLocked() {
+        if (mDrainScheduled) {
+            return;
+        }
+        mDrainScheduled = true;
+        mDrainExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        });
+    }
+
+    /**
+     * Send the queued sales to the provider, a batch at a time, until the queue is empty.
+     * Sales queued meanwhile go with the next batch, so taps in quick succession end up in a
+     * few transactions.
+     */
+    private void drain() {
+        synchronized (mLock) {
+            openLocked();
+        }
+        while (true) {
+            List<Sale> batch;
+            if (!isSeeded()) {
+                long applied;
+                try {
+                    applied = queryAppliedSequence();
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Could not read the last applied sale", e);
+                    synchronized (mLock) {
+                        mDrainScheduled = false;
+                    }
+                    return;
+                }
+                synchronized (mLock) {
+                    seedLocked(applied);
+                }
+            }
+            synchronized (mLock) {
+                if (mQueue.isEmpty()) {
+                    mDrainScheduled = false;
+                    return;
+                }
+                batch = new ArrayList<>(mQueue.subList(0, Math.min(BATCH_SIZE, mQueue.size())));
+            }
+
+            long[] sequences = new long[batch.size()];
+            long[] itemIds = new long[batch.size()];
+            int[] counts = new int[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                sequences[i] = batch.get(i).sequence;
+                itemIds[i] = batch.get(i).itemId;
+                counts[i] = batch.get(i).count;
+            }
+            Bundle extras = new Bundle();
+            extras.putLongArray(InventoryContract.EXTRA_SEQUENCES, sequences);
+            extras.putLongArray(InventoryContract.EXTRA_ITEM_IDS, itemIds);
+            extras.putIntArray(InventoryContract.EXTRA_COUNTS, counts);
+
+            long applied;
+            try {
+                Bundle result = mResolver.call(InventoryEntry.CONTENT_URI,
+                        InventoryContract.METHOD_APPLY_SALES, null, extras);
+                applied = result.getLong(InventoryContract.EXTRA_SEQUENCE);
+            } catch (RuntimeException e) {
+                // The sales stay in the journal and are sent again with the next sale
+                Log.e(LOG_TAG, "Could not apply " + batch.size() + " queued sales", e);
+                synchronized (mLock) {
+                    mDrainScheduled = false;
+                }
+                return;
+            }
+
+            synchronized (mLock) {
+                removeApplied(applied);
+            }
+            notifyListeners();
+        }
+    }
+
+    /**
+     * Return the last sequence number the provider applied, which it keeps in the database.
+     * Without sales to apply, the provider only reads it.
+     */
+    private long queryAppliedSequence() {
+        Bundle result = mResolver.call(InventoryEntry.CONTENT_URI,
+                InventoryContract.METHOD_APPLY_SALES, null, null);
+        return result.getLong(InventoryContract.EXTRA_SEQUENCE);
+    }
+
+    private boolean isSeeded() {
+        synchronized (mLock) {
+            return mUnseededFrom == Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Number the next sales after the last one the provider applied. Sales numbered before
+     * this was known get new numbers if the provider would skip them, and the journal is
+     * rewritten with those. Must be called with the lock held.
+     */
+    private void seedLocked(long applied) {
+        long unseededFrom = mUnseededFrom;
+        mUnseededFrom = Long.MAX_VALUE;
+        if (applied < mNextSequence) {
+            return;
+        }
+        mNextSequence = applied + 1;
+        boolean renumbered = false;
+        for (int i = 0; i < mQueue.size(); i++) {
+            Sale sale = mQueue.get(i);
+            if (sale.sequence >= unseededFrom) {
+                mQueue.set(i, new Sale(mNextSequence++, sale.itemId, sale.count));
+                renumbered = true;
+            }
+        }
+        if (renumbered) {
+            Log.w(LOG_TAG, "Numbered the sales queued meanwhile again after sale " + applied);
+            rewriteJournalLocked(applied);
+        }
+    }
+
+    /**
+     * Forget the sales the provider applied and rewrite the journal without them. Must be
+     * called with the lock held.
+     */
+    private void removeApplied(long applied) {
+        int removed = 0;
+        while (removed < mQueue.size() && mQueue.get(removed).sequence <= applied) {
+            Sale sale = mQueue.get(removed);
+            addQueuedUnits(sale.itemId, -sale.count);
+            removed++;
+        }
+        mQueue.subList(0, removed).clear();
+        if (applied >= mNextSequence) {
+            mNextSequence = applied + 1;
+        }
+        rewriteJournalLocked(applied);
+    }
+
+    /**
+     * Rewrite the journal with the queued sales, after the given last applied sequence
+     * number. Must be called with the lock held.
+     */
+    private void rewriteJournalLocked(long applied) {
+        // Write the new journal next to the old one and swap them, so a crash leaves one or
+        // the other. Either is fine, the provider skips what it applied.
+        StringBuilder journal = new StringBuilder(APPLIED).append(' ').append(applied).append('\n');
+        for (Sale sale : mQueue) {
+            journal.append(toJournalLine(sale));
+        }
+        try {
+            if (mJournalOut != null) {
+                mJournalOut.close();
+                mJournalOut = null;
+            }
+            FileOutputStream out = new FileOutputStream(mNewJournal);
+            try {
+                out.write(journal.toString().getBytes(UTF_8));
+            } finally {
+                out.close();
+            }
+            if (!mNewJournal.renameTo(mJournal)) {
+                throw new IOException("Could not replace " + mJournal);
+            }
+            mJournalOut = new FileOutputStream(mJournal, true);
+        } catch (IOException e) {
+            // The old journal is still there and only repeats applied sales
+            Log.e(LOG_TAG, "Could not rewrite the sale journal", e);
+            try {
+                mJournalOut = new FileOutputStream(mJournal, true);
+            } catch (FileNotFoundException e2) {
+                Log.e(LOG_TAG, "Could not open the sale journal, sales are only kept in memory", e2);
+            }
+        }
+    }
+
+    /**
+     * Read the sales left in the journal by an earlier run and open it for appending. This
+     * only touches the journal file, the sequence numbers are checked against the provider
+     * by the next drain. Must be called with the lock held.
+     */
+    private void openLocked() {
+        if (mOpened) {
+            return;
+        }
+        mOpened = true;
+
+        long last = 0;
+        String journal = readJournal();
+        // A line is only complete with its line break, which is the last byte written
+        int start = 0;
+        for (int end = journal.indexOf('\n'); end != -1; start = end + 1, end = journal.indexOf('\n', start)) {
+            String[] fields = journal.substring(start, end).split(" ");
+            try {
+                if (fields.length == 2 && APPLIED.equals(fields[0])) {
+                    last = Math.max(last, Long.parseLong(fields[1]));
+                } else if (fields.length == 3) {
+                    Sale sale = new Sale(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                            Integer.parseInt(fields[2]));
+                    mQueue.add(sale);
+                    addQueuedUnits(sale.itemId, sale.count);
+                    last = Math.max(last, sale.sequence);
+                } else {
+                    Log.w(LOG_TAG, "Skipping malformed sale journal line " + journal.substring(start, end));
+                }
+            } catch (NumberFormatException e) {
+                Log.w(LOG_TAG, "Skipping malformed sale journal line " + journal.substring(start, end), e);
+            }
+        }
+        if (!mQueue.isEmpty()) {
+            Log.i(LOG_TAG, "Recovered " + mQueue.size() + " queued sales from the journal");
+        }
+        mNextSequence = last + 1;
+
+        // The journal can be gone, unreadable or older than the database, e.g. when one was
+        // restored from a backup without the other. Numbers at or below the last one applied
+        // would be skipped by the provider, so the drain asks for it and numbers the sales
+        // from here on again if needed.
+        mUnseededFrom = mNextSequence;
+
+        try {
+            // Cut off a partial line, so the next sale starts on a line of its own. The
+            // journal is ASCII only, so characters and bytes line up.
+            if (start < journal.length()) {
+                RandomAccessFile file = new RandomAccessFile(mJournal, "rw");
+                try {
+                    file.setLength(start);
+                } finally {
+                    file.close();
+                }
+            }
+            mJournalOut = new FileOutputStream(mJournal, true);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not open the sale journal, sales are only kept in memory", e);
+        }
+    }
+
+    /**
+     * Return the contents of the journal, or an empty string if there is none.
+     */
+    private String readJournal() {
+        if (!mJournal.isFile()) {
+            return "";
+        }
+        try {
+            InputStream in = new FileInputStream(mJournal);
+            try {
+                ByteArrayOutputStream contents = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    contents.write(buffer, 0, read);
+                }
+                return new String(contents.toByteArray(), UTF_8);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not read the sale journal " + mJournal, e);
+            return "";
+        }
+    }
+
+    /**
+     * Append a sale to the journal in one write, without flushing it to the storage device.
+     * Must be called with the lock held.
+     */
+    private void appendToJournal(Sale sale) {
+        if (mJournalOut == null) {
+            return;
+        }
+        try {
+            mJournalOut.write(toJournalLine(sale).getBytes(UTF_8));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not journal sale " + sale.sequence, e);
+        }
+    }
+
+    private static String toJournalLine(Sale sale) {
+        return sale.sequence + " " + sale.itemId + " " + sale.count + "\n";
+    }
+
+    private void addQueuedUnits(long itemId, int units) {
+        Integer queued = mQueuedUnits.get(itemId);
+        int total = (queued == null ? 0 : queued) + units;
+        if (total == 0) {
+            mQueuedUnits.remove(itemId);
+        } else {
+            mQueuedUnits.put(itemId, total);
+        }
+    }
+
+    private void notifyListeners() {
+        if (mListeners.isEmpty()) {
+            return;
+        }
+        mDeliverOn.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : mListeners) {
+                    listener.onQueueChanged();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,37 @@
+package data;
+
+/**
+ * Thrown by {@link InventoryProvider} when a conditional update was made against an item
+ * version that is no longer current, because somebody else changed the item in the meantime.
+ * The caller should reload the item and let the user decide what to do.
+ */
+public class StaleItemException extends IllegalStateException {
+
+    /**
+     * The version the item has in the database right now
+     */
+    private final long mCurrentVersion;
+
+    StaleItemException(long expectedVersion, long currentVersion) {
+        super("Item was modified: expected version " + expectedVersion
+                + " but found version " + currentVersion);
+        mCurrentVersion = currentVersion;
+    }
+
+    /**
+     * Create one for a total that changed through another location, which leaves the
+     * version alone.
+     */
+    StaleItemException(int expectedQuantity, int currentQuantity, long currentVersion) {
+        super("Item stock was modified: expected quantity " + expectedQuantity
+                + " but found quantity " + currentQuantity);
+        mCurrentVersion = currentVersion;
+    }
+
+    /**
+     * Return the version the item has in the database right now.
+     */
+    public long getCurrentVersion() {
+        return mCurrentVersion;
+    }
+}
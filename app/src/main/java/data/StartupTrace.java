@@ -0,0 +1,65 @@
+package data;
+
+import android.os.SystemClock;
+import android.support.v4.os.TraceCompat;
+import android.util.Log;
+
+/**
+ * Marks the phases of app startup, both as systrace sections (visible in a systrace or
+ * Android Studio profiler capture) and as log lines with the time since the provider was
+ * created, which is the first of our code that runs in a new process.
+ *
+ * Filter logcat on the "StartupTrace" tag to see, for example, how long it takes until the
+ * first catalog row is on screen.
+ */
+public final class StartupTrace {
+
+    private static final String LOG_TAG = StartupTrace.class.getSimpleName();
+
+    /**
+     * Time the process started running our code, in {@link SystemClock#elapsedRealtime()} millis
+     */
+    private static final long sStartTime = SystemClock.elapsedRealtime();
+
+    /**
+     * Whether {@link #firstRow(String)} already logged the time to the first row
+     */
+    private static volatile boolean sFirstRowShown = false;
+
+    private StartupTrace() {
+    }
+
+    /**
+     * Start a systrace section for a startup phase. Must be ended on the same thread with
+     * {@link #end()}.
+     */
+    public static void begin(String phase) {
+        TraceCompat.beginSection(phase);
+    }
+
+    /**
+     * End the systrace section started last on this thread.
+     */
+    public static void end() {
+        TraceCompat.endSection();
+    }
+
+    /**
+     * Log that a startup phase was reached, with the time since startup.
+     */
+    public static void mark(String phase) {
+        Log.i(LOG_TAG, phase + " at +" + (SystemClock.elapsedRealtime() - sStartTime) + "ms");
+    }
+
+    /**
+     * Log the time to the first catalog row on screen, once per process.
+     *
+     * @param source where the row came from, e.g. the snapshot or the database
+     */
+    public static void firstRow(String source) {
+        if (!sFirstRowShown) {
+            sFirstRowShown = true;
+            mark("First row shown from " + source);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import data.InventoryContract.InventoryEntry;
+import data.InventoryContract.LocationEntry;
+import data.InventoryContract.StockEntry;
+
+/**
+ * Keeps the per location stock rows and the total quantity of each item in step.
+ *
+ * Every stock change is applied to the stock row of one (item, location) pair and then added
+ * as a difference to {@link InventoryEntry#COLUMN_QUANTITY}, so the total is maintained
+ * incrementally instead of being summed up on every catalog query. Both statements touch one
+ * row each by primary key. All methods must be called inside a transaction.
+ *
+ * Only changes at the main stockroom advance the item's version, since that is the stock the
+ * item URIs and the editor write. Changes at other locations leave it alone, so a sale in a
+ * back stockroom doesn't make an open editor stale. Writers of the total check it with
+ * {@link InventoryContract#PARAM_EXPECTED_QUANTITY} instead.
+ */
+final class StockRollup {
+
+    /**
+     * Changes the stock of one item at one location, unless that would make it negative or
+     * the item was deleted. Arguments: difference, item ID, location ID, difference.
+     */
+    private static final String SQL_ADJUST_STOCK = "UPDATE " + StockEntry.TABLE_NAME
+            + " SET " + StockEntry.COLUMN_QUANTITY + " = " + StockEntry.COLUMN_QUANTITY + " + ?"
+            + " WHERE " + StockEntry.COLUMN_ITEM_ID + " = ? AND " + StockEntry.COLUMN_LOCATION_ID
+            + " = ? AND " + StockEntry.COLUMN_QUANTITY + " + ? >= 0"
+            + " AND EXISTS (SELECT 1 FROM " + InventoryEntry.TABLE_NAME + " i WHERE i." + InventoryEntry._ID
+            + " = " + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_ITEM_ID
+            + " AND i." + InventoryEntry.COLUMN_DELETED_AT + " IS NULL)";
+
+    /**
+     * Adds a difference to the total of one item, after a change at another location than the
+     * main stockroom. Arguments: difference, item ID.
+     */
+    private static final String SQL_ADJUST_TOTAL = "UPDATE " + InventoryEntry.TABLE_NAME
+            + " SET " + InventoryEntry.COLUMN_QUANTITY + " = " + InventoryEntry.COLUMN_QUANTITY + " + ?"
+            + " WHERE " + InventoryEntry._ID + " = ?";
+
+    /**
+     * Adds a difference to the total of one item and advances its version, after a change at
+     * the main stockroom. Arguments: difference, item ID.
+     */
+    private static final String SQL_ADJUST_TOTAL_AND_VERSION = "UPDATE " + InventoryEntry.TABLE_NAME
+            + " SET " + InventoryEntry.COLUMN_QUANTITY + " = " + InventoryEntry.COLUMN_QUANTITY + " + ?, "
+            + InventoryEntry.COLUMN_VERSION + " = " + InventoryEntry.COLUMN_VERSION + " + 1"
+            + " WHERE " + InventoryEntry._ID + " = ?";
+
+    /**
+     * Sets the main stockroom's stock of the selected items so that all locations add up to
+     * the item's total again. The selection is appended at the end.
+     */
+    private static final String SQL_SYNC_DEFAULT_LOCATION = "UPDATE " + StockEntry.TABLE_NAME
+            + " SET " + StockEntry.COLUMN_QUANTITY + " = "
+            + "(SELECT i." + InventoryEntry.COLUMN_QUANTITY + " FROM " + InventoryEntry.TABLE_NAME
+            + " i WHERE i." + InventoryEntry._ID + " = " + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_ITEM_ID + ")"
+            + " - (SELECT IFNULL(SUM(o." + StockEntry.COLUMN_QUANTITY + "), 0) FROM " + StockEntry.TABLE_NAME
+            + " o WHERE o." + StockEntry.COLUMN_ITEM_ID + " = " + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_ITEM_ID
+            + " AND o." + StockEntry.COLUMN_LOCATION_ID + " <> " + LocationEntry.DEFAULT_LOCATION_ID + ")"
+            + " WHERE " + StockEntry.COLUMN_LOCATION_ID + " = " + LocationEntry.DEFAULT_LOCATION_ID
+            + " AND " + StockEntry.COLUMN_ITEM_ID + " IN (SELECT " + InventoryEntry._ID
+            + " FROM " + InventoryEntry.TABLE_NAME;
+
+    private StockRollup() {
+    }
+
+    /**
+     * Create the main stockroom row for a newly inserted item, holding all of its quantity.
+     */
+    static void insertForNewItem(SQLiteDatabase database, long itemId, int quantity) {
+        ContentValues values = new ContentValues(3);
+        values.put(StockEntry.COLUMN_ITEM_ID, itemId);
+        values.put(StockEntry.COLUMN_LOCATION_ID, LocationEntry.DEFAULT_LOCATION_ID);
+        values.put(StockEntry.COLUMN_QUANTITY, quantity);
+        database.insertOrThrow(StockEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Add a difference to the stock of an item at one location and to the item's total.
+     *
+     * @return true if the stock was changed, false if the item isn't stocked at the location
+     * or there isn't enough stock to take away
+     */
+    static boolean adjust(SQLiteDatabase database, long itemId, long locationId, int difference) {
+        SQLiteStatement stock = database.compileStatement(SQL_ADJUST_STOCK);
+        try {
+            stock.bindLong(1, difference);
+            stock.bindLong(2, itemId);
+            stock.bindLong(3, locationId);
+            stock.bindLong(4, difference);
+            if (stock.executeUpdateDelete() == 0) {
+                return false;
+            }
+        } finally {
+            stock.close();
+        }
+
+        SQLiteStatement total = database.compileStatement(locationId == LocationEntry.DEFAULT_LOCATION_ID
+                ? SQL_ADJUST_TOTAL_AND_VERSION : SQL_ADJUST_TOTAL);
+        try {
+            total.bindLong(1, difference);
+            total.bindLong(2, itemId);
+            total.executeUpdateDelete();
+        } finally {
+            total.close();
+        }
+        return true;
+    }
+
+    /**
+     * Set the stock of an item at one location, adding the location to the item if needed.
+     *
+     * @return true if the item and location exist, false otherwise
+     */
+    static boolean set(SQLiteDatabase database, long itemId, long locationId, int quantity) {
+        String[] keyArgs = {String.valueOf(itemId), String.valueOf(locationId)};
+        Cursor cursor = database.rawQuery("SELECT " + StockEntry.COLUMN_QUANTITY + " FROM "
+                + StockEntry.TABLE_NAME + " WHERE " + StockEntry.COLUMN_ITEM_ID + " = ? AND "
+                + StockEntry.COLUMN_LOCATION_ID + " = ?", keyArgs);
+        int current;
+        try {
+            current = cursor.moveToFirst() ? cursor.getInt(0) : -1;
+        } finally {
+            cursor.close();
+        }
+
+        if (current == -1) {
+            // A new location for this item: stock rows are created empty, then filled below
+            // like any other change, so the total stays right
+            SQLiteStatement insert = database.compileStatement("INSERT INTO " + StockEntry.TABLE_NAME
+                    + " (" + StockEntry.COLUMN_ITEM_ID + ", " + StockEntry.COLUMN_LOCATION_ID + ") SELECT i."
+                    + InventoryEntry._ID + ", l." + LocationEntry._ID + " FROM " + InventoryEntry.TABLE_NAME
+                    + " i, " + LocationEntry.TABLE_NAME + " l WHERE i." + InventoryEntry._ID
+                    + " = ? AND i." + InventoryEntry.COLUMN_DELETED_AT + " IS NULL AND l."
+                    + LocationEntry._ID + " = ?");
+            try {
+                insert.bindLong(1, itemId);
+                insert.bindLong(2, locationId);
+                // Nothing is inserted if there is no such item (or it was deleted) or location
+                if (insert.executeInsert() == -1) {
+                    return false;
+                }
+            } finally {
+                insert.close();
+            }
+            current = 0;
+        }
+        return quantity == current || adjust(database, itemId, locationId, quantity - current);
+    }
+
+    /**
+     * After the total quantity of the selected items was set directly, move the difference to
+     * their main stockroom rows.
+     *
+     * @throws IllegalArgumentException if a total is lower than the stock held at the other
+     *                                  locations
+     */
+    static void syncDefaultLocation(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        String sql = SQL_SYNC_DEFAULT_LOCATION;
+        if (selection != null && !selection.isEmpty()) {
+            sql += " WHERE " + selection;
+        }
+        sql += ")";
+        try {
+            database.execSQL(sql, selectionArgs == null ? new Object[0] : selectionArgs);
+        } catch (SQLiteConstraintException e) {
+            throw new IllegalArgumentException("Quantity is lower than the stock at other locations", e);
+        }
+    }
+}
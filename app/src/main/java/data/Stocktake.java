@@ -0,0 +1,242 @@
+package data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import data.InventoryContract.InventoryEntry;
+import data.InventoryContract.LocationEntry;
+import data.InventoryContract.StockEntry;
+import data.InventoryContract.StocktakeEntry;
+
+/**
+ * Stages the counts of a stocktake and reconciles them with the stock, see
+ * {@link StocktakeEntry}.
+ *
+ * Counts are only added to the staging table while counting, which costs one statement per
+ * count by primary key. Reconciling is a fixed number of set-based statements over the whole
+ * staging table, so it takes about as long for a hundred thousand counts as a single scan of
+ * the stock. Item totals are adjusted by the difference, like {@link StockRollup} does.
+ * All methods that write must be called inside a transaction.
+ */
+final class Stocktake {
+
+    /**
+     * Adds to the count of one stock that was counted before. Arguments: units, item ID,
+     * location ID.
+     */
+    private static final String SQL_ADD_TO_COUNT = "UPDATE " + StocktakeEntry.TABLE_NAME
+            + " SET " + StocktakeEntry.COLUMN_COUNTED + " = " + StocktakeEntry.COLUMN_COUNTED + " + ?"
+            + " WHERE " + StocktakeEntry.COLUMN_ITEM_ID + " = ? AND " + StocktakeEntry.COLUMN_LOCATION_ID + " = ?";
+
+    /**
+     * Adds the first count of one stock. Arguments: item ID, location ID, units.
+     */
+    private static final String SQL_INSERT_COUNT = "INSERT INTO " + StocktakeEntry.TABLE_NAME + " ("
+            + StocktakeEntry.COLUMN_ITEM_ID + ", " + StocktakeEntry.COLUMN_LOCATION_ID + ", "
+            + StocktakeEntry.COLUMN_COUNTED + ") VALUES (?, ?, ?)";
+
+    /**
+     * The variance report, with the stored quantity read from the stock. Counts of deleted
+     * items and locations are left out.
+     */
+    private static final String SQL_VARIANCES = "SELECT t." + StocktakeEntry.COLUMN_ITEM_ID + " AS "
+            + StocktakeEntry.COLUMN_ITEM_ID + ", t." + StocktakeEntry.COLUMN_LOCATION_ID + " AS "
+            + StocktakeEntry.COLUMN_LOCATION_ID + ", i." + InventoryEntry.COLUMN_PRODUCT_NAME + " AS "
+            + StocktakeEntry.COLUMN_PRODUCT_NAME + ", IFNULL(s." + StockEntry.COLUMN_QUANTITY + ", 0) AS "
+            + StocktakeEntry.COLUMN_EXPECTED + ", t." + StocktakeEntry.COLUMN_COUNTED + " AS "
+            + StocktakeEntry.COLUMN_COUNTED + ", t." + StocktakeEntry.COLUMN_COUNTED + " - IFNULL(s."
+            + StockEntry.COLUMN_QUANTITY + ", 0) AS " + StocktakeEntry.COLUMN_VARIANCE + ", (t."
+            + StocktakeEntry.COLUMN_COUNTED + " - IFNULL(s." + StockEntry.COLUMN_QUANTITY + ", 0)) * i."
+            + InventoryEntry.COLUMN_PRICE + " AS " + StocktakeEntry.COLUMN_VARIANCE_VALUE
+            + " FROM " + StocktakeEntry.TABLE_NAME + " t"
+            + " JOIN " + InventoryEntry.TABLE_NAME + " i ON i." + InventoryEntry._ID + " = t."
+            + StocktakeEntry.COLUMN_ITEM_ID + " AND i." + InventoryEntry.COLUMN_DELETED_AT + " IS NULL"
+            + " JOIN " + LocationEntry.TABLE_NAME + " l ON l." + LocationEntry._ID + " = t."
+            + StocktakeEntry.COLUMN_LOCATION_ID
+            + " LEFT JOIN " + StockEntry.TABLE_NAME + " s ON s." + StockEntry.COLUMN_ITEM_ID + " = t."
+            + StocktakeEntry.COLUMN_ITEM_ID + " AND s." + StockEntry.COLUMN_LOCATION_ID + " = t."
+            + StocktakeEntry.COLUMN_LOCATION_ID;
+
+    /**
+     * Drops the counts of items deleted while counting, and of unknown locations
+     */
+    private static final String SQL_DROP_UNKNOWN = "DELETE FROM " + StocktakeEntry.TABLE_NAME
+            + " WHERE " + StocktakeEntry.COLUMN_ITEM_ID + " NOT IN (SELECT " + InventoryEntry._ID
+            + " FROM " + InventoryEntry.TABLE_NAME + " WHERE " + InventoryEntry.COLUMN_DELETED_AT + " IS NULL)"
+            + " OR " + StocktakeEntry.COLUMN_LOCATION_ID + " NOT IN (SELECT " + LocationEntry._ID
+            + " FROM " + LocationEntry.TABLE_NAME + ")";
+
+    /**
+     * Remembers the stored quantity of every count, read by the primary key of the stock
+     */
+    private static final String SQL_SET_EXPECTED = "UPDATE " + StocktakeEntry.TABLE_NAME
+            + " SET " + StocktakeEntry.COLUMN_EXPECTED + " = IFNULL((SELECT s." + StockEntry.COLUMN_QUANTITY
+            + " FROM " + StockEntry.TABLE_NAME + " s WHERE s." + StockEntry.COLUMN_ITEM_ID + " = "
+            + StocktakeEntry.TABLE_NAME + "." + StocktakeEntry.COLUMN_ITEM_ID + " AND s."
+            + StockEntry.COLUMN_LOCATION_ID + " = " + StocktakeEntry.TABLE_NAME + "."
+            + StocktakeEntry.COLUMN_LOCATION_ID + "), 0)";
+
+    private static final String SQL_DROP_MATCHING = "DELETE FROM " + StocktakeEntry.TABLE_NAME
+            + " WHERE " + StocktakeEntry.COLUMN_COUNTED + " = " + StocktakeEntry.COLUMN_EXPECTED;
+
+    /**
+     * Number of changed items, net units and net value of the counts left
+     */
+    private static final String SQL_TOTALS = "SELECT COUNT(DISTINCT t." + StocktakeEntry.COLUMN_ITEM_ID
+            + "), IFNULL(SUM(t." + StocktakeEntry.COLUMN_COUNTED + " - t." + StocktakeEntry.COLUMN_EXPECTED
+            + "), 0), IFNULL(SUM((t." + StocktakeEntry.COLUMN_COUNTED + " - t." + StocktakeEntry.COLUMN_EXPECTED
+            + ") * i." + InventoryEntry.COLUMN_PRICE + "), 0) FROM " + StocktakeEntry.TABLE_NAME + " t JOIN "
+            + InventoryEntry.TABLE_NAME + " i ON i." + InventoryEntry._ID + " = t." + StocktakeEntry.COLUMN_ITEM_ID;
+
+    /**
+     * Adds the stock rows of items found at a location they weren't stored at before
+     */
+    private static final String SQL_INSERT_STOCK = "INSERT OR IGNORE INTO " + StockEntry.TABLE_NAME + " ("
+            + StockEntry.COLUMN_ITEM_ID + ", " + StockEntry.COLUMN_LOCATION_ID + ", " + StockEntry.COLUMN_QUANTITY
+            + ") SELECT " + StocktakeEntry.COLUMN_ITEM_ID + ", " + StocktakeEntry.COLUMN_LOCATION_ID + ", 0 FROM "
+            + StocktakeEntry.TABLE_NAME;
+
+    /**
+     * Sets the counted stock rows to their count. The rows are found from the counts, so only
+     * they are visited and not the whole stock.
+     */
+    private static final String SQL_SET_STOCK = "UPDATE " + StockEntry.TABLE_NAME
+            + " SET " + StockEntry.COLUMN_QUANTITY + " = (SELECT t." + StocktakeEntry.COLUMN_COUNTED
+            + " FROM " + StocktakeEntry.TABLE_NAME + " t WHERE t." + StocktakeEntry.COLUMN_ITEM_ID + " = "
+            + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_ITEM_ID + " AND t." + StocktakeEntry.COLUMN_LOCATION_ID
+            + " = " + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_LOCATION_ID + ")"
+            + " WHERE rowid IN (SELECT s.rowid FROM " + StocktakeEntry.TABLE_NAME + " t JOIN "
+            + StockEntry.TABLE_NAME + " s ON s." + StockEntry.COLUMN_ITEM_ID + " = t." + StocktakeEntry.COLUMN_ITEM_ID
+            + " AND s." + StockEntry.COLUMN_LOCATION_ID + " = t." + StocktakeEntry.COLUMN_LOCATION_ID + ")";
+
+    /**
+     * Adds the differences of all counted locations to the item totals
+     */
+    private static final String SQL_ADJUST_TOTALS = "UPDATE " + InventoryEntry.TABLE_NAME
+            + " SET " + InventoryEntry.COLUMN_QUANTITY + " = " + InventoryEntry.COLUMN_QUANTITY
+            + " + (SELECT SUM(t." + StocktakeEntry.COLUMN_COUNTED + " - t." + StocktakeEntry.COLUMN_EXPECTED
+            + ") FROM " + StocktakeEntry.TABLE_NAME + " t WHERE t." + StocktakeEntry.COLUMN_ITEM_ID + " = "
+            + InventoryEntry.TABLE_NAME + "." + InventoryEntry._ID + "), "
+            + InventoryEntry.COLUMN_VERSION + " = " + InventoryEntry.COLUMN_VERSION + " + 1"
+            + " WHERE " + InventoryEntry._ID + " IN (SELECT " + StocktakeEntry.COLUMN_ITEM_ID
+            + " FROM " + StocktakeEntry.TABLE_NAME + ")";
+
+    /**
+     * Selects the stored and counted quantity of every count left, for the audit trail
+     */
+    private static final String SQL_AUDIT_VARIANCES = "SELECT " + StocktakeEntry.COLUMN_ITEM_ID + ", "
+            + AuditLog.jsonObject(StockEntry.COLUMN_LOCATION_ID, StocktakeEntry.COLUMN_LOCATION_ID,
+                    StockEntry.COLUMN_QUANTITY, StocktakeEntry.COLUMN_EXPECTED) + ", "
+            + AuditLog.jsonObject(StockEntry.COLUMN_LOCATION_ID, StocktakeEntry.COLUMN_LOCATION_ID,
+                    StockEntry.COLUMN_QUANTITY, StocktakeEntry.COLUMN_COUNTED)
+            + " FROM " + StocktakeEntry.TABLE_NAME;
+
+    private Stocktake() {
+    }
+
+    /**
+     * Add the given counts to the staging table. Every count is checked before anything is
+     * added.
+     *
+     * @return the number of counts added
+     * @throws IllegalArgumentException if a count has no item, or no or a negative number of
+     *                                  units
+     */
+    static int addCounts(SQLiteDatabase database, ContentValues[] counts) {
+        for (ContentValues count : counts) {
+            Long itemId = count.getAsLong(StocktakeEntry.COLUMN_ITEM_ID);
+            if (itemId == null) {
+                throw new IllegalArgumentException("Count requires an item ID");
+            }
+            Integer units = count.getAsInteger(StocktakeEntry.COLUMN_COUNTED);
+            if (units == null || units < 0) {
+                throw new IllegalArgumentException("Count of item " + itemId + " requires a positive number of units");
+            }
+        }
+
+        SQLiteStatement addToCount = database.compileStatement(SQL_ADD_TO_COUNT);
+        SQLiteStatement insertCount = database.compileStatement(SQL_INSERT_COUNT);
+        try {
+            for (ContentValues count : counts) {
+                long itemId = count.getAsLong(StocktakeEntry.COLUMN_ITEM_ID);
+                Long locationId = count.getAsLong(StocktakeEntry.COLUMN_LOCATION_ID);
+                long location = locationId == null ? LocationEntry.DEFAULT_LOCATION_ID : locationId;
+                int units = count.getAsInteger(StocktakeEntry.COLUMN_COUNTED);
+
+                addToCount.bindLong(1, units);
+                addToCount.bindLong(2, itemId);
+                addToCount.bindLong(3, location);
+                if (addToCount.executeUpdateDelete() == 0) {
+                    insertCount.bindLong(1, itemId);
+                    insertCount.bindLong(2, location);
+                    insertCount.bindLong(3, units);
+                    insertCount.executeInsert();
+                }
+            }
+        } catch (SQLiteConstraintException e) {
+            throw new IllegalArgumentException("Count is larger than a quantity can be", e);
+        } finally {
+            addToCount.close();
+            insertCount.close();
+        }
+        return counts.length;
+    }
+
+    /**
+     * Query the variance report. The projection, selection and sort order apply to the
+     * columns of the report.
+     */
+    static Cursor queryVariances(SQLiteDatabase database, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder) {
+        return database.query("(" + SQL_VARIANCES + ")", projection, selection, selectionArgs, null, null,
+                sortOrder != null ? sortOrder : StocktakeEntry.SORT_BY_VARIANCE_VALUE);
+    }
+
+    /**
+     * Set every counted stock that differs to its count, adjust the item totals and clear
+     * the staging table. The stored and counted quantity of every stock that differed is
+     * recorded in the audit trail under the given sequence number first, since the staging
+     * table is the only place that has both.
+     *
+     * @return the number of changed items under {@link InventoryContract#EXTRA_ROWS} and the
+     * net variance under {@link InventoryContract#EXTRA_VARIANCE_UNITS} and
+     * {@link InventoryContract#EXTRA_VARIANCE_VALUE}
+     */
+    static ContentValues reconcile(SQLiteDatabase database, long auditSequence) {
+        database.execSQL(SQL_DROP_UNKNOWN);
+        database.execSQL(SQL_SET_EXPECTED);
+        database.execSQL(SQL_DROP_MATCHING);
+
+        ContentValues totals = new ContentValues(3);
+        Cursor cursor = database.rawQuery(SQL_TOTALS, null);
+        try {
+            cursor.moveToFirst();
+            totals.put(InventoryContract.EXTRA_ROWS, cursor.getInt(0));
+            totals.put(InventoryContract.EXTRA_VARIANCE_UNITS, cursor.getLong(1));
+            totals.put(InventoryContract.EXTRA_VARIANCE_VALUE, cursor.getLong(2));
+        } finally {
+            cursor.close();
+        }
+
+        if (totals.getAsInteger(InventoryContract.EXTRA_ROWS) != 0) {
+            AuditLog.recordItems(database, auditSequence, SQL_AUDIT_VARIANCES, null);
+            database.execSQL(SQL_INSERT_STOCK);
+            database.execSQL(SQL_SET_STOCK);
+            database.execSQL(SQL_ADJUST_TOTALS);
+        }
+        clear(database);
+        return totals;
+    }
+
+    /**
+     * Discard all counts.
+     *
+     * @return the number of counts discarded
+     */
+    static int clear(SQLiteDatabase database) {
+        return database.delete(StocktakeEntry.TABLE_NAME, "1", null);
+    }
+}
@@ -0,0 +1,14 @@
+package data;
+
+/**
+ * Thrown by {@link InventoryProvider} when a supplier name or phone number is written, or
+ * the items of a supplier are selected, while the supplier details are encrypted but not
+ * unlocked for the session, see {@link InventoryContract#METHOD_UNLOCK}. The caller should
+ * ask for the passphrase first.
+ */
+public class SupplierDetailsLockedException extends IllegalStateException {
+
+    SupplierDetailsLockedException() {
+        super("Supplier details are locked");
+    }
+}
@@ -0,0 +1,111 @@
+package data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import data.InventoryContract.InventoryEntry;
+
+import static data.InventoryProvider.LOG_TAG;
+
+/**
+ * Removes deleted items for good once they can't be brought back anymore, and gives the space
+ * they used back to the file system.
+ *
+ * Rows are deleted in small transactions and pages are freed a few at a time, so the purge
+ * never holds the write lock for long and a sale or an edit made meanwhile only waits for
+ * one chunk.
+ */
+final class TombstonePurger {
+
+    /**
+     * Number of items deleted per transaction
+     */
+    static final int CHUNK_SIZE = 500;
+
+    /**
+     * Number of free pages given back per step of the incremental vacuum
+     */
+    private static final int VACUUM_PAGES = 256;
+
+    /**
+     * Deletes one chunk of items that were deleted before the given time.
+     * Arguments: time in milliseconds. Their stock is removed by a trigger.
+     */
+    private static final String SQL_PURGE_CHUNK = "DELETE FROM " + InventoryEntry.TABLE_NAME
+            + " WHERE " + InventoryEntry._ID + " IN (SELECT " + InventoryEntry._ID
+            + " FROM " + InventoryEntry.TABLE_NAME + " WHERE " + InventoryEntry.COLUMN_DELETED_AT
+            + " IS NOT NULL AND " + InventoryEntry.COLUMN_DELETED_AT + " < ? LIMIT " + CHUNK_SIZE + ")";
+
+    private TombstonePurger() {
+    }
+
+    /**
+     * Remove the items deleted before the given time, then free the pages they used.
+     * Must not be called inside a transaction.
+     *
+     * @return the number of items removed
+     */
+    static int purge(InventoryConnectionPool pool, long deletedBefore) {
+        int purged = 0;
+        int chunk;
+        do {
+            SQLiteDatabase database = pool.beginWrite();
+            try {
+                SQLiteStatement statement = database.compileStatement(SQL_PURGE_CHUNK);
+                try {
+                    statement.bindLong(1, deletedBefore);
+                    chunk = statement.executeUpdateDelete();
+                } finally {
+                    statement.close();
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            purged += chunk;
+        } while (chunk == CHUNK_SIZE);
+
+        if (purged != 0) {
+            Log.i(LOG_TAG, "Purged " + purged + " deleted items");
+            vacuum(pool.getWriter());
+        }
+        return purged;
+    }
+
+    /**
+     * Give free pages back to the file system in small steps. Must not be called inside a
+     * transaction.
+     */
+    static void vacuum(SQLiteDatabase database) {
+        // Databases created before the purge existed don't use incremental vacuum yet. Turning
+        // it on needs one full VACUUM, which rewrites the whole file once.
+        if (DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null) != 2) {
+            Log.i(LOG_TAG, "Converting database to incremental vacuum");
+            database.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            database.execSQL("VACUUM");
+            return;
+        }
+
+        long freePages = DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null);
+        while (freePages > 0) {
+            // Each step is a transaction of its own. The pragma is run as a query because
+            // it is stepped through like one.
+            Cursor cursor = database.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_PAGES + ")", null);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+
+            // Stop if a step made no progress, e.g. because a reader holds on to old pages
+            long remaining = DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null);
+            if (remaining >= freePages) {
+                break;
+            }
+            freePages = remaining;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.matthewbarba.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.widget.EditText;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.fakes.RoboMenuItem;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.shadows.ShadowToast;
+
+import data.InventoryContract;
+import data.InventoryContract.InventoryEntry;
+import data.InventoryProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link EditorActivity}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EditorActivityTest {
+
+    /**
+     * Longest time to wait for the editor to read the item in the background
+     */
+    private static final long LOAD_TIMEOUT_MILLIS = 5000;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(InventoryProvider.class, InventoryContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void saveItem_whileTheSupplierIsLocked_changesTheQuantity() throws InterruptedException {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_PRODUCT_NAME, "Coffee");
+        values.put(InventoryEntry.COLUMN_PRICE, 100L);
+        values.put(InventoryEntry.COLUMN_QUANTITY, 3);
+        values.put(InventoryEntry.COLUMN_SUPPLIER, "Orchards Inc");
+        values.put(InventoryEntry.COLUMN_SUPPLIER_NUMBER, "5550001000");
+        Uri uri = mResolver.insert(InventoryEntry.CONTENT_URI, values);
+        Bundle passphrase = new Bundle();
+        passphrase.putString(InventoryContract.EXTRA_PASSPHRASE_CONFIRMATION, "secret");
+        mResolver.call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_SET_PASSPHRASE, "secret", passphrase);
+        mResolver.call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_LOCK, null, null);
+
+        EditorActivity activity = Robolectric.buildActivity(EditorActivity.class,
+                new Intent(RuntimeEnvironment.application, EditorActivity.class).setData(uri)).setup().get();
+        EditText quantity = activity.findViewById(R.id.edit_quantity);
+        EditText supplier = activity.findViewById(R.id.edit_supplier_name);
+        awaitText(quantity, "3");
+
+        // The locked supplier isn't shown as if it was blank
+        assertFalse(supplier.isEnabled());
+        assertEquals("", supplier.getText().toString());
+        assertEquals(activity.getString(R.string.editor_supplier_details_locked), supplier.getHint().toString());
+
+        quantity.setText("5");
+        assertTrue(activity.onOptionsItemSelected(new RoboMenuItem(R.id.action_save)));
+
+        assertEquals(activity.getString(R.string.editor_update_item_successful), ShadowToast.getTextOfLatestToast());
+        assertEquals(5, queryQuantity(uri));
+
+        // The supplier was left as it was
+        mResolver.call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_UNLOCK, "secret", null);
+        Cursor cursor = mResolver.query(uri, new String[]{InventoryEntry.COLUMN_SUPPLIER}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Orchards Inc", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Run the main thread until the field shows the text, which it does once the item was
+     * read in the background.
+     */
+    private static void awaitText(EditText field, String text) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + LOAD_TIMEOUT_MILLIS;
+        while (!text.equals(field.getText().toString())) {
+            assertTrue("The item wasn't shown in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+            ShadowLooper.idleMainLooper();
+        }
+    }
+
+    private int queryQuantity(Uri uri) {
+        Cursor cursor = mResolver.query(uri, new String[]{InventoryEntry.COLUMN_QUANTITY}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.matthewbarba.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Collections;
+
+import data.CatalogColumns;
+import data.InventoryContract;
+import data.InventoryContract.InventoryEntry;
+import data.InventoryProvider;
+import data.Item;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link InventoryItemAdapter}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InventoryItemAdapterTest {
+
+    private Context mContext;
+    private InventoryItemAdapter mAdapter;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(InventoryProvider.class, InventoryContract.CONTENT_AUTHORITY);
+        mContext = RuntimeEnvironment.application;
+        mAdapter = new InventoryItemAdapter(mContext);
+    }
+
+    @Test
+    public void getView_showsNameFormattedPriceAndQuantity() {
+        mAdapter.setCatalog(catalog(new Item(1, "Coffee", 1205, 7, null, null, null, 0)));
+
+        View view = mAdapter.getView(0, null, new FrameLayout(mContext));
+
+        assertEquals("Coffee", text(view, R.id.list_product_name));
+        assertEquals("12.05", text(view, R.id.list_price));
+        assertEquals("7", text(view, R.id.list_quantity));
+        assertEquals(1, mAdapter.getItemId(0));
+    }
+
+    @Test
+    public void getView_ofChangedItem_rebindsRecycledView() {
+        FrameLayout parent = new FrameLayout(mContext);
+        mAdapter.setCatalog(catalog(new Item(1, "Coffee", 100, 7, null, null, null, 0)));
+        View view = mAdapter.getView(0, null, parent);
+
+        mAdapter.setCatalog(catalog(new Item(1, "Coffee", 100, 6, null, null, null, 1)));
+        mAdapter.getView(0, view, parent);
+
+        assertEquals("6", text(view, R.id.list_quantity));
+    }
+
+    @Test
+    public void saleButton_sellsOneUnit() {
+        ContentResolver resolver = mContext.getContentResolver();
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_PRODUCT_NAME, "Coffee");
+        values.put(InventoryEntry.COLUMN_PRICE, 100L);
+        values.put(InventoryEntry.COLUMN_QUANTITY, 3);
+        values.put(InventoryEntry.COLUMN_SUPPLIER, "Orchards Inc");
+        values.put(InventoryEntry.COLUMN_SUPPLIER_NUMBER, "5550001000");
+        Uri uri = resolver.insert(InventoryEntry.CONTENT_URI, values);
+
+        mAdapter.setCatalog(catalog(new Item(ContentUris.parseId(uri), "Coffee", 100, 3, null, null, null, 0)));
+        mAdapter.getView(0, null, new FrameLayout(mContext)).findViewById(R.id.list_sale_button).performClick();
+
+        Cursor updated = resolver.query(uri, new String[]{InventoryEntry.COLUMN_QUANTITY}, null, null, null);
+        try {
+            assertTrue(updated.moveToFirst());
+            assertEquals(2, updated.getInt(0));
+        } finally {
+            updated.close();
+        }
+    }
+
+    private static CatalogColumns catalog(Item item) {
+        return CatalogColumns.fromItems(Collections.singletonList(item));
+    }
+
+    private static String text(View view, int id) {
+        return ((TextView) view.findViewById(id)).getText().toString();
+    }
+}
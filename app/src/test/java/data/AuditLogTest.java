@@ -0,0 +1,164 @@
+package data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import data.InventoryContract.AuditEntry;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link AuditLog}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AuditLogTest {
+
+    private InventoryConnectionPool mPool;
+    private File mDirectory;
+    private AuditLog mLog;
+
+    @Before
+    public void setUp() {
+        mPool = new InventoryConnectionPool(new InventoryDbHelper(RuntimeEnvironment.application), 2);
+        mDirectory = RuntimeEnvironment.application.getFilesDir();
+        mLog = newLog();
+        mLog.open();
+    }
+
+    @After
+    public void tearDown() {
+        mLog.close();
+        mPool.close();
+    }
+
+    @Test
+    public void record_isWrittenToTheTableInOrder() {
+        for (int i = 0; i < AuditLog.BATCH_SIZE * 3; i++) {
+            ContentValues values = new ContentValues();
+            values.put(InventoryContract.InventoryEntry.COLUMN_QUANTITY, i);
+            record(AuditEntry.OPERATION_UPDATE, 7, values);
+        }
+        mLog.awaitWritten();
+
+        Cursor cursor = mPool.getWriter().query(AuditEntry.TABLE_NAME, new String[]{AuditEntry._ID,
+                AuditEntry.COLUMN_NEW_VALUES}, null, null, null, null, AuditEntry._ID);
+        try {
+            assertEquals(AuditLog.BATCH_SIZE * 3, cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                assertEquals(i + 1, cursor.getLong(0));
+                assertEquals("{\"quantity\":" + i + "}", cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void open_recoversRecordsLeftInTheJournal() throws IOException {
+        mLog.close();
+
+        // A run that was killed with two records journaled and a third half written
+        File journal = new File(mDirectory, AuditLog.JOURNAL_NAME);
+        FileOutputStream out = new FileOutputStream(journal);
+        try {
+            out.write(new AuditLog.Record(1, 1000, 0, AuditEntry.OPERATION_SALE, 3, null, "{}")
+                    .toJournalLine().getBytes("UTF-8"));
+            out.write(new AuditLog.Record(2, 2000, 0, AuditEntry.OPERATION_DELETE, -1, null, "{}")
+                    .toJournalLine().getBytes("UTF-8"));
+            out.write("{\"seq\":3,\"ti".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        // Both were journaled by writes that committed
+        mPool.getWriter().execSQL("UPDATE " + AuditEntry.STATE_TABLE_NAME + " SET "
+                + AuditEntry.COLUMN_JOURNALED_THROUGH + " = 2");
+
+        mLog = newLog();
+        mLog.open();
+        // The recovered records are in the table, so a new journal is started
+        assertEquals(0, journal.length());
+        assertEquals(2, DatabaseUtils.queryNumEntries(mPool.getWriter(), AuditEntry.TABLE_NAME));
+        assertEquals(1, DatabaseUtils.queryNumEntries(mPool.getWriter(), AuditEntry.TABLE_NAME,
+                AuditEntry.COLUMN_ITEM_ID + " IS NULL"));
+
+        // Numbering goes on after the recovered records
+        record(AuditEntry.OPERATION_SALE, 3, null);
+        mLog.awaitWritten();
+        assertEquals(3, DatabaseUtils.longForQuery(mPool.getWriter(), "SELECT MAX("
+                + AuditEntry._ID + ") FROM " + AuditEntry.TABLE_NAME, null));
+    }
+
+    @Test
+    public void prepare_inATransactionThatRollsBack_isNotRecorded() {
+        SQLiteDatabase database = mPool.beginWrite();
+        try {
+            mLog.prepare(database, AuditEntry.OPERATION_DELETE, 3, null, null);
+        } finally {
+            // Not marked successful, so the change and the record roll back
+            database.endTransaction();
+        }
+        // The next change takes the number again
+        record(AuditEntry.OPERATION_SALE, 3, null);
+        mLog.awaitWritten();
+
+        assertEquals(1, DatabaseUtils.queryNumEntries(mPool.getWriter(), AuditEntry.TABLE_NAME,
+                AuditEntry._ID + " = 1 AND " + AuditEntry.COLUMN_OPERATION + " = ?",
+                new String[]{AuditEntry.OPERATION_SALE}));
+        assertEquals(1, DatabaseUtils.queryNumEntries(mPool.getWriter(), AuditEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void open_dropsRecordsOfChangesThatDidNotCommit() {
+        record(AuditEntry.OPERATION_SALE, 3, null);
+        mLog.awaitWritten();
+        // Killed while the next change was in its transaction, after its record was journaled
+        SQLiteDatabase database = mPool.beginWrite();
+        try {
+            mLog.prepare(database, AuditEntry.OPERATION_DELETE, 3, null, null);
+        } finally {
+            database.endTransaction();
+        }
+        mLog.close();
+
+        mLog = newLog();
+        mLog.open();
+        assertEquals(1, DatabaseUtils.queryNumEntries(mPool.getWriter(), AuditEntry.TABLE_NAME));
+        record(AuditEntry.OPERATION_SALE, 3, null);
+        mLog.awaitWritten();
+        assertEquals(2, DatabaseUtils.longForQuery(mPool.getWriter(), "SELECT MAX("
+                + AuditEntry._ID + ") FROM " + AuditEntry.TABLE_NAME, null));
+    }
+
+    /**
+     * Record a change in a transaction of its own, the way the provider does.
+     */
+    private void record(String operation, long itemId, ContentValues newValues) {
+        AuditLog.Record record;
+        SQLiteDatabase database = mPool.beginWrite();
+        try {
+            record = mLog.prepare(database, operation, itemId, null, newValues);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        mLog.commit(record);
+    }
+
+    private AuditLog newLog() {
+        return new AuditLog(mPool, RuntimeEnvironment.application.getContentResolver(),
+                RuntimeEnvironment.application.getPackageManager(), mDirectory);
+    }
+}
@@ -0,0 +1,109 @@
+package data;
+
+import android.database.MatrixCursor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link CatalogColumns}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CatalogColumnsTest {
+
+    @Test
+    public void totals_sumAllRows() {
+        CatalogColumns catalog = CatalogColumns.fromItems(Arrays.asList(
+                item(1, "Coffee", 1205, 2, 0),
+                item(2, "Tea", 350, 10, 0)));
+
+        assertEquals(12, catalog.getTotalUnits());
+        assertEquals(1205 * 2 + 350 * 10, catalog.getTotalValue());
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void totalValue_tooLargeForALong_throws() {
+        CatalogColumns catalog = CatalogColumns.fromItems(Arrays.asList(
+                item(1, "Gold", Long.MAX_VALUE / 2, 3, 0)));
+
+        catalog.getTotalValue();
+    }
+
+    @Test
+    public void filterAndSort_returnRowsAndKeepTheOrderOfTies() {
+        CatalogColumns catalog = CatalogColumns.fromItems(Arrays.asList(
+                item(1, "Apple", 100, 0, 0),
+                item(2, "Bread", 300, 4, 0),
+                item(3, "Coffee", 100, 2, 0),
+                item(4, "Dates", 200, 0, 0)));
+
+        assertArrayEquals(new int[]{0, 3}, catalog.filter(new CatalogColumns.RowFilter() {
+            @Override
+            public boolean matches(CatalogColumns catalog, int row) {
+                return catalog.getQuantity(row) == 0;
+            }
+        }));
+        assertArrayEquals(new int[]{0, 2, 3, 1}, catalog.sort(CatalogColumns.BY_PRICE));
+        assertArrayEquals(new int[]{0, 3, 2, 1}, catalog.sort(CatalogColumns.BY_QUANTITY));
+    }
+
+    @Test
+    public void indexOf_findsRowsOutOfIdOrder() {
+        CatalogColumns catalog = CatalogColumns.fromItems(Arrays.asList(
+                item(7, "Apple", 100, 1, 0),
+                item(3, "Bread", 100, 1, 0),
+                item(5, "Coffee", 100, 1, 0)));
+
+        assertEquals(0, catalog.indexOf(7));
+        assertEquals(1, catalog.indexOf(3));
+        assertEquals(2, catalog.indexOf(5));
+        assertEquals(-1, catalog.indexOf(4));
+    }
+
+    @Test
+    public void withRow_replacesOnlyThatRow() {
+        CatalogColumns catalog = CatalogColumns.fromItems(Arrays.asList(
+                item(7, "Apple", 100, 1, 0),
+                item(3, "Bread", 100, 4, 0)));
+        MatrixCursor cursor = new MatrixCursor(CatalogColumns.COLUMNS);
+        cursor.addRow(new Object[]{3, "Bread", 120, 3, null, 1});
+        cursor.moveToFirst();
+
+        CatalogColumns changed = catalog.withRow(1, cursor);
+
+        assertEquals(3, changed.getQuantity(1));
+        assertEquals(120, changed.getPrice(1));
+        assertEquals(1, changed.getVersion(1));
+        assertSame(catalog.getName(1), changed.getName(1));
+        // The original is left as it was
+        assertEquals(4, catalog.getQuantity(1));
+        assertEquals(1, changed.indexOf(3));
+    }
+
+    @Test
+    public void withoutRow_movesTheRowsAfterItUp() {
+        CatalogColumns catalog = CatalogColumns.fromItems(Arrays.asList(
+                item(7, "Apple", 100, 1, 0),
+                item(3, "Bread", 100, 1, 0),
+                item(5, "Coffee", 100, 1, 0)));
+
+        CatalogColumns removed = catalog.withoutRow(0);
+
+        assertEquals(2, removed.size());
+        assertEquals("Bread", removed.getName(0));
+        assertEquals(-1, removed.indexOf(7));
+        assertEquals(0, removed.indexOf(3));
+        assertEquals(1, removed.indexOf(5));
+    }
+
+    private static Item item(long id, String name, long price, int quantity, long version) {
+        return new Item(id, name, price, quantity, null, null, null, version);
+    }
+}
@@ -0,0 +1,62 @@
+package data;
+
+import android.database.MatrixCursor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import data.InventoryContract.SectionEntry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link CatalogSections}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CatalogSectionsTest {
+
+    @Test
+    public void positions_addUpTheCountsOfTheSectionsBefore() {
+        CatalogSections sections = sections("A", 3, "B", 1, "D", 5);
+
+        assertArrayEquals(new String[]{"A", "B", "D"}, sections.getLetters());
+        assertEquals(0, sections.getPositionForSection(0));
+        assertEquals(3, sections.getPositionForSection(1));
+        assertEquals(4, sections.getPositionForSection(2));
+        // Past the last section
+        assertEquals(4, sections.getPositionForSection(7));
+    }
+
+    @Test
+    public void sectionForPosition_isTheSectionStartingAtOrBeforeIt() {
+        CatalogSections sections = sections("A", 3, "B", 1, "D", 5);
+
+        assertEquals(0, sections.getSectionForPosition(0));
+        assertEquals(0, sections.getSectionForPosition(2));
+        assertEquals(1, sections.getSectionForPosition(3));
+        assertEquals(2, sections.getSectionForPosition(4));
+        assertEquals(2, sections.getSectionForPosition(8));
+    }
+
+    @Test
+    public void empty_hasNoSections() {
+        CatalogSections sections = sections();
+
+        assertEquals(0, sections.getLetters().length);
+        assertEquals(0, sections.getPositionForSection(3));
+        assertEquals(0, sections.getSectionForPosition(3));
+    }
+
+    /**
+     * Return the sections read from a cursor with the given letters and counts
+     */
+    private static CatalogSections sections(Object... lettersAndCounts) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{SectionEntry.COLUMN_LETTER, SectionEntry.COLUMN_COUNT});
+        for (int i = 0; i < lettersAndCounts.length; i += 2) {
+            cursor.addRow(new Object[]{lettersAndCounts[i], lettersAndCounts[i + 1]});
+        }
+        return CatalogSections.fromCursor(cursor);
+    }
+}
@@ -0,0 +1,52 @@
+package data;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ClientRateLimiter}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ClientRateLimiterTest {
+
+    private static final long MILLIS = 1000000L;
+
+    @Test
+    public void burst_isAllowedAndThenSlowedToTheRate() {
+        ClientRateLimiter limiter = new ClientRateLimiter(10, 3);
+
+        assertEquals(0, limiter.acquire(1, 0));
+        assertEquals(0, limiter.acquire(1, 0));
+        assertEquals(0, limiter.acquire(1, 0));
+        assertEquals(100, limiter.acquire(1, 0));
+
+        // One token per 100 ms
+        assertTrue(limiter.acquire(1, 60 * MILLIS) > 0);
+        assertEquals(0, limiter.acquire(1, 110 * MILLIS));
+        assertTrue(limiter.acquire(1, 110 * MILLIS) > 0);
+    }
+
+    @Test
+    public void apps_haveBucketsOfTheirOwn() {
+        ClientRateLimiter limiter = new ClientRateLimiter(10, 1);
+
+        assertEquals(0, limiter.acquire(1, 0));
+        assertTrue(limiter.acquire(1, 0) > 0);
+        assertEquals(0, limiter.acquire(2, 0));
+    }
+
+    @Test
+    public void idleTime_refillsNoMoreThanTheBurst() {
+        ClientRateLimiter limiter = new ClientRateLimiter(10, 2);
+
+        assertEquals(0, limiter.acquire(1, 0));
+        long hourLater = 3600 * 1000 * MILLIS;
+        assertEquals(0, limiter.acquire(1, hourLater));
+        assertEquals(0, limiter.acquire(1, hourLater));
+        assertTrue(limiter.acquire(1, hourLater) > 0);
+    }
+}
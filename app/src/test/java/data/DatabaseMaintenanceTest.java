@@ -0,0 +1,92 @@
+package data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import data.InventoryContract.InventoryEntry;
+import data.InventoryContract.MaintenanceEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link DatabaseMaintenance}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DatabaseMaintenanceTest {
+
+    private InventoryConnectionPool mPool;
+
+    @Before
+    public void setUp() {
+        mPool = new InventoryConnectionPool(new InventoryDbHelper(RuntimeEnvironment.application), 2);
+    }
+
+    @After
+    public void tearDown() {
+        mPool.close();
+    }
+
+    @Test
+    public void run_purgesAnalyzesChecksAndRecordsTheRun() {
+        for (int i = 0; i < 50; i++) {
+            insertItem("Item " + i, i % 2 == 0 ? 1000L : null);
+        }
+
+        DatabaseMaintenance.Report report = DatabaseMaintenance.run(mPool, 2000);
+
+        assertEquals(25, report.purgedItems);
+        assertEquals("ok", report.integrity);
+        SQLiteDatabase database = mPool.getWriter();
+        assertEquals(25, DatabaseUtils.queryNumEntries(database, InventoryEntry.TABLE_NAME));
+        // The planner has statistics for the items now
+        assertTrue(DatabaseUtils.queryNumEntries(database, "sqlite_stat1",
+                "tbl = ?", new String[]{InventoryEntry.TABLE_NAME}) > 0);
+
+        Cursor cursor = database.query(MaintenanceEntry.TABLE_NAME, null, null, null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(25, cursor.getInt(cursor.getColumnIndexOrThrow(MaintenanceEntry.COLUMN_PURGED_ITEMS)));
+            assertEquals(report.sizeAfter,
+                    cursor.getLong(cursor.getColumnIndexOrThrow(MaintenanceEntry.COLUMN_SIZE_AFTER)));
+            assertEquals("ok", cursor.getString(cursor.getColumnIndexOrThrow(MaintenanceEntry.COLUMN_INTEGRITY)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void run_keepsOnlyTheLatestRuns() {
+        for (int i = 0; i < MaintenanceEntry.KEEP_RUNS + 3; i++) {
+            DatabaseMaintenance.run(mPool, 0);
+        }
+
+        SQLiteDatabase database = mPool.getWriter();
+        assertEquals(MaintenanceEntry.KEEP_RUNS, DatabaseUtils.queryNumEntries(database, MaintenanceEntry.TABLE_NAME));
+        assertEquals(4, DatabaseUtils.longForQuery(database, "SELECT MIN(" + MaintenanceEntry._ID + ") FROM "
+                + MaintenanceEntry.TABLE_NAME, null));
+    }
+
+    private void insertItem(String name, Long deletedAt) {
+        SQLiteDatabase database = mPool.beginWrite();
+        try {
+            ContentValues values = InventoryProviderTest.newItem(name, 100, 1);
+            values.put(InventoryEntry.COLUMN_DELETED_AT, deletedAt);
+            long id = database.insertOrThrow(InventoryEntry.TABLE_NAME, null, values);
+            StockRollup.insertForNewItem(database, id, 1);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import data.InventoryContract.ForecastEntry;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link DemandForecast}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DemandForecastTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private InventoryConnectionPool mPool;
+    private DemandForecast mForecast;
+
+    @Before
+    public void setUp() {
+        mPool = new InventoryConnectionPool(new InventoryDbHelper(RuntimeEnvironment.application), 2);
+        mForecast = new DemandForecast(RuntimeEnvironment.application.getSharedPreferences(
+                DemandForecast.PREFERENCES, Context.MODE_PRIVATE));
+    }
+
+    @After
+    public void tearDown() {
+        mPool.close();
+    }
+
+    @Test
+    public void recordSale_ofSteadySales_approachesUnitsPerDay() {
+        SQLiteDatabase database = mPool.getWriter();
+        for (int day = 0; day < 200; day++) {
+            mForecast.recordSale(database, 1, 3, day * DAY);
+        }
+
+        assertEquals(3, rate(1), 0.2);
+    }
+
+    @Test
+    public void decay_afterOneHalfLife_halvesRate() {
+        double meanLife = mForecast.getParameters().meanLifeDays();
+        long halfLife = (long) (mForecast.getParameters().halfLifeDays * DAY);
+
+        assertEquals(2.0, DemandForecast.decay(4.0, 0, halfLife, meanLife), 1e-6);
+        // A clock that went backwards doesn't make the rate grow
+        assertEquals(4.0, DemandForecast.decay(4.0, halfLife, 0, meanLife), 1e-9);
+    }
+
+    @Test
+    public void recompute_decaysEveryItemInBatches() {
+        int items = DemandForecast.MIN_BATCH_SIZE * 3 + 7;
+        SQLiteDatabase database = mPool.beginWrite();
+        try {
+            ContentValues values = new ContentValues();
+            for (int id = 1; id <= items; id++) {
+                values.put(ForecastEntry.COLUMN_ITEM_ID, id);
+                values.put(ForecastEntry.COLUMN_RATE, 4.0);
+                values.put(ForecastEntry.COLUMN_UPDATED_AT, 0);
+                values.put(ForecastEntry.COLUMN_DEMAND, 56);
+                database.insertOrThrow(ForecastEntry.TABLE_NAME, null, values);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        long halfLife = (long) (mForecast.getParameters().halfLifeDays * DAY);
+        assertEquals(items, mForecast.recompute(mPool, halfLife));
+
+        assertEquals(2.0, rate(1), 1e-6);
+        assertEquals(2.0, rate(items), 1e-6);
+        assertEquals(28, DatabaseUtils.longForQuery(mPool.getWriter(), "SELECT " + ForecastEntry.COLUMN_DEMAND
+                + " FROM " + ForecastEntry.TABLE_NAME + " WHERE " + ForecastEntry.COLUMN_ITEM_ID + " = " + items, null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setParameters_withNegativeCoverDays_isRejected() {
+        mForecast.setParameters(null, -1.0);
+    }
+
+    private double rate(long itemId) {
+        return Double.parseDouble(DatabaseUtils.stringForQuery(mPool.getWriter(), "SELECT "
+                + ForecastEntry.COLUMN_RATE + " FROM " + ForecastEntry.TABLE_NAME
+                + " WHERE " + ForecastEntry.COLUMN_ITEM_ID + " = " + itemId, null));
+    }
+}
@@ -0,0 +1,244 @@
+package data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import data.InventoryContract.AuditEntry;
+import data.InventoryContract.InventoryEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link FieldEncryption} and {@link FieldCipher}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class FieldEncryptionTest {
+
+    private static final String SUPPLIER = "Orchards Inc";
+    private static final String NUMBER = "5550001000";
+
+    private InventoryConnectionPool mPool;
+    private AuditLog mAudit;
+    private FieldEncryption mEncryption;
+
+    @Before
+    public void setUp() {
+        mPool = new InventoryConnectionPool(new InventoryDbHelper(RuntimeEnvironment.application), 2);
+        mAudit = new AuditLog(mPool, RuntimeEnvironment.application.getContentResolver(),
+                RuntimeEnvironment.application.getPackageManager(), RuntimeEnvironment.application.getFilesDir());
+        mAudit.open();
+        mEncryption = new FieldEncryption(mPool, mAudit);
+    }
+
+    @After
+    public void tearDown() {
+        mAudit.close();
+        mPool.close();
+    }
+
+    @Test
+    public void cipher_isDeterministicAndDetectsAnotherKey() {
+        byte[] salt = FieldCipher.newSalt();
+        FieldCipher cipher = FieldCipher.derive("secret", salt, 1000);
+        String encrypted = cipher.encrypt(NUMBER);
+
+        assertTrue(FieldCipher.isEncrypted(encrypted));
+        assertEquals(encrypted, FieldCipher.derive("secret", salt, 1000).encrypt(NUMBER));
+        assertEquals(NUMBER, cipher.decrypt(encrypted));
+        assertEquals(NUMBER, cipher.decrypt(NUMBER));
+        try {
+            FieldCipher.derive("other", salt, 1000).decrypt(encrypted);
+            fail("A value encrypted with another key was decrypted");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void setPassphrase_thatWasMistyped_isRefused() {
+        long id = insertItem(InventoryProviderTest.newItem("Coffee", 100, 1));
+        try {
+            mEncryption.unlock("secret");
+            fail("A passphrase was unlocked before it was set");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+        try {
+            mEncryption.setPassphrase("secret", "secert");
+            fail("A mistyped passphrase was set");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+
+        assertFalse(mEncryption.isEnabled());
+        assertEquals(NUMBER, readNumber(id, false));
+
+        mEncryption.setPassphrase("secret", "secret");
+        try {
+            mEncryption.setPassphrase("other", "other");
+            fail("The passphrase was replaced");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+        assertEquals(NUMBER, readNumber(id, true));
+    }
+
+    @Test
+    public void setPassphrase_encryptsTheStoredDetails() {
+        long id = insertItem(mEncryption.encrypt(InventoryProviderTest.newItem("Coffee", 100, 1)));
+        assertFalse(mEncryption.isEnabled());
+
+        assertEquals(1, mEncryption.setPassphrase("secret", "secret"));
+
+        assertTrue(mEncryption.isEnabled());
+        assertTrue(FieldCipher.isEncrypted(readNumber(id, false)));
+        assertTrue(FieldCipher.isEncrypted(read(id, InventoryEntry.COLUMN_SUPPLIER, false)));
+        assertEquals(NUMBER, readNumber(id, true));
+        assertEquals(SUPPLIER, read(id, InventoryEntry.COLUMN_SUPPLIER, true));
+
+        long tea = insertItem(mEncryption.encrypt(InventoryProviderTest.newItem("Tea", 100, 1)));
+        assertTrue(FieldCipher.isEncrypted(readNumber(tea, false)));
+        // Equal values stay equal, so the items can still be grouped by supplier
+        assertEquals(readNumber(id, false), readNumber(tea, false));
+        assertEquals(read(id, InventoryEntry.COLUMN_SUPPLIER, false), read(tea, InventoryEntry.COLUMN_SUPPLIER, false));
+    }
+
+    @Test
+    public void setPassphrase_leavesNoPlainDetailsInTheAuditTrailOrTheFiles() throws Exception {
+        ContentValues coffee = InventoryProviderTest.newItem("Coffee", 100, 1);
+        long id = insertItem(coffee);
+        recordInsert(id, coffee);
+        mAudit.awaitWritten();
+        ContentValues price = new ContentValues();
+        price.put(InventoryEntry.COLUMN_PRICE, 120);
+        recordInsert(id, price);
+
+        mEncryption.setPassphrase("secret", "secret");
+        mAudit.awaitWritten();
+
+        Cursor cursor = mPool.getWriter().query(AuditEntry.TABLE_NAME, new String[]{AuditEntry.COLUMN_NEW_VALUES},
+                null, null, null, null, AuditEntry._ID);
+        try {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToFirst();
+            JSONObject values = new JSONObject(cursor.getString(0));
+            assertTrue(FieldCipher.isEncrypted(values.getString(InventoryEntry.COLUMN_SUPPLIER)));
+            assertEquals(readNumber(id, false), values.getString(InventoryEntry.COLUMN_SUPPLIER_NUMBER));
+            assertEquals(100, values.getInt(InventoryEntry.COLUMN_PRICE));
+            // Records without supplier details are left as they are
+            cursor.moveToNext();
+            assertEquals("{\"price\":120}", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+
+        String path = mPool.getWriter().getPath();
+        File[] files = {new File(path), new File(path + "-wal"),
+                new File(RuntimeEnvironment.application.getFilesDir(), AuditLog.JOURNAL_NAME)};
+        for (File file : files) {
+            assertNotInFile(file, SUPPLIER);
+            assertNotInFile(file, NUMBER);
+        }
+    }
+
+    @Test
+    public void lock_hidesTheNumbersAndRefusesNewOnes() {
+        long id = insertItem(InventoryProviderTest.newItem("Coffee", 100, 1));
+        mEncryption.setPassphrase("secret", "secret");
+        mEncryption.lock();
+
+        assertNull(readNumber(id, true));
+        try {
+            mEncryption.encrypt(InventoryProviderTest.newItem("Tea", 100, 1));
+            fail("A number was written while locked");
+        } catch (SupplierDetailsLockedException expected) {
+            // Expected
+        }
+        // Values without a number can still be written
+        ContentValues price = new ContentValues();
+        price.put(InventoryEntry.COLUMN_PRICE, 120);
+        assertSame(price, mEncryption.encrypt(price));
+
+        // A new session reads the passphrase that was set
+        FieldEncryption session = new FieldEncryption(mPool, mAudit);
+        try {
+            session.unlock("wrong");
+            fail("A wrong passphrase was accepted");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+        session.unlock("secret");
+        mEncryption = session;
+        assertEquals(NUMBER, readNumber(id, true));
+    }
+
+    private long insertItem(ContentValues values) {
+        return mPool.getWriter().insertOrThrow(InventoryEntry.TABLE_NAME, null, values);
+    }
+
+    private void recordInsert(long id, ContentValues values) {
+        AuditLog.Record record;
+        SQLiteDatabase database = mPool.beginWrite();
+        try {
+            record = mAudit.prepare(database, AuditEntry.OPERATION_INSERT, id, null, values);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        mAudit.commit(record);
+    }
+
+    private String readNumber(long id, boolean decrypted) {
+        return read(id, InventoryEntry.COLUMN_SUPPLIER_NUMBER, decrypted);
+    }
+
+    private String read(long id, String column, boolean decrypted) {
+        SQLiteDatabase database = mPool.getWriter();
+        Cursor cursor = database.query(InventoryEntry.TABLE_NAME, new String[]{column},
+                InventoryEntry._ID + " = " + id, null, null, null, null);
+        if (decrypted) {
+            cursor = mEncryption.decrypt(cursor);
+        }
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void assertNotInFile(File file, String text) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        byte[] contents = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(contents);
+        } finally {
+            in.close();
+        }
+        assertFalse(text + " is still in " + file.getName(),
+                new String(contents, "ISO-8859-1").contains(text));
+    }
+}
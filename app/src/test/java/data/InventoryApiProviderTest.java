@@ -0,0 +1,124 @@
+package data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+
+import data.InventoryContract.ApiItemEntry;
+import data.InventoryContract.InventoryEntry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link InventoryApiProvider}, reading through a real {@link InventoryProvider}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InventoryApiProviderTest {
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(InventoryProvider.class, InventoryContract.CONTENT_AUTHORITY);
+        Robolectric.setupContentProvider(InventoryApiProvider.class, InventoryContract.API_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void query_returnsPagesInIdOrder() {
+        long[] ids = new long[5];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = insertItem("Item " + i);
+        }
+
+        Uri firstPage = ApiItemEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(InventoryContract.PARAM_LIMIT, "3").build();
+        assertArrayEquals(new long[]{ids[0], ids[1], ids[2]}, queryIds(firstPage));
+
+        Uri secondPage = firstPage.buildUpon()
+                .appendQueryParameter(InventoryContract.PARAM_AFTER_ID, String.valueOf(ids[2])).build();
+        assertArrayEquals(new long[]{ids[3], ids[4]}, queryIds(secondPage));
+    }
+
+    @Test
+    public void query_withoutProjection_returnsOnlyTheApiColumns() {
+        long coffee = insertItem("Coffee");
+
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(ApiItemEntry.CONTENT_URI, coffee),
+                null, null, null, null);
+        try {
+            assertArrayEquals(ApiItemEntry.COLUMNS, cursor.getColumnNames());
+            assertEquals(1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void query_ofOtherColumns_isRefused() {
+        mResolver.query(ApiItemEntry.CONTENT_URI, new String[]{InventoryEntry.COLUMN_SUPPLIER_NUMBER},
+                null, null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void query_withSelection_isRefused() {
+        mResolver.query(ApiItemEntry.CONTENT_URI, null, InventoryEntry.COLUMN_SUPPLIER_NUMBER + " LIKE '555%'",
+                null, null);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void insert_isRefused() {
+        mResolver.insert(ApiItemEntry.CONTENT_URI, InventoryProviderTest.newItem("Coffee", 100, 1));
+    }
+
+    @Test
+    public void getItems_returnsFoundItemsInTheOrderAskedFor() {
+        long coffee = insertItem("Coffee");
+        long tea = insertItem("Tea");
+        Shadows.shadowOf(RuntimeEnvironment.application).grantPermissions(InventoryContract.PERMISSION_READ_INVENTORY);
+
+        Bundle extras = new Bundle();
+        extras.putLongArray(InventoryContract.EXTRA_ITEM_IDS, new long[]{tea, 12345, coffee});
+        Bundle result = mResolver.call(ApiItemEntry.CONTENT_URI, InventoryContract.METHOD_GET_ITEMS, null, extras);
+
+        assertArrayEquals(new long[]{tea, coffee}, result.getLongArray(InventoryEntry._ID));
+        assertArrayEquals(new String[]{"Tea", "Coffee"}, result.getStringArray(InventoryEntry.COLUMN_PRODUCT_NAME));
+        assertArrayEquals(new int[]{1, 1}, result.getIntArray(InventoryEntry.COLUMN_QUANTITY));
+    }
+
+    @Test(expected = SecurityException.class)
+    public void getItems_withoutPermission_isRefused() {
+        Bundle extras = new Bundle();
+        extras.putLongArray(InventoryContract.EXTRA_ITEM_IDS, new long[]{1});
+        mResolver.call(ApiItemEntry.CONTENT_URI, InventoryContract.METHOD_GET_ITEMS, null, extras);
+    }
+
+    private long insertItem(String name) {
+        Uri uri = mResolver.insert(InventoryEntry.CONTENT_URI, InventoryProviderTest.newItem(name, 100, 1));
+        return ContentUris.parseId(uri);
+    }
+
+    private long[] queryIds(Uri uri) {
+        Cursor cursor = mResolver.query(uri, new String[]{InventoryEntry._ID}, null, null, null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import data.InventoryContract.InventoryEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that concurrent writes through {@link InventoryProvider} don't lose updates.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InventoryConcurrencyTest {
+
+    private static final int THREADS = 8;
+
+    private ContentResolver mResolver;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(InventoryProvider.class, InventoryContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mExecutor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @Test
+    public void concurrentSales_areAllCounted() throws Exception {
+        final int salesPerThread = 50;
+        Uri uri = mResolver.insert(InventoryEntry.CONTENT_URI,
+                InventoryProviderTest.newItem("Coffee", 100, THREADS * salesPerThread));
+        final Uri saleUri = InventoryEntry.buildSaleUri(ContentUris.parseId(uri));
+
+        List<Future<Integer>> results = runConcurrently(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                int sold = 0;
+                for (int i = 0; i < salesPerThread; i++) {
+                    sold += mResolver.update(saleUri, null, null, null);
+                }
+                return sold;
+            }
+        });
+
+        int sold = 0;
+        for (Future<Integer> result : results) {
+            sold += result.get();
+        }
+        assertEquals(THREADS * salesPerThread, sold);
+        assertEquals(0, queryQuantity(uri));
+
+        // The stock is gone, so one more sale must not go through
+        assertEquals(0, mResolver.update(saleUri, null, null, null));
+    }
+
+    @Test
+    public void concurrentVersionedUpdates_onlyOneWins() throws Exception {
+        final Uri uri = mResolver.insert(InventoryEntry.CONTENT_URI,
+                InventoryProviderTest.newItem("Coffee", 100, 1));
+
+        List<Future<Integer>> results = runConcurrently(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                ContentValues values = new ContentValues();
+                values.put(InventoryEntry.COLUMN_PRODUCT_NAME, Thread.currentThread().getName());
+                try {
+                    return mResolver.update(InventoryEntry.withExpectedVersion(uri, 0), values, null, null);
+                } catch (StaleItemException e) {
+                    return 0;
+                }
+            }
+        });
+
+        int winners = 0;
+        for (Future<Integer> result : results) {
+            winners += result.get();
+        }
+        assertEquals(1, winners);
+    }
+
+    /**
+     * Run the task on all threads at the same time and wait for all of them to finish.
+     */
+    private <T> List<Future<T>> runConcurrently(final Callable<T> task) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<T>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(mExecutor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    start.await();
+                    return task.call();
+                }
+            }));
+        }
+        start.countDown();
+        mExecutor.shutdown();
+        assertTrue(mExecutor.awaitTermination(1, TimeUnit.MINUTES));
+        return results;
+    }
+
+    private int queryQuantity(Uri uri) {
+        Cursor cursor = mResolver.query(uri, new String[]{InventoryEntry.COLUMN_QUANTITY}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import data.InventoryContract.InventoryEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link InventoryConnectionPool}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InventoryConnectionPoolTest {
+
+    private InventoryConnectionPool mPool;
+
+    @Before
+    public void setUp() {
+        mPool = new InventoryConnectionPool(new InventoryDbHelper(RuntimeEnvironment.application), 2);
+    }
+
+    @After
+    public void tearDown() {
+        mPool.close();
+    }
+
+    @Test
+    public void readers_areOpenedOnDemandAndReused() {
+        SQLiteDatabase first = mPool.acquireReader();
+        SQLiteDatabase second = mPool.acquireReader();
+        assertNotSame(first, second);
+        assertTrue(first.isReadOnly());
+        mPool.releaseReader(first);
+
+        assertSame(first, mPool.acquireReader());
+        assertEquals(2, mPool.getStats().openReaders);
+    }
+
+    @Test
+    public void releaseReaderOnClose_keepsTheLeaseOfUnreadRowsUntilClosed() {
+        SQLiteDatabase reader = mPool.acquireReader();
+        Cursor small = reader.query(InventoryEntry.TABLE_NAME, null, null, null, null, null, null);
+        small.getCount();
+        // Every row is in the first window, the connection isn't needed anymore
+        Cursor handedOut = mPool.releaseReaderOnClose(reader, small);
+        assertSame(small, handedOut);
+        assertSame(reader, mPool.acquireReader());
+
+        // A cursor that may still read from the connection keeps it
+        Cursor unread = mPool.releaseReaderOnClose(reader, new MatrixCursor(new String[]{InventoryEntry._ID}));
+        SQLiteDatabase other = mPool.acquireReader();
+        assertNotSame(reader, other);
+        mPool.releaseReader(other);
+        assertSame(other, mPool.acquireReader());
+
+        unread.close();
+        unread.close();
+        assertSame(reader, mPool.acquireReader());
+        assertEquals(0, mPool.getStats().contendedReads);
+        small.close();
+    }
+
+    @Test
+    public void readers_seeCommittedWrites() {
+        SQLiteDatabase writer = mPool.beginWrite();
+        try {
+            ContentValues values = InventoryProviderTest.newItem("Coffee", 100, 1);
+            writer.insert(InventoryEntry.TABLE_NAME, null, values);
+            writer.setTransactionSuccessful();
+        } finally {
+            writer.endTransaction();
+        }
+
+        SQLiteDatabase reader = mPool.acquireReader();
+        try {
+            Cursor cursor = reader.query(InventoryEntry.TABLE_NAME, null, null, null, null, null, null);
+            try {
+                assertEquals(1, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            mPool.releaseReader(reader);
+        }
+        assertEquals(1, mPool.getStats().writes);
+    }
+
+    @Test
+    public void acquire_whenAllReadersAreLeased_waitsAndCountsContention() throws Exception {
+        final SQLiteDatabase first = mPool.acquireReader();
+        mPool.acquireReader();
+        final CountDownLatch acquired = new CountDownLatch(1);
+
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mPool.releaseReader(mPool.acquireReader());
+                acquired.countDown();
+            }
+        });
+        waiter.start();
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        mPool.releaseReader(first);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+
+        InventoryConnectionPool.Stats stats = mPool.getStats();
+        assertEquals(3, stats.reads);
+        assertEquals(1, stats.contendedReads);
+        assertEquals(2, stats.openReaders);
+    }
+}
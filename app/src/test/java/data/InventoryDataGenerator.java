@@ -0,0 +1,77 @@
+package data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import java.util.Random;
+
+import data.InventoryContract.InventoryEntry;
+
+/**
+ * Builds realistic looking items for tests, like the dummy item from the catalog menu but
+ * many of them and all different. The same seed always generates the same items, so test
+ * failures can be reproduced.
+ */
+final class InventoryDataGenerator {
+
+    private static final String[] ADJECTIVES = {
+            "Red", "Green", "Large", "Small", "Organic", "Deluxe", "Classic", "Spicy", "Frozen", "Fresh"};
+    private static final String[] PRODUCTS = {
+            "Apples", "Coffee", "Batteries", "Notebook", "Gloves", "Candles", "Rice", "Pasta", "Soap", "Tea"};
+    private static final String[] SUPPLIERS = {
+            "Orchards Inc", "Bean Brothers", "Power Supply Co", "Paper Trail", "Warm Hands Ltd"};
+
+    /**
+     * Number of items inserted per bulkInsert() call, to keep memory use flat for huge datasets
+     */
+    private static final int CHUNK_SIZE = 10000;
+
+    private final Random mRandom;
+    private int mCount;
+
+    InventoryDataGenerator(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Return the values for the next generated item.
+     */
+    ContentValues next() {
+        mCount++;
+        int supplier = mRandom.nextInt(SUPPLIERS.length);
+
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_PRODUCT_NAME, ADJECTIVES[mRandom.nextInt(ADJECTIVES.length)]
+                + " " + PRODUCTS[mRandom.nextInt(PRODUCTS.length)] + " #" + mCount);
+        values.put(InventoryEntry.COLUMN_PRICE, (long) mRandom.nextInt(100000));
+        values.put(InventoryEntry.COLUMN_QUANTITY, mRandom.nextInt(1000));
+        values.put(InventoryEntry.COLUMN_SUPPLIER, SUPPLIERS[supplier]);
+        values.put(InventoryEntry.COLUMN_SUPPLIER_NUMBER, "555000" + (1000 + supplier));
+        return values;
+    }
+
+    /**
+     * Return the values for the next {@code count} generated items.
+     */
+    ContentValues[] next(int count) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = next();
+        }
+        return values;
+    }
+
+    /**
+     * Insert {@code count} generated items through the provider.
+     *
+     * @return the number of items inserted
+     */
+    int insert(ContentResolver resolver, int count) {
+        int inserted = 0;
+        while (inserted < count) {
+            int chunk = Math.min(CHUNK_SIZE, count - inserted);
+            inserted += resolver.bulkInsert(InventoryEntry.CONTENT_URI, next(chunk));
+        }
+        return inserted;
+    }
+}
@@ -0,0 +1,86 @@
+package data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+
+import data.InventoryContract.InventoryEntry;
+import data.InventoryContract.LocationEntry;
+import data.InventoryContract.StockEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link InventoryDbHelper}, mainly that older databases are migrated correctly.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InventoryDbHelperTest {
+
+    /**
+     * The inventory table as it was created by version 1 of the database
+     */
+    private static final String SQL_CREATE_VERSION_1 = "CREATE TABLE inventory ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "product TEXT NOT NULL, "
+            + "quantity INTEGER NOT NULL, "
+            + "price INTEGER NOT NULL DEFAULT 0, "
+            + "supplierName TEXT NOT NULL, "
+            + "supplierPhoneNumber TEXT NOT NULL); ";
+
+    @Test
+    public void upgradeFromVersion1_convertsPricesAndMovesStockToMainStockroom() {
+        File path = RuntimeEnvironment.application.getDatabasePath(InventoryDbHelper.DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase old = SQLiteDatabase.openOrCreateDatabase(path, null);
+        old.execSQL(SQL_CREATE_VERSION_1);
+        old.execSQL("INSERT INTO inventory (product, quantity, price, supplierName, supplierPhoneNumber) "
+                + "VALUES ('Dummy', 10, 234, 'Orchards', '5622222222')");
+        old.setVersion(1);
+        old.close();
+
+        InventoryDbHelper helper = new InventoryDbHelper(RuntimeEnvironment.application);
+        Cursor cursor = helper.getReadableDatabase().query(InventoryEntry.TABLE_NAME, null,
+                null, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(23400, cursor.getLong(cursor.getColumnIndexOrThrow(InventoryEntry.COLUMN_PRICE)));
+            assertEquals(0, cursor.getLong(cursor.getColumnIndexOrThrow(InventoryEntry.COLUMN_VERSION)));
+        } finally {
+            cursor.close();
+        }
+
+        // The existing stock moves to the main stockroom
+        Cursor stock = helper.getReadableDatabase().query(StockEntry.TABLE_NAME,
+                new String[]{StockEntry.COLUMN_LOCATION_ID, StockEntry.COLUMN_QUANTITY},
+                null, null, null, null, null);
+        try {
+            assertTrue(stock.moveToFirst());
+            assertEquals(LocationEntry.DEFAULT_LOCATION_ID, stock.getLong(0));
+            assertEquals(10, stock.getLong(1));
+        } finally {
+            stock.close();
+            helper.close();
+        }
+    }
+
+    @Test
+    public void newDatabase_hasSameColumnsAsUpgradedDatabase() {
+        InventoryDbHelper helper = new InventoryDbHelper(RuntimeEnvironment.application);
+        Cursor cursor = helper.getReadableDatabase().query(InventoryEntry.TABLE_NAME, null,
+                null, null, null, null, null);
+        try {
+            cursor.getColumnIndexOrThrow(InventoryEntry.COLUMN_PRICE);
+            cursor.getColumnIndexOrThrow(InventoryEntry.COLUMN_VERSION);
+        } finally {
+            cursor.close();
+            helper.close();
+        }
+    }
+}
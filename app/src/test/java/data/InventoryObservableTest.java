@@ -0,0 +1,162 @@
+package data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import data.InventoryContract.InventoryEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link InventoryObservable}. Queries and deliveries run right away on the test
+ * thread, so every change is observed before the call that made it returns.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InventoryObservableTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(InventoryProvider.class, InventoryContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void items_deliversInitialListAndChanges() {
+        insertItem("Coffee", 3);
+        Recorder<List<Item>> recorder = new Recorder<>();
+        InventoryObservable.items(mResolver, null, null, DIRECT).subscribe(DIRECT, recorder);
+
+        insertItem("Tea", 5);
+
+        assertEquals(2, recorder.values.size());
+        assertEquals(1, recorder.values.get(0).size());
+        assertEquals(2, recorder.values.get(1).size());
+        assertEquals("Tea", recorder.values.get(1).get(1).productName);
+    }
+
+    @Test
+    public void items_withUnchangedResult_isNotDeliveredAgain() {
+        insertItem("Coffee", 3);
+        Recorder<List<Item>> recorder = new Recorder<>();
+        InventoryObservable.items(mResolver, new String[]{InventoryEntry._ID, InventoryEntry.COLUMN_PRODUCT_NAME},
+                null, DIRECT).subscribe(DIRECT, recorder);
+
+        // A change that leaves the queried columns as they were
+        mResolver.notifyChange(InventoryEntry.CONTENT_URI, null);
+
+        assertEquals(1, recorder.values.size());
+    }
+
+    @Test
+    public void item_ignoresOtherItemsAndSeesItsOwnChanges() {
+        Uri coffee = insertItem("Coffee", 3);
+        Uri tea = insertItem("Tea", 5);
+        Recorder<Item> recorder = new Recorder<>();
+        InventoryObservable.item(mResolver, ContentUris.parseId(coffee), DIRECT).subscribe(DIRECT, recorder);
+
+        mResolver.update(InventoryEntry.buildSaleUri(ContentUris.parseId(tea)), null, null, null);
+        assertEquals(1, recorder.values.size());
+
+        mResolver.update(InventoryEntry.buildSaleUri(ContentUris.parseId(coffee)), null, null, null);
+        assertEquals(2, recorder.values.size());
+        assertEquals(2, recorder.values.get(1).quantity);
+    }
+
+    @Test
+    public void item_afterDelete_deliversNull() {
+        Uri coffee = insertItem("Coffee", 3);
+        Recorder<Item> recorder = new Recorder<>();
+        InventoryObservable.item(mResolver, ContentUris.parseId(coffee), DIRECT).subscribe(DIRECT, recorder);
+
+        mResolver.delete(coffee, null, null);
+
+        assertEquals(2, recorder.values.size());
+        assertNull(recorder.values.get(1));
+    }
+
+    @Test
+    public void cancel_stopsDeliveries() {
+        Uri coffee = insertItem("Coffee", 3);
+        Recorder<Item> recorder = new Recorder<>();
+        InventoryObservable.Subscription subscription =
+                InventoryObservable.item(mResolver, ContentUris.parseId(coffee), DIRECT).subscribe(DIRECT, recorder);
+
+        subscription.cancel();
+        mResolver.update(InventoryEntry.buildSaleUri(ContentUris.parseId(coffee)), null, null, null);
+
+        assertEquals(1, recorder.values.size());
+    }
+
+    @Test
+    public void catalog_patchesChangedItemsAndReloadsForNewOnes() {
+        Uri coffee = insertItem("Coffee", 3);
+        Uri tea = insertItem("Tea", 5);
+        Recorder<CatalogColumns> recorder = new Recorder<>();
+        InventoryObservable.catalog(mResolver, InventoryEntry.SORT_BY_NAME, DIRECT).subscribe(DIRECT, recorder);
+
+        // A sale only reads the item sold, its row ends up as a full read would have it
+        mResolver.update(InventoryEntry.buildSaleUri(ContentUris.parseId(coffee)), null, null, null);
+        CatalogColumns sold = recorder.values.get(recorder.values.size() - 1);
+        assertEquals(2, sold.getQuantity(sold.indexOf(ContentUris.parseId(coffee))));
+        assertEquals(readCatalog(), sold);
+
+        mResolver.delete(tea, null, null);
+        CatalogColumns deleted = recorder.values.get(recorder.values.size() - 1);
+        assertEquals(1, deleted.size());
+        assertEquals(-1, deleted.indexOf(ContentUris.parseId(tea)));
+
+        // A new item takes its place in the name order
+        insertItem("Apple", 1);
+        CatalogColumns inserted = recorder.values.get(recorder.values.size() - 1);
+        assertEquals("Apple", inserted.getName(0));
+        assertEquals(readCatalog(), inserted);
+    }
+
+    private CatalogColumns readCatalog() {
+        Cursor cursor = mResolver.query(InventoryEntry.CONTENT_URI, CatalogColumns.COLUMNS, null, null,
+                InventoryEntry.SORT_BY_NAME);
+        try {
+            return CatalogColumns.fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Uri insertItem(String name, int quantity) {
+        ContentValues values = InventoryProviderTest.newItem(name, 100, quantity);
+        return mResolver.insert(InventoryEntry.CONTENT_URI, values);
+    }
+
+    private static final class Recorder<T> implements InventoryObservable.Observer<T> {
+        final List<T> values = new ArrayList<>();
+
+        @Override
+        public void onChanged(T value) {
+            values.add(value);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Random;
+
+import data.InventoryContract.AuditItemEntry;
+import data.InventoryContract.InventoryEntry;
+import data.InventoryContract.LocationEntry;
+import data.InventoryContract.StocktakeEntry;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the provider stays fast with a large inventory. Each test fails if an operation
+ * goes over its {@link PerformanceBudget}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InventoryPerformanceTest {
+
+    /**
+     * Number of items in the large inventory
+     */
+    private static final int ITEMS = 100000;
+
+    /**
+     * Number of individual operations timed after the inventory is filled
+     */
+    private static final int OPERATIONS = 1000;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(InventoryProvider.class, InventoryContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void bulkInsert_ofLargeInventory_staysWithinBudget() {
+        PerformanceBudget budget = PerformanceBudget.start("Insert " + ITEMS + " items", 30000);
+        int inserted = new InventoryDataGenerator(42).insert(mResolver, ITEMS);
+        budget.check();
+
+        assertEquals(ITEMS, inserted);
+    }
+
+    @Test
+    public void catalogQuery_ofLargeInventory_staysWithinBudget() {
+        new InventoryDataGenerator(42).insert(mResolver, ITEMS);
+
+        PerformanceBudget budget = PerformanceBudget.start("Read catalog of " + ITEMS + " items", 10000);
+        Cursor cursor = mResolver.query(InventoryEntry.CONTENT_URI, CatalogSnapshot.COLUMNS,
+                null, null, null);
+        int rows = 0;
+        long totalQuantity = 0;
+        try {
+            int quantityIndex = cursor.getColumnIndexOrThrow(InventoryEntry.COLUMN_QUANTITY);
+            while (cursor.moveToNext()) {
+                totalQuantity += cursor.getInt(quantityIndex);
+                rows++;
+            }
+        } finally {
+            cursor.close();
+        }
+        budget.check();
+
+        assertEquals(ITEMS, rows);
+        long expectedQuantity = 0;
+        for (ContentValues values : new InventoryDataGenerator(42).next(ITEMS)) {
+            expectedQuantity += values.getAsInteger(InventoryEntry.COLUMN_QUANTITY);
+        }
+        assertEquals(expectedQuantity, totalQuantity);
+    }
+
+    @Test
+    public void itemLookups_inLargeInventory_staysWithinBudget() {
+        new InventoryDataGenerator(42).insert(mResolver, ITEMS);
+        Random random = new Random(7);
+
+        PerformanceBudget budget = PerformanceBudget.start(OPERATIONS + " item lookups", 5000);
+        for (int i = 0; i < OPERATIONS; i++) {
+            long id = 1 + random.nextInt(ITEMS);
+            Cursor cursor = mResolver.query(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id),
+                    null, null, null, null);
+            try {
+                assertEquals(1, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+        }
+        budget.check();
+    }
+
+    @Test
+    public void sales_inLargeInventory_staysWithinBudget() {
+        new InventoryDataGenerator(42).insert(mResolver, ITEMS);
+        Random random = new Random(7);
+
+        PerformanceBudget budget = PerformanceBudget.start(OPERATIONS + " sales", 5000);
+        for (int i = 0; i < OPERATIONS; i++) {
+            long id = 1 + random.nextInt(ITEMS);
+            mResolver.update(InventoryEntry.buildSaleUri(id), null, null, null);
+        }
+        budget.check();
+    }
+
+    @Test
+    public void stocktake_ofLargeInventory_staysWithinBudget() {
+        new InventoryDataGenerator(42).insert(mResolver, ITEMS);
+        Random random = new Random(7);
+        int[] counted = new int[ITEMS];
+
+        PerformanceBudget budget = PerformanceBudget.start("Stage " + ITEMS + " counts", 10000);
+        int chunk = ITEMS / 10;
+        for (int first = 1; first <= ITEMS; first += chunk) {
+            ContentValues[] counts = new ContentValues[chunk];
+            for (int i = 0; i < chunk; i++) {
+                counted[first + i - 1] = random.nextInt(50);
+                counts[i] = new ContentValues();
+                counts[i].put(StocktakeEntry.COLUMN_ITEM_ID, first + i);
+                counts[i].put(StocktakeEntry.COLUMN_COUNTED, counted[first + i - 1]);
+            }
+            mResolver.bulkInsert(StocktakeEntry.CONTENT_URI, counts);
+        }
+        budget.check();
+
+        budget = PerformanceBudget.start("Reconcile " + ITEMS + " counts", 10000);
+        Bundle result = mResolver.call(StocktakeEntry.CONTENT_URI, InventoryContract.METHOD_RECONCILE_STOCKTAKE,
+                null, null);
+        budget.check();
+
+        // All of the stock is at the main stockroom, so each item differs by its one count
+        int changed = 0;
+        long varianceUnits = 0;
+        ContentValues[] items = new InventoryDataGenerator(42).next(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            int stored = items[i].getAsInteger(InventoryEntry.COLUMN_QUANTITY);
+            if (counted[i] != stored) {
+                changed++;
+                varianceUnits += counted[i] - stored;
+            }
+        }
+        assertEquals(changed, result.getInt(InventoryContract.EXTRA_ROWS));
+        assertEquals(varianceUnits, result.getLong(InventoryContract.EXTRA_VARIANCE_UNITS));
+        assertEquals(changed, count(AuditItemEntry.CONTENT_URI));
+
+        // The stock and the item totals are the counts now
+        assertQuantitiesCounted(InventoryEntry.CONTENT_URI, counted);
+        assertQuantitiesCounted(LocationEntry.buildItemsUri(LocationEntry.DEFAULT_LOCATION_ID), counted);
+    }
+
+    private void assertQuantitiesCounted(Uri uri, int[] counted) {
+        Cursor cursor = mResolver.query(uri, new String[]{InventoryEntry._ID, InventoryEntry.COLUMN_QUANTITY},
+                null, null, null);
+        try {
+            assertEquals(counted.length, cursor.getCount());
+            while (cursor.moveToNext()) {
+                assertEquals(counted[(int) cursor.getLong(0) - 1], cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mResolver.query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Encrypting the supplier details costs an AES block and an HMAC per value, on every
+     * insert and read. The same work is timed with the encryption off and then on, on a batch
+     * of items each: inserting, reading the catalog with the supplier details, and selling,
+     * which doesn't touch them. With it on, each must stay close to the time it took off.
+     */
+    @Test
+    public void atRestEncryption_staysCloseToPlain() {
+        InventoryDataGenerator generator = new InventoryDataGenerator(42);
+        int batch = ITEMS / 10;
+
+        // Warm up, so the first timed batch doesn't pay for loading and compiling the code
+        generator.insert(mResolver, OPERATIONS);
+        long plainFirst = OPERATIONS + 1;
+
+        long plainInsert = timeInsert(generator, batch, "plain", 10000);
+        long plainScan = timeScan(plainFirst, batch, "plain", 5000);
+        long plainSales = timeSales(plainFirst, batch, "plain", 5000);
+
+        // The one-time migration encrypts every stored row and vacuums the database
+        PerformanceBudget budget = PerformanceBudget.start("Encrypt the supplier details of "
+                + (OPERATIONS + batch) + " items", 15000);
+        Bundle passphrase = new Bundle();
+        passphrase.putString(InventoryContract.EXTRA_PASSPHRASE_CONFIRMATION, "secret");
+        Bundle result = mResolver.call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_SET_PASSPHRASE, "secret",
+                passphrase);
+        budget.check();
+        assertEquals(OPERATIONS + batch, result.getInt(InventoryContract.EXTRA_ROWS));
+
+        long encryptedFirst = plainFirst + batch;
+        timeInsert(generator, batch, "encrypted", encryptedBudget(plainInsert));
+        timeScan(encryptedFirst, batch, "encrypted", encryptedBudget(plainScan));
+        timeSales(encryptedFirst, batch, "encrypted", encryptedBudget(plainSales));
+    }
+
+    /**
+     * Return the budget of an encrypted operation, half again the plain time and a margin
+     * for the noise of short runs.
+     */
+    private static long encryptedBudget(long plainMillis) {
+        return plainMillis * 3 / 2 + 500;
+    }
+
+    private long timeInsert(InventoryDataGenerator generator, int count, String label, long budgetMillis) {
+        PerformanceBudget budget = PerformanceBudget.start("Insert " + count + " " + label + " items", budgetMillis);
+        int inserted = generator.insert(mResolver, count);
+        long elapsed = budget.check();
+
+        assertEquals(count, inserted);
+        return elapsed;
+    }
+
+    /**
+     * Read the catalog columns and the supplier details of the items from the given ID on,
+     * as the purchase orders do.
+     */
+    private long timeScan(long firstId, int count, String label, long budgetMillis) {
+        String[] projection = new String[CatalogColumns.COLUMNS.length + 2];
+        System.arraycopy(CatalogColumns.COLUMNS, 0, projection, 0, CatalogColumns.COLUMNS.length);
+        projection[projection.length - 2] = InventoryEntry.COLUMN_SUPPLIER;
+        projection[projection.length - 1] = InventoryEntry.COLUMN_SUPPLIER_NUMBER;
+
+        PerformanceBudget budget = PerformanceBudget.start("Read " + count + " " + label + " items", budgetMillis);
+        Cursor cursor = mResolver.query(InventoryEntry.CONTENT_URI, projection,
+                InventoryEntry._ID + " BETWEEN ? AND ?",
+                new String[]{String.valueOf(firstId), String.valueOf(firstId + count - 1)}, null);
+        int details = 0;
+        try {
+            while (cursor.moveToNext()) {
+                if (cursor.getString(projection.length - 2) != null && cursor.getString(projection.length - 1) != null) {
+                    details++;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        long elapsed = budget.check();
+
+        assertEquals(count, details);
+        return elapsed;
+    }
+
+    private long timeSales(long firstId, int count, String label, long budgetMillis) {
+        Random random = new Random(7);
+        PerformanceBudget budget = PerformanceBudget.start(OPERATIONS + " " + label + " sales", budgetMillis);
+        for (int i = 0; i < OPERATIONS; i++) {
+            mResolver.update(InventoryEntry.buildSaleUri(firstId + random.nextInt(count)), null, null, null);
+        }
+        return budget.check();
+    }
+}
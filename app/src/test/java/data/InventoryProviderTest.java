@@ -0,0 +1,964 @@
+package data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+
+import data.InventoryContract.AuditEntry;
+import data.InventoryContract.AuditItemEntry;
+import data.InventoryContract.InventoryEntry;
+import data.InventoryContract.LocationEntry;
+import data.InventoryContract.OrderEntry;
+import data.InventoryContract.OrderLineEntry;
+import data.InventoryContract.PhotoEntry;
+import data.InventoryContract.SectionEntry;
+import data.InventoryContract.StockEntry;
+import data.InventoryContract.StocktakeEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link InventoryProvider}, going through a {@link ContentResolver} like the app does.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InventoryProviderTest {
+
+    private InventoryProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(InventoryProvider.class, InventoryContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void insert_thenQueryById_returnsItem() {
+        Uri uri = insertItem("Coffee", 1250, 7);
+
+        Cursor cursor = mResolver.query(uri, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Coffee", getString(cursor, InventoryEntry.COLUMN_PRODUCT_NAME));
+            assertEquals(1250, getLong(cursor, InventoryEntry.COLUMN_PRICE));
+            assertEquals(7, getLong(cursor, InventoryEntry.COLUMN_QUANTITY));
+            assertEquals(0, getLong(cursor, InventoryEntry.COLUMN_VERSION));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void insert_withoutName_isRejected() {
+        ContentValues values = newItem("Coffee", 100, 1);
+        values.remove(InventoryEntry.COLUMN_PRODUCT_NAME);
+        mResolver.insert(InventoryEntry.CONTENT_URI, values);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void insert_withPriceAboveMaximum_isRejected() {
+        mResolver.insert(InventoryEntry.CONTENT_URI, newItem("Coffee", Money.MAX_PRICE + 1, 1));
+    }
+
+    @Test
+    public void bulkInsert_insertsAllItems() {
+        int inserted = new InventoryDataGenerator(1).insert(mResolver, 250);
+
+        assertEquals(250, inserted);
+        assertEquals(250, count(InventoryEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void bulkInsert_withInvalidItem_insertsNothing() {
+        ContentValues[] values = new InventoryDataGenerator(1).next(10);
+        values[7].putNull(InventoryEntry.COLUMN_SUPPLIER);
+
+        try {
+            mResolver.bulkInsert(InventoryEntry.CONTENT_URI, values);
+            fail("Expected the invalid item to be rejected");
+        } catch (IllegalArgumentException expected) {
+            assertEquals(0, count(InventoryEntry.CONTENT_URI));
+        }
+    }
+
+    @Test
+    public void update_bumpsVersion() {
+        Uri uri = insertItem("Coffee", 100, 1);
+
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_PRICE, 200L);
+        assertEquals(1, mResolver.update(uri, values, null, null));
+
+        assertEquals(1, queryLong(uri, InventoryEntry.COLUMN_VERSION));
+        assertEquals(200, queryLong(uri, InventoryEntry.COLUMN_PRICE));
+    }
+
+    @Test
+    public void update_withUnchangedValues_writesNothing() {
+        Uri uri = insertItem("Coffee", 100, 1);
+
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_PRICE, 100L);
+        values.put(InventoryEntry.COLUMN_PRODUCT_NAME, "Coffee");
+
+        assertEquals(0, mResolver.update(InventoryEntry.withExpectedVersion(uri, 0), values, null, null));
+        assertEquals(0, queryLong(uri, InventoryEntry.COLUMN_VERSION));
+    }
+
+    @Test
+    public void update_withStaleVersion_reportsConflict() {
+        Uri uri = insertItem("Coffee", 100, 1);
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_PRICE, 200L);
+        mResolver.update(InventoryEntry.withExpectedVersion(uri, 0), values, null, null);
+
+        values.put(InventoryEntry.COLUMN_PRICE, 300L);
+        try {
+            mResolver.update(InventoryEntry.withExpectedVersion(uri, 0), values, null, null);
+            fail("Expected a conflict");
+        } catch (StaleItemException e) {
+            assertEquals(1, e.getCurrentVersion());
+        }
+        assertEquals(200, queryLong(uri, InventoryEntry.COLUMN_PRICE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void update_toNegativeQuantity_isRejected() {
+        Uri uri = insertItem("Coffee", 100, 1);
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_QUANTITY, -5);
+        mResolver.update(uri, values, null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void update_ofVersionColumn_isRejected() {
+        Uri uri = insertItem("Coffee", 100, 1);
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_VERSION, 42);
+        mResolver.update(uri, values, null, null);
+    }
+
+    @Test
+    public void sale_decreasesQuantityButNotBelowZero() {
+        Uri uri = insertItem("Coffee", 100, 1);
+        Uri saleUri = InventoryEntry.buildSaleUri(ContentUris.parseId(uri));
+
+        assertEquals(1, mResolver.update(saleUri, null, null, null));
+        assertEquals(0, mResolver.update(saleUri, null, null, null));
+        assertEquals(0, queryLong(uri, InventoryEntry.COLUMN_QUANTITY));
+    }
+
+    @Test
+    public void sale_ofSeveralUnits_usesCount() {
+        Uri uri = insertItem("Coffee", 100, 10);
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.SALE_COUNT, 4);
+
+        mResolver.update(InventoryEntry.buildSaleUri(ContentUris.parseId(uri)), values, null, null);
+
+        assertEquals(6, queryLong(uri, InventoryEntry.COLUMN_QUANTITY));
+    }
+
+    @Test
+    public void delete_byId_removesOnlyThatItem() {
+        Uri first = insertItem("Coffee", 100, 1);
+        insertItem("Tea", 100, 1);
+
+        assertEquals(1, mResolver.delete(first, null, null));
+        assertEquals(1, count(InventoryEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void delete_thenUndo_bringsItemsBack() {
+        Uri coffee = insertItem("Coffee", 100, 3);
+        insertItem("Tea", 100, 1);
+        assertEquals(2, mResolver.delete(InventoryEntry.CONTENT_URI, null, null));
+        assertEquals(0, count(InventoryEntry.CONTENT_URI));
+
+        Bundle result = mResolver.call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_UNDO_DELETE,
+                null, null);
+
+        assertNotNull(result);
+        assertEquals(2, result.getInt(InventoryContract.EXTRA_ROWS));
+        assertEquals(2, count(InventoryEntry.CONTENT_URI));
+        assertEquals(3, queryLong(coffee, InventoryEntry.COLUMN_QUANTITY));
+    }
+
+    @Test
+    public void undo_onlyBringsBackLastDelete() throws InterruptedException {
+        Uri coffee = insertItem("Coffee", 100, 3);
+        Uri tea = insertItem("Tea", 100, 1);
+        mResolver.delete(coffee, null, null);
+        // Deleted at a later time than the coffee
+        Thread.sleep(5);
+        mResolver.delete(tea, null, null);
+
+        mResolver.call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_UNDO_DELETE, null, null);
+
+        assertEquals(0, count(coffee));
+        assertEquals(1, count(tea));
+    }
+
+    @Test
+    public void sale_ofDeletedItem_sellsNothing() {
+        Uri uri = insertItem("Coffee", 100, 3);
+        mResolver.delete(uri, null, null);
+
+        long id = ContentUris.parseId(uri);
+        assertEquals(0, mResolver.update(InventoryEntry.buildSaleUri(id), null, null, null));
+        assertEquals(0, mResolver.update(LocationEntry.buildSaleUri(LocationEntry.DEFAULT_LOCATION_ID, id),
+                null, null, null));
+    }
+
+    @Test
+    public void update_ofDeletedItem_changesNothing() {
+        Uri uri = insertItem("Coffee", 100, 3);
+        mResolver.delete(uri, null, null);
+
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_PRODUCT_NAME, "Tea");
+        assertEquals(0, mResolver.update(uri, values, null, null));
+    }
+
+    @Test
+    public void stockValue_leavesOutDeletedItems() {
+        insertItem("Coffee", 1999, 3);
+        mResolver.delete(insertItem("Tea", 5, 10), null, null);
+
+        assertEquals(3, queryLong(InventoryEntry.STOCK_VALUE_URI, InventoryEntry.COLUMN_TOTAL_UNITS));
+    }
+
+    @Test
+    public void sections_countItemsPerLetterAsTheyChange() {
+        Uri apples = insertItem("apples", 100, 1);
+        insertItem("Avocado", 100, 1);
+        Uri bread = insertItem("Bread", 100, 1);
+        insertItem("9 volt battery", 100, 1);
+        assertEquals("9:1 A:2 B:1", querySections());
+
+        // Renaming moves the item to its new letter, the empty section goes away
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_PRODUCT_NAME, "Cheese");
+        mResolver.update(bread, values, null, null);
+        assertEquals("9:1 A:2 C:1", querySections());
+
+        mResolver.delete(apples, null, null);
+        assertEquals("9:1 A:1 C:1", querySections());
+        mResolver.call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_UNDO_DELETE, null, null);
+        assertEquals("9:1 A:2 C:1", querySections());
+
+        // The catalog sorted by name starts each section where the counts say it does
+        Cursor cursor = mResolver.query(InventoryEntry.CONTENT_URI, null, null, null, InventoryEntry.SORT_BY_NAME);
+        CatalogSections sections = CatalogSections.fromCursor(
+                mResolver.query(InventoryEntry.SECTIONS_URI, null, null, null, null));
+        try {
+            for (int section = 0; section < sections.getLetters().length; section++) {
+                assertTrue(cursor.moveToPosition(sections.getPositionForSection(section)));
+                assertEquals(sections.getLetters()[section],
+                        getString(cursor, InventoryEntry.COLUMN_PRODUCT_NAME).substring(0, 1).toUpperCase());
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void reorder_suggestsUnitsForExpectedSales() {
+        Uri uri = insertItem("Coffee", 100, 12);
+        insertItem("Tea", 100, 5);
+        ContentValues sale = new ContentValues();
+        sale.put(InventoryEntry.SALE_COUNT, 10);
+        mResolver.update(InventoryEntry.buildSaleUri(ContentUris.parseId(uri)), sale, null, null);
+
+        // 10 units at a 14 day half-life sell about 7 units in the default 14 days, 2 are left
+        Cursor cursor = mResolver.query(InventoryEntry.REORDER_URI, null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Coffee", getString(cursor, InventoryEntry.COLUMN_PRODUCT_NAME));
+            assertEquals(5, getLong(cursor, InventoryEntry.COLUMN_SUGGESTED_QUANTITY));
+        } finally {
+            cursor.close();
+        }
+
+        // Covering twice the days doubles the expected sales
+        Bundle parameters = new Bundle();
+        parameters.putDouble(InventoryContract.EXTRA_COVER_DAYS, 28);
+        Bundle result = mResolver.call(InventoryEntry.CONTENT_URI,
+                InventoryContract.METHOD_SET_FORECAST_PARAMETERS, null, parameters);
+        assertEquals(1, result.getInt(InventoryContract.EXTRA_ROWS));
+        assertEquals(12, queryLong(InventoryEntry.REORDER_URI, InventoryEntry.COLUMN_SUGGESTED_QUANTITY));
+    }
+
+    @Test
+    public void createOrders_ordersMissingUnitsPerSupplier() {
+        Uri coffee = insertSoldItem("Coffee", "Orchards Inc");
+        insertSoldItem("Tea", "Leaf & Co");
+        insertSoldItem("Cocoa", "Leaf & Co");
+
+        assertEquals(2, createOrders());
+        Cursor orders = mResolver.query(OrderEntry.CONTENT_URI, null, null, null,
+                OrderEntry.COLUMN_SUPPLIER);
+        try {
+            assertEquals(2, orders.getCount());
+            assertTrue(orders.moveToFirst());
+            assertEquals("Leaf & Co", getString(orders, OrderEntry.COLUMN_SUPPLIER));
+            assertEquals(2, getLong(orders, OrderEntry.COLUMN_LINE_COUNT));
+            assertEquals(10, getLong(orders, OrderEntry.COLUMN_TOTAL_UNITS));
+            assertEquals(OrderEntry.STATUS_OPEN, getLong(orders, OrderEntry.COLUMN_STATUS));
+            assertTrue(orders.moveToNext());
+            assertEquals("Orchards Inc", getString(orders, OrderEntry.COLUMN_SUPPLIER));
+
+            Cursor lines = mResolver.query(OrderEntry.buildLinesUri(getLong(orders, OrderEntry._ID)),
+                    null, null, null, null);
+            try {
+                assertTrue(lines.moveToFirst());
+                assertEquals(ContentUris.parseId(coffee), getLong(lines, OrderLineEntry.COLUMN_ITEM_ID));
+                assertEquals("Coffee", getString(lines, InventoryEntry.COLUMN_PRODUCT_NAME));
+                assertEquals(5, getLong(lines, OrderLineEntry.COLUMN_QUANTITY));
+            } finally {
+                lines.close();
+            }
+        } finally {
+            orders.close();
+        }
+
+        // Units on open orders aren't ordered twice
+        assertEquals(0, createOrders());
+    }
+
+    @Test
+    public void receiveOrder_addsLinesToStockOnce() {
+        Uri coffee = insertSoldItem("Coffee", "Orchards Inc");
+        assertEquals(1, createOrders());
+        long orderId = queryLong(OrderEntry.CONTENT_URI, OrderEntry._ID);
+
+        assertEquals(1, mResolver.update(OrderEntry.buildReceiveUri(orderId), new ContentValues(), null, null));
+        assertEquals(7, queryLong(coffee, InventoryEntry.COLUMN_QUANTITY));
+        assertEquals(1, queryLong(coffee, InventoryEntry.COLUMN_VERSION));
+        assertEquals(7, queryLong(LocationEntry.buildItemUri(LocationEntry.DEFAULT_LOCATION_ID,
+                ContentUris.parseId(coffee)), InventoryEntry.COLUMN_QUANTITY));
+        assertEquals(OrderEntry.STATUS_RECEIVED,
+                queryLong(ContentUris.withAppendedId(OrderEntry.CONTENT_URI, orderId), OrderEntry.COLUMN_STATUS));
+
+        // A delivery is only received once
+        assertEquals(0, mResolver.update(OrderEntry.buildReceiveUri(orderId), new ContentValues(), null, null));
+        assertEquals(7, queryLong(coffee, InventoryEntry.COLUMN_QUANTITY));
+
+        // The demand is covered now
+        assertEquals(0, createOrders());
+    }
+
+    @Test
+    public void audit_recordsEveryChangeWithOldAndNewValues() throws Exception {
+        Uri uri = insertItem("Coffee", 1250, 7);
+        long id = ContentUris.parseId(uri);
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_PRICE, 1500);
+        values.put(InventoryEntry.COLUMN_PRODUCT_NAME, "Coffee");
+        assertEquals(1, mResolver.update(uri, values, null, null));
+        mResolver.update(InventoryEntry.buildSaleUri(id), null, null, null);
+
+        Cursor cursor = mResolver.query(AuditEntry.CONTENT_URI, null, null, null, AuditEntry._ID);
+        try {
+            assertEquals(3, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(AuditEntry.OPERATION_INSERT, getString(cursor, AuditEntry.COLUMN_OPERATION));
+            assertEquals(id, getLong(cursor, AuditEntry.COLUMN_ITEM_ID));
+            assertNotNull(getString(cursor, AuditEntry.COLUMN_CALLER));
+
+            // Only the price changed, the name was the same
+            assertTrue(cursor.moveToNext());
+            assertEquals(AuditEntry.OPERATION_UPDATE, getString(cursor, AuditEntry.COLUMN_OPERATION));
+            JSONObject before = new JSONObject(getString(cursor, AuditEntry.COLUMN_OLD_VALUES));
+            JSONObject after = new JSONObject(getString(cursor, AuditEntry.COLUMN_NEW_VALUES));
+            assertEquals(1, before.length());
+            assertEquals(1250, before.getLong(InventoryEntry.COLUMN_PRICE));
+            assertEquals(1500, after.getLong(InventoryEntry.COLUMN_PRICE));
+
+            assertTrue(cursor.moveToNext());
+            assertEquals(AuditEntry.OPERATION_SALE, getString(cursor, AuditEntry.COLUMN_OPERATION));
+            assertEquals(1, new JSONObject(getString(cursor, AuditEntry.COLUMN_NEW_VALUES))
+                    .getInt(InventoryEntry.SALE_COUNT));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void stockValue_sumsUnitsAndCents() {
+        insertItem("Coffee", 1999, 3);
+        insertItem("Tea", 5, 10);
+
+        Cursor cursor = mResolver.query(InventoryEntry.STOCK_VALUE_URI, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(13, getLong(cursor, InventoryEntry.COLUMN_TOTAL_UNITS));
+            long value = Money.ofParts(getLong(cursor, InventoryEntry.COLUMN_VALUE_MAJOR),
+                    getLong(cursor, InventoryEntry.COLUMN_VALUE_MINOR));
+            assertEquals(3 * 1999 + 10 * 5, value);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void stockValue_ofMaximumPricesAndQuantities_doesNotOverflow() {
+        insertItem("Gold", Money.MAX_PRICE, Integer.MAX_VALUE);
+        insertItem("Platinum", Money.MAX_PRICE - 1, Integer.MAX_VALUE);
+
+        Cursor cursor = mResolver.query(InventoryEntry.STOCK_VALUE_URI, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            long value = Money.ofParts(getLong(cursor, InventoryEntry.COLUMN_VALUE_MAJOR),
+                    getLong(cursor, InventoryEntry.COLUMN_VALUE_MINOR));
+            // Past 2^53 dollars the total is only approximate
+            assertEquals((2 * Money.MAX_PRICE - 1) * (double) Integer.MAX_VALUE, value, 1e-12 * value);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void stockValue_ofManyItemsAtMaximum_isApproximated() {
+        ContentValues[] items = new ContentValues[500];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = newItem("Gold " + i, Money.MAX_PRICE, Integer.MAX_VALUE);
+        }
+        mResolver.bulkInsert(InventoryEntry.CONTENT_URI, items);
+
+        Cursor cursor = mResolver.query(InventoryEntry.STOCK_VALUE_URI, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            double dollars = cursor.getDouble(cursor.getColumnIndexOrThrow(InventoryEntry.COLUMN_VALUE_MAJOR));
+            double expected = items.length * (double) (Money.MAX_PRICE / Money.MINOR_PER_MAJOR) * Integer.MAX_VALUE;
+            assertEquals(expected, dollars, 1e-12 * expected);
+            assertEquals(0, getLong(cursor, InventoryEntry.COLUMN_VALUE_MINOR));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void location_stockAddsUpToItemTotal() {
+        long itemId = ContentUris.parseId(insertItem("Coffee", 100, 5));
+        long storeId = insertLocation("Back store");
+
+        setStock(LocationEntry.buildItemUri(storeId, itemId), 3);
+
+        Uri item = ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, itemId);
+        assertEquals(8, queryLong(item, InventoryEntry.COLUMN_QUANTITY));
+        assertEquals(5, queryLong(LocationEntry.buildItemUri(LocationEntry.DEFAULT_LOCATION_ID, itemId),
+                InventoryEntry.COLUMN_QUANTITY));
+        assertEquals(3, queryLong(LocationEntry.buildItemUri(storeId, itemId), InventoryEntry.COLUMN_QUANTITY));
+        assertEquals(1, count(LocationEntry.buildItemsUri(storeId)));
+    }
+
+    @Test
+    public void location_saleOnlyTakesStockFromThatLocation() {
+        long itemId = ContentUris.parseId(insertItem("Coffee", 100, 1));
+        long storeId = insertLocation("Back store");
+        setStock(LocationEntry.buildItemUri(storeId, itemId), 2);
+        Uri saleUri = LocationEntry.buildSaleUri(storeId, itemId);
+
+        assertEquals(1, mResolver.update(saleUri, null, null, null));
+        assertEquals(1, mResolver.update(saleUri, null, null, null));
+        assertEquals(0, mResolver.update(saleUri, null, null, null));
+
+        Uri item = ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, itemId);
+        assertEquals(1, queryLong(item, InventoryEntry.COLUMN_QUANTITY));
+    }
+
+    @Test
+    public void location_sale_leavesTheItemVersionAlone() {
+        Uri item = insertItem("Coffee", 100, 1);
+        long itemId = ContentUris.parseId(item);
+        long storeId = insertLocation("Back store");
+        setStock(LocationEntry.buildItemUri(storeId, itemId), 2);
+        long version = queryLong(item, InventoryEntry.COLUMN_VERSION);
+
+        assertEquals(1, mResolver.update(LocationEntry.buildSaleUri(storeId, itemId), null, null, null));
+
+        // An editor that read the item before can still save its other fields
+        assertEquals(version, queryLong(item, InventoryEntry.COLUMN_VERSION));
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_PRICE, 200L);
+        assertEquals(1, mResolver.update(InventoryEntry.withExpectedVersion(item, version), values, null, null));
+    }
+
+    @Test
+    public void update_ofTotalChangedAtAnotherLocation_reportsConflict() {
+        Uri item = insertItem("Coffee", 100, 5);
+        long itemId = ContentUris.parseId(item);
+        long storeId = insertLocation("Back store");
+        setStock(LocationEntry.buildItemUri(storeId, itemId), 2);
+        long version = queryLong(item, InventoryEntry.COLUMN_VERSION);
+        mResolver.update(LocationEntry.buildSaleUri(storeId, itemId), null, null, null);
+
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_QUANTITY, 10);
+        try {
+            mResolver.update(InventoryEntry.withExpectedQuantity(
+                    InventoryEntry.withExpectedVersion(item, version), 7), values, null, null);
+            fail("Expected a conflict");
+        } catch (StaleItemException e) {
+            assertEquals(version, e.getCurrentVersion());
+        }
+        assertEquals(6, queryLong(item, InventoryEntry.COLUMN_QUANTITY));
+
+        assertEquals(1, mResolver.update(InventoryEntry.withExpectedQuantity(
+                InventoryEntry.withExpectedVersion(item, version), 6), values, null, null));
+        assertEquals(9, queryLong(LocationEntry.buildItemUri(LocationEntry.DEFAULT_LOCATION_ID, itemId),
+                InventoryEntry.COLUMN_QUANTITY));
+    }
+
+    @Test
+    public void update_ofTotal_changesMainStockroom() {
+        Uri item = insertItem("Coffee", 100, 5);
+        long itemId = ContentUris.parseId(item);
+        long storeId = insertLocation("Back store");
+        setStock(LocationEntry.buildItemUri(storeId, itemId), 3);
+
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_QUANTITY, 10);
+        mResolver.update(item, values, null, null);
+
+        assertEquals(7, queryLong(LocationEntry.buildItemUri(LocationEntry.DEFAULT_LOCATION_ID, itemId),
+                InventoryEntry.COLUMN_QUANTITY));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void update_ofTotalBelowOtherLocations_isRejected() {
+        Uri item = insertItem("Coffee", 100, 5);
+        long storeId = insertLocation("Back store");
+        setStock(LocationEntry.buildItemUri(storeId, ContentUris.parseId(item)), 3);
+
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_QUANTITY, 2);
+        mResolver.update(item, values, null, null);
+    }
+
+    @Test
+    public void connectionStats_countReads() {
+        insertItem("Coffee", 100, 1);
+        count(InventoryEntry.CONTENT_URI);
+
+        Bundle stats = mResolver.call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_CONNECTION_STATS,
+                null, null);
+
+        assertNotNull(stats);
+        assertTrue(stats.getLong(InventoryContract.STATS_READS) >= 1);
+        assertTrue(stats.getLong(InventoryContract.STATS_WRITES) >= 1);
+    }
+
+    @Test
+    public void addPhoto_thenSaveWithItem() {
+        Uri source = Uri.parse("content://test/coffee.jpg");
+        Shadows.shadowOf(mResolver).registerInputStream(source, new ByteArrayInputStream(new byte[]{1, 2, 3}));
+
+        Bundle result = mResolver.call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_ADD_PHOTO,
+                source.toString(), null);
+        assertNotNull(result);
+        String photo = result.getString(InventoryContract.EXTRA_PHOTO);
+
+        ContentValues values = newItem("Coffee", 100, 1);
+        values.put(InventoryEntry.COLUMN_PHOTO, photo);
+        Uri uri = mResolver.insert(InventoryEntry.CONTENT_URI, values);
+        Cursor cursor = mResolver.query(uri, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(photo, getString(cursor, InventoryEntry.COLUMN_PHOTO));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void insert_withUnknownPhoto_isRejected() {
+        ContentValues values = newItem("Coffee", 100, 1);
+        values.put(InventoryEntry.COLUMN_PHOTO, "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad");
+        mResolver.insert(InventoryEntry.CONTENT_URI, values);
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void openFile_ofUnknownPhoto_throws() throws FileNotFoundException {
+        mProvider.openFile(PhotoEntry.buildPhotoUri("../databases/inventory.db"), "r");
+    }
+
+    @Test
+    public void adjustPrices_changesTheSelectedItemsOnly() {
+        Uri coffee = insertItem("Coffee", 1000, 1);
+        Uri tea = insertItem("Tea", 250, 1);
+        Uri milk = insertItem("Milk", 100, 1);
+
+        Bundle extras = new Bundle();
+        extras.putLongArray(InventoryContract.EXTRA_ITEM_IDS,
+                new long[]{ContentUris.parseId(coffee), ContentUris.parseId(tea)});
+        extras.putDouble(InventoryContract.EXTRA_PERCENT, 10);
+        Bundle result = mResolver.call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_ADJUST_PRICES, null, extras);
+
+        assertEquals(2, result.getInt(InventoryContract.EXTRA_ROWS));
+        assertEquals(1100, queryLong(coffee, InventoryEntry.COLUMN_PRICE));
+        assertEquals(1, queryLong(coffee, InventoryEntry.COLUMN_VERSION));
+        assertEquals(275, queryLong(tea, InventoryEntry.COLUMN_PRICE));
+        assertEquals(100, queryLong(milk, InventoryEntry.COLUMN_PRICE));
+        assertEquals(0, queryLong(milk, InventoryEntry.COLUMN_VERSION));
+    }
+
+    @Test
+    public void adjustPrices_recordsTheOldAndNewPriceOfEachItem() throws Exception {
+        long coffee = ContentUris.parseId(insertItem("Coffee", 1000, 1));
+        long tea = ContentUris.parseId(insertItem("Tea", 250, 1));
+
+        Bundle extras = new Bundle();
+        extras.putLongArray(InventoryContract.EXTRA_ITEM_IDS, new long[]{coffee, tea});
+        extras.putDouble(InventoryContract.EXTRA_PERCENT, -10);
+        mResolver.call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_ADJUST_PRICES, null, extras);
+
+        long auditId;
+        Cursor audit = mResolver.query(AuditEntry.CONTENT_URI, new String[]{AuditEntry._ID},
+                AuditEntry.COLUMN_OPERATION + " = ?", new String[]{AuditEntry.OPERATION_ADJUST_PRICES}, null);
+        try {
+            assertEquals(1, audit.getCount());
+            audit.moveToFirst();
+            auditId = audit.getLong(0);
+        } finally {
+            audit.close();
+        }
+
+        Cursor items = mResolver.query(AuditItemEntry.CONTENT_URI, null,
+                AuditItemEntry.COLUMN_AUDIT_ID + " = " + auditId, null, AuditItemEntry.COLUMN_ITEM_ID);
+        try {
+            assertEquals(2, items.getCount());
+            items.moveToFirst();
+            assertEquals(coffee, getLong(items, AuditItemEntry.COLUMN_ITEM_ID));
+            assertEquals(1000, new JSONObject(getString(items, AuditItemEntry.COLUMN_OLD_VALUES))
+                    .getLong(InventoryEntry.COLUMN_PRICE));
+            assertEquals(900, new JSONObject(getString(items, AuditItemEntry.COLUMN_NEW_VALUES))
+                    .getLong(InventoryEntry.COLUMN_PRICE));
+            items.moveToNext();
+            assertEquals(tea, getLong(items, AuditItemEntry.COLUMN_ITEM_ID));
+            assertEquals(225, new JSONObject(getString(items, AuditItemEntry.COLUMN_NEW_VALUES))
+                    .getLong(InventoryEntry.COLUMN_PRICE));
+        } finally {
+            items.close();
+        }
+    }
+
+    @Test
+    public void adjustPrices_aboveMaxPrice_changesNothing() {
+        Uri coffee = insertItem("Coffee", 100, 1);
+        insertItem("Saffron", Money.MAX_PRICE, 1);
+
+        Bundle extras = new Bundle();
+        extras.putString(InventoryContract.EXTRA_SUPPLIER, "Orchards Inc");
+        extras.putDouble(InventoryContract.EXTRA_PERCENT, 1);
+        try {
+            mResolver.call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_ADJUST_PRICES, null, extras);
+            fail("A price above the maximum was accepted");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+        assertEquals(100, queryLong(coffee, InventoryEntry.COLUMN_PRICE));
+    }
+
+    @Test
+    public void restock_bySupplier_findsTheSupplierOnceItIsEncrypted() {
+        Uri coffee = insertItem("Coffee", 100, 3);
+        Bundle passphrase = new Bundle();
+        passphrase.putString(InventoryContract.EXTRA_PASSPHRASE_CONFIRMATION, "secret");
+        mResolver.call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_SET_PASSPHRASE, "secret",
+                passphrase);
+
+        Bundle extras = new Bundle();
+        extras.putString(InventoryContract.EXTRA_SUPPLIER, "Orchards Inc");
+        extras.putInt(InventoryContract.EXTRA_UNITS, 5);
+        Bundle result = mResolver.call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_RESTOCK, null, extras);
+        assertEquals(1, result.getInt(InventoryContract.EXTRA_ROWS));
+        assertEquals(8, queryLong(coffee, InventoryEntry.COLUMN_QUANTITY));
+
+        // The supplier can't be compared while it is locked
+        mResolver.call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_LOCK, null, null);
+        try {
+            mResolver.call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_RESTOCK, null, extras);
+            fail("The items of a locked supplier were restocked");
+        } catch (SupplierDetailsLockedException expected) {
+            // Expected
+        }
+        assertEquals(8, queryLong(coffee, InventoryEntry.COLUMN_QUANTITY));
+    }
+
+    @Test
+    public void restock_bySupplier_addsUnitsToTheMainStockroom() {
+        ContentValues apples = newItem("Apples", 100, 2);
+        apples.put(InventoryEntry.COLUMN_SUPPLIER, "Farm");
+        long applesId = ContentUris.parseId(mResolver.insert(InventoryEntry.CONTENT_URI, apples));
+        Uri coffee = insertItem("Coffee", 100, 3);
+
+        Bundle extras = new Bundle();
+        extras.putString(InventoryContract.EXTRA_SUPPLIER, "Farm");
+        extras.putInt(InventoryContract.EXTRA_UNITS, 5);
+        Bundle result = mResolver.call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_RESTOCK, null, extras);
+
+        assertEquals(1, result.getInt(InventoryContract.EXTRA_ROWS));
+        assertEquals(7, queryLong(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, applesId),
+                InventoryEntry.COLUMN_QUANTITY));
+        assertEquals(7, queryLong(LocationEntry.buildItemUri(LocationEntry.DEFAULT_LOCATION_ID, applesId),
+                InventoryEntry.COLUMN_QUANTITY));
+        assertEquals(3, queryLong(coffee, InventoryEntry.COLUMN_QUANTITY));
+
+        // The audit trail has the quantities before and after
+        Cursor items = mResolver.query(AuditItemEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertEquals(1, items.getCount());
+            items.moveToFirst();
+            assertEquals(applesId, getLong(items, AuditItemEntry.COLUMN_ITEM_ID));
+            assertEquals("{\"quantity\":2}", getString(items, AuditItemEntry.COLUMN_OLD_VALUES));
+            assertEquals("{\"quantity\":7}", getString(items, AuditItemEntry.COLUMN_NEW_VALUES));
+        } finally {
+            items.close();
+        }
+    }
+
+    @Test
+    public void delete_byIdSelection_deletesTheSelectedItems() {
+        Uri coffee = insertItem("Coffee", 100, 1);
+        Uri tea = insertItem("Tea", 100, 1);
+        insertItem("Milk", 100, 1);
+
+        int rowsDeleted = mResolver.delete(InventoryEntry.CONTENT_URI, InventoryEntry.buildIdSelection(
+                new long[]{ContentUris.parseId(coffee), ContentUris.parseId(tea)}), null);
+
+        assertEquals(2, rowsDeleted);
+        assertEquals(1, count(InventoryEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void reconcileStocktake_setsCountedStockAndReportsTheVariance() throws Exception {
+        Uri coffee = insertItem("Coffee", 100, 10);
+        Uri tea = insertItem("Tea", 250, 4);
+        Uri milk = insertItem("Milk", 50, 3);
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_NAME, "Front store");
+        long frontId = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI, location));
+
+        // Coffee on two shelves of the stockroom and in the front store, tea as stored
+        assertEquals(4, mResolver.bulkInsert(StocktakeEntry.CONTENT_URI, new ContentValues[]{
+                newCount(coffee, LocationEntry.DEFAULT_LOCATION_ID, 5),
+                newCount(coffee, LocationEntry.DEFAULT_LOCATION_ID, 3),
+                newCount(coffee, frontId, 1),
+                newCount(tea, LocationEntry.DEFAULT_LOCATION_ID, 4)}));
+
+        Cursor report = mResolver.query(StocktakeEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertEquals(3, report.getCount());
+            // Two coffees missing in the stockroom come first, they are worth the most
+            assertTrue(report.moveToFirst());
+            assertEquals(ContentUris.parseId(coffee), getLong(report, StocktakeEntry.COLUMN_ITEM_ID));
+            assertEquals(10, getLong(report, StocktakeEntry.COLUMN_EXPECTED));
+            assertEquals(8, getLong(report, StocktakeEntry.COLUMN_COUNTED));
+            assertEquals(-2, getLong(report, StocktakeEntry.COLUMN_VARIANCE));
+            assertEquals(-200, getLong(report, StocktakeEntry.COLUMN_VARIANCE_VALUE));
+        } finally {
+            report.close();
+        }
+
+        Bundle result = mResolver.call(StocktakeEntry.CONTENT_URI, InventoryContract.METHOD_RECONCILE_STOCKTAKE,
+                null, null);
+
+        assertEquals(1, result.getInt(InventoryContract.EXTRA_ROWS));
+        assertEquals(-1, result.getLong(InventoryContract.EXTRA_VARIANCE_UNITS));
+        assertEquals(-100, result.getLong(InventoryContract.EXTRA_VARIANCE_VALUE));
+        assertEquals(9, queryLong(coffee, InventoryEntry.COLUMN_QUANTITY));
+        assertEquals(1, queryLong(coffee, InventoryEntry.COLUMN_VERSION));
+        assertEquals(8, queryLong(LocationEntry.buildItemUri(LocationEntry.DEFAULT_LOCATION_ID,
+                ContentUris.parseId(coffee)), InventoryEntry.COLUMN_QUANTITY));
+        assertEquals(1, queryLong(LocationEntry.buildItemUri(frontId, ContentUris.parseId(coffee)),
+                InventoryEntry.COLUMN_QUANTITY));
+        assertEquals(0, queryLong(tea, InventoryEntry.COLUMN_VERSION));
+        // Items that weren't counted are left as they are
+        assertEquals(3, queryLong(milk, InventoryEntry.COLUMN_QUANTITY));
+        report = mResolver.query(StocktakeEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertEquals(0, report.getCount());
+        } finally {
+            report.close();
+        }
+
+        // The counts are gone, but the stored and counted units of each stock that differed
+        // are in the audit trail
+        Cursor items = mResolver.query(AuditItemEntry.CONTENT_URI, null, null, null,
+                AuditItemEntry.COLUMN_OLD_VALUES);
+        try {
+            assertEquals(2, items.getCount());
+            items.moveToFirst();
+            assertEquals(ContentUris.parseId(coffee), getLong(items, AuditItemEntry.COLUMN_ITEM_ID));
+            JSONObject before = new JSONObject(getString(items, AuditItemEntry.COLUMN_OLD_VALUES));
+            JSONObject after = new JSONObject(getString(items, AuditItemEntry.COLUMN_NEW_VALUES));
+            assertEquals(LocationEntry.DEFAULT_LOCATION_ID, before.getLong(StockEntry.COLUMN_LOCATION_ID));
+            assertEquals(10, before.getInt(StockEntry.COLUMN_QUANTITY));
+            assertEquals(8, after.getInt(StockEntry.COLUMN_QUANTITY));
+            items.moveToNext();
+            before = new JSONObject(getString(items, AuditItemEntry.COLUMN_OLD_VALUES));
+            after = new JSONObject(getString(items, AuditItemEntry.COLUMN_NEW_VALUES));
+            assertEquals(frontId, before.getLong(StockEntry.COLUMN_LOCATION_ID));
+            assertEquals(0, before.getInt(StockEntry.COLUMN_QUANTITY));
+            assertEquals(1, after.getInt(StockEntry.COLUMN_QUANTITY));
+        } finally {
+            items.close();
+        }
+    }
+
+    @Test
+    public void stocktake_refusesNegativeCountsAndCanBeDiscarded() {
+        Uri coffee = insertItem("Coffee", 100, 10);
+        try {
+            mResolver.insert(StocktakeEntry.CONTENT_URI, newCount(coffee, LocationEntry.DEFAULT_LOCATION_ID, -1));
+            fail("A negative count was accepted");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+        mResolver.insert(StocktakeEntry.CONTENT_URI, newCount(coffee, LocationEntry.DEFAULT_LOCATION_ID, 2));
+
+        assertEquals(1, mResolver.delete(StocktakeEntry.CONTENT_URI, null, null));
+
+        Bundle result = mResolver.call(StocktakeEntry.CONTENT_URI, InventoryContract.METHOD_RECONCILE_STOCKTAKE,
+                null, null);
+        assertEquals(0, result.getInt(InventoryContract.EXTRA_ROWS));
+        assertEquals(10, queryLong(coffee, InventoryEntry.COLUMN_QUANTITY));
+    }
+
+    @Test
+    public void getType_matchesUri() {
+        Uri uri = insertItem("Coffee", 100, 1);
+
+        assertEquals(InventoryEntry.CONTENT_LIST_TYPE, mResolver.getType(InventoryEntry.CONTENT_URI));
+        assertEquals(InventoryEntry.CONTENT_ITEM_TYPE, mResolver.getType(uri));
+        assertEquals(InventoryEntry.CONTENT_STOCK_VALUE_TYPE, mResolver.getType(InventoryEntry.STOCK_VALUE_URI));
+        assertEquals(InventoryEntry.CONTENT_SECTIONS_TYPE, mResolver.getType(InventoryEntry.SECTIONS_URI));
+        assertEquals(LocationEntry.CONTENT_LIST_TYPE, mResolver.getType(LocationEntry.CONTENT_URI));
+    }
+
+    private static ContentValues newCount(Uri item, long locationId, int units) {
+        ContentValues values = new ContentValues();
+        values.put(StocktakeEntry.COLUMN_ITEM_ID, ContentUris.parseId(item));
+        values.put(StocktakeEntry.COLUMN_LOCATION_ID, locationId);
+        values.put(StocktakeEntry.COLUMN_COUNTED, units);
+        return values;
+    }
+
+    private Uri insertItem(String name, long price, int quantity) {
+        Uri uri = mResolver.insert(InventoryEntry.CONTENT_URI, newItem(name, price, quantity));
+        assertNotNull(uri);
+        return uri;
+    }
+
+    /**
+     * Insert an item with 12 units and sell 10 of them, which leaves 5 units short of the
+     * default forecast
+     */
+    private Uri insertSoldItem(String name, String supplier) {
+        ContentValues values = newItem(name, 100, 12);
+        values.put(InventoryEntry.COLUMN_SUPPLIER, supplier);
+        Uri uri = mResolver.insert(InventoryEntry.CONTENT_URI, values);
+        assertNotNull(uri);
+        ContentValues sale = new ContentValues();
+        sale.put(InventoryEntry.SALE_COUNT, 10);
+        assertEquals(1, mResolver.update(InventoryEntry.buildSaleUri(ContentUris.parseId(uri)), sale, null, null));
+        return uri;
+    }
+
+    /**
+     * Return the sections as "letter:count" separated by spaces
+     */
+    private String querySections() {
+        StringBuilder sections = new StringBuilder();
+        Cursor cursor = mResolver.query(InventoryEntry.SECTIONS_URI, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (sections.length() > 0) {
+                    sections.append(' ');
+                }
+                sections.append(getString(cursor, SectionEntry.COLUMN_LETTER)).append(':')
+                        .append(getLong(cursor, SectionEntry.COLUMN_COUNT));
+            }
+        } finally {
+            cursor.close();
+        }
+        return sections.toString();
+    }
+
+    private int createOrders() {
+        Bundle result = mResolver.call(OrderEntry.CONTENT_URI, InventoryContract.METHOD_CREATE_ORDERS, null, null);
+        return result.getInt(InventoryContract.EXTRA_ROWS);
+    }
+
+    private long insertLocation(String name) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_NAME, name);
+        Uri uri = mResolver.insert(LocationEntry.CONTENT_URI, values);
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    private void setStock(Uri uri, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_QUANTITY, quantity);
+        assertEquals(1, mResolver.update(uri, values, null, null));
+    }
+
+    static ContentValues newItem(String name, long price, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(InventoryEntry.COLUMN_PRICE, price);
+        values.put(InventoryEntry.COLUMN_QUANTITY, quantity);
+        values.put(InventoryEntry.COLUMN_SUPPLIER, "Orchards Inc");
+        values.put(InventoryEntry.COLUMN_SUPPLIER_NUMBER, "5550001000");
+        return values;
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mResolver.query(uri, new String[]{InventoryEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long queryLong(Uri uri, String column) {
+        Cursor cursor = mResolver.query(uri, new String[]{column}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String getString(Cursor cursor, String column) {
+        return cursor.getString(cursor.getColumnIndexOrThrow(column));
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        return cursor.getLong(cursor.getColumnIndexOrThrow(column));
+    }
+}
@@ -0,0 +1,166 @@
+package data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import data.InventoryContract.HistoryEntry;
+import data.InventoryContract.InventoryEntry;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link ItemHistory} and the triggers that record the history.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ItemHistoryTest {
+
+    private static final long HOUR = HistoryEntry.RESOLUTION_HOUR;
+    private static final long DAY = HistoryEntry.RESOLUTION_DAY;
+
+    private InventoryConnectionPool mPool;
+
+    @Before
+    public void setUp() {
+        mPool = new InventoryConnectionPool(new InventoryDbHelper(RuntimeEnvironment.application), 2);
+    }
+
+    @After
+    public void tearDown() {
+        mPool.close();
+    }
+
+    @Test
+    public void changesOfPriceOrQuantity_areRecorded() {
+        long id = insertItem("Coffee", 100, 5);
+        SQLiteDatabase database = mPool.getWriter();
+
+        ContentValues price = new ContentValues();
+        price.put(InventoryEntry.COLUMN_PRICE, 120);
+        database.update(InventoryEntry.TABLE_NAME, price, InventoryEntry._ID + " = " + id, null);
+        // Neither the price nor the quantity changes
+        ContentValues name = new ContentValues();
+        name.put(InventoryEntry.COLUMN_PRODUCT_NAME, "Dark coffee");
+        name.put(InventoryEntry.COLUMN_PRICE, 120);
+        database.update(InventoryEntry.TABLE_NAME, name, InventoryEntry._ID + " = " + id, null);
+
+        long now = System.currentTimeMillis();
+        Cursor cursor = ItemHistory.query(database, id, now - HOUR, now + HOUR, HistoryEntry.RESOLUTION_POINTS);
+        try {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToLast();
+            assertEquals(120, cursor.getLong(cursor.getColumnIndexOrThrow(HistoryEntry.COLUMN_MAX_PRICE)));
+            assertEquals(5, cursor.getLong(cursor.getColumnIndexOrThrow(HistoryEntry.COLUMN_MAX_QUANTITY)));
+        } finally {
+            cursor.close();
+        }
+
+        database.delete(InventoryEntry.TABLE_NAME, InventoryEntry._ID + " = " + id, null);
+        assertEquals(0, DatabaseUtils.queryNumEntries(database, HistoryEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void rollUp_sumsPointsIntoHoursAndHoursIntoDays() {
+        long now = System.currentTimeMillis();
+        long id = insertItem("Coffee", 100, 5);
+        long day = now - 10 * DAY;
+        day -= day % DAY;
+        insertPoint(id, day + HOUR + 5 * 60000, 100, 5);
+        insertPoint(id, day + HOUR + 20 * 60000, 300, 3);
+        insertPoint(id, day + 2 * HOUR, 200, 4);
+
+        assertEquals(2, ItemHistory.rollUp(mPool, now));
+
+        SQLiteDatabase database = mPool.getWriter();
+        // Only the point of the insert is recent enough to be kept
+        assertEquals(1, DatabaseUtils.queryNumEntries(database, HistoryEntry.TABLE_NAME));
+        assertEquals(2, DatabaseUtils.queryNumEntries(database, HistoryEntry.ROLLUP_TABLE_NAME,
+                HistoryEntry.COLUMN_RESOLUTION + " = " + HOUR, null));
+        assertDay(database, id, day);
+
+        // A point that shows up late is still read until the next roll up drops it
+        insertPoint(id, day + 3 * HOUR, 200, 4);
+        Cursor cursor = ItemHistory.query(database, id, day, day + DAY, HOUR);
+        try {
+            assertEquals(3, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(day + HOUR, cursor.getLong(cursor.getColumnIndexOrThrow(HistoryEntry.COLUMN_TIME)));
+            assertEquals(2, cursor.getInt(cursor.getColumnIndexOrThrow(HistoryEntry.COLUMN_COUNT)));
+            assertEquals(200, cursor.getLong(cursor.getColumnIndexOrThrow(HistoryEntry.COLUMN_AVG_PRICE)));
+        } finally {
+            cursor.close();
+        }
+
+        ItemHistory.rollUp(mPool, now + ItemHistory.HOURLY_RETENTION_MILLIS);
+
+        assertEquals(0, DatabaseUtils.queryNumEntries(database, HistoryEntry.TABLE_NAME));
+        assertEquals(0, DatabaseUtils.queryNumEntries(database, HistoryEntry.ROLLUP_TABLE_NAME,
+                HistoryEntry.COLUMN_RESOLUTION + " = " + HOUR + " AND " + HistoryEntry.COLUMN_TIME + " < ?",
+                new String[]{String.valueOf(day + DAY)}));
+        assertEquals(1, DatabaseUtils.queryNumEntries(database, HistoryEntry.ROLLUP_TABLE_NAME,
+                HistoryEntry.COLUMN_RESOLUTION + " = " + DAY + " AND " + HistoryEntry.COLUMN_TIME + " = ?",
+                new String[]{String.valueOf(day)}));
+        assertDay(database, id, day);
+    }
+
+    @Test
+    public void chooseResolution_usesTheFinestResolutionThatIsKept() {
+        long now = 100 * DAY;
+        assertEquals(HistoryEntry.RESOLUTION_POINTS, ItemHistory.chooseResolution(now - DAY, now, now));
+        assertEquals(HOUR, ItemHistory.chooseResolution(now - 7 * DAY, now, now));
+        // Points of three days ago are summed up already
+        assertEquals(HOUR, ItemHistory.chooseResolution(now - 3 * DAY, now - 2 * DAY - HOUR, now));
+        assertEquals(DAY, ItemHistory.chooseResolution(now - 90 * DAY, now, now));
+        assertEquals(DAY, ItemHistory.chooseResolution(now - 61 * DAY, now - 60 * DAY - HOUR, now));
+    }
+
+    /**
+     * Check the totals of the three points of the day, however they are stored.
+     */
+    private static void assertDay(SQLiteDatabase database, long id, long day) {
+        Cursor cursor = ItemHistory.query(database, id, day, day + DAY, DAY);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(day, cursor.getLong(cursor.getColumnIndexOrThrow(HistoryEntry.COLUMN_TIME)));
+            assertEquals(3, cursor.getInt(cursor.getColumnIndexOrThrow(HistoryEntry.COLUMN_COUNT)));
+            assertEquals(100, cursor.getLong(cursor.getColumnIndexOrThrow(HistoryEntry.COLUMN_MIN_PRICE)));
+            assertEquals(300, cursor.getLong(cursor.getColumnIndexOrThrow(HistoryEntry.COLUMN_MAX_PRICE)));
+            assertEquals(200, cursor.getLong(cursor.getColumnIndexOrThrow(HistoryEntry.COLUMN_AVG_PRICE)));
+            assertEquals(4.0, cursor.getDouble(cursor.getColumnIndexOrThrow(HistoryEntry.COLUMN_AVG_QUANTITY)),
+                    0.001);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long insertItem(String name, long price, int quantity) {
+        SQLiteDatabase database = mPool.beginWrite();
+        try {
+            long id = database.insertOrThrow(InventoryEntry.TABLE_NAME, null,
+                    InventoryProviderTest.newItem(name, price, quantity));
+            StockRollup.insertForNewItem(database, id, quantity);
+            database.setTransactionSuccessful();
+            return id;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private void insertPoint(long id, long time, long price, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(HistoryEntry.COLUMN_ITEM_ID, id);
+        values.put(HistoryEntry.COLUMN_TIME, time);
+        values.put(HistoryEntry.COLUMN_PRICE, price);
+        values.put(HistoryEntry.COLUMN_QUANTITY, quantity);
+        mPool.getWriter().insertOrThrow(HistoryEntry.TABLE_NAME, null, values);
+    }
+}
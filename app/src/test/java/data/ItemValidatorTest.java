@@ -0,0 +1,89 @@
+package data;
+
+import android.content.ContentValues;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.List;
+
+import data.InventoryContract.InventoryEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ItemValidator}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ItemValidatorTest {
+
+    @Test
+    public void validItem_hasNoViolations() {
+        assertTrue(ItemValidator.FOR_INSERT.validate(InventoryProviderTest.newItem("Coffee", 100, 1)).isValid());
+    }
+
+    @Test
+    public void insert_requiresTheRequiredColumns() {
+        List<ItemValidator.Violation> violations = ItemValidator.FOR_INSERT.validate(new ContentValues())
+                .getViolations();
+
+        assertEquals(4, violations.size());
+        assertEquals(InventoryEntry.COLUMN_PRODUCT_NAME, violations.get(0).column);
+        assertEquals(ItemValidator.MISSING, violations.get(0).problem);
+    }
+
+    @Test
+    public void update_onlyChecksThePresentColumns() {
+        ContentValues values = new ContentValues();
+        values.put(InventoryEntry.COLUMN_PRICE, 250);
+        assertTrue(ItemValidator.FOR_UPDATE.validate(values).isValid());
+
+        values.put(InventoryEntry.COLUMN_QUANTITY, -1);
+        values.putNull(InventoryEntry.COLUMN_SUPPLIER);
+        values.put(InventoryEntry.COLUMN_VERSION, 3);
+        List<ItemValidator.Violation> violations = ItemValidator.FOR_UPDATE.validate(values).getViolations();
+        assertEquals(3, violations.size());
+        assertEquals(ItemValidator.OUT_OF_RANGE, violations.get(0).problem);
+        assertEquals(ItemValidator.NULL, violations.get(1).problem);
+        assertEquals(ItemValidator.READ_ONLY, violations.get(2).problem);
+    }
+
+    @Test
+    public void values_areCheckedByType() {
+        ContentValues values = InventoryProviderTest.newItem(" ", 100, 1);
+        values.put(InventoryEntry.COLUMN_QUANTITY, "12a");
+        values.put(InventoryEntry.COLUMN_PRICE, Money.MAX_PRICE + 1);
+
+        List<ItemValidator.Violation> violations = ItemValidator.FOR_INSERT.validate(values).getViolations();
+        assertEquals(ItemValidator.EMPTY, violations.get(0).problem);
+        assertEquals(ItemValidator.NOT_A_NUMBER, violations.get(1).problem);
+        assertEquals(ItemValidator.OUT_OF_RANGE, violations.get(2).problem);
+
+        // Typed numbers are fine as long as they are whole
+        values = InventoryProviderTest.newItem("Coffee", 100, 1);
+        values.put(InventoryEntry.COLUMN_QUANTITY, "12");
+        assertTrue(ItemValidator.FOR_INSERT.validate(values).isValid());
+    }
+
+    @Test
+    public void batch_reportsTheRowOfEachViolationAndCountsAll() {
+        ContentValues[] rows = new ContentValues[ItemValidator.MAX_REPORTED_VIOLATIONS + 10];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = InventoryProviderTest.newItem("Item " + i, i % 2 == 0 ? 100 : -1, 1);
+        }
+
+        ItemValidator.Result result = ItemValidator.FOR_INSERT.validate(rows);
+        assertFalse(result.isValid());
+        assertEquals(rows.length / 2, result.getViolationCount());
+        assertEquals(1, result.getViolations().get(0).row);
+        assertEquals(3, result.getViolations().get(1).row);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void throwIfInvalid_throwsForTheFirstViolation() {
+        ItemValidator.FOR_INSERT.validate(new ContentValues()).throwIfInvalid();
+    }
+}
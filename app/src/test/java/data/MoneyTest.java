@@ -0,0 +1,75 @@
+package data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the {@link Money} helpers.
+ */
+public class MoneyTest {
+
+    @Test
+    public void parse_acceptsWholeAndDecimalAmounts() {
+        assertEquals(1200, Money.parse("12"));
+        assertEquals(1250, Money.parse("12.5"));
+        assertEquals(1205, Money.parse(" 12.05 "));
+        assertEquals(5, Money.parse(".05"));
+        assertEquals(1200, Money.parse("12."));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parse_rejectsTooManyDecimals() {
+        Money.parse("1.234");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parse_rejectsNegativeAmounts() {
+        Money.parse("-1");
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void parse_rejectsOverflow() {
+        Money.parse("99999999999999999999");
+    }
+
+    @Test
+    public void format_padsCents() {
+        assertEquals("0.00", Money.format(0));
+        assertEquals("0.05", Money.format(5));
+        assertEquals("12.34", Money.format(1234));
+        assertEquals("-12.34", Money.format(-1234));
+        assertEquals("-92233720368547758.08", Money.format(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void ofParts_normalizesLargeMinorAmounts() {
+        assertEquals(1350, Money.ofParts(12, 150));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void add_detectsOverflow() {
+        Money.add(Long.MAX_VALUE, 1);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void multiply_detectsOverflow() {
+        Money.multiply(Long.MAX_VALUE / 2, 3);
+    }
+
+    @Test
+    public void multiply_maxPriceByMaxQuantityFits() {
+        assertEquals(Money.MAX_PRICE * Integer.MAX_VALUE,
+                Money.multiply(Money.MAX_PRICE, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void isValidPrice_checksBounds() {
+        assertTrue(Money.isValidPrice(0));
+        assertTrue(Money.isValidPrice(Money.MAX_PRICE));
+        assertFalse(Money.isValidPrice(-1));
+        assertFalse(Money.isValidPrice(Money.MAX_PRICE + 1));
+    }
+}
@@ -0,0 +1,49 @@
+package data;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Time limits for the performance tests. A test that takes longer than its budget fails, so a
+ * change that makes inserting, querying or selling much slower breaks the build.
+ *
+ * The budgets are generous on purpose, they catch regressions like a lost index or a
+ * transaction per row, not small fluctuations. On a slow machine they can all be relaxed with
+ * {@code -Pinventory.perf.budgetScale=2}.
+ */
+final class PerformanceBudget {
+
+    private static final double SCALE =
+            Double.parseDouble(System.getProperty("inventory.perf.budgetScale", "1"));
+
+    private final String mOperation;
+    private final long mBudgetMillis;
+    private final long mStartNanos;
+
+    private PerformanceBudget(String operation, long budgetMillis) {
+        mOperation = operation;
+        mBudgetMillis = (long) (budgetMillis * SCALE);
+        mStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Start timing an operation that must finish within the given budget.
+     */
+    static PerformanceBudget start(String operation, long budgetMillis) {
+        return new PerformanceBudget(operation, budgetMillis);
+    }
+
+    /**
+     * Stop timing and fail the test if the operation took longer than its budget.
+     *
+     * @return the time the operation took, in milliseconds
+     */
+    long check() {
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartNanos);
+        if (elapsedMillis > mBudgetMillis) {
+            fail(mOperation + " took " + elapsedMillis + "ms, over its budget of " + mBudgetMillis + "ms");
+        }
+        return elapsedMillis;
+    }
+}
@@ -0,0 +1,101 @@
+package data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import data.InventoryContract.InventoryEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link PhotoStore}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PhotoStoreTest {
+
+    /**
+     * SHA-256 of "abc"
+     */
+    private static final String ABC_HASH = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private PhotoStore mStore;
+    private InventoryDbHelper mDbHelper;
+
+    @Before
+    public void setUp() throws IOException {
+        mStore = new PhotoStore(mFolder.newFolder("photos"));
+        mDbHelper = new InventoryDbHelper(RuntimeEnvironment.application);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void add_namesFileByContentHash() throws IOException {
+        String photo = add("abc");
+
+        assertEquals(ABC_HASH, photo);
+        assertTrue(mStore.contains(photo));
+        assertEquals(3, mStore.getFile(photo).length());
+    }
+
+    @Test
+    public void add_ofSameImageTwice_storesOneFile() throws IOException {
+        String first = add("abc");
+        String second = add("abc");
+
+        assertEquals(first, second);
+        assertEquals(1, mStore.getFile(first).getParentFile().listFiles().length);
+    }
+
+    @Test
+    public void isValidHash_rejectsPaths() {
+        assertTrue(PhotoStore.isValidHash(ABC_HASH));
+        assertFalse(PhotoStore.isValidHash("../../databases/inventory.db"));
+        assertFalse(PhotoStore.isValidHash(ABC_HASH.toUpperCase()));
+        assertFalse(PhotoStore.isValidHash(null));
+    }
+
+    @Test
+    public void deleteUnreferenced_keepsUsedAndRecentPhotos() throws IOException {
+        String used = add("used");
+        String unused = add("unused");
+        String recent = add("recent");
+        long old = System.currentTimeMillis() - 2 * PhotoStore.UNREFERENCED_GRACE_MILLIS;
+        mStore.getFile(used).setLastModified(old);
+        mStore.getFile(unused).setLastModified(old);
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ContentValues values = InventoryProviderTest.newItem("Coffee", 100, 1);
+        values.put(InventoryEntry.COLUMN_PHOTO, used);
+        database.insertOrThrow(InventoryEntry.TABLE_NAME, null, values);
+
+        assertEquals(1, mStore.deleteUnreferenced(database));
+        assertTrue(mStore.contains(used));
+        assertFalse(mStore.contains(unused));
+        assertTrue(mStore.contains(recent));
+    }
+
+    private String add(String content) throws IOException {
+        return mStore.add(new ByteArrayInputStream(content.getBytes("UTF-8")));
+    }
+}
@@ -0,0 +1,382 @@
+package data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import data.InventoryContract.AuditEntry;
+import data.InventoryContract.InventoryEntry;
+import data.InventoryContract.LocationEntry;
+import data.InventoryContract.OrderEntry;
+import data.InventoryContract.StocktakeEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Guards the query plans of the provider. Every query route is run against a large seeded
+ * inventory, the SQL it runs is captured from the read connections and explained, and the full
+ * scans, temporary B-trees and automatic indexes in the plan are compared to the baselines in
+ * {@code query_plans.txt}. A query that starts scanning a table or sorting in a temporary
+ * B-tree it didn't before fails the test, so a lost index is caught before it ships.
+ *
+ * After a deliberate change, the baselines are rewritten with
+ * {@code -Pinventory.queryPlans.record=src/test/resources/query_plans.txt}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class QueryPlanTest {
+
+    private static final String BASELINE_RESOURCE = "/query_plans.txt";
+
+    /**
+     * Number of items in the seeded inventory, enough for the plans to be the ones a store
+     * with a large catalog gets
+     */
+    private static final int ITEMS = 20000;
+
+    /**
+     * Routes of the provider that can't be queried, they are only updated or opened as files
+     */
+    private static final Set<String> NOT_QUERYABLE = new HashSet<>(Arrays.asList(
+            "ITEM_SALE", "LOCATION_ITEM_SALE", "ORDER_RECEIVE", "PHOTO"));
+
+    /**
+     * Steps of a plan that touch more rows than the query needs. The first group is the name
+     * of the scanned table or its alias in the query.
+     */
+    private static final Pattern SCAN = Pattern.compile("^SCAN (?:TABLE )?(\\S+)(?: AS (\\S+))?");
+    private static final Pattern TEMP_B_TREE = Pattern.compile("USE TEMP B-TREE FOR (.+)$");
+    private static final Pattern AUTOMATIC_INDEX = Pattern.compile("AUTOMATIC (?:COVERING |PARTIAL )*INDEX");
+
+    /**
+     * One query, named after its route and what makes it representative
+     */
+    private static final class Query {
+        final String name;
+        final Uri uri;
+        final String[] projection;
+        final String selection;
+        final String[] selectionArgs;
+        final String sortOrder;
+
+        Query(String name, Uri uri, String[] projection, String selection, String[] selectionArgs,
+              String sortOrder) {
+            this.name = name;
+            this.uri = uri;
+            this.projection = projection;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.sortOrder = sortOrder;
+        }
+
+        /**
+         * Return the route this query goes to, the part of the name before any variant
+         */
+        String route() {
+            int variant = name.indexOf(' ');
+            return variant == -1 ? name : name.substring(0, variant);
+        }
+    }
+
+    /**
+     * A provider whose read connections remember the SQL of the last query run on the test
+     * thread
+     */
+    public static class CapturingProvider extends InventoryProvider {
+
+        private final Thread mTestThread = Thread.currentThread();
+        private volatile String mLastSql;
+        private InventoryConnectionPool mPool;
+
+        @Override
+        InventoryConnectionPool createPool(Context context) {
+            mPool = new InventoryConnectionPool(new InventoryDbHelper(context),
+                    InventoryConnectionPool.defaultReaderCount(), new SQLiteDatabase.CursorFactory() {
+                @Override
+                public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable,
+                                        SQLiteQuery query) {
+                    // The warm-up and other background work query on their own threads
+                    if (Thread.currentThread() == mTestThread) {
+                        mLastSql = query.toString().replaceFirst("^SQLiteQuery: ", "");
+                    }
+                    return new SQLiteCursor(driver, editTable, query);
+                }
+            });
+            return mPool;
+        }
+    }
+
+    private CapturingProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(CapturingProvider.class, InventoryContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void everyQueryRoute_keepsItsBaselinePlan() throws IOException {
+        List<Query> queries = seedAndListQueries();
+        checkEveryRouteIsCovered(queries);
+
+        Map<String, Set<String>> plans = new LinkedHashMap<>();
+        Map<String, String> details = new LinkedHashMap<>();
+        for (Query query : queries) {
+            String sql = capture(query);
+            List<String> plan = explain(sql);
+            plans.put(query.name, flag(plan));
+            details.put(query.name, sql + "\n    " + plan);
+        }
+
+        String recordTo = System.getProperty("inventory.queryPlans.record");
+        if (recordTo != null) {
+            writeBaselines(recordTo, plans);
+            return;
+        }
+
+        Map<String, Set<String>> baselines = readBaselines();
+        StringBuilder regressions = new StringBuilder();
+        for (Map.Entry<String, Set<String>> entry : plans.entrySet()) {
+            Set<String> baseline = baselines.get(entry.getKey());
+            if (baseline == null) {
+                regressions.append("\n").append(entry.getKey()).append(" has no baseline, its plan uses ")
+                        .append(entry.getValue()).append(":\n    ").append(details.get(entry.getKey()));
+                continue;
+            }
+            Set<String> added = new TreeSet<>(entry.getValue());
+            added.removeAll(baseline);
+            if (!added.isEmpty()) {
+                regressions.append("\n").append(entry.getKey()).append(" now uses ").append(added)
+                        .append(":\n    ").append(details.get(entry.getKey()));
+            }
+        }
+        if (regressions.length() != 0) {
+            fail("Query plans got worse. If that's intended, record new baselines." + regressions);
+        }
+    }
+
+    /**
+     * Fill the inventory with many items and a bit of everything else, and return the
+     * queries to check, with arguments like the ones the app uses.
+     */
+    private List<Query> seedAndListQueries() {
+        new InventoryDataGenerator(42).insert(mResolver, ITEMS);
+        long itemId = ITEMS / 2;
+
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_NAME, "Front store");
+        long locationId = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI, location));
+        ContentValues stock = new ContentValues();
+        stock.put(InventoryEntry.COLUMN_QUANTITY, 1);
+        for (long id = 1; id <= ITEMS; id += 10) {
+            mResolver.update(LocationEntry.buildItemUri(locationId, id), stock, null, null);
+        }
+
+        ContentValues sale = new ContentValues();
+        sale.put(InventoryEntry.SALE_COUNT, 1);
+        for (long id = 1; id <= ITEMS; id += 7) {
+            mResolver.update(InventoryEntry.buildSaleUri(id), sale, null, null);
+        }
+        mResolver.call(OrderEntry.CONTENT_URI, InventoryContract.METHOD_CREATE_ORDERS, null, null);
+        long orderId = 1;
+
+        ContentValues[] counts = new ContentValues[ITEMS / 3];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new ContentValues();
+            counts[i].put(StocktakeEntry.COLUMN_ITEM_ID, 1 + 3 * i);
+            counts[i].put(StocktakeEntry.COLUMN_COUNTED, i % 5);
+        }
+        mResolver.bulkInsert(StocktakeEntry.CONTENT_URI, counts);
+
+        List<Query> queries = new ArrayList<>();
+        queries.add(new Query("ITEM", InventoryEntry.CONTENT_URI, CatalogSnapshot.COLUMNS, null, null, null));
+        queries.add(new Query("ITEM by_supplier", InventoryEntry.CONTENT_URI, CatalogSnapshot.COLUMNS,
+                InventoryEntry.COLUMN_SUPPLIER + " = ?", new String[]{"Orchards Inc"}, null));
+        queries.add(new Query("ITEM by_name", InventoryEntry.CONTENT_URI, CatalogSnapshot.COLUMNS, null, null,
+                InventoryEntry.SORT_BY_NAME));
+        queries.add(new Query("ITEM_ID", ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, itemId),
+                null, null, null, null));
+        queries.add(new Query("STOCK_VALUE", InventoryEntry.STOCK_VALUE_URI, null, null, null, null));
+        queries.add(new Query("ITEM_SECTIONS", InventoryEntry.SECTIONS_URI, null, null, null, null));
+        queries.add(new Query("REORDER", InventoryEntry.REORDER_URI, null, null, null, null));
+        long now = System.currentTimeMillis();
+        queries.add(new Query("ITEM_HISTORY", InventoryEntry.buildHistoryUri(itemId,
+                now - 7 * InventoryContract.HistoryEntry.RESOLUTION_DAY, now), null, null, null, null));
+        queries.add(new Query("LOCATION", LocationEntry.CONTENT_URI, null, null, null, null));
+        queries.add(new Query("LOCATION_ID", ContentUris.withAppendedId(LocationEntry.CONTENT_URI, locationId),
+                null, null, null, null));
+        queries.add(new Query("LOCATION_ITEM", LocationEntry.buildItemsUri(locationId), null, null, null, null));
+        queries.add(new Query("LOCATION_ITEM_ID", LocationEntry.buildItemUri(locationId, itemId),
+                null, null, null, null));
+        queries.add(new Query("ORDER", OrderEntry.CONTENT_URI, null, null, null, null));
+        queries.add(new Query("ORDER_ID", ContentUris.withAppendedId(OrderEntry.CONTENT_URI, orderId),
+                null, null, null, null));
+        queries.add(new Query("ORDER_LINES", OrderEntry.buildLinesUri(orderId), null, null, null, null));
+        queries.add(new Query("AUDIT", AuditEntry.CONTENT_URI, null, null, null, AuditEntry._ID));
+        queries.add(new Query("AUDIT by_item", AuditEntry.CONTENT_URI, null, AuditEntry.COLUMN_ITEM_ID + " = ?",
+                new String[]{String.valueOf(itemId)}, AuditEntry._ID));
+        queries.add(new Query("STOCKTAKE", StocktakeEntry.CONTENT_URI, null, null, null, null));
+        return queries;
+    }
+
+    /**
+     * Fail if a route of the provider has no query here and isn't known to be unqueryable.
+     * The routes are the matcher codes, the only int constants of the provider.
+     */
+    private static void checkEveryRouteIsCovered(List<Query> queries) {
+        Set<String> covered = new HashSet<>(NOT_QUERYABLE);
+        for (Query query : queries) {
+            covered.add(query.route());
+        }
+        for (Field field : InventoryProvider.class.getDeclaredFields()) {
+            if (field.getType() == int.class && Modifier.isStatic(field.getModifiers())
+                    && !covered.contains(field.getName())) {
+                fail("Route " + field.getName() + " has no query in " + QueryPlanTest.class.getSimpleName()
+                        + ", add one with representative arguments");
+            }
+        }
+    }
+
+    /**
+     * Run the query through the provider and return the SQL it ran.
+     */
+    private String capture(Query query) {
+        mProvider.mLastSql = null;
+        Cursor cursor = mResolver.query(query.uri, query.projection, query.selection, query.selectionArgs,
+                query.sortOrder);
+        assertNotNull(query.name, cursor);
+        cursor.close();
+        assertNotNull("No SQL captured for " + query.name, mProvider.mLastSql);
+        return mProvider.mLastSql;
+    }
+
+    /**
+     * Return the details of each step of the plan of the given SQL. Its arguments are left
+     * unbound, they don't change the plan.
+     */
+    private List<String> explain(String sql) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = mProvider.mPool.getWriter().rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    /**
+     * Return the steps of a plan that touch more rows than needed, in a form that is the same
+     * across SQLite versions: "SCAN table", "TEMP B-TREE FOR purpose" and "AUTOMATIC INDEX".
+     */
+    static Set<String> flag(List<String> plan) {
+        Set<String> flags = new TreeSet<>();
+        for (String step : plan) {
+            Matcher scan = SCAN.matcher(step);
+            // Reading the rows of a subquery isn't a scan of a table, older versions print
+            // "SCAN SUBQUERY 1" and newer ones "SCAN (subquery-1)"
+            if (scan.find() && !"CONSTANT".equals(scan.group(1)) && !"SUBQUERY".equals(scan.group(1))
+                    && !scan.group(1).startsWith("(subquery")) {
+                flags.add("SCAN " + (scan.group(2) != null ? scan.group(2) : scan.group(1)));
+            }
+            Matcher tempBTree = TEMP_B_TREE.matcher(step);
+            if (tempBTree.find()) {
+                flags.add("TEMP B-TREE FOR " + tempBTree.group(1));
+            }
+            if (AUTOMATIC_INDEX.matcher(step).find()) {
+                flags.add("AUTOMATIC INDEX");
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * Read the baselines: one line per query, its name, a colon and the allowed flags
+     * separated by commas. Blank lines and lines starting with # are ignored.
+     */
+    private static Map<String, Set<String>> readBaselines() throws IOException {
+        InputStream in = QueryPlanTest.class.getResourceAsStream(BASELINE_RESOURCE);
+        assertNotNull("Missing " + BASELINE_RESOURCE, in);
+        Map<String, Set<String>> baselines = new LinkedHashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int colon = line.indexOf(':');
+                assertEquals("Baseline line without a colon: " + line, true, colon > 0);
+                Set<String> flags = new TreeSet<>();
+                for (String flag : line.substring(colon + 1).split(",")) {
+                    if (!flag.trim().isEmpty()) {
+                        flags.add(flag.trim());
+                    }
+                }
+                baselines.put(line.substring(0, colon).trim(), flags);
+            }
+        } finally {
+            reader.close();
+        }
+        return baselines;
+    }
+
+    private static void writeBaselines(String path, Map<String, Set<String>> plans) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(path), "UTF-8");
+        try {
+            writer.write("# Full scans, temporary B-trees and automatic indexes each provider query may use.\n"
+                    + "# Checked by QueryPlanTest, recorded with -Pinventory.queryPlans.record=<this file>.\n\n");
+            for (Map.Entry<String, Set<String>> entry : plans.entrySet()) {
+                StringBuilder line = new StringBuilder(entry.getKey()).append(':');
+                String separator = " ";
+                for (String flag : entry.getValue()) {
+                    line.append(separator).append(flag);
+                    separator = ", ";
+                }
+                writer.write(line.append('\n').toString());
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import data.InventoryContract.InventoryEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link SaleQueue}, against a real {@link InventoryProvider}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SaleQueueTest {
+
+    /**
+     * Runs the drains only when the test says so, like a drain thread that falls behind
+     */
+    private static final class ManualExecutor implements Executor {
+        private final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.remove(0).run();
+            }
+        }
+    }
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private ContentResolver mResolver;
+    private File mDirectory;
+    private ManualExecutor mDrains;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(InventoryProvider.class, InventoryContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mDirectory = RuntimeEnvironment.application.getFilesDir();
+        mDrains = new ManualExecutor();
+    }
+
+    @Test
+    public void sell_isQueuedUntilDrainedInOneBatch() {
+        long coffee = insertItem("Coffee", 10);
+        SaleQueue queue = newQueue();
+
+        queue.sell(coffee, 1);
+        queue.sell(coffee, 2);
+        queue.sell(coffee, 1);
+        assertEquals(4, queue.getQueuedUnits(coffee));
+        assertEquals(10, queryQuantity(coffee));
+
+        mDrains.runAll();
+        assertEquals(0, queue.getQueuedUnits(coffee));
+        assertEquals(6, queryQuantity(coffee));
+    }
+
+    @Test
+    public void sales_leftInTheJournal_areAppliedAfterARestart() {
+        long coffee = insertItem("Coffee", 10);
+        SaleQueue killed = newQueue();
+        killed.sell(coffee, 3);
+        killed.sell(coffee, 1);
+
+        // The process died before the drain ran
+        SaleQueue restarted = newQueue();
+        assertEquals(4, restarted.getQueuedUnits(coffee));
+        restarted.drainLater();
+        mDrains.runAll();
+
+        assertEquals(6, queryQuantity(coffee));
+        assertEquals(0, restarted.getQueuedUnits(coffee));
+    }
+
+    @Test
+    public void sales_appliedBeforeTheJournalWasRewritten_areNotAppliedAgain() throws IOException {
+        long coffee = insertItem("Coffee", 10);
+        SaleQueue queue = newQueue();
+        queue.sell(coffee, 3);
+        File journal = new File(mDirectory, SaleQueue.JOURNAL_NAME);
+        byte[] beforeDrain = readFile(journal);
+        mDrains.runAll();
+        assertEquals(7, queryQuantity(coffee));
+
+        // The process died after the provider applied the batch, but before the journal was
+        // rewritten, so the sale is read back from it
+        writeFile(journal, beforeDrain);
+        SaleQueue restarted = newQueue();
+        restarted.drainLater();
+        mDrains.runAll();
+        assertEquals(7, queryQuantity(coffee));
+
+        // New sales are numbered after the ones applied
+        restarted.sell(coffee, 2);
+        mDrains.runAll();
+        assertEquals(5, queryQuantity(coffee));
+    }
+
+    @Test
+    public void sales_afterTheJournalWasLost_areNumberedAfterTheAppliedOnes() {
+        long coffee = insertItem("Coffee", 10);
+        SaleQueue queue = newQueue();
+        queue.sell(coffee, 1);
+        queue.sell(coffee, 1);
+        mDrains.runAll();
+        assertEquals(8, queryQuantity(coffee));
+
+        // The journal is gone, e.g. the database was restored from a backup without it
+        assertTrue(new File(mDirectory, SaleQueue.JOURNAL_NAME).delete());
+        SaleQueue restarted = newQueue();
+        restarted.sell(coffee, 3);
+        mDrains.runAll();
+
+        assertEquals(5, queryQuantity(coffee));
+        assertEquals(0, restarted.getQueuedUnits(coffee));
+    }
+
+    @Test
+    public void journal_endingInAPartialLine_dropsOnlyThatLine() throws IOException {
+        long coffee = insertItem("Coffee", 10);
+        File journal = new File(mDirectory, SaleQueue.JOURNAL_NAME);
+        writeFile(journal, ("1 " + coffee + " 2\n2 " + coffee + " 1").getBytes("UTF-8"));
+
+        SaleQueue queue = newQueue();
+        assertEquals(2, queue.getQueuedUnits(coffee));
+        queue.sell(coffee, 1);
+        mDrains.runAll();
+
+        assertEquals(7, queryQuantity(coffee));
+    }
+
+    @Test
+    public void queue_callsTheProviderOnlyOnTheDrainThread() {
+        long coffee = insertItem("Coffee", 10);
+        SaleQueue killed = newQueue();
+        killed.sell(coffee, 3);
+
+        // Like the catalog on a cold start, with the drain thread not run yet
+        Bundle before = queryStats();
+        SaleQueue restarted = newQueue();
+        restarted.drainLater();
+        assertEquals(3, restarted.getQueuedUnits(coffee));
+        restarted.sell(coffee, 1);
+        Bundle after = queryStats();
+        assertEquals(before.getLong(InventoryContract.STATS_READS), after.getLong(InventoryContract.STATS_READS));
+        assertEquals(before.getLong(InventoryContract.STATS_WRITES), after.getLong(InventoryContract.STATS_WRITES));
+
+        mDrains.runAll();
+        assertEquals(6, queryQuantity(coffee));
+        assertEquals(0, restarted.getQueuedUnits(coffee));
+    }
+
+    @Test
+    public void appliedSequence_isReadWithoutAWrite() {
+        Bundle before = queryStats();
+        Bundle result = mResolver.call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_APPLY_SALES, null, null);
+        Bundle after = queryStats();
+
+        assertEquals(0, result.getLong(InventoryContract.EXTRA_SEQUENCE));
+        assertEquals(before.getLong(InventoryContract.STATS_WRITES), after.getLong(InventoryContract.STATS_WRITES));
+    }
+
+    private SaleQueue newQueue() {
+        return new SaleQueue(mResolver, mDirectory, mDrains, DIRECT);
+    }
+
+    private long insertItem(String name, int quantity) {
+        Uri uri = mResolver.insert(InventoryEntry.CONTENT_URI, InventoryProviderTest.newItem(name, 100, quantity));
+        return ContentUris.parseId(uri);
+    }
+
+    private int queryQuantity(long id) {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, id),
+                new String[]{InventoryEntry.COLUMN_QUANTITY}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Bundle queryStats() {
+        return mResolver.call(InventoryEntry.CONTENT_URI, InventoryContract.METHOD_CONNECTION_STATS, null, null);
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] contents = new byte[(int) file.length()];
+            int read = 0;
+            while (read < contents.length) {
+                read += in.read(contents, read, contents.length - read);
+            }
+            return contents;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeFile(File file, byte[] contents) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(contents);
+        } finally {
+            out.close();
+        }
+    }
+}
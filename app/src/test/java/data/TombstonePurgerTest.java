@@ -0,0 +1,72 @@
+package data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import data.InventoryContract.InventoryEntry;
+import data.InventoryContract.StockEntry;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link TombstonePurger}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TombstonePurgerTest {
+
+    private InventoryConnectionPool mPool;
+
+    @Before
+    public void setUp() {
+        mPool = new InventoryConnectionPool(new InventoryDbHelper(RuntimeEnvironment.application), 2);
+    }
+
+    @After
+    public void tearDown() {
+        mPool.close();
+    }
+
+    @Test
+    public void purge_removesItemsDeletedBeforeTheGivenTimeAndTheirStock() {
+        insertItem("Coffee", null);
+        insertItem("Tea", 1000L);
+        insertItem("Juice", 3000L);
+
+        assertEquals(1, TombstonePurger.purge(mPool, 2000));
+
+        SQLiteDatabase database = mPool.getWriter();
+        assertEquals(2, DatabaseUtils.queryNumEntries(database, InventoryEntry.TABLE_NAME));
+        assertEquals(2, DatabaseUtils.queryNumEntries(database, StockEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void purge_ofMoreThanOneChunk_removesAll() {
+        for (int i = 0; i < TombstonePurger.CHUNK_SIZE + 10; i++) {
+            insertItem("Item " + i, 1000L);
+        }
+
+        assertEquals(TombstonePurger.CHUNK_SIZE + 10, TombstonePurger.purge(mPool, Long.MAX_VALUE));
+        assertEquals(0, DatabaseUtils.queryNumEntries(mPool.getWriter(), InventoryEntry.TABLE_NAME));
+    }
+
+    private void insertItem(String name, Long deletedAt) {
+        SQLiteDatabase database = mPool.beginWrite();
+        try {
+            ContentValues values = InventoryProviderTest.newItem(name, 100, 1);
+            values.put(InventoryEntry.COLUMN_DELETED_AT, deletedAt);
+            long id = database.insertOrThrow(InventoryEntry.TABLE_NAME, null, values);
+            StockRollup.insertForNewItem(database, id, 1);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+}